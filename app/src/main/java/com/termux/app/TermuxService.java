@@ -26,6 +26,8 @@ import com.termux.shared.termux.plugins.TermuxPluginUtils;
 import com.termux.shared.data.IntentUtils;
 import com.termux.shared.net.uri.UriUtils;
 import com.termux.shared.errors.Errno;
+import com.termux.shared.errors.Error;
+import com.termux.shared.file.FileUtils;
 import com.termux.shared.shell.ShellUtils;
 import com.termux.shared.shell.command.runner.app.AppShell;
 import com.termux.shared.termux.settings.properties.TermuxAppSharedProperties;
@@ -49,6 +51,7 @@ import com.termux.terminal.TerminalEmulator;
 import com.termux.terminal.TerminalSession;
 import com.termux.terminal.TerminalSessionClient;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -117,6 +120,9 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
 
         mShellManager = TermuxShellManager.getShellManager();
 
+        // Delete transcript stores left behind if the app was killed
+        clearTerminalTranscriptStores();
+
         runStartForeground();
 
         SystemEventReceiver.registerPackageUpdateEvents(this);
@@ -175,6 +181,8 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
         if (!mWantsToStop)
             killAllTermuxExecutionCommands();
 
+        clearTerminalTranscriptStores();
+
         TermuxShellManager.onAppExit(this);
 
         SystemEventReceiver.unregisterPackageUpdateEvents(this);
@@ -605,6 +613,13 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
             return null;
         }
 
+        // Must be set before the session is attached to a view, which starts terminal emulation
+        newTermuxSession.getTerminalSession().setUseParserThread(mProperties.shouldUseTerminalParserThread());
+        newTermuxSession.getTerminalSession().setAdaptiveInputQueue(mProperties.shouldUseTerminalAdaptiveInputQueue());
+        int terminalDiskTranscriptRows = mProperties.getTerminalDiskTranscriptRows();
+        if (terminalDiskTranscriptRows > 0)
+            newTermuxSession.getTerminalSession().setTranscriptStore(getTerminalTranscriptStoresDirectory(), terminalDiskTranscriptRows);
+
         mShellManager.mTermuxSessions.add(newTermuxSession);
 
         // Remove the execution command from the pending plugin execution commands list since it has
@@ -648,6 +663,7 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
                 TermuxPluginUtils.processPluginExecutionCommandResult(this, LOG_TAG, executionCommand);
 
             mShellManager.mTermuxSessions.remove(termuxSession);
+            termuxSession.getTerminalSession().closeTranscriptStore();
 
             // Notify {@link TermuxSessionsListViewController} that sessions list has been updated if
             // activity in is foreground
@@ -662,6 +678,18 @@ public final class TermuxService extends Service implements AppShell.AppShellCli
 
 
 
+    /** Get the directory in which sessions store the transcript rows which no longer fit in memory. */
+    private File getTerminalTranscriptStoresDirectory() {
+        return new File(getCacheDir(), "terminal-transcripts");
+    }
+
+    /** Delete the transcript rows stored by all sessions. */
+    private void clearTerminalTranscriptStores() {
+        Error error = FileUtils.deleteFile("terminal transcript stores directory", getTerminalTranscriptStoresDirectory().getAbsolutePath(), true);
+        if (error != null)
+            Logger.logErrorExtended(LOG_TAG, error.toString());
+    }
+
     private ShellCreateMode processShellCreateMode(@NonNull ExecutionCommand executionCommand) {
         if (ShellCreateMode.ALWAYS.equalsMode(executionCommand.shellCreateMode))
             return ShellCreateMode.ALWAYS; // Default
@@ -34,6 +34,7 @@ import com.termux.app.models.UserAction;
 import com.termux.app.terminal.io.KeyboardShortcut;
 import com.termux.shared.termux.settings.properties.TermuxPropertyConstants;
 import com.termux.shared.data.DataUtils;
+import com.termux.shared.data.TextTailBuffer;
 import com.termux.shared.logger.Logger;
 import com.termux.shared.markdown.MarkdownUtils;
 import com.termux.shared.termux.TermuxUtils;
@@ -44,6 +45,7 @@ import com.termux.terminal.KeyHandler;
 import com.termux.terminal.TerminalEmulator;
 import com.termux.terminal.TerminalSession;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -675,11 +677,16 @@ public class TermuxTerminalViewClient extends TermuxTerminalViewClientBase {
         TerminalSession session = mActivity.getCurrentSession();
         if (session == null) return;
 
-        String transcriptText = ShellUtils.getTerminalSessionTranscriptText(session, false, true);
-        if (transcriptText == null) return;
-
         // See https://github.com/termux/termux-app/issues/1166.
-        transcriptText = DataUtils.getTruncatedCommandOutput(transcriptText, DataUtils.TRANSACTION_SIZE_LIMIT_IN_BYTES, false, true, false).trim();
+        // Only the end of the transcript that will be shared is kept while it is written.
+        TextTailBuffer transcriptTail = new TextTailBuffer(DataUtils.TRANSACTION_SIZE_LIMIT_IN_BYTES);
+        try {
+            if (!ShellUtils.writeTerminalSessionTranscriptText(session, false, transcriptTail)) return;
+        } catch (IOException e) {
+            return;
+        }
+
+        String transcriptText = DataUtils.getTruncatedCommandOutput(transcriptTail.toString(), DataUtils.TRANSACTION_SIZE_LIMIT_IN_BYTES, false, true, false).trim();
         ShareUtils.shareText(mActivity, mActivity.getString(R.string.title_share_transcript),
             transcriptText, mActivity.getString(R.string.title_share_transcript_with));
     }
@@ -730,8 +737,13 @@ public class TermuxTerminalViewClient extends TermuxTerminalViewClientBase {
         TerminalSession session = mActivity.getCurrentSession();
         if (session == null) return;
 
-        final String transcriptText = ShellUtils.getTerminalSessionTranscriptText(session, false, true);
-        if (transcriptText == null) return;
+        // Written to a builder instead of a string to append it to the report without copying it again.
+        final StringBuilder transcriptText = new StringBuilder();
+        try {
+            if (!ShellUtils.writeTerminalSessionTranscriptText(session, false, transcriptText)) return;
+        } catch (IOException e) {
+            return;
+        }
 
         MessageDialogUtils.showMessage(mActivity, TermuxConstants.TERMUX_APP_NAME + " Report Issue",
             mActivity.getString(R.string.msg_add_termux_debug_info),
@@ -740,18 +752,20 @@ public class TermuxTerminalViewClient extends TermuxTerminalViewClientBase {
             null);
     }
 
-    private void reportIssueFromTranscript(String transcriptText, boolean addTermuxDebugInfo) {
+    private void reportIssueFromTranscript(CharSequence transcriptText, boolean addTermuxDebugInfo) {
         Logger.showToast(mActivity, mActivity.getString(R.string.msg_generating_report), true);
 
         new Thread() {
             @Override
             public void run() {
-                StringBuilder reportString = new StringBuilder();
+                // Make room for the transcript and the info after it, so that growing the builder does not copy the transcript.
+                StringBuilder reportString = new StringBuilder(transcriptText.length() + 16 * 1024);
 
                 String title = TermuxConstants.TERMUX_APP_NAME + " Report Issue";
 
                 reportString.append("## Transcript\n");
-                reportString.append("\n").append(MarkdownUtils.getMarkdownCodeForString(transcriptText, true));
+                reportString.append("\n");
+                MarkdownUtils.appendMarkdownCodeBlock(reportString, transcriptText);
                 reportString.append("\n##\n");
 
                 if (addTermuxDebugInfo) {
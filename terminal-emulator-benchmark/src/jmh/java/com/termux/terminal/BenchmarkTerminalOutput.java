@@ -0,0 +1,66 @@
+package com.termux.terminal;
+
+/**
+ * A {@link TerminalOutput} and {@link TerminalEmulatorClient} which discards everything, so that the benchmarks measure
+ * the emulator alone. Used as client so that nothing is logged to standard error.
+ */
+public final class BenchmarkTerminalOutput extends TerminalOutput implements TerminalEmulatorClient {
+
+    @Override
+    public void write(byte[] data, int offset, int count) {
+    }
+
+    @Override
+    public void titleChanged(String oldTitle, String newTitle) {
+    }
+
+    @Override
+    public void onCopyTextToClipboard(String text) {
+    }
+
+    @Override
+    public void onPasteTextFromClipboard() {
+    }
+
+    @Override
+    public void onBell() {
+    }
+
+    @Override
+    public void onColorsChanged() {
+    }
+
+    @Override
+    public Integer getTerminalCursorStyle() {
+        return null;
+    }
+
+    @Override
+    public void logError(String tag, String message) {
+    }
+
+    @Override
+    public void logWarn(String tag, String message) {
+    }
+
+    @Override
+    public void logInfo(String tag, String message) {
+    }
+
+    @Override
+    public void logDebug(String tag, String message) {
+    }
+
+    @Override
+    public void logVerbose(String tag, String message) {
+    }
+
+    @Override
+    public void logStackTraceWithMessage(String tag, String message, Exception e) {
+    }
+
+    @Override
+    public void logStackTrace(String tag, Exception e) {
+    }
+
+}
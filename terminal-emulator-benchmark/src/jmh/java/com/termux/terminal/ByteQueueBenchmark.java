@@ -0,0 +1,121 @@
+package com.termux.terminal;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the queue between the pty reader thread and the thread running the emulator, comparing the
+ * synchronized {@link ByteQueue} with the lock-free {@link SpscByteQueue}.
+ * <p>
+ * One operation is the transfer of {@link #TRANSFER_SIZE} bytes from a producer thread, writing chunks of
+ * {@link #chunkSize} bytes like the pty reader does, to the benchmark thread doing blocking reads into a 4 KiB buffer.
+ * The "megabytes" secondary result is the transfer rate in MB/s.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ByteQueueBenchmark {
+
+    static final int TRANSFER_SIZE = 16 * 1024 * 1024;
+
+    public enum Implementation {
+        BYTE_QUEUE,
+        SPSC_BYTE_QUEUE
+    }
+
+    /** The common operations of the compared queues. */
+    private interface Queue {
+        boolean write(byte[] buffer, int offset, int length);
+
+        int read(byte[] buffer, boolean block);
+    }
+
+    @Param
+    public Implementation implementation;
+
+    /** Size of the writes, where small writes are typical for interactive programs and 4096 for bulk output. */
+    @Param({"64", "4096"})
+    public int chunkSize;
+
+    private final byte[] mReadBuffer = new byte[4096];
+
+    /** Counts the transferred bytes, reported by JMH as a rate next to the primary result. */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class TransferredBytes {
+        public double megabytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            megabytes = 0;
+        }
+    }
+
+    private Queue createQueue() {
+        switch (implementation) {
+            case BYTE_QUEUE: {
+                final ByteQueue queue = new ByteQueue(4096);
+                return new Queue() {
+                    @Override
+                    public boolean write(byte[] buffer, int offset, int length) {
+                        return queue.write(buffer, offset, length);
+                    }
+
+                    @Override
+                    public int read(byte[] buffer, boolean block) {
+                        return queue.read(buffer, block);
+                    }
+                };
+            }
+            case SPSC_BYTE_QUEUE: {
+                final SpscByteQueue queue = new SpscByteQueue(4096);
+                return new Queue() {
+                    @Override
+                    public boolean write(byte[] buffer, int offset, int length) {
+                        return queue.write(buffer, offset, length);
+                    }
+
+                    @Override
+                    public int read(byte[] buffer, boolean block) {
+                        return queue.read(buffer, block);
+                    }
+                };
+            }
+            default:
+                throw new IllegalArgumentException("Unknown implementation: " + implementation);
+        }
+    }
+
+    @Benchmark
+    public int transfer(TransferredBytes transferredBytes) throws InterruptedException {
+        final Queue queue = createQueue();
+        final int chunkSize = this.chunkSize;
+        Thread producer = new Thread("ByteQueueBenchmarkProducer") {
+            @Override
+            public void run() {
+                byte[] chunk = new byte[chunkSize];
+                for (int written = 0; written < TRANSFER_SIZE; written += chunkSize)
+                    queue.write(chunk, 0, chunkSize);
+            }
+        };
+        producer.start();
+
+        int read = 0;
+        while (read < TRANSFER_SIZE)
+            read += queue.read(mReadBuffer, true);
+        producer.join();
+        transferredBytes.megabytes += TRANSFER_SIZE / 1_000_000.0;
+        return read;
+    }
+
+}
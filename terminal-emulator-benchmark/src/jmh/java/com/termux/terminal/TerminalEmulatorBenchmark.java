@@ -0,0 +1,89 @@
+package com.termux.terminal;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of {@link TerminalEmulator#append(byte[], int)} for the canned {@link TerminalWorkloads}, fed in the same
+ * 4 KiB chunks as read from the pty by TerminalSession.
+ * <p>
+ * One operation is the processing of a whole workload. The "megabytes" secondary result is the parse throughput in
+ * MB/s, and "gc.alloc.rate.norm" from the gc profiler is the number of bytes allocated per operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TerminalEmulatorBenchmark {
+
+    @Param
+    public TerminalWorkloads.Workload workload;
+
+    @Param({"2000"})
+    public int transcriptRows;
+
+    private byte[][] mChunks;
+    private int mWorkloadLength;
+    private TerminalEmulator mEmulator;
+    private final TerminalScreenSnapshot mSnapshot = new TerminalScreenSnapshot();
+
+    /** Counts the processed bytes, reported by JMH as a rate next to the primary result. */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class ParsedBytes {
+        public double megabytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            megabytes = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void generateWorkload() {
+        byte[] bytes = TerminalWorkloads.generate(workload);
+        mWorkloadLength = bytes.length;
+        mChunks = TerminalWorkloads.split(bytes, TerminalWorkloads.CHUNK_SIZE);
+    }
+
+    @Setup(Level.Iteration)
+    public void createEmulator() {
+        BenchmarkTerminalOutput output = new BenchmarkTerminalOutput();
+        mEmulator = new TerminalEmulator(output, 80, 24, 12, 24, transcriptRows, output);
+    }
+
+    @Benchmark
+    public TerminalEmulator append(ParsedBytes parsedBytes) {
+        final TerminalEmulator emulator = mEmulator;
+        for (byte[] chunk : mChunks)
+            emulator.append(chunk, chunk.length);
+        parsedBytes.megabytes += mWorkloadLength / 1_000_000.0;
+        return emulator;
+    }
+
+    /**
+     * Like {@link #append(ParsedBytes)}, but taking a {@link TerminalScreenSnapshot} after each chunk like the view does
+     * for each frame drawn.
+     */
+    @Benchmark
+    public TerminalScreenSnapshot appendAndSnapshot(ParsedBytes parsedBytes) {
+        final TerminalEmulator emulator = mEmulator;
+        final TerminalScreenSnapshot snapshot = mSnapshot;
+        for (byte[] chunk : mChunks) {
+            emulator.append(chunk, chunk.length);
+            snapshot.copyFrom(emulator, 0);
+        }
+        parsedBytes.megabytes += mWorkloadLength / 1_000_000.0;
+        return snapshot;
+    }
+
+}
@@ -0,0 +1,345 @@
+package com.termux.terminal;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Canned terminal output replayed by the benchmarks. The workloads are generated from a fixed seed, so that every run
+ * feeds exactly the same bytes to the emulator.
+ */
+public final class TerminalWorkloads {
+
+    /** Approximate size in bytes of a generated workload. */
+    static final int WORKLOAD_SIZE = 256 * 1024;
+
+    /** The size of the chunks which TerminalSession reads from the pty and feeds to the emulator. */
+    static final int CHUNK_SIZE = 4096;
+
+    public enum Workload {
+        /** Plain ASCII text, like running cat on a source file. */
+        ASCII_CAT,
+        /** Colorized log lines with many SGR sequences, like the gateway or npm logs. */
+        SGR_LOG,
+        /** CJK and emoji text consisting mostly of wide characters and surrogate pairs. */
+        WIDE_CHARS,
+        /** Text with combining marks attached to most base characters. */
+        COMBINING,
+        /** Cursor addressing and scrolling inside a scroll region with a fixed status line, like vim. */
+        CURSOR_ADDRESSING,
+        /** Full screen redraws on the alternate screen, like htop or other TUIs. */
+        ALT_SCREEN_TUI,
+        /** Screen, line and rectangle erases between partial redraws, like htop refreshing its meters and process list. */
+        ERASE_HEAVY_TUI,
+        /** Inserting and deleting lines and characters in text with some wide characters, like editing in vim. */
+        EDITOR_INSERT_DELETE,
+        /** Log output scrolling in a region above a status line, with blank lines and scroll up sequences, like tmux. */
+        STATUS_LINE_SCROLL
+    }
+
+    private static final String WORDS = "the gateway session agent openclaw channel telegram discord message received " +
+        "sending reply token model anthropic openai request response tool call result error retry timeout connected " +
+        "npm install added packages audited found vulnerabilities node_modules resolve dependency warn deprecated";
+
+    private static final String[] WORD_LIST = WORDS.split(" ");
+
+    private static final int[] CJK_AND_EMOJI = {
+        '中', '文', '字', '符', '終', '端', '模', '拟', '器', '测', '试', 'の', 'ン', 'ア', '한', '국', '어',
+        0x1F600, 0x1F680, 0x1F44D, 0x1F525, 0x2705, 0x1F916, 0x1F4E6, 0x1F389
+    };
+
+    private static final int[] COMBINING_MARKS = {0x0301, 0x0308, 0x0323, 0x0327, 0x030A, 0x0303};
+
+    private static final int[] DEVANAGARI_WITH_SIGNS = {0x0915, 0x093F, 0x0928, 0x094D, 0x0926, 0x0940, 0x0939, 0x0941};
+
+    private TerminalWorkloads() {
+    }
+
+    /** Generate the bytes for a workload, as UTF-8 output with "\r\n" line endings as written by a pty. */
+    public static byte[] generate(Workload workload) {
+        Random random = new Random(workload.ordinal() + 4711);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(WORKLOAD_SIZE + 4096);
+        StringBuilder builder = new StringBuilder();
+        int frame = 0;
+        while (out.size() < WORKLOAD_SIZE) {
+            builder.setLength(0);
+            switch (workload) {
+                case ASCII_CAT:
+                    appendAsciiLine(builder, random);
+                    break;
+                case SGR_LOG:
+                    appendSgrLogLine(builder, random, frame);
+                    break;
+                case WIDE_CHARS:
+                    appendWideCharLine(builder, random);
+                    break;
+                case COMBINING:
+                    appendCombiningLine(builder, random);
+                    break;
+                case CURSOR_ADDRESSING:
+                    appendCursorAddressingFrame(builder, random, frame);
+                    break;
+                case ALT_SCREEN_TUI:
+                    appendAltScreenFrame(builder, random, frame);
+                    break;
+                case ERASE_HEAVY_TUI:
+                    appendEraseHeavyFrame(builder, random, frame);
+                    break;
+                case EDITOR_INSERT_DELETE:
+                    appendInsertDeleteFrame(builder, random, frame);
+                    break;
+                case STATUS_LINE_SCROLL:
+                    appendStatusLineScrollFrame(builder, random, frame);
+                    break;
+            }
+            frame++;
+            byte[] bytes = builder.toString().getBytes(StandardCharsets.UTF_8);
+            out.write(bytes, 0, bytes.length);
+        }
+        return out.toByteArray();
+    }
+
+    /** Split a workload into the chunks fed to {@link TerminalEmulator#append(byte[], int)}. */
+    public static byte[][] split(byte[] workload, int chunkSize) {
+        byte[][] chunks = new byte[(workload.length + chunkSize - 1) / chunkSize][];
+        for (int i = 0; i < chunks.length; i++) {
+            int start = i * chunkSize;
+            int length = Math.min(chunkSize, workload.length - start);
+            chunks[i] = new byte[length];
+            System.arraycopy(workload, start, chunks[i], 0, length);
+        }
+        return chunks;
+    }
+
+    private static void appendWords(StringBuilder builder, Random random, int minLength, int maxLength) {
+        int length = minLength + random.nextInt(maxLength - minLength + 1);
+        int start = builder.length();
+        while (builder.length() - start < length) {
+            if (builder.length() > start) builder.append(' ');
+            builder.append(WORD_LIST[random.nextInt(WORD_LIST.length)]);
+        }
+    }
+
+    private static void appendAsciiLine(StringBuilder builder, Random random) {
+        int indent = random.nextInt(4) * 4;
+        for (int i = 0; i < indent; i++) builder.append(' ');
+        // Some lines are longer than the screen, to exercise autowrap.
+        appendWords(builder, random, 0, random.nextInt(10) == 0 ? 200 : 72);
+        if (random.nextBoolean()) builder.append(';');
+        builder.append("\r\n");
+    }
+
+    private static void appendSgrLogLine(StringBuilder builder, Random random, int line) {
+        builder.append("\033[2m2026-10-16T12:")
+            .append(String.format("%02d:%02d.%03d", (line / 60) % 60, line % 60, random.nextInt(1000)))
+            .append("Z\033[0m ");
+        switch (random.nextInt(4)) {
+            case 0: builder.append("\033[1;31mERROR\033[0m "); break;
+            case 1: builder.append("\033[33mWARN\033[39m "); break;
+            default: builder.append("\033[32mINFO\033[39m "); break;
+        }
+        builder.append("\033[38;5;").append(17 + random.nextInt(214)).append("m[gateway]\033[39m ");
+        appendWords(builder, random, 10, 40);
+        builder.append(" \033[38;2;").append(random.nextInt(256)).append(';').append(random.nextInt(256)).append(';')
+            .append(random.nextInt(256)).append("m").append(random.nextInt(100000)).append("ms\033[0m");
+        if (random.nextInt(3) == 0) {
+            builder.append(" \033[4;36mhttps://example.com/").append(WORD_LIST[random.nextInt(WORD_LIST.length)]).append("\033[24;39m");
+        }
+        builder.append("\r\n");
+    }
+
+    private static void appendWideCharLine(StringBuilder builder, Random random) {
+        int codePoints = 10 + random.nextInt(60);
+        for (int i = 0; i < codePoints; i++) {
+            if (random.nextInt(5) == 0) {
+                builder.append(WORD_LIST[random.nextInt(WORD_LIST.length)]).append(' ');
+            } else {
+                builder.appendCodePoint(CJK_AND_EMOJI[random.nextInt(CJK_AND_EMOJI.length)]);
+            }
+        }
+        builder.append("\r\n");
+    }
+
+    private static void appendCombiningLine(StringBuilder builder, Random random) {
+        int characters = 10 + random.nextInt(60);
+        for (int i = 0; i < characters; i++) {
+            if (random.nextInt(4) == 0) {
+                for (int codePoint : DEVANAGARI_WITH_SIGNS) builder.appendCodePoint(codePoint);
+            } else {
+                builder.append((char) ('a' + random.nextInt(26)));
+                int marks = random.nextInt(3);
+                for (int j = 0; j < marks; j++)
+                    builder.appendCodePoint(COMBINING_MARKS[random.nextInt(COMBINING_MARKS.length)]);
+            }
+            if (random.nextInt(8) == 0) builder.append(' ');
+        }
+        builder.append("\r\n");
+    }
+
+    /** An editor on a 80x24 screen: edits on random lines, scrolling in the region above the status line. */
+    private static void appendCursorAddressingFrame(StringBuilder builder, Random random, int frame) {
+        if (frame == 0) builder.append("\033[?1049h\033[H\033[2J");
+        // Scroll region excluding the status line.
+        builder.append("\033[1;23r");
+        switch (random.nextInt(4)) {
+            case 0:
+                // Scroll down a few lines by line feeds at the bottom of the region.
+                builder.append("\033[23;1H");
+                for (int i = 0, lines = 1 + random.nextInt(5); i < lines; i++) {
+                    builder.append("\n\r\033[K");
+                    appendWords(builder, random, 10, 70);
+                }
+                break;
+            case 1:
+                // Scroll up using reverse index at the top of the region.
+                builder.append("\033[1;1H\033M\033[K");
+                appendWords(builder, random, 10, 70);
+                break;
+            default:
+                // Edit some lines in place.
+                for (int i = 0, edits = 1 + random.nextInt(4); i < edits; i++) {
+                    builder.append("\033[").append(1 + random.nextInt(23)).append(';').append(1 + random.nextInt(40)).append('H');
+                    if (random.nextBoolean()) builder.append("\033[K");
+                    builder.append("\033[3").append(1 + random.nextInt(6)).append('m');
+                    appendWords(builder, random, 1, 30);
+                    builder.append("\033[m");
+                }
+                break;
+        }
+        // Redraw the status line outside of the scroll region and restore the cursor.
+        builder.append("\033[r\0337\033[24;1H\033[7m\"benchmark.txt\" ").append(frame).append("L, ")
+            .append(frame * 57).append("B\033[K\033[m\0338");
+    }
+
+    /** A TUI redrawing a 80x24 screen with box drawing and colored meters. */
+    private static void appendAltScreenFrame(StringBuilder builder, Random random, int frame) {
+        builder.append("\033[?1049h\033[?25l\033[H\033[2J");
+        // Top meters.
+        for (int row = 1; row <= 4; row++) {
+            int value = random.nextInt(60);
+            builder.append("\033[").append(row).append(";1H\033[1;36m").append(row).append("\033[0m[\033[32m");
+            for (int i = 0; i < value; i++) builder.append('|');
+            builder.append("\033[").append(row).append(";70H\033[0m").append(value).append(".0%]");
+        }
+        // A box using the DEC special graphics character set.
+        builder.append("\033[6;1H\033(0l");
+        for (int i = 0; i < 78; i++) builder.append('q');
+        builder.append('k');
+        for (int row = 7; row < 22; row++) {
+            builder.append("\033[").append(row).append(";1Hx\033[").append(row).append(";80Hx");
+        }
+        builder.append("\033[22;1Hm");
+        for (int i = 0; i < 78; i++) builder.append('q');
+        builder.append("j\033(B");
+        // Process list.
+        for (int row = 7; row < 22; row++) {
+            builder.append("\033[").append(row).append(";2H");
+            if (row == 7) builder.append("\033[30;42m");
+            builder.append(String.format("%6d %-8s %5.1f %5.1f ", 1000 + random.nextInt(9000), "u0_a" + random.nextInt(300),
+                random.nextFloat() * 100, random.nextFloat() * 100));
+            appendWords(builder, random, 10, 40);
+            builder.append("\033[K\033[m");
+        }
+        builder.append("\033[24;1H\033[30;46mF1\033[0mHelp \033[30;46mF10\033[0mQuit ").append(frame);
+        if (frame % 16 == 15) builder.append("\033[?25h\033[?1049l");
+    }
+
+    /** A TUI on a 80x24 screen clearing and redrawing parts of it with erases in display, in line and of characters. */
+    private static void appendEraseHeavyFrame(StringBuilder builder, Random random, int frame) {
+        if (frame == 0) builder.append("\033[?1049h\033[?25l");
+        // Every few frames the whole screen is cleared, else only the meters and the process list.
+        if (frame % 8 == 0) builder.append("\033[H\033[2J");
+        for (int row = 1; row <= 4; row++) {
+            int value = random.nextInt(60);
+            builder.append("\033[").append(row).append(";1H\033[2K\033[1;36m").append(row).append("\033[0m[\033[32m");
+            for (int i = 0; i < value; i++) builder.append('|');
+            // Erase the rest of the meter instead of writing spaces.
+            builder.append("\033[").append(60 - value).append("X\033[").append(row).append(";70H\033[0m").append(value).append(".0%]");
+        }
+        // Clear the process list below the header with erase below, and then a rectangle of it with DECERA.
+        builder.append("\033[6;1H\033[J\033[7;1;22;80$z");
+        for (int row = 6; row < 22; row++) {
+            builder.append("\033[").append(row).append(";1H");
+            if (row == 6) builder.append("\033[30;42m");
+            builder.append(String.format("%6d %-8s %5.1f ", 1000 + random.nextInt(9000), "u0_a" + random.nextInt(300),
+                random.nextFloat() * 100));
+            appendWords(builder, random, 10, 50);
+            builder.append("\033[K\033[m");
+        }
+        // Fill a highlighted rectangle with DECFRA and erase the bottom line with erase above on the line before it.
+        builder.append("\033[1;44m\033[32;").append(7 + random.nextInt(14)).append(";2;").append(22).append(";79$x\033[m");
+        builder.append("\033[23;80H\033[1K\033[24;1H\033[2K\033[30;46mF1\033[0mHelp \033[30;46mF10\033[0mQuit ").append(frame);
+    }
+
+    /** An editor on a 80x24 screen opening and closing lines and inserting and deleting characters in them. */
+    private static void appendInsertDeleteFrame(StringBuilder builder, Random random, int frame) {
+        if (frame == 0) {
+            builder.append("\033[?1049h\033[H\033[2J");
+            for (int row = 1; row <= 23; row++) {
+                builder.append("\033[").append(row).append(";1H");
+                appendInsertDeleteLine(builder, random);
+            }
+        }
+        int row = 1 + random.nextInt(23);
+        switch (random.nextInt(4)) {
+            case 0:
+                // Open a line, moving the lines below down within the scroll region above the status line.
+                builder.append("\033[1;23r\033[").append(row).append(";1H\033[L");
+                appendInsertDeleteLine(builder, random);
+                builder.append("\033[r");
+                break;
+            case 1:
+                // Delete some lines, moving the lines below up, and redraw the lines exposed at the bottom.
+                int lines = 1 + random.nextInt(3);
+                builder.append("\033[1;23r\033[").append(row).append(";1H\033[").append(lines).append('M');
+                for (int i = 0; i < lines; i++) {
+                    builder.append("\033[").append(23 - i).append(";1H");
+                    appendInsertDeleteLine(builder, random);
+                }
+                builder.append("\033[r");
+                break;
+            default:
+                // Type or delete characters in the middle of a line.
+                builder.append("\033[").append(row).append(';').append(1 + random.nextInt(60)).append('H');
+                for (int i = 0, edits = 1 + random.nextInt(6); i < edits; i++) {
+                    if (random.nextBoolean()) {
+                        builder.append("\033[@").append((char) ('a' + random.nextInt(26)));
+                    } else {
+                        builder.append("\033[P");
+                    }
+                }
+                break;
+        }
+        builder.append("\0337\033[24;1H\033[7m-- INSERT -- ").append(frame).append("\033[K\033[m\0338");
+    }
+
+    /** A line of source text, with a CJK comment on some lines, ended by an erase to the end of the line. */
+    private static void appendInsertDeleteLine(StringBuilder builder, Random random) {
+        int indent = random.nextInt(4) * 4;
+        for (int i = 0; i < indent; i++) builder.append(' ');
+        appendWords(builder, random, 5, 40);
+        if (random.nextInt(4) == 0) {
+            builder.append(" // ");
+            for (int i = 0, codePoints = 2 + random.nextInt(8); i < codePoints; i++)
+                builder.appendCodePoint(CJK_AND_EMOJI[random.nextInt(CJK_AND_EMOJI.length)]);
+        }
+        builder.append("\033[K");
+    }
+
+    /** Log lines on a 80x24 screen scrolling in the region above a status line, which is redrawn now and then. */
+    private static void appendStatusLineScrollFrame(StringBuilder builder, Random random, int frame) {
+        if (frame == 0) builder.append("\033[H\033[2J\033[1;23r\033[23;1H");
+        for (int i = 0, lines = 1 + random.nextInt(8); i < lines; i++) {
+            builder.append("\033[32m[").append(frame).append(':').append(i).append("]\033[m ");
+            appendWords(builder, random, 10, 70);
+            builder.append("\r\n");
+            // Blank lines between entries, and sometimes a scroll up of several lines at once.
+            if (random.nextInt(4) == 0) builder.append("\r\n\r\n");
+            if (random.nextInt(16) == 0) builder.append("\033[").append(2 + random.nextInt(10)).append('S');
+        }
+        if (frame % 4 == 0) {
+            builder.append("\0337\033[24;1H\033[7m[0] bash  ").append(frame).append(" \033[K\033[m\0338");
+        }
+    }
+
+}
@@ -0,0 +1,66 @@
+package com.termux.terminal;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Time of {@link TerminalBuffer#find(Pattern, int, int, boolean, int[])} through a full transcript of
+ * {@link #transcriptRows} rows, for a query not found in it so that every row is searched.
+ * <p>
+ * The transcript is indexed by the first search of a trial, so {@link #find()} measures searching the index, while
+ * {@link #appendAndFind()} also appends a chunk of output before each search, which the search has to index first.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class TranscriptSearchBenchmark {
+
+    @Param({"50000"})
+    public int transcriptRows;
+
+    @Param({"LITERAL", "REGEX"})
+    public String query;
+
+    private TerminalEmulator mEmulator;
+    private Pattern mPattern;
+    private byte[] mChunk;
+    private final int[] mMatch = new int[4];
+
+    @Setup(Level.Trial)
+    public void fillTranscript() {
+        BenchmarkTerminalOutput output = new BenchmarkTerminalOutput();
+        mEmulator = new TerminalEmulator(output, 80, 24, 12, 24, transcriptRows, output);
+        byte[][] chunks = TerminalWorkloads.split(TerminalWorkloads.generate(TerminalWorkloads.Workload.ASCII_CAT), TerminalWorkloads.CHUNK_SIZE);
+        while (mEmulator.getScreen().getActiveTranscriptRows() < transcriptRows - 24) {
+            for (byte[] chunk : chunks)
+                mEmulator.append(chunk, chunk.length);
+        }
+        mPattern = query.equals("LITERAL") ? Pattern.compile("not in the transcript", Pattern.LITERAL) : Pattern.compile("[0-9]{3}-[0-9]{4}");
+        mChunk = "a line of output, 80 columns or less like most of the lines in a transcript\r\n".repeat(40).getBytes(StandardCharsets.UTF_8);
+        find();
+    }
+
+    @Benchmark
+    public boolean find() {
+        final TerminalBuffer screen = mEmulator.getScreen();
+        return screen.find(mPattern, 0, screen.mScreenRows, true, mMatch);
+    }
+
+    @Benchmark
+    public boolean appendAndFind() {
+        mEmulator.append(mChunk, mChunk.length);
+        return find();
+    }
+
+}
@@ -0,0 +1,79 @@
+package com.termux.terminal;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of a {@link WcWidth} lookup, comparing the table lookup of {@link WcWidth#width(int)} with the interval table
+ * binary searches of {@link WcWidth#computeWidth(int)} it is generated from. The result is the average time per code
+ * point.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class WcWidthBenchmark {
+
+    static final int CODE_POINT_COUNT = 4096;
+
+    public enum Text {
+        /** Printable ASCII, the common case. */
+        ASCII,
+        /** Mostly CJK ideographs with some ASCII, like a file listing with Chinese names. */
+        CJK,
+        /** A mix of accented latin, combining marks, box drawing and emoji. */
+        MIXED
+    }
+
+    @Param
+    public Text text;
+
+    private final int[] mCodePoints = new int[CODE_POINT_COUNT];
+
+    @Setup
+    public void generateCodePoints() {
+        Random random = new Random(0);
+        int[] mixed = {'e', 0x00E9, 0x0301, 0x2500, 0x2502, 0x1F600, 0x1F468, 0x200D, 0xFE0F, 0x0416, 0x05D0};
+        for (int i = 0; i < CODE_POINT_COUNT; i++) {
+            switch (text) {
+                case ASCII:
+                    mCodePoints[i] = 0x20 + random.nextInt(0x5F);
+                    break;
+                case CJK:
+                    mCodePoints[i] = random.nextInt(4) == 0 ? 0x20 + random.nextInt(0x5F) : 0x4E00 + random.nextInt(0x5000);
+                    break;
+                case MIXED:
+                    mCodePoints[i] = mixed[random.nextInt(mixed.length)];
+                    break;
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CODE_POINT_COUNT)
+    public int lookupTable() {
+        int sum = 0;
+        for (int codePoint : mCodePoints)
+            sum += WcWidth.width(codePoint);
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CODE_POINT_COUNT)
+    public int intervalSearch() {
+        int sum = 0;
+        for (int codePoint : mCodePoints)
+            sum += WcWidth.computeWidth(codePoint);
+        return sum;
+    }
+
+}
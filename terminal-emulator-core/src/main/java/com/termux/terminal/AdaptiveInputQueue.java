@@ -0,0 +1,42 @@
+package com.termux.terminal;
+
+/**
+ * When the queue of output from a process is resized in adaptive mode, see
+ * {@code TerminalSession#setAdaptiveInputQueue(boolean)}. The queue is replaced by one twice the size when it fills up
+ * again within {@link #GROW_INTERVAL_NANOS}, up to {@link #MAX_SIZE}, and by one of the initial size again after no
+ * output for {@link #IDLE_NANOS}.
+ * <p>
+ * The times are {@link System#nanoTime()} values passed by the caller, so that the timing can be tested without waiting.
+ */
+final class AdaptiveInputQueue {
+
+    /** The largest size an input queue is grown to. */
+    static final int MAX_SIZE = 64 * 1024;
+    /** An input queue is grown if it fills up again within this time after it last did. */
+    static final long GROW_INTERVAL_NANOS = 1_000_000_000L;
+    /** A grown input queue is shrunk to its initial size after no output has been read for this long. */
+    static final long IDLE_NANOS = 5_000_000_000L;
+
+    private AdaptiveInputQueue() {
+    }
+
+    /**
+     * Get the size to replace a queue with which has become full.
+     *
+     * @param size         the size of the full queue.
+     * @param wasFull      if the queue has been full before now.
+     * @param lastFullTime when the queue last was full before now, if it has been.
+     * @param now          when the queue has become full.
+     * @return the size to grow the queue to, or {@code size} if it should not be grown.
+     */
+    static int getGrownSize(int size, boolean wasFull, long lastFullTime, long now) {
+        if (size >= MAX_SIZE || !wasFull || now - lastFullTime > GROW_INTERVAL_NANOS) return size;
+        return Math.min(2 * size, MAX_SIZE);
+    }
+
+    /** If a grown queue should be shrunk as no output has been read into it since {@code lastInputTime}. */
+    static boolean isIdle(long lastInputTime, long now) {
+        return now - lastInputTime >= IDLE_NANOS;
+    }
+
+}
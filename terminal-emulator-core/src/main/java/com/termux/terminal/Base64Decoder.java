@@ -0,0 +1,48 @@
+package com.termux.terminal;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Decodes base64 as sent by programs setting the clipboard with OSC 52, without depending on android.util.Base64 or on
+ * java.util.Base64, which is not available on older android versions.
+ * <p>
+ * Like android.util.Base64 with default flags, chars outside the base64 alphabet such as line breaks are skipped and the
+ * padding at the end may be left out.
+ */
+final class Base64Decoder {
+
+    private Base64Decoder() {
+    }
+
+    /** Decode base64 text, throwing an {@link IllegalArgumentException} if it ends with a single dangling char. */
+    static byte[] decode(String text) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(text.length() * 3 / 4);
+        int bits = 0, bitCount = 0, chars = 0;
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            if (c == '=') break;
+            final int value = getValue(c);
+            if (value < 0) continue;
+            bits = (bits << 6) | value;
+            bitCount += 6;
+            chars++;
+            if (bitCount >= 8) {
+                bitCount -= 8;
+                bytes.write(bits >> bitCount);
+                bits &= (1 << bitCount) - 1;
+            }
+        }
+        if (chars % 4 == 1) throw new IllegalArgumentException("Bad base64: " + text);
+        return bytes.toByteArray();
+    }
+
+    private static int getValue(char c) {
+        if (c >= 'A' && c <= 'Z') return c - 'A';
+        if (c >= 'a' && c <= 'z') return c - 'a' + 26;
+        if (c >= '0' && c <= '9') return c - '0' + 52;
+        if (c == '+') return 62;
+        if (c == '/') return 63;
+        return -1;
+    }
+
+}
@@ -0,0 +1,133 @@
+package com.termux.terminal;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * Logs messages to the client of the terminal, or to the default {@link TerminalLogger} for the platform if there is
+ * none, which writes to standard error unless the platform sets another with {@link #setDefaultLogger(TerminalLogger)}.
+ */
+public class Logger {
+
+    private static volatile TerminalLogger sDefaultLogger = new StandardErrorLogger();
+
+    /** Set the logger receiving the messages logged without a client, like the android log on android. */
+    public static void setDefaultLogger(TerminalLogger logger) {
+        sDefaultLogger = logger;
+    }
+
+    public static void logError(TerminalLogger client, String logTag, String message) {
+        if (client != null)
+            client.logError(logTag, message);
+        else
+            sDefaultLogger.logError(logTag, message);
+    }
+
+    public static void logWarn(TerminalLogger client, String logTag, String message) {
+        if (client != null)
+            client.logWarn(logTag, message);
+        else
+            sDefaultLogger.logWarn(logTag, message);
+    }
+
+    public static void logInfo(TerminalLogger client, String logTag, String message) {
+        if (client != null)
+            client.logInfo(logTag, message);
+        else
+            sDefaultLogger.logInfo(logTag, message);
+    }
+
+    public static void logDebug(TerminalLogger client, String logTag, String message) {
+        if (client != null)
+            client.logDebug(logTag, message);
+        else
+            sDefaultLogger.logDebug(logTag, message);
+    }
+
+    public static void logVerbose(TerminalLogger client, String logTag, String message) {
+        if (client != null)
+            client.logVerbose(logTag, message);
+        else
+            sDefaultLogger.logVerbose(logTag, message);
+    }
+
+    public static void logStackTraceWithMessage(TerminalLogger client, String tag, String message, Throwable throwable) {
+        logError(client, tag, getMessageAndStackTraceString(message, throwable));
+    }
+
+    public static String getMessageAndStackTraceString(String message, Throwable throwable) {
+        if (message == null && throwable == null)
+            return null;
+        else if (message != null && throwable != null)
+            return message + ":\n" + getStackTraceString(throwable);
+        else if (throwable == null)
+            return message;
+        else
+            return getStackTraceString(throwable);
+    }
+
+    public static String getStackTraceString(Throwable throwable) {
+        if (throwable == null) return null;
+
+        String stackTraceString = null;
+
+        try {
+            StringWriter errors = new StringWriter();
+            PrintWriter pw = new PrintWriter(errors);
+            throwable.printStackTrace(pw);
+            pw.close();
+            stackTraceString = errors.toString();
+            errors.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        return stackTraceString;
+    }
+
+    /** The default logger, writing each message to standard error with its level and tag like logcat does. */
+    private static final class StandardErrorLogger implements TerminalLogger {
+
+        private static void log(char level, String tag, String message) {
+            System.err.println(level + "/" + tag + ": " + message);
+        }
+
+        @Override
+        public void logError(String tag, String message) {
+            log('E', tag, message);
+        }
+
+        @Override
+        public void logWarn(String tag, String message) {
+            log('W', tag, message);
+        }
+
+        @Override
+        public void logInfo(String tag, String message) {
+            log('I', tag, message);
+        }
+
+        @Override
+        public void logDebug(String tag, String message) {
+            log('D', tag, message);
+        }
+
+        @Override
+        public void logVerbose(String tag, String message) {
+            log('V', tag, message);
+        }
+
+        @Override
+        public void logStackTraceWithMessage(String tag, String message, Exception e) {
+            logError(tag, getMessageAndStackTraceString(message, e));
+        }
+
+        @Override
+        public void logStackTrace(String tag, Exception e) {
+            logStackTraceWithMessage(tag, null, e);
+        }
+
+    }
+
+}
@@ -0,0 +1,231 @@
+package com.termux.terminal;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A lock-free circular byte buffer for exactly one producer thread and one consumer thread, with the same semantics as
+ * {@link ByteQueue}.
+ * <p/>
+ * The producer only advances {@link #mTail} and the consumer only advances {@link #mHead}, so no locking is needed
+ * to move bytes. A thread only parks when the queue is actually empty (reader) or full (writer), after announcing
+ * itself in {@link #mWaitingReader} or {@link #mWaitingWriter} so that the other side knows to unpark it. The
+ * unparking side clears the field, so that further writes or reads do not pay for an unpark until the parked thread
+ * has run and announced itself again.
+ * <p/>
+ * Besides copying bytes with {@link #read(byte[], boolean)} and {@link #write(byte[], int, int)}, the bytes can be
+ * read and written in place through {@link #getReadableRegion(boolean)} and {@link #getWritableRegion()}, e.g. by
+ * native code reading from a pty straight into a queue kept in a direct buffer.
+ * <p/>
+ * The producer may continue writing to another queue, e.g. one of a different size, through
+ * {@link #handOver(SpscByteQueue)}. The consumer finds it through {@link #getSuccessor()} once it has read the bytes
+ * left in this queue.
+ */
+final class SpscByteQueue {
+
+    private final ByteBuffer mBuffer;
+    /** Views of {@link #mBuffer} with a position and limit only changed by the consumer or the producer thread. */
+    private final ByteBuffer mReadView, mWriteView;
+    /** Total number of bytes read. Only written by the consumer. */
+    private volatile long mHead;
+    /** Total number of bytes written. Only written by the producer. */
+    private volatile long mTail;
+    private volatile boolean mOpen = true;
+    /** If the producer has stopped writing, see {@link #finish()}. */
+    private volatile boolean mFinished;
+    private volatile Thread mWaitingReader;
+    private volatile Thread mWaitingWriter;
+    /** The queue written to instead of this one, see {@link #handOver(SpscByteQueue)}. */
+    private volatile SpscByteQueue mSuccessor;
+
+    public SpscByteQueue(int size) {
+        this(size, false);
+    }
+
+    /** @param direct if the bytes should be kept in a direct buffer, for use by native code through the regions. */
+    public SpscByteQueue(int size, boolean direct) {
+        if (size <= 0) throw new IllegalArgumentException("size <= 0");
+        mBuffer = direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+        mReadView = mBuffer.duplicate();
+        mWriteView = mBuffer.duplicate();
+    }
+
+    /** Close the queue and the queue it has been handed over to, waking up a blocked reader or writer. */
+    public void close() {
+        mOpen = false;
+        LockSupport.unpark(mWaitingReader);
+        LockSupport.unpark(mWaitingWriter);
+        SpscByteQueue successor = mSuccessor;
+        if (successor != null) successor.close();
+    }
+
+    /** The size of the buffer, which is the most bytes the queue can hold. */
+    public int getCapacity() {
+        return mBuffer.capacity();
+    }
+
+    /**
+     * Continue writing to another, empty queue. Once the consumer has read the bytes left in this queue,
+     * {@link #getReadableRegion(boolean)} returns an empty region without blocking and it continues reading from
+     * {@link #getSuccessor()}. Must only be called from the producer thread, which must only write to the successor
+     * afterwards.
+     */
+    public void handOver(SpscByteQueue successor) {
+        mSuccessor = successor;
+        // Closing sets mOpen before checking mSuccessor, so either it closes the successor or we see that it is closed.
+        if (!mOpen) successor.close();
+        LockSupport.unpark(mWaitingReader);
+    }
+
+    /** The queue this one has been handed over to, or null. Must only be called from the consumer thread. */
+    public SpscByteQueue getSuccessor() {
+        return mSuccessor;
+    }
+
+    /**
+     * Stop writing, after which the reader gets the bytes left in the queue and then -1 or null as if it was closed.
+     * Must only be called from the producer thread.
+     */
+    public void finish() {
+        mFinished = true;
+        LockSupport.unpark(mWaitingReader);
+    }
+
+    /**
+     * Read available bytes into the provided buffer. Must only be called from the consumer thread.
+     *
+     * @param block if the call should block while the queue is empty
+     * @return the number of bytes read, 0 if the queue is empty and block is false or it has been handed over, or -1
+     * if the queue is closed or finished and empty
+     */
+    public int read(byte[] buffer, boolean block) {
+        ByteBuffer region = getReadableRegion(block);
+        if (region == null) return -1;
+
+        int bytesRead = 0;
+        // Two regions if the bytes wrap around to the start of the buffer.
+        while (bytesRead < buffer.length && region.hasRemaining()) {
+            final int bytesToRead = Math.min(buffer.length - bytesRead, region.remaining());
+            region.get(buffer, bytesRead, bytesToRead);
+            commitRead(bytesToRead);
+            bytesRead += bytesToRead;
+            if ((region = getReadableRegion(false)) == null) break;
+        }
+        return bytesRead;
+    }
+
+    /**
+     * Get the available bytes up to the end of the buffer, where they wrap around to its start, for reading them in
+     * place. Must only be called from the consumer thread, which then calls {@link #commitRead(int)} with the number
+     * of bytes it is done with.
+     *
+     * @param block if the call should block while the queue is empty and has not been handed over
+     * @return a buffer with the bytes from its position to its limit, which has no bytes remaining if the queue is
+     * empty and block is false or it has been handed over, or null if the queue is closed or finished and empty
+     */
+    public ByteBuffer getReadableRegion(boolean block) {
+        final long head = mHead;
+        long tail;
+        while ((tail = mTail) == head && mOpen && !mFinished && mSuccessor == null) {
+            if (!block) break;
+            mWaitingReader = Thread.currentThread();
+            // Check again after announcing ourselves, since the writer may have written in the meantime and then
+            // missed that we are about to park.
+            if (mTail == head && mOpen && !mFinished && mSuccessor == null) park();
+            mWaitingReader = null;
+        }
+        if (!mOpen) return null;
+        // The last bytes may have been written after reading the tail and before the queue was finished or handed over.
+        if (tail == head && (mFinished || mSuccessor != null)) {
+            tail = mTail;
+            if (tail == head && mFinished) return null;
+        }
+
+        final int bufferLength = mBuffer.capacity();
+        final int start = (int) (head % bufferLength);
+        mReadView.limit(start + (int) Math.min(tail - head, bufferLength - start)).position(start);
+        return mReadView;
+    }
+
+    /** Remove bytes read in place from the queue, see {@link #getReadableRegion(boolean)}. */
+    public void commitRead(int length) {
+        mHead += length;
+        Thread writer = mWaitingWriter;
+        if (writer != null) {
+            mWaitingWriter = null;
+            LockSupport.unpark(writer);
+        }
+    }
+
+    /**
+     * Attempt to write the specified portion of the provided buffer to the queue, blocking while it is full. Must only
+     * be called from the producer thread.
+     * <p/>
+     * Returns whether the output was totally written, false if it was closed before.
+     */
+    public boolean write(byte[] buffer, int offset, int lengthToWrite) {
+        if (lengthToWrite + offset > buffer.length) {
+            throw new IllegalArgumentException("length + offset > buffer.length");
+        } else if (lengthToWrite <= 0) {
+            throw new IllegalArgumentException("length <= 0");
+        }
+
+        final int bufferLength = mBuffer.capacity();
+        while (lengthToWrite > 0) {
+            while (mTail - mHead == bufferLength && mOpen) {
+                mWaitingWriter = Thread.currentThread();
+                if (mTail - mHead == bufferLength && mOpen) park();
+                mWaitingWriter = null;
+            }
+            if (!mOpen) return false;
+
+            final ByteBuffer region = getWritableRegion();
+            final int bytesToWrite = Math.min(lengthToWrite, region.remaining());
+            region.put(buffer, offset, bytesToWrite);
+            offset += bytesToWrite;
+            lengthToWrite -= bytesToWrite;
+            commitWrite(bytesToWrite);
+        }
+        return true;
+    }
+
+    /**
+     * Get the free space up to the end of the buffer, where it wraps around to its start, for writing bytes in place.
+     * It has room for at least one byte if the queue is not full. Must only be called from the producer thread, which
+     * then calls {@link #commitWrite(int)} with the number of bytes it has written.
+     *
+     * @return a buffer with the free space from its position to its limit
+     */
+    public ByteBuffer getWritableRegion() {
+        final long tail = mTail;
+        final int bufferLength = mBuffer.capacity();
+        final int start = (int) (tail % bufferLength);
+        mWriteView.limit(start + (int) Math.min(bufferLength - (tail - mHead), bufferLength - start)).position(start);
+        return mWriteView;
+    }
+
+    /** Add bytes written in place to the queue, see {@link #getWritableRegion()}. */
+    public void commitWrite(int length) {
+        mTail += length;
+        Thread reader = mWaitingReader;
+        if (reader != null) {
+            mWaitingReader = null;
+            LockSupport.unpark(reader);
+        }
+    }
+
+    /**
+     * Get the number of bytes which can be written without blocking. Must only be called from the producer thread, for
+     * which it can only grow until it writes, so that a producer which must not block can write at most this many.
+     */
+    public int getWritableBytes() {
+        return mBuffer.capacity() - (int) (mTail - mHead);
+    }
+
+    private void park() {
+        LockSupport.park(this);
+        // Ignore interrupts like ByteQueue does, but clear the flag so that parking does not turn into spinning.
+        Thread.interrupted();
+    }
+
+}
@@ -0,0 +1,1090 @@
+package com.termux.terminal;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+/**
+ * A circular buffer of {@link TerminalRow}:s which keeps notes about what is visible on a logical screen and the scroll
+ * history.
+ * <p>
+ * See {@link #externalToInternalRow(int)} for how to map from logical screen rows to array indices.
+ * <p>
+ * Transcript rows more than {@link #UNPACKED_TRANSCRIPT_ROWS} rows above the screen are packed into a
+ * {@link TranscriptArena}, leaving their slot in {@link #mLines} null. They are unpacked again on access by
+ * {@link #allocateFullLineIfNecessary(int)}, and the last {@link #MAX_UNPACKED_PACKED_ROWS} of them are kept unpacked
+ * so that scrolling through the transcript does not unpack the same rows for every frame.
+ * <p>
+ * Slots of {@link #mLines} are only given a row once used, and rows no longer used, such as the ones packed or the old
+ * ones after a resize, are released to a {@link TerminalRowPool} to be reused for the next rows needed.
+ * <p>
+ * If a {@link TranscriptStore} has been set by {@link #setTranscriptStore(TranscriptStore)}, rows which fall out of the
+ * ring buffer are appended to it, and remain part of the transcript as the rows above row -mActiveTranscriptRows.
+ * Those rows are only accessible through {@link #getLine(int)} and the text getters.
+ * <p>
+ * A resize which changes the number of columns only reflows the rows needed to fill the screen up front. The rest of
+ * the transcript is left to a {@link TranscriptReflow} and prepended above the transcript rows as it is reflowed by
+ * {@link #reflowTranscript(int)}, which leaves the external rows of the rows already reflowed unchanged. Until then,
+ * {@link #getActiveTranscriptRows()} only counts the rows reflowed.
+ * <p>
+ * The screen rows changed since the last call to {@link #clearDirtyRows()} are marked as dirty, see
+ * {@link #isRowDirty(int)}, so that a renderer which keeps what it drew for each row only has to redraw those.
+ * <p>
+ * The transcript and screen rows can be searched by {@link #find(Pattern, int, int, boolean, int[])}, which keeps the
+ * text of the rows in a {@link TranscriptSearchIndex} brought up to date by every search. The transcript rows can be
+ * indexed ahead of a search in steps by {@link #indexTranscript(int)}, and the index dropped by
+ * {@link #clearSearchIndex()} once done searching. The matches in the rows shown are found by
+ * {@link #findAll(Pattern, int, int, int[])} from the text of those rows only.
+ * <p>
+ * The text getters build a string of the whole range of rows, while {@link #writeTranscriptText(Appendable, boolean,
+ * boolean)} and {@link #writeSelectedText(Appendable, int, int, int, int, boolean, boolean)} write the text row by row,
+ * so that a large transcript can be exported without holding all of its text in memory.
+ */
+public final class TerminalBuffer {
+
+    /** The number of transcript rows closest to the screen which are never packed. */
+    static final int UNPACKED_TRANSCRIPT_ROWS = 200;
+    /** The max number of packed rows kept unpacked after being accessed. */
+    private static final int MAX_UNPACKED_PACKED_ROWS = 128;
+    /** The number of rows reflowed ahead of a row scrolled to by {@link #reflowTranscriptAbove(int)}. */
+    private static final int REFLOW_AHEAD_ROWS = 500;
+
+    TerminalRow[] mLines;
+    /** The length of {@link #mLines}. */
+    int mTotalRows;
+    /** The number of rows and columns visible on the screen. */
+    int mScreenRows, mColumns;
+    /** The number of rows kept in history. */
+    private int mActiveTranscriptRows = 0;
+    /** The index in the circular buffer where the visible screen starts. */
+    private int mScreenFirstRow = 0;
+
+    /** The arena holding the packed transcript rows, created when the first row is packed. */
+    private TranscriptArena mArena;
+    /** The handle in {@link #mArena} of the packed row at each index of {@link #mLines}, or {@link TranscriptArena#NO_ROW}. */
+    private long[] mPackedRows;
+    /** The indices of the packed rows which have been unpacked on access, as a circular buffer. */
+    private int[] mUnpackedPackedRows;
+    /** The index in {@link #mUnpackedPackedRows} of the next packed row unpacked on access. */
+    private int mNextUnpackedPackedRow;
+    /** The pool to get new rows from, and release rows no longer used to. */
+    private final TerminalRowPool mRowPool;
+
+    /** See {@link #setTranscriptStore(TranscriptStore)}. */
+    private TranscriptStore mTranscriptStore;
+    /** A row read from {@link #mTranscriptStore}, and its index in the store, or -1 if it may be reused. */
+    private TerminalRow mStoredLine;
+    private int mStoredLineIndex = -1;
+
+    /** The rows left to reflow after a resize which changed the number of columns, or null if none. */
+    private TranscriptReflow mReflow;
+
+    /** The rows being moved by {@link #rotateLines(int, int, int)}, kept to not allocate an array for every scroll. */
+    private TerminalRow[] mRotatedLines;
+
+    /** If each screen row is dirty, see {@link #isRowDirty(int)}. */
+    private boolean[] mDirtyRows;
+    /** See {@link #getDirtyScrolledRows()}. */
+    private int mDirtyScrolledRows;
+
+    /**
+     * The number of rows which have scrolled off the screen into the transcript, less the rows moved back onto the
+     * screen by resizing, which is the absolute row of the first screen row in {@link #mSearchIndex}.
+     */
+    private long mScrolledOffRows;
+    /** The text of the rows for {@link #find(Pattern, int, int, boolean, int[])}, or null if not indexed. */
+    private TranscriptSearchIndex mSearchIndex;
+    /** The text of the rows for {@link #findAll(Pattern, int, int, int[])}, indexed again by every call. */
+    private TranscriptSearchIndex mRowsSearchIndex;
+    /** The start and end offsets of the matches found in {@link #mSearchIndex}. */
+    private long[] mSearchMatches = new long[2];
+
+    /**
+     * Create a transcript screen.
+     *
+     * @param columns    the width of the screen in characters.
+     * @param totalRows  the height of the entire text area, in rows of text.
+     * @param screenRows the height of just the screen, not including the transcript that holds lines that have scrolled off
+     *                   the top of the screen.
+     */
+    public TerminalBuffer(int columns, int totalRows, int screenRows) {
+        this(columns, totalRows, screenRows, new TerminalRowPool());
+    }
+
+    /** Create a transcript screen which shares a pool of rows, see {@link #TerminalBuffer(int, int, int)}. */
+    TerminalBuffer(int columns, int totalRows, int screenRows, TerminalRowPool rowPool) {
+        mRowPool = rowPool;
+        mColumns = columns;
+        mTotalRows = totalRows;
+        mScreenRows = screenRows;
+        mLines = new TerminalRow[totalRows];
+        mDirtyRows = new boolean[screenRows];
+
+        blockSet(0, 0, columns, screenRows, ' ', TextStyle.NORMAL);
+    }
+
+    public String getTranscriptText() {
+        return getTranscriptText(true, false);
+    }
+
+    public String getTranscriptTextWithoutJoinedLines() {
+        return getTranscriptText(false, false);
+    }
+
+    public String getTranscriptTextWithFullLinesJoined() {
+        return getTranscriptText(true, true);
+    }
+
+    private String getTranscriptText(boolean joinBackLines, boolean joinFullLines) {
+        final StringBuilder builder = new StringBuilder();
+        try {
+            writeTranscriptText(builder, joinBackLines, joinFullLines);
+        } catch (IOException e) {
+            // A StringBuilder does not throw.
+            throw new AssertionError(e);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Write the text of the whole transcript and screen, trimmed of leading and trailing whitespace like the text
+     * returned by {@link #getTranscriptText()} and the other transcript text getters, to an {@link Appendable} such as
+     * a {@link Writer} or {@link StringBuilder}. The text is written row by row, with at most the whitespace between
+     * two rows held back to trim it if it turns out to be trailing.
+     *
+     * @param joinBackLines if rows wrapped onto the next row are joined with it, see {@link #getSelectedText(int, int,
+     *                      int, int, boolean, boolean)}.
+     * @param joinFullLines if rows filling the whole width are joined with the next row.
+     */
+    public void writeTranscriptText(Appendable out, boolean joinBackLines, boolean joinFullLines) throws IOException {
+        reflowTranscript(Integer.MAX_VALUE);
+        final TrimmingWriter writer = new TrimmingWriter(out);
+        writeSelectedText(writer, 0, -getActiveTranscriptRows(), mColumns, mScreenRows, joinBackLines, joinFullLines);
+    }
+
+    /**
+     * Write the text of the whole transcript and screen encoded as UTF-8 to a channel, like
+     * {@link #writeTranscriptText(Appendable, boolean, boolean)}, through a buffer of a fixed size. The channel is
+     * left open. Unpaired surrogates in the rows are replaced like {@link String#getBytes(java.nio.charset.Charset)}
+     * does, rather than failing the export.
+     */
+    public void writeTranscriptText(WritableByteChannel channel, boolean joinBackLines, boolean joinFullLines) throws IOException {
+        final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        final Writer writer = Channels.newWriter(channel, encoder, 8192);
+        writeTranscriptText(writer, joinBackLines, joinFullLines);
+        writer.flush();
+    }
+
+    public String getSelectedText(int selX1, int selY1, int selX2, int selY2) {
+        return getSelectedText(selX1, selY1, selX2, selY2, true);
+    }
+
+    public String getSelectedText(int selX1, int selY1, int selX2, int selY2, boolean joinBackLines) {
+        return getSelectedText(selX1, selY1, selX2, selY2, joinBackLines, false);
+    }
+
+    public String getSelectedText(int selX1, int selY1, int selX2, int selY2, boolean joinBackLines, boolean joinFullLines) {
+        final StringBuilder builder = new StringBuilder();
+        try {
+            writeSelectedText(builder, selX1, selY1, selX2, selY2, joinBackLines, joinFullLines);
+        } catch (IOException e) {
+            // A StringBuilder does not throw.
+            throw new AssertionError(e);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Write the text returned by {@link #getSelectedText(int, int, int, int, boolean, boolean)} to an {@link Appendable}
+     * row by row, without building a string of it.
+     */
+    public void writeSelectedText(Appendable out, int selX1, int selY1, int selX2, int selY2, boolean joinBackLines, boolean joinFullLines) throws IOException {
+        final int columns = mColumns;
+
+        if (selY1 < -getActiveTranscriptRows()) selY1 = -getActiveTranscriptRows();
+        if (selY2 >= mScreenRows) selY2 = mScreenRows - 1;
+
+        for (int row = selY1; row <= selY2; row++) {
+            int x1 = (row == selY1) ? selX1 : 0;
+            int x2;
+            if (row == selY2) {
+                x2 = selX2 + 1;
+                if (x2 > columns) x2 = columns;
+            } else {
+                x2 = columns;
+            }
+            TerminalRow lineObject = getLine(row);
+            int x1Index = lineObject.findStartOfColumn(x1);
+            int x2Index = (x2 < mColumns) ? lineObject.findStartOfColumn(x2) : lineObject.getSpaceUsed();
+            if (x2Index == x1Index) {
+                // Selected the start of a wide character.
+                x2Index = lineObject.findStartOfColumn(x2 + 1);
+            }
+            char[] line = lineObject.mText;
+            int lastPrintingCharIndex = -1;
+            int i;
+            boolean rowLineWrap = getLineWrap(row);
+            if (rowLineWrap && x2 == columns) {
+                // If the line was wrapped, we shouldn't lose trailing space:
+                lastPrintingCharIndex = x2Index - 1;
+            } else {
+                for (i = x1Index; i < x2Index; ++i) {
+                    char c = line[i];
+                    if (c != ' ') lastPrintingCharIndex = i;
+                }
+            }
+
+            int len = lastPrintingCharIndex - x1Index + 1;
+            if (lastPrintingCharIndex != -1 && len > 0)
+                appendChars(out, line, x1Index, len);
+
+            boolean lineFillsWidth = lastPrintingCharIndex == x2Index - 1;
+            if ((!joinBackLines || !rowLineWrap) && (!joinFullLines || !lineFillsWidth)
+                && row < selY2 && row < mScreenRows - 1) out.append('\n');
+        }
+    }
+
+    /** Append chars to an {@link Appendable}, without wrapping them in a {@link CharSequence} if it can take an array. */
+    static void appendChars(Appendable out, char[] chars, int start, int length) throws IOException {
+        if (out instanceof StringBuilder) {
+            ((StringBuilder) out).append(chars, start, length);
+        } else if (out instanceof Writer) {
+            ((Writer) out).write(chars, start, length);
+        } else {
+            out.append(CharBuffer.wrap(chars, start, length));
+        }
+    }
+
+    public String getWordAtLocation(int x, int y) {
+        // Set y1 and y2 to the lines where the wrapped line starts and ends.
+        // I.e. if a line that is wrapped to 3 lines starts at line 4, and this
+        // is called with y=5, then y1 would be set to 4 and y2 would be set to 6.
+        int y1 = y;
+        int y2 = y;
+        while (y1 > 0 && !getSelectedText(0, y1 - 1, mColumns, y, true, true).contains("\n")) {
+            y1--;
+        }
+        while (y2 < mScreenRows && !getSelectedText(0, y, mColumns, y2 + 1, true, true).contains("\n")) {
+            y2++;
+        }
+
+        // Get the text for the whole wrapped line
+        String text = getSelectedText(0, y1, mColumns, y2, true, true);
+        // The index of x in text
+        int textOffset = (y - y1) * mColumns + x;
+
+        if (textOffset >= text.length()) {
+          // The click was to the right of the last word on the line, so
+          // there's no word to return
+          return "";
+        }
+
+        // Set x1 and x2 to the indices of the last space before x and the
+        // first space after x in text respectively
+        int x1 = text.lastIndexOf(' ', textOffset);
+        int x2 = text.indexOf(' ', textOffset);
+        if (x2 == -1) {
+            x2 = text.length();
+        }
+
+        if (x1 == x2) {
+          // The click was on a space, so there's no word to return
+          return "";
+        }
+        return text.substring(x1 + 1, x2);
+    }
+
+    /**
+     * The number of transcript rows, including the rows in the {@link TranscriptStore} if any, but not the rows left
+     * to reflow after a resize.
+     */
+    public int getActiveTranscriptRows() {
+        return mActiveTranscriptRows + (mTranscriptStore == null ? 0 : mTranscriptStore.getRows());
+    }
+
+    public int getActiveRows() {
+        return getActiveTranscriptRows() + mScreenRows;
+    }
+
+    /**
+     * If a screen row may have changed since the last call to {@link #clearDirtyRows()}. A row which is not dirty
+     * looks the same as the row {@link #getDirtyScrolledRows()} rows below it did then, since scrolling the whole
+     * screen moves the rows instead of making them dirty. Only the contents of the rows are tracked, not the cursor,
+     * colors or modes of the emulator.
+     *
+     * @param row a screen row in the range [0, {@link #mScreenRows}).
+     */
+    public boolean isRowDirty(int row) {
+        return mDirtyRows[row];
+    }
+
+    /**
+     * The number of rows the whole screen has scrolled up since the last call to {@link #clearDirtyRows()}, or down if
+     * negative. Scrolling only a part of the screen makes the rows of that part dirty instead.
+     */
+    public int getDirtyScrolledRows() {
+        return mDirtyScrolledRows;
+    }
+
+    /** If any screen row is dirty or the screen has scrolled since the last call to {@link #clearDirtyRows()}. */
+    public boolean hasDirtyRows() {
+        if (mDirtyScrolledRows != 0) return true;
+        for (boolean dirty : mDirtyRows)
+            if (dirty) return true;
+        return false;
+    }
+
+    /** Mark all screen rows as not dirty, after the changes to them have been drawn. */
+    public void clearDirtyRows() {
+        Arrays.fill(mDirtyRows, false);
+        mDirtyScrolledRows = 0;
+    }
+
+    /** Mark the screen rows in a range as dirty. */
+    void markRowsDirty(int startRow, int endRow) {
+        Arrays.fill(mDirtyRows, startRow, endRow, true);
+    }
+
+    /** Move the dirty marks along with the whole screen scrolled up a number of rows, or down if negative. */
+    private void scrollDirtyRows(int rows) {
+        final boolean[] dirtyRows = mDirtyRows;
+        final int screenRows = mScreenRows;
+        mDirtyScrolledRows += rows;
+        if (Math.abs(rows) >= screenRows) {
+            Arrays.fill(dirtyRows, true);
+        } else if (rows > 0) {
+            System.arraycopy(dirtyRows, rows, dirtyRows, 0, screenRows - rows);
+            Arrays.fill(dirtyRows, screenRows - rows, screenRows, true);
+        } else {
+            System.arraycopy(dirtyRows, 0, dirtyRows, -rows, screenRows + rows);
+            Arrays.fill(dirtyRows, 0, -rows, true);
+        }
+    }
+
+    /**
+     * Set a store to append the rows falling out of the ring buffer to, or null to stop storing rows. The rows already
+     * in the store become the transcript rows above the ones in the ring buffer.
+     */
+    void setTranscriptStore(TranscriptStore store) {
+        mTranscriptStore = store;
+        mStoredLineIndex = -1;
+    }
+
+    /**
+     * Get the row at an external row, which may be a row read from the {@link TranscriptStore}. Rows read from the
+     * store are read into the same row object, so the row is only valid until the next call.
+     *
+     * @param externalRow a row in the range [-{@link #getActiveTranscriptRows()}, {@link #mScreenRows}).
+     */
+    public TerminalRow getLine(int externalRow) {
+        // The rows left to reflow come before the stored rows.
+        if (externalRow < -mActiveTranscriptRows && mReflow != null) reflowTranscript(Integer.MAX_VALUE);
+        if (externalRow < -mActiveTranscriptRows && mTranscriptStore != null) {
+            final int index = mTranscriptStore.getRows() + mActiveTranscriptRows + externalRow;
+            if (index >= 0) {
+                if (index != mStoredLineIndex) {
+                    mTranscriptStore.read(index, getStoredLine());
+                    mStoredLineIndex = index;
+                }
+                return mStoredLine;
+            }
+        }
+        return allocateFullLineIfNecessary(externalToInternalRow(externalRow));
+    }
+
+    /** Get {@link #mStoredLine} to read a row into, with the current number of columns. */
+    private TerminalRow getStoredLine() {
+        if (mStoredLine == null || mStoredLine.getColumns() != mColumns) mStoredLine = new TerminalRow(mColumns, TextStyle.NORMAL);
+        mStoredLineIndex = -1;
+        return mStoredLine;
+    }
+
+    /** Append the oldest row of a full transcript to the store before it is discarded, giving up on the store on errors. */
+    private void storeRow(int row) {
+        // Storing a row may drop the oldest stored rows, changing the index of the row read last.
+        mStoredLineIndex = -1;
+        try {
+            if (mPackedRows != null && mPackedRows[row] != TranscriptArena.NO_ROW) {
+                mArena.store(mPackedRows[row], mColumns, mTranscriptStore);
+            } else if (mLines[row] != null) {
+                mTranscriptStore.append(mLines[row]);
+            } else {
+                final TerminalRow blankLine = getStoredLine();
+                blankLine.clear(TextStyle.NORMAL);
+                mTranscriptStore.append(blankLine);
+            }
+        } catch (IOException e) {
+            dropTranscriptStore();
+        }
+    }
+
+    /** Give up on the store after failing to append to it. */
+    private void dropTranscriptStore() {
+        mTranscriptStore.close();
+        mTranscriptStore = null;
+    }
+
+    /**
+     * Reflow transcript rows left to reflow after a resize which changed the number of columns, prepending them above
+     * the transcript rows, until at least a number of rows have been added or no rows are left. Rows which do not fit
+     * in the transcript are appended to the {@link TranscriptStore} if any, else dropped.
+     *
+     * @return if rows are still left to reflow.
+     */
+    public boolean reflowTranscript(int minRows) {
+        final TranscriptReflow reflow = mReflow;
+        int addedRows = 0;
+        while (mReflow != null && addedRows < minRows && reflow.reflowPrevious()) {
+            for (int i = reflow.mRowCount - 1; i >= 0; i--) {
+                if (!prependTranscriptRow(reflow.mRows[i])) {
+                    endReflow(i + 1);
+                    break;
+                }
+                addedRows++;
+            }
+        }
+        if (mReflow != null && !reflow.hasRowsLeft()) endReflow(0);
+        return mReflow != null;
+    }
+
+    /**
+     * Reflow the transcript rows left to reflow, if any, until {@link #REFLOW_AHEAD_ROWS} rows above an external row
+     * are reflowed, so that the transcript can be scrolled through while it is being reflowed.
+     */
+    public void reflowTranscriptAbove(int externalRow) {
+        if (mReflow != null) reflowTranscript(REFLOW_AHEAD_ROWS - externalRow - mActiveTranscriptRows);
+    }
+
+    /** Add a row above the oldest transcript row, or return false if the transcript is full. */
+    private boolean prependTranscriptRow(TerminalRow row) {
+        if (mActiveTranscriptRows == mTotalRows - mScreenRows) return false;
+        mActiveTranscriptRows++;
+        final int internalRow = externalToInternalRow(-mActiveTranscriptRows);
+        discardPackedRow(internalRow, false);
+        if (mLines[internalRow] != null) mRowPool.release(mLines[internalRow]);
+        mLines[internalRow] = row;
+        if (mActiveTranscriptRows > UNPACKED_TRANSCRIPT_ROWS) packRow(internalRow);
+        return true;
+    }
+
+    /**
+     * Stop reflowing rows, appending the rows left, which are the old rows not yet reflowed followed by the first rows
+     * of the last reflowed ones, to the {@link TranscriptStore} if any, else dropping them.
+     *
+     * @param reflowedRowsLeft the number of rows of the last reflowed ones which have not been added to the transcript.
+     */
+    private void endReflow(int reflowedRowsLeft) {
+        final TranscriptReflow reflow = mReflow;
+        mReflow = null;
+        if (mTranscriptStore != null && (reflowedRowsLeft > 0 || reflow.hasRowsLeft())) {
+            mStoredLineIndex = -1;
+            try {
+                reflow.storeRowsLeft(mTranscriptStore);
+                for (int i = 0; i < reflowedRowsLeft; i++)
+                    mTranscriptStore.append(reflow.mRows[i]);
+            } catch (IOException e) {
+                dropTranscriptStore();
+            }
+        }
+        for (int i = 0; i < reflowedRowsLeft; i++)
+            mRowPool.release(reflow.mRows[i]);
+        reflow.release();
+    }
+
+    /**
+     * Convert a row value from the public external coordinate system to our internal private coordinate system.
+     *
+     * <pre>
+     * - External coordinate system: -mActiveTranscriptRows to mScreenRows-1, with the screen being 0..mScreenRows-1.
+     * - Internal coordinate system: the mScreenRows lines starting at mScreenFirstRow comprise the screen, while the
+     *   mActiveTranscriptRows lines ending at mScreenFirstRow-1 form the transcript (as a circular buffer).
+     *
+     * External ↔ Internal:
+     *
+     * [ ...                            ]     [ ...                                     ]
+     * [ -mActiveTranscriptRows         ]     [ mScreenFirstRow - mActiveTranscriptRows ]
+     * [ ...                            ]     [ ...                                     ]
+     * [ 0 (visible screen starts here) ]  ↔  [ mScreenFirstRow                         ]
+     * [ ...                            ]     [ ...                                     ]
+     * [ mScreenRows-1                  ]     [ mScreenFirstRow + mScreenRows-1         ]
+     * </pre>
+     *
+     * @param externalRow a row in the external coordinate system.
+     * @return The row corresponding to the input argument in the private coordinate system.
+     */
+    public int externalToInternalRow(int externalRow) {
+        if (externalRow < -mActiveTranscriptRows || externalRow > mScreenRows)
+            throw new IllegalArgumentException("extRow=" + externalRow + ", mScreenRows=" + mScreenRows + ", mActiveTranscriptRows=" + mActiveTranscriptRows);
+        final int internalRow = mScreenFirstRow + externalRow;
+        return (internalRow < 0) ? (mTotalRows + internalRow) : (internalRow % mTotalRows);
+    }
+
+    public void setLineWrap(int row) {
+        allocateFullLineIfNecessary(externalToInternalRow(row)).mLineWrap = true;
+        if (row >= 0 && row < mScreenRows) mDirtyRows[row] = true;
+    }
+
+    public boolean getLineWrap(int row) {
+        return getLine(row).mLineWrap;
+    }
+
+    public void clearLineWrap(int row) {
+        allocateFullLineIfNecessary(externalToInternalRow(row)).mLineWrap = false;
+        if (row >= 0 && row < mScreenRows) mDirtyRows[row] = true;
+    }
+
+    /**
+     * Resize the screen which this transcript backs. Currently, this only works if the number of columns does not
+     * change or the rows expand (that is, it only works when shrinking the number of rows).
+     *
+     * @param newColumns The number of columns the screen should have.
+     * @param newRows    The number of rows the screen should have.
+     * @param cursor     An int[2] containing the (column, row) cursor location.
+     */
+    public void resize(int newColumns, int newRows, int newTotalRows, int[] cursor, long currentStyle, boolean altScreen) {
+        mStoredLineIndex = -1;
+        // newRows > mTotalRows should not normally happen since mTotalRows is TRANSCRIPT_ROWS (10000):
+        if (newColumns == mColumns && newRows <= mTotalRows) {
+            // Fast resize where just the rows changed.
+            int shiftDownOfTopRow = mScreenRows - newRows;
+            if (shiftDownOfTopRow > 0 && shiftDownOfTopRow < mScreenRows) {
+                // Shrinking. Check if we can skip blank rows at bottom below cursor.
+                for (int i = mScreenRows - 1; i > 0; i--) {
+                    if (cursor[1] >= i) break;
+                    int r = externalToInternalRow(i);
+                    if (mLines[r] == null || mLines[r].isBlank()) {
+                        if (--shiftDownOfTopRow == 0) break;
+                    }
+                }
+            } else if (shiftDownOfTopRow < 0) {
+                // Negative shift down = expanding. Only move screen up if there is transcript to show:
+                if (mReflow != null && -shiftDownOfTopRow > mActiveTranscriptRows)
+                    reflowTranscript(-shiftDownOfTopRow - mActiveTranscriptRows);
+                int actualShift = Math.max(shiftDownOfTopRow, -mActiveTranscriptRows);
+                if (shiftDownOfTopRow != actualShift) {
+                    // The new lines revealed by the resizing are not all from the transcript. Blank the below ones.
+                    for (int i = 0; i < actualShift - shiftDownOfTopRow; i++)
+                        allocateFullLineIfNecessary((mScreenFirstRow + mScreenRows + i) % mTotalRows).clear(currentStyle);
+                    shiftDownOfTopRow = actualShift;
+                }
+            }
+            mScreenFirstRow += shiftDownOfTopRow;
+            mScrolledOffRows += shiftDownOfTopRow;
+            mScreenFirstRow = (mScreenFirstRow < 0) ? (mScreenFirstRow + mTotalRows) : (mScreenFirstRow % mTotalRows);
+            mTotalRows = newTotalRows;
+            mActiveTranscriptRows = altScreen ? 0 : Math.max(0, mActiveTranscriptRows + shiftDownOfTopRow);
+            cursor[1] -= shiftDownOfTopRow;
+            mScreenRows = newRows;
+
+            // Rows revealed at the top of the screen may have been packed.
+            if (mPackedRows != null) {
+                for (int i = -Math.min(mActiveTranscriptRows, UNPACKED_TRANSCRIPT_ROWS); i < mScreenRows; i++)
+                    discardPackedRow(externalToInternalRow(i), true);
+            }
+        } else {
+            // Rows left to reflow by a previous resize have to be reflowed to the old number of columns first.
+            if (mReflow != null) reflowTranscript(Integer.MAX_VALUE);
+
+            // Hand the old state over to the reflow and update new:
+            final TranscriptReflow reflow = new TranscriptReflow(mLines, mArena, mPackedRows, mColumns, mScreenFirstRow,
+                mTotalRows, mActiveTranscriptRows, mScreenRows, cursor, newColumns, currentStyle, mRowPool);
+            mReflow = reflow;
+            mSearchIndex = null;
+            mArena = null;
+            mPackedRows = null;
+            mUnpackedPackedRows = null;
+            mLines = new TerminalRow[newTotalRows];
+            mTotalRows = newTotalRows;
+            mScreenRows = newRows;
+            mActiveTranscriptRows = mScreenFirstRow = 0;
+            mColumns = newColumns;
+            cursor[0] = cursor[1] = -1;
+
+            // Reflow from the bottom up until the screen is filled, leaving the rest for reflowTranscript(). Rows are
+            // placed in the screen starting at mLines[0] from the bottom up, and prepended to the transcript after that.
+            int reflowedRows = 0;
+            while (reflowedRows < newRows && reflow.reflowPrevious()) {
+                for (int i = reflow.mRowCount - 1; i >= 0; i--) {
+                    if (reflowedRows < newRows) {
+                        mLines[newRows - 1 - reflowedRows] = reflow.mRows[i];
+                    } else if (!prependTranscriptRow(reflow.mRows[i])) {
+                        endReflow(i + 1);
+                        break;
+                    }
+                    if (i == reflow.mCursorRow) {
+                        cursor[0] = reflow.mCursorColumn;
+                        cursor[1] = newRows - 1 - reflowedRows;
+                    }
+                    reflowedRows++;
+                }
+                if (mReflow == null) break;
+            }
+            if (mReflow != null && !reflow.hasRowsLeft()) endReflow(0);
+
+            if (reflowedRows < newRows) {
+                // Everything fitted on the screen, so move it to the top of the screen and blank the rows below.
+                final int shift = newRows - reflowedRows;
+                System.arraycopy(mLines, shift, mLines, 0, reflowedRows);
+                for (int i = reflowedRows; i < newRows; i++)
+                    mLines[i] = mRowPool.obtain(newColumns, currentStyle);
+                if (cursor[1] >= 0) cursor[1] -= shift;
+            }
+        }
+
+        // Handle cursor scrolling off screen:
+        if (cursor[0] < 0 || cursor[1] < 0) cursor[0] = cursor[1] = 0;
+
+        if (mDirtyRows.length != mScreenRows) mDirtyRows = new boolean[mScreenRows];
+        Arrays.fill(mDirtyRows, true);
+        mDirtyScrolledRows = 0;
+    }
+
+    /**
+     * Rotate a range of rows in the circular buffer, taking wraparound into account, so that the row at a distance from
+     * the start of the range comes first and the rows before it are moved to the end.
+     *
+     * @param srcInternal The first row of the range.
+     * @param len         The number of rows in the range.
+     * @param distance    The distance in rows of the row to come first.
+     */
+    private void rotateLines(int srcInternal, int len, int distance) {
+        if (distance == 0 || distance == len) return;
+        final int totalRows = mTotalRows;
+        final TerminalRow[] lines = mLines;
+        if (mRotatedLines == null || mRotatedLines.length < len) mRotatedLines = new TerminalRow[Math.max(len, mScreenRows)];
+        final TerminalRow[] rotated = mRotatedLines;
+        for (int i = 0; i < len; i++)
+            rotated[i] = lines[(srcInternal + i) % totalRows];
+        for (int i = 0; i < len; i++)
+            lines[(srcInternal + i) % totalRows] = rotated[i < len - distance ? i + distance : i + distance - len];
+        Arrays.fill(rotated, 0, len, null);
+    }
+
+    /**
+     * Scroll the screen down one line. To scroll the whole screen of a 24 line screen, the arguments would be (0, 24).
+     *
+     * @param topMargin    First line that is scrolled.
+     * @param bottomMargin One line after the last line that is scrolled.
+     * @param style        the style for the newly exposed line.
+     */
+    public void scrollDownOneLine(int topMargin, int bottomMargin, long style) {
+        scrollDownLines(topMargin, bottomMargin, 1, style);
+    }
+
+    /**
+     * Scroll the screen down a number of lines, with the same result as {@link #scrollDownOneLine(int, int, long)} for
+     * each of them. The rows between the margins move up into the transcript with the screen, while the rows above and
+     * below the margins are moved along with the screen at most once for every {@link #mScreenRows} lines.
+     */
+    public void scrollDownLines(int topMargin, int bottomMargin, int lines, long style) {
+        if (topMargin > bottomMargin - 1 || topMargin < 0 || bottomMargin > mScreenRows)
+            throw new IllegalArgumentException("topMargin=" + topMargin + ", bottomMargin=" + bottomMargin + ", mScreenRows=" + mScreenRows);
+
+        final int maxTranscriptRows = mTotalRows - mScreenRows;
+        if (maxTranscriptRows == 0) {
+            // Without a transcript, as for the alternate screen buffer, the rows scrolled out of the region are dropped.
+            if (mReflow != null) endReflow(0);
+            shiftLines(topMargin, bottomMargin, -lines, style);
+            return;
+        }
+        if (topMargin == 0 && bottomMargin == mScreenRows) {
+            scrollDirtyRows(lines);
+        } else {
+            markRowsDirty(topMargin, bottomMargin);
+        }
+        while (lines > 0) {
+            // At most as many rows as there are in the region and the transcript, so that the rows which fall out of the
+            // ring buffer are neither on the screen nor scrolled out of the region by the same call.
+            final int scrolledRows = Math.min(lines, Math.min(bottomMargin - topMargin, maxTranscriptRows));
+            lines -= scrolledRows;
+
+            // Rows left to reflow are older than the oldest transcript row, so have to be stored or dropped before it:
+            if (mReflow != null && mActiveTranscriptRows + scrolledRows > maxTranscriptRows) endReflow(0);
+            // The rows below the screen, which are the oldest transcript rows once the transcript is full, become the
+            // newly revealed lines:
+            for (int i = 0; i < scrolledRows; i++) {
+                final int discardedRow = (mScreenFirstRow + mScreenRows + i) % mTotalRows;
+                if (mTranscriptStore != null && mActiveTranscriptRows + i >= maxTranscriptRows) storeRow(discardedRow);
+                discardPackedRow(discardedRow, false);
+            }
+
+            // Move the fixed topMargin lines down so that they remain on screen in the same position, with the lines
+            // scrolled out of the region above them where they become transcript rows:
+            rotateLines(mScreenFirstRow, topMargin + scrolledRows, topMargin);
+            // Move the fixed mScreenRows-bottomMargin lines down so that they remain on screen in the same position,
+            // with the revealed lines above them:
+            rotateLines(externalToInternalRow(bottomMargin), mScreenRows - bottomMargin + scrolledRows, mScreenRows - bottomMargin);
+
+            // Update the screen location in the ring buffer:
+            mScreenFirstRow = (mScreenFirstRow + scrolledRows) % mTotalRows;
+            mScrolledOffRows += scrolledRows;
+            // Note that the history has grown if not already full:
+            mActiveTranscriptRows = Math.min(mActiveTranscriptRows + scrolledRows, maxTranscriptRows);
+
+            // Pack the rows which have now scrolled far enough from the screen:
+            for (int row = Math.max(-mActiveTranscriptRows, -UNPACKED_TRANSCRIPT_ROWS - scrolledRows); row < -UNPACKED_TRANSCRIPT_ROWS; row++)
+                packRow(externalToInternalRow(row));
+
+            // Blank the newly revealed lines above the bottom margin:
+            for (int row = bottomMargin - scrolledRows; row < bottomMargin; row++)
+                blankLine(externalToInternalRow(row), style);
+        }
+    }
+
+    /**
+     * Move the rows between two margins of the screen down a number of lines, or up if negative, by moving the rows
+     * themselves instead of copying their contents. The lines moved past a margin are dropped, without entering the
+     * transcript, and the lines revealed at the other margin are blanked.
+     *
+     * @param topMargin    First line that is moved.
+     * @param bottomMargin One line after the last line that is moved.
+     * @param lines        the number of lines to move down, or up if negative.
+     * @param style        the style for the newly exposed lines.
+     */
+    public void shiftLines(int topMargin, int bottomMargin, int lines, long style) {
+        if (topMargin > bottomMargin - 1 || topMargin < 0 || bottomMargin > mScreenRows)
+            throw new IllegalArgumentException("topMargin=" + topMargin + ", bottomMargin=" + bottomMargin + ", mScreenRows=" + mScreenRows);
+        final int regionRows = bottomMargin - topMargin;
+        final int distance = Math.min(Math.abs(lines), regionRows);
+        if (distance == 0) return;
+
+        if (topMargin == 0 && bottomMargin == mScreenRows) {
+            scrollDirtyRows(lines > 0 ? -distance : distance);
+        } else {
+            markRowsDirty(topMargin, bottomMargin);
+        }
+        rotateLines(externalToInternalRow(topMargin), regionRows, lines > 0 ? regionRows - distance : distance);
+        final int firstBlankRow = lines > 0 ? topMargin : bottomMargin - distance;
+        for (int row = firstBlankRow; row < firstBlankRow + distance; row++)
+            blankLine(externalToInternalRow(row), style);
+    }
+
+    /** Blank a row moved onto the screen, which may have held a wrapping line before. */
+    private void blankLine(int row, long style) {
+        if (mLines[row] == null) {
+            mLines[row] = mRowPool.obtain(mColumns, style);
+        } else {
+            mLines[row].clear(style);
+            mLines[row].mLineWrap = false;
+        }
+    }
+
+    /**
+     * Block copy characters from one position in the screen to another. The two positions can overlap. All characters
+     * of the source and destination must be within the bounds of the screen, or else an InvalidParameterException will
+     * be thrown.
+     *
+     * @param sx source X coordinate
+     * @param sy source Y coordinate
+     * @param w  width
+     * @param h  height
+     * @param dx destination X coordinate
+     * @param dy destination Y coordinate
+     */
+    public void blockCopy(int sx, int sy, int w, int h, int dx, int dy) {
+        if (w == 0) return;
+        if (sx < 0 || sx + w > mColumns || sy < 0 || sy + h > mScreenRows || dx < 0 || dx + w > mColumns || dy < 0 || dy + h > mScreenRows)
+            throw new IllegalArgumentException();
+        markRowsDirty(dy, dy + h);
+        boolean copyingUp = sy > dy;
+        for (int y = 0; y < h; y++) {
+            int y2 = copyingUp ? y : (h - (y + 1));
+            TerminalRow sourceRow = allocateFullLineIfNecessary(externalToInternalRow(sy + y2));
+            allocateFullLineIfNecessary(externalToInternalRow(dy + y2)).copyInterval(sourceRow, sx, sx + w, dx);
+        }
+    }
+
+    /**
+     * Block set characters. All characters must be within the bounds of the screen, or else and
+     * InvalidParemeterException will be thrown. Typically this is called with a "val" argument of 32 to clear a block
+     * of characters.
+     */
+    public void blockSet(int sx, int sy, int w, int h, int val, long style) {
+        if (sx < 0 || sx + w > mColumns || sy < 0 || sy + h > mScreenRows) {
+            throw new IllegalArgumentException(
+                "Illegal arguments! blockSet(" + sx + ", " + sy + ", " + w + ", " + h + ", " + val + ", " + mColumns + ", " + mScreenRows + ")");
+        }
+        if (w == 0) return;
+        markRowsDirty(sy, sy + h);
+        for (int y = 0; y < h; y++)
+            allocateFullLineIfNecessary(externalToInternalRow(sy + y)).fill(sx, sx + w, val, style);
+    }
+
+    /**
+     * Get the row at an internal row index, allocating or unpacking it if needed. A row unpacked from the packed
+     * transcript may be reused for another packed row once {@link #MAX_UNPACKED_PACKED_ROWS} other packed rows have
+     * been unpacked, so it should not be held on to.
+     */
+    public TerminalRow allocateFullLineIfNecessary(int row) {
+        if (mLines[row] != null) return mLines[row];
+        if (mPackedRows != null && mPackedRows[row] != TranscriptArena.NO_ROW) return unpackRow(row);
+        return mLines[row] = mRowPool.obtain(mColumns, 0);
+    }
+
+    /** Pack a row into the arena, if it is not already packed. */
+    private void packRow(int row) {
+        final TerminalRow line = mLines[row];
+        if (line == null || (mPackedRows != null && mPackedRows[row] != TranscriptArena.NO_ROW)) return;
+        if (mPackedRows == null) {
+            mArena = new TranscriptArena();
+            mPackedRows = new long[mTotalRows];
+            mUnpackedPackedRows = new int[MAX_UNPACKED_PACKED_ROWS];
+            Arrays.fill(mUnpackedPackedRows, -1);
+        }
+        mPackedRows[row] = mArena.pack(line);
+        mLines[row] = null;
+        mRowPool.release(line);
+    }
+
+    /** Unpack a packed row on access, keeping it packed but dropping the least recently unpacked packed row. */
+    private TerminalRow unpackRow(int row) {
+        TerminalRow line = null;
+        final int evictedRow = mUnpackedPackedRows[mNextUnpackedPackedRow];
+        if (evictedRow != -1 && mPackedRows[evictedRow] != TranscriptArena.NO_ROW && mLines[evictedRow] != null) {
+            line = mLines[evictedRow];
+            mLines[evictedRow] = null;
+        }
+        if (line == null) line = mRowPool.obtain(mColumns, 0);
+        mUnpackedPackedRows[mNextUnpackedPackedRow] = row;
+        mNextUnpackedPackedRow = (mNextUnpackedPackedRow + 1) % MAX_UNPACKED_PACKED_ROWS;
+
+        mArena.unpack(mPackedRows[row], line);
+        return mLines[row] = line;
+    }
+
+    /**
+     * Release the packed form of a row, if any, before it is modified.
+     *
+     * @param keepContents if the row should keep its contents, by unpacking it if needed, instead of being left null.
+     */
+    private void discardPackedRow(int row, boolean keepContents) {
+        if (mPackedRows == null || mPackedRows[row] == TranscriptArena.NO_ROW) return;
+        if (keepContents) allocateFullLineIfNecessary(row);
+        mArena.release(mPackedRows[row]);
+        mPackedRows[row] = TranscriptArena.NO_ROW;
+    }
+
+    public void setChar(int column, int row, int codePoint, long style) {
+        if (row  < 0 || row >= mScreenRows || column < 0 || column >= mColumns)
+            throw new IllegalArgumentException("TerminalBuffer.setChar(): row=" + row + ", column=" + column + ", mScreenRows=" + mScreenRows + ", mColumns=" + mColumns);
+        mDirtyRows[row] = true;
+        row = externalToInternalRow(row);
+        allocateFullLineIfNecessary(row).setChar(column, codePoint, style);
+    }
+
+    /**
+     * Set a run of printable ASCII characters, all having display width 1, starting at a column in a row.
+     *
+     * @param text   the characters, all in the range [32,126]
+     * @param offset the index in text of the first character
+     * @param length the number of characters, which must all fit in the row
+     */
+    public void setAsciiChars(int column, int row, byte[] text, int offset, int length, long style) {
+        if (row < 0 || row >= mScreenRows || column < 0 || column + length > mColumns)
+            throw new IllegalArgumentException("TerminalBuffer.setAsciiChars(): row=" + row + ", column=" + column + ", length=" + length + ", mScreenRows=" + mScreenRows + ", mColumns=" + mColumns);
+        mDirtyRows[row] = true;
+        row = externalToInternalRow(row);
+        allocateFullLineIfNecessary(row).setAsciiChars(column, text, offset, length, style);
+    }
+
+    public long getStyleAt(int externalRow, int column) {
+        return getLine(externalRow).getStyle(column);
+    }
+
+    /** Support for http://vt100.net/docs/vt510-rm/DECCARA and http://vt100.net/docs/vt510-rm/DECCARA */
+    public void setOrClearEffect(int bits, boolean setOrClear, boolean reverse, boolean rectangular, int leftMargin, int rightMargin, int top, int left,
+                                 int bottom, int right) {
+        markRowsDirty(top, bottom);
+        for (int y = top; y < bottom; y++) {
+            TerminalRow line = mLines[externalToInternalRow(y)];
+            int startOfLine = (rectangular || y == top) ? left : leftMargin;
+            int endOfLine = (rectangular || y + 1 == bottom) ? right : rightMargin;
+            for (int x = startOfLine; x < endOfLine; x++) {
+                long currentStyle = line.getStyle(x);
+                int foreColor = TextStyle.decodeForeColor(currentStyle);
+                int backColor = TextStyle.decodeBackColor(currentStyle);
+                int effect = TextStyle.decodeEffect(currentStyle);
+                if (reverse) {
+                    // Clear out the bits to reverse and add them back in reversed:
+                    effect = (effect & ~bits) | (bits & ~effect);
+                } else if (setOrClear) {
+                    effect |= bits;
+                } else {
+                    effect &= ~bits;
+                }
+                line.setStyle(x, TextStyle.encode(foreColor, backColor, effect));
+            }
+        }
+    }
+
+    public void clearTranscript() {
+        if (mScreenFirstRow < mActiveTranscriptRows) {
+            releaseLines(mTotalRows + mScreenFirstRow - mActiveTranscriptRows, mTotalRows);
+            releaseLines(0, mScreenFirstRow);
+        } else {
+            releaseLines(mScreenFirstRow - mActiveTranscriptRows, mScreenFirstRow);
+        }
+        mActiveTranscriptRows = 0;
+        mSearchIndex = null;
+        if (mReflow != null) {
+            mReflow.release();
+            mReflow = null;
+        }
+        // Only transcript rows are packed.
+        if (mPackedRows != null) {
+            mArena.clear();
+            Arrays.fill(mPackedRows, TranscriptArena.NO_ROW);
+            Arrays.fill(mUnpackedPackedRows, -1);
+        }
+        if (mTranscriptStore != null) mTranscriptStore.clear();
+        mStoredLineIndex = -1;
+    }
+
+    /**
+     * Find the first match of a pattern starting at or after a position in the transcript and screen rows, or the last
+     * match ending at or before it if backwards. The rows of a line wrapped over several rows are searched as one line,
+     * and each line ends with a newline, after which trailing spaces have been left out.
+     * <p>
+     * The first search indexes the text of all rows not indexed by {@link #indexTranscript(int)}, which later searches
+     * only have to do for the rows added since.
+     *
+     * @param column the column in the row to search from.
+     * @param row    the row to search from, in the range [-{@link #getActiveTranscriptRows()}, {@link #mScreenRows}].
+     * @param match  set to the start column, start row, end column and end row of the match found, the end column
+     *               being the column after the match.
+     * @return if a match was found.
+     */
+    public boolean find(Pattern pattern, int column, int row, boolean backwards, int[] match) {
+        final TranscriptSearchIndex index = updateSearchIndex();
+        row = Math.max(-getActiveTranscriptRows(), Math.min(row, mScreenRows));
+        final long offset = (row == mScreenRows) ? index.getRowStart(index.getEndRow()) : index.getOffset(mScrolledOffRows + row, column);
+        if (!index.find(pattern, offset, backwards, mSearchMatches)) return false;
+        setMatch(index, 0, match, 0);
+        return true;
+    }
+
+    /**
+     * Find the matches of a pattern, like {@link #find(Pattern, int, int, boolean, int[])}, which end after the start of
+     * a row and start before another row, to highlight the matches shown in those rows.
+     * <p>
+     * Only the text of the lines the rows are part of is searched, up to {@link #mScreenRows} rows before and after
+     * them, without using or updating the index of {@link #find(Pattern, int, int, boolean, int[])} or reflowing the
+     * transcript, so that this is cheap enough to do for every frame drawn.
+     *
+     * @param matches set to the start column, start row, end column and end row of each match found, as many as fit.
+     * @return the number of matches found.
+     */
+    public int findAll(Pattern pattern, int startRow, int endRow, int[] matches) {
+        // Rows left to reflow come before the stored rows, and are not reflowed just to highlight matches.
+        final int firstRow = (mReflow != null) ? -mActiveTranscriptRows : -getActiveTranscriptRows();
+        startRow = Math.max(firstRow, Math.min(startRow, mScreenRows));
+        endRow = Math.max(startRow, Math.min(endRow, mScreenRows));
+        if (startRow == endRow) return 0;
+
+        int lineStartRow = startRow;
+        while (lineStartRow > firstRow && startRow - lineStartRow < mScreenRows && getLine(lineStartRow - 1).mLineWrap)
+            lineStartRow--;
+        int lineEndRow = endRow;
+        while (lineEndRow < mScreenRows && lineEndRow - endRow < mScreenRows && getLine(lineEndRow - 1).mLineWrap)
+            lineEndRow++;
+        if (mRowsSearchIndex == null) mRowsSearchIndex = new TranscriptSearchIndex(0);
+        final TranscriptSearchIndex index = mRowsSearchIndex;
+        index.reset(mScrolledOffRows + lineStartRow);
+        for (int row = lineStartRow; row < lineEndRow; row++)
+            index.appendRow(getLine(row));
+
+        final int maxMatches = matches.length / 4;
+        if (mSearchMatches.length < 2 * maxMatches) mSearchMatches = new long[2 * maxMatches];
+        final int count = index.findAll(pattern, index.getRowStart(mScrolledOffRows + startRow),
+            index.getRowStart(mScrolledOffRows + endRow), mSearchMatches, maxMatches);
+        for (int i = 0; i < count; i++)
+            setMatch(index, i, matches, 4 * i);
+        return count;
+    }
+
+    /** Set the start and end of a match found in {@link #mSearchMatches} as columns and external rows. */
+    private void setMatch(TranscriptSearchIndex index, int matchIndex, int[] match, int matchOffset) {
+        final long start = mSearchMatches[2 * matchIndex], end = mSearchMatches[2 * matchIndex + 1];
+        final long startRow = index.getRow(start), endRow = index.getRow(end - 1);
+        match[matchOffset] = index.getColumn(startRow, start);
+        match[matchOffset + 1] = (int) (startRow - mScrolledOffRows);
+        match[matchOffset + 2] = index.getColumn(endRow, end);
+        match[matchOffset + 3] = (int) (endRow - mScrolledOffRows);
+    }
+
+    /**
+     * Index the text of up to a number of transcript rows for {@link #find(Pattern, int, int, boolean, int[])}, after
+     * reflowing the transcript rows left to reflow after a resize in steps of that many rows, so that a large transcript
+     * can be indexed in steps between frames instead of all at once by the first search.
+     *
+     * @return if rows are still left to reflow or index.
+     */
+    public boolean indexTranscript(int maxRows) {
+        if (mReflow != null) {
+            reflowTranscript(maxRows);
+            return true;
+        }
+        final TranscriptSearchIndex index = prepareSearchIndex();
+        indexTranscriptRows(index, Math.min(mScrolledOffRows, index.getEndRow() + maxRows));
+        return index.getEndRow() < mScrolledOffRows;
+    }
+
+    /** Drop the text indexed for {@link #find(Pattern, int, int, boolean, int[])}, to free its memory when done searching. */
+    public void clearSearchIndex() {
+        mSearchIndex = null;
+        mRowsSearchIndex = null;
+    }
+
+    /** Bring {@link #mSearchIndex} up to date with the rows, see {@link #prepareSearchIndex()}. */
+    private TranscriptSearchIndex updateSearchIndex() {
+        if (mReflow != null) reflowTranscript(Integer.MAX_VALUE);
+        final TranscriptSearchIndex index = prepareSearchIndex();
+        indexTranscriptRows(index, mScrolledOffRows);
+        for (int row = 0; row < mScreenRows; row++)
+            index.appendRow(getLine(row));
+        return index;
+    }
+
+    /**
+     * Get {@link #mSearchIndex} with only the transcript rows still in the transcript left in it, creating it if needed.
+     * The screen rows appended by the previous update, and any transcript rows which have been moved back onto the
+     * screen by resizing, are removed to be appended again, while the rows which have fallen out of the transcript are
+     * removed.
+     */
+    private TranscriptSearchIndex prepareSearchIndex() {
+        final long firstRow = mScrolledOffRows - getActiveTranscriptRows();
+        // Rows can be added above the oldest transcript row by setting a transcript store, which requires indexing them.
+        if (mSearchIndex == null || firstRow < mSearchIndex.getFirstRow()) mSearchIndex = new TranscriptSearchIndex(firstRow);
+        final TranscriptSearchIndex index = mSearchIndex;
+        index.removeRowsFrom(Math.min(index.getTranscriptEnd(), mScrolledOffRows));
+        index.removeRowsBefore(firstRow);
+        return index;
+    }
+
+    /** Append the transcript rows after the last one in an index up to an absolute row. */
+    private void indexTranscriptRows(TranscriptSearchIndex index, long endRow) {
+        for (long row = index.getEndRow(); row < endRow; row++)
+            index.appendRow(getLine((int) (row - mScrolledOffRows)));
+        index.setTranscriptEnd(endRow);
+    }
+
+    /** Release the rows in a range of {@link #mLines} to the pool, leaving their slots empty. */
+    private void releaseLines(int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (mLines[i] != null) {
+                mRowPool.release(mLines[i]);
+                mLines[i] = null;
+            }
+        }
+    }
+
+}
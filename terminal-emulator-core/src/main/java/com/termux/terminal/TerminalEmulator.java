@@ -1,7 +1,6 @@
 package com.termux.terminal;
 
-import android.util.Base64;
-
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Locale;
@@ -41,6 +40,9 @@ public final class TerminalEmulator {
     /** Used for invalid data - http://en.wikipedia.org/wiki/Replacement_character#Replacement_character */
     public static final int UNICODE_REPLACEMENT_CHAR = 0xFFFD;
 
+    /** The size of {@link #mAppendBuffer}. */
+    private static final int APPEND_BUFFER_SIZE = 4096;
+
     /** Escape processing: Not currently in an escape sequence. */
     private static final int ESC_NONE = 0;
     /** Escape processing: Have seen an ESC character - proceed to {@link #doEsc(int)} */
@@ -129,6 +131,11 @@ public final class TerminalEmulator {
     private static final int DECSET_BIT_LEFTRIGHT_MARGIN_MODE = 1 << 11;
     /** Not really DECSET bit... - http://www.vt100.net/docs/vt510-rm/DECSACE */
     private static final int DECSET_BIT_RECTANGULAR_CHANGEATTRIBUTE = 1 << 12;
+    /**
+     * DECSET 2026 - synchronized output, see {@link #isSynchronizedOutput()}. Specified at
+     * https://gist.github.com/christianparpart/d8a62cc1ab659194337d73e399004036
+     */
+    private static final int DECSET_BIT_SYNCHRONIZED_OUTPUT = 1 << 13;
 
 
     private String mTitle;
@@ -176,7 +183,7 @@ public final class TerminalEmulator {
     /** The terminal session this emulator is bound to. */
     private final TerminalOutput mSession;
 
-    TerminalSessionClient mClient;
+    TerminalEmulatorClient mClient;
 
     /** Keeps track of the current argument of the current escape sequence. Ranges from 0 to MAX_ESCAPE_PARAMETERS-1. */
     private int mArgIndex;
@@ -267,6 +274,8 @@ public final class TerminalEmulator {
 
     private byte mUtf8ToFollow, mUtf8Index;
     private final byte[] mUtf8InputBuffer = new byte[4];
+    /** The array into which {@link #append(ByteBuffer)} copies bytes from buffers without one, allocated on first use. */
+    private byte[] mAppendBuffer;
     private int mLastEmittedCodePoint = -1;
 
     public final TerminalColors mColors = new TerminalColors();
@@ -319,16 +328,19 @@ public final class TerminalEmulator {
                 return DECSET_BIT_MOUSE_PROTOCOL_SGR;
             case 2004:
                 return DECSET_BIT_BRACKETED_PASTE_MODE;
+            case 2026:
+                return DECSET_BIT_SYNCHRONIZED_OUTPUT;
             default:
                 return -1;
             // throw new IllegalArgumentException("Unsupported decset: " + decsetBit);
         }
     }
 
-    public TerminalEmulator(TerminalOutput session, int columns, int rows, int cellWidthPixels, int cellHeightPixels, Integer transcriptRows, TerminalSessionClient client) {
+    public TerminalEmulator(TerminalOutput session, int columns, int rows, int cellWidthPixels, int cellHeightPixels, Integer transcriptRows, TerminalEmulatorClient client) {
         mSession = session;
-        mScreen = mMainBuffer = new TerminalBuffer(columns, getTerminalTranscriptRows(transcriptRows), rows);
-        mAltBuffer = new TerminalBuffer(columns, rows, rows);
+        final TerminalRowPool rowPool = new TerminalRowPool();
+        mScreen = mMainBuffer = new TerminalBuffer(columns, getTerminalTranscriptRows(transcriptRows), rows, rowPool);
+        mAltBuffer = new TerminalBuffer(columns, rows, rows, rowPool);
         mClient = client;
         mRows = rows;
         mColumns = columns;
@@ -338,7 +350,7 @@ public final class TerminalEmulator {
         reset();
     }
 
-    public void updateTerminalSessionClient(TerminalSessionClient client) {
+    public void updateTerminalSessionClient(TerminalEmulatorClient client) {
         mClient = client;
         setCursorStyle();
         setCursorBlinkState(true);
@@ -352,6 +364,27 @@ public final class TerminalEmulator {
         return mScreen == mAltBuffer;
     }
 
+    /**
+     * Reflow some of the transcript rows of the main buffer left to reflow after a resize which changed the number of
+     * columns, see {@link TerminalBuffer#reflowTranscript(int)}.
+     *
+     * @return if rows are still left to reflow.
+     */
+    public boolean reflowTranscript(int minRows) {
+        return mMainBuffer.reflowTranscript(minRows);
+    }
+
+    /** Drop the search indexes of both buffers, see {@link TerminalBuffer#clearSearchIndex()}. */
+    public void clearSearchIndex() {
+        mMainBuffer.clearSearchIndex();
+        mAltBuffer.clearSearchIndex();
+    }
+
+    /** Set the store for the rows falling out of the transcript of the main buffer, or null for none. */
+    void setTranscriptStore(TranscriptStore store) {
+        mMainBuffer.setTranscriptStore(store);
+    }
+
     private int getTerminalTranscriptRows(Integer transcriptRows) {
         if (transcriptRows == null || transcriptRows < TERMINAL_TRANSCRIPT_ROWS_MIN || transcriptRows > TERMINAL_TRANSCRIPT_ROWS_MAX)
             return DEFAULT_TERMINAL_TRANSCRIPT_ROWS;
@@ -481,6 +514,14 @@ public final class TerminalEmulator {
         return isDecsetInternalBitSet(DECSET_BIT_APPLICATION_CURSOR_KEYS);
     }
 
+    /**
+     * If the program is in the middle of updating the screen inside a "CSI ? 2026 h" ... "CSI ? 2026 l" pair, in
+     * which case showing the screen is best deferred until it is done so that a half drawn frame is not shown.
+     */
+    public boolean isSynchronizedOutput() {
+        return isDecsetInternalBitSet(DECSET_BIT_SYNCHRONIZED_OUTPUT);
+    }
+
     /** If mouse events are being sent as escape codes to the terminal. */
     public boolean isMouseTrackingActive() {
         return isDecsetInternalBitSet(DECSET_BIT_MOUSE_TRACKING_PRESS_RELEASE) || isDecsetInternalBitSet(DECSET_BIT_MOUSE_TRACKING_BUTTON_EVENT);
@@ -498,76 +539,196 @@ public final class TerminalEmulator {
      * @param length the number of bytes in the array to process
      */
     public void append(byte[] buffer, int length) {
-        for (int i = 0; i < length; i++)
-            processByte(buffer[i]);
+        append(buffer, 0, length);
+    }
+
+    /**
+     * Accept bytes (typically from the pseudo-teletype) and process them, straight from the array backing the buffer
+     * if it has one. Direct buffers have one on android, so bytes read into them by native code need not be copied.
+     *
+     * @param buffer the buffer containing the bytes to be processed from its position to its limit, after which its
+     *               position is at its limit
+     */
+    public void append(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            final int arrayOffset = buffer.arrayOffset();
+            append(buffer.array(), arrayOffset + buffer.position(), arrayOffset + buffer.limit());
+            buffer.position(buffer.limit());
+            return;
+        }
+        if (mAppendBuffer == null) mAppendBuffer = new byte[APPEND_BUFFER_SIZE];
+        while (buffer.hasRemaining()) {
+            final int length = Math.min(buffer.remaining(), APPEND_BUFFER_SIZE);
+            buffer.get(mAppendBuffer, 0, length);
+            append(mAppendBuffer, 0, length);
+        }
+    }
+
+    /** Process the bytes from start to end in a buffer, see {@link #append(byte[], int)}. */
+    private void append(byte[] buffer, int start, int end) {
+        for (int i = start; i < end; ) {
+            final byte b = buffer[i];
+            if (b >= 32 && b < 127 && canEmitAsciiRun()) {
+                // Fast path for a run of printable 7-bit characters in the ground state, which is what most
+                // output consists of.
+                int runEnd = i + 1;
+                while (runEnd < end && buffer[runEnd] >= 32 && buffer[runEnd] < 127) runEnd++;
+                emitAsciiRun(buffer, i, runEnd);
+                i = runEnd;
+            } else if ((b == '\n' || b == '\r') && mEscapeState == ESC_NONE && mUtf8ToFollow == 0) {
+                // A run of line feeds and carriage returns, as between lines and for blank lines, has the same result
+                // as a carriage return if there is one followed by all the line feeds, which then scroll at once.
+                int runEnd = i;
+                int lineFeeds = 0;
+                boolean carriageReturn = false;
+                for (byte c; runEnd < end && ((c = buffer[runEnd]) == '\n' || c == '\r'); runEnd++) {
+                    if (c == '\n') lineFeeds++;
+                    else carriageReturn = true;
+                }
+                if (carriageReturn) setCursorCol(mLeftMargin);
+                if (lineFeeds > 0) doLinefeeds(lineFeeds);
+                i = runEnd;
+            } else {
+                processByte(b);
+                i++;
+            }
+        }
+    }
+
+    /**
+     * If printable ASCII characters would be emitted by {@link #emitCodePoint(int)} without any translation or
+     * shifting of existing text, so that {@link #emitAsciiRun(byte[], int, int)} can be used.
+     */
+    private boolean canEmitAsciiRun() {
+        return mEscapeState == ESC_NONE && mUtf8ToFollow == 0 && !mInsertMode && mCursorCol < mRightMargin
+            && !(mUseLineDrawingUsesG0 ? mUseLineDrawingG0 : mUseLineDrawingG1);
+    }
+
+    /**
+     * Emit a run of printable ASCII characters, which all have display width 1, with the same result as calling
+     * {@link #emitCodePoint(int)} for each of them, but writing as much as possible of the run into the current row
+     * at once. Must only be called if {@link #canEmitAsciiRun()}.
+     *
+     * @param buffer the buffer containing the characters, all in the range [32,126]
+     * @param start  the index of the first character to emit
+     * @param end    the index after the last character to emit
+     */
+    private void emitAsciiRun(byte[] buffer, int start, int end) {
+        final boolean autoWrap = isDecsetInternalBitSet(DECSET_BIT_AUTOWRAP);
+        final long style = getStyle();
+        final int lastColumn = mRightMargin - 1;
+        mLastEmittedCodePoint = buffer[end - 1];
+
+        int i = start;
+        while (i < end) {
+            if (autoWrap && mAboutToAutoWrap && mCursorCol == lastColumn) {
+                mScreen.setLineWrap(mCursorRow);
+                mCursorCol = mLeftMargin;
+                if (mCursorRow + 1 < mBottomMargin) {
+                    mCursorRow++;
+                } else {
+                    scrollDownOneLine();
+                }
+            }
+
+            final int column = mCursorCol;
+            final int charsInRow = Math.min(end - i, mRightMargin - column);
+            mScreen.setAsciiChars(column, mCursorRow, buffer, i, charsInRow, style);
+            i += charsInRow;
+
+            final int lastWrittenColumn = column + charsInRow - 1;
+            if (autoWrap) {
+                mAboutToAutoWrap = lastWrittenColumn == lastColumn;
+            } else if (i < end) {
+                // Without autowrap the remaining characters all overwrite the last column, so only the last one is seen.
+                mScreen.setAsciiChars(lastColumn, mCursorRow, buffer, end - 1, 1, style);
+                i = end;
+            }
+            mCursorCol = Math.min(lastWrittenColumn + 1, lastColumn);
+        }
     }
 
     private void processByte(byte byteToProcess) {
         if (mUtf8ToFollow > 0) {
-            if ((byteToProcess & 0b11000000) == 0b10000000) {
-                // 10xxxxxx, a continuation byte.
-                mUtf8InputBuffer[mUtf8Index++] = byteToProcess;
-                if (--mUtf8ToFollow == 0) {
-                    byte firstByteMask = (byte) (mUtf8Index == 2 ? 0b00011111 : (mUtf8Index == 3 ? 0b00001111 : 0b00000111));
-                    int codePoint = (mUtf8InputBuffer[0] & firstByteMask);
-                    for (int i = 1; i < mUtf8Index; i++)
-                        codePoint = ((codePoint << 6) | (mUtf8InputBuffer[i] & 0b00111111));
-                    if (((codePoint <= 0b1111111) && mUtf8Index > 1) || (codePoint < 0b11111111111 && mUtf8Index > 2)
-                        || (codePoint < 0b1111111111111111 && mUtf8Index > 3)) {
-                        // Overlong encoding.
-                        codePoint = UNICODE_REPLACEMENT_CHAR;
-                    }
+            processUtf8ContinuationByte(byteToProcess);
+            return;
+        }
+        if ((byteToProcess & 0b10000000) == 0) { // The leading bit is not set so it is a 7-bit ASCII character.
+            processCodePoint(byteToProcess);
+            return;
+        } else if ((byteToProcess & 0b11100000) == 0b11000000) { // 110xxxxx, a two-byte sequence.
+            mUtf8ToFollow = 1;
+        } else if ((byteToProcess & 0b11110000) == 0b11100000) { // 1110xxxx, a three-byte sequence.
+            mUtf8ToFollow = 2;
+        } else if ((byteToProcess & 0b11111000) == 0b11110000) { // 11110xxx, a four-byte sequence.
+            mUtf8ToFollow = 3;
+        } else {
+            // Not a valid UTF-8 sequence start, signal invalid data:
+            processCodePoint(UNICODE_REPLACEMENT_CHAR);
+            return;
+        }
+        mUtf8InputBuffer[mUtf8Index++] = byteToProcess;
+    }
 
-                    mUtf8Index = mUtf8ToFollow = 0;
+    /** Process a byte following the first byte of an UTF-8 sequence, while {@link #mUtf8ToFollow} is not zero. */
+    private void processUtf8ContinuationByte(byte byteToProcess) {
+        if ((byteToProcess & 0b11000000) == 0b10000000) {
+            // 10xxxxxx, a continuation byte.
+            mUtf8InputBuffer[mUtf8Index++] = byteToProcess;
+            if (--mUtf8ToFollow == 0) {
+                byte firstByteMask = (byte) (mUtf8Index == 2 ? 0b00011111 : (mUtf8Index == 3 ? 0b00001111 : 0b00000111));
+                int codePoint = (mUtf8InputBuffer[0] & firstByteMask);
+                for (int i = 1; i < mUtf8Index; i++)
+                    codePoint = ((codePoint << 6) | (mUtf8InputBuffer[i] & 0b00111111));
+                if (((codePoint <= 0b1111111) && mUtf8Index > 1) || (codePoint < 0b11111111111 && mUtf8Index > 2)
+                    || (codePoint < 0b1111111111111111 && mUtf8Index > 3)) {
+                    // Overlong encoding.
+                    codePoint = UNICODE_REPLACEMENT_CHAR;
+                }
 
-                    if (codePoint >= 0x80 && codePoint <= 0x9F) {
-                        // Sequence decoded to a C1 control character which we ignore. They are
-                        // not used nowadays and increases the risk of messing up the terminal state
-                        // on binary input. XTerm does not allow them in utf-8:
-                        // "It is not possible to use a C1 control obtained from decoding the
-                        // UTF-8 text" - http://invisible-island.net/xterm/ctlseqs/ctlseqs.html
-                    } else {
-                        switch (Character.getType(codePoint)) {
-                            case Character.UNASSIGNED:
-                            case Character.SURROGATE:
-                                codePoint = UNICODE_REPLACEMENT_CHAR;
-                        }
-                        processCodePoint(codePoint);
+                mUtf8Index = mUtf8ToFollow = 0;
+
+                if (codePoint >= 0x80 && codePoint <= 0x9F) {
+                    // Sequence decoded to a C1 control character which we ignore. They are
+                    // not used nowadays and increases the risk of messing up the terminal state
+                    // on binary input. XTerm does not allow them in utf-8:
+                    // "It is not possible to use a C1 control obtained from decoding the
+                    // UTF-8 text" - http://invisible-island.net/xterm/ctlseqs/ctlseqs.html
+                } else {
+                    switch (Character.getType(codePoint)) {
+                        case Character.UNASSIGNED:
+                        case Character.SURROGATE:
+                            codePoint = UNICODE_REPLACEMENT_CHAR;
                     }
+                    processCodePoint(codePoint);
                 }
-            } else {
-                // Not a UTF-8 continuation byte so replace the entire sequence up to now with the replacement char:
-                mUtf8Index = mUtf8ToFollow = 0;
-                emitCodePoint(UNICODE_REPLACEMENT_CHAR);
-                // The Unicode Standard Version 6.2 – Core Specification
-                // (http://www.unicode.org/versions/Unicode6.2.0/ch03.pdf):
-                // "If the converter encounters an ill-formed UTF-8 code unit sequence which starts with a valid first
-                // byte, but which does not continue with valid successor bytes (see Table 3-7), it must not consume the
-                // successor bytes as part of the ill-formed subsequence
-                // whenever those successor bytes themselves constitute part of a well-formed UTF-8 code unit
-                // subsequence."
-                processByte(byteToProcess);
             }
         } else {
-            if ((byteToProcess & 0b10000000) == 0) { // The leading bit is not set so it is a 7-bit ASCII character.
-                processCodePoint(byteToProcess);
-                return;
-            } else if ((byteToProcess & 0b11100000) == 0b11000000) { // 110xxxxx, a two-byte sequence.
-                mUtf8ToFollow = 1;
-            } else if ((byteToProcess & 0b11110000) == 0b11100000) { // 1110xxxx, a three-byte sequence.
-                mUtf8ToFollow = 2;
-            } else if ((byteToProcess & 0b11111000) == 0b11110000) { // 11110xxx, a four-byte sequence.
-                mUtf8ToFollow = 3;
-            } else {
-                // Not a valid UTF-8 sequence start, signal invalid data:
-                processCodePoint(UNICODE_REPLACEMENT_CHAR);
-                return;
-            }
-            mUtf8InputBuffer[mUtf8Index++] = byteToProcess;
+            // Not a UTF-8 continuation byte so replace the entire sequence up to now with the replacement char:
+            mUtf8Index = mUtf8ToFollow = 0;
+            emitCodePoint(UNICODE_REPLACEMENT_CHAR);
+            // The Unicode Standard Version 6.2 – Core Specification
+            // (http://www.unicode.org/versions/Unicode6.2.0/ch03.pdf):
+            // "If the converter encounters an ill-formed UTF-8 code unit sequence which starts with a valid first
+            // byte, but which does not continue with valid successor bytes (see Table 3-7), it must not consume the
+            // successor bytes as part of the ill-formed subsequence
+            // whenever those successor bytes themselves constitute part of a well-formed UTF-8 code unit
+            // subsequence."
+            processByte(byteToProcess);
         }
     }
 
     public void processCodePoint(int b) {
+        if (mEscapeState == ESC_NONE) {
+            // The ground state, in which most code points are printed.
+            if (b >= 32) {
+                emitCodePoint(b);
+            } else {
+                processControlCharacter(b);
+            }
+            return;
+        }
+
         // The Application Program-Control (APC) string might be arbitrary non-printable characters, so handle that early.
         if (mEscapeState == ESC_APC) {
             doApc(b);
@@ -577,27 +738,27 @@ public final class TerminalEmulator {
             return;
         }
 
+        if (!processControlCharacter(b)) processEscapeSequence(b);
+    }
+
+    /**
+     * Handle the control characters which act the same inside escape sequences as outside of them.
+     *
+     * @return false if the code point is not one of them, and so is part of the current escape sequence
+     */
+    private boolean processControlCharacter(int b) {
         switch (b) {
             case 0: // Null character (NUL, ^@). Do nothing.
-                break;
+                return true;
             case 7: // Bell (BEL, ^G, \a). If in an OSC sequence, BEL may terminate a string; otherwise signal bell.
                 if (mEscapeState == ESC_OSC)
                     doOsc(b);
                 else
                     mSession.onBell();
-                break;
+                return true;
             case 8: // Backspace (BS, ^H).
-                if (mLeftMargin == mCursorCol) {
-                    // Jump to previous line if it was auto-wrapped.
-                    int previousRow = mCursorRow - 1;
-                    if (previousRow >= 0 && mScreen.getLineWrap(previousRow)) {
-                        mScreen.clearLineWrap(previousRow);
-                        setCursorRowCol(previousRow, mRightMargin - 1);
-                    }
-                } else {
-                    setCursorCol(mCursorCol - 1);
-                }
-                break;
+                doBackspace();
+                return true;
             case 9: // Horizontal tab (HT, \t) - move to next tab stop, but not past edge of screen
                 // XXX: Should perhaps use color if writing to new cells. Try with
                 //       printf "\033[41m\tXX\033[0m\n"
@@ -607,21 +768,21 @@ public final class TerminalEmulator {
                 // the first cells are created with a red background, but when tabbing over
                 // them again with a green background they are not overwritten.
                 mCursorCol = nextTabStop(1);
-                break;
+                return true;
             case 10: // Line feed (LF, \n).
             case 11: // Vertical tab (VT, \v).
             case 12: // Form feed (FF, \f).
                 doLinefeed();
-                break;
+                return true;
             case 13: // Carriage return (CR, \r).
                 setCursorCol(mLeftMargin);
-                break;
+                return true;
             case 14: // Shift Out (Ctrl-N, SO) → Switch to Alternate Character Set. This invokes the G1 character set.
                 mUseLineDrawingUsesG0 = false;
-                break;
+                return true;
             case 15: // Shift In (Ctrl-O, SI) → Switch to Standard Character Set. This invokes the G0 character set.
                 mUseLineDrawingUsesG0 = true;
-                break;
+                return true;
             case 24: // CAN.
             case 26: // SUB.
                 if (mEscapeState != ESC_NONE) {
@@ -629,288 +790,356 @@ public final class TerminalEmulator {
                     mEscapeState = ESC_NONE;
                     emitCodePoint(127);
                 }
-                break;
+                return true;
             case 27: // ESC
                 // Starts an escape sequence unless we're parsing a string
                 if (mEscapeState == ESC_P) {
                     // XXX: Ignore escape when reading device control sequence, since it may be part of string terminator.
-                    return;
                 } else if (mEscapeState != ESC_OSC) {
                     startEscapeSequence();
                 } else {
                     doOsc(b);
                 }
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private void doBackspace() {
+        if (mLeftMargin == mCursorCol) {
+            // Jump to previous line if it was auto-wrapped.
+            int previousRow = mCursorRow - 1;
+            if (previousRow >= 0 && mScreen.getLineWrap(previousRow)) {
+                mScreen.clearLineWrap(previousRow);
+                setCursorRowCol(previousRow, mRightMargin - 1);
+            }
+        } else if (mCursorCol > 0) {
+            // The cursor may be left of the left margin, but must not move off the screen.
+            setCursorCol(mCursorCol - 1);
+        }
+    }
+
+    /** Process a code point which is part of the escape sequence of {@link #mEscapeState}. */
+    private void processEscapeSequence(int b) {
+        mContinueSequence = false;
+        switch (mEscapeState) {
+            case ESC:
+                doEsc(b);
+                break;
+            case ESC_POUND:
+                doEscPound(b);
+                break;
+            case ESC_SELECT_LEFT_PAREN: // Designate G0 Character Set (ISO 2022, VT100).
+                mUseLineDrawingG0 = (b == '0');
+                break;
+            case ESC_SELECT_RIGHT_PAREN: // Designate G1 Character Set (ISO 2022, VT100).
+                mUseLineDrawingG1 = (b == '0');
+                break;
+            case ESC_CSI:
+                doCsi(b);
+                break;
+            case ESC_CSI_UNSUPPORTED_PARAMETER_BYTE:
+            case ESC_CSI_UNSUPPORTED_INTERMEDIATE_BYTE:
+                doCsiUnsupportedParameterOrIntermediateByte(b);
+                break;
+            case ESC_CSI_EXCLAMATION:
+                if (b == 'p') { // Soft terminal reset (DECSTR, http://vt100.net/docs/vt510-rm/DECSTR).
+                    reset();
+                } else {
+                    unknownSequence(b);
+                }
+                break;
+            case ESC_CSI_QUESTIONMARK:
+                doCsiQuestionMark(b);
+                break;
+            case ESC_CSI_BIGGERTHAN:
+                doCsiBiggerThan(b);
+                break;
+            case ESC_CSI_DOLLAR:
+                doCsiDollar(b);
+                break;
+            case ESC_CSI_DOUBLE_QUOTE:
+                doCsiDoubleQuote(b);
+                break;
+            case ESC_CSI_SINGLE_QUOTE:
+                doCsiSingleQuote(b);
+                break;
+            case ESC_PERCENT:
+                break;
+            case ESC_OSC:
+                doOsc(b);
+                break;
+            case ESC_OSC_ESC:
+                doOscEsc(b);
+                break;
+            case ESC_P:
+                doDeviceControl(b);
+                break;
+            case ESC_CSI_QUESTIONMARK_ARG_DOLLAR:
+                doCsiQuestionMarkArgDollar(b);
+                break;
+            case ESC_CSI_ARGS_SPACE:
+                doCsiArgsSpace(b);
+                break;
+            case ESC_CSI_ARGS_ASTERIX:
+                doCsiArgsAsterix(b);
                 break;
             default:
-                mContinueSequence = false;
-                switch (mEscapeState) {
-                    case ESC_NONE:
-                        if (b >= 32) emitCodePoint(b);
-                        break;
-                    case ESC:
-                        doEsc(b);
-                        break;
-                    case ESC_POUND:
-                        doEscPound(b);
-                        break;
-                    case ESC_SELECT_LEFT_PAREN: // Designate G0 Character Set (ISO 2022, VT100).
-                        mUseLineDrawingG0 = (b == '0');
+                unknownSequence(b);
+                break;
+        }
+        if (!mContinueSequence) mEscapeState = ESC_NONE;
+    }
+
+    /** "${CSI}...$" followed by the final byte, for the rectangular area operations. {@link #ESC_CSI_DOLLAR}. */
+    private void doCsiDollar(int b) {
+        switch (b) {
+            case 'v': // ${CSI}${SRC_TOP}${SRC_LEFT}${SRC_BOTTOM}${SRC_RIGHT}${SRC_PAGE}${DST_TOP}${DST_LEFT}${DST_PAGE}$v"
+                copyRectangularArea();
+                break;
+            case '{': // ${CSI}${TOP}${LEFT}${BOTTOM}${RIGHT}${"
+                // Selective erase rectangular area (DECSERA - http://www.vt100.net/docs/vt510-rm/DECSERA).
+            case 'x': // ${CSI}${CHAR};${TOP}${LEFT}${BOTTOM}${RIGHT}$x"
+                // Fill rectangular area (DECFRA - http://www.vt100.net/docs/vt510-rm/DECFRA).
+            case 'z': // ${CSI}$${TOP}${LEFT}${BOTTOM}${RIGHT}$z"
+                // Erase rectangular area (DECERA - http://www.vt100.net/docs/vt510-rm/DECERA).
+                fillRectangularArea(b);
+                break;
+            case 'r': // "${CSI}${TOP}${LEFT}${BOTTOM}${RIGHT}${ATTRIBUTES}$r"
+                // Change attributes in rectangular area (DECCARA - http://vt100.net/docs/vt510-rm/DECCARA).
+            case 't': // "${CSI}${TOP}${LEFT}${BOTTOM}${RIGHT}${ATTRIBUTES}$t"
+                // Reverse attributes in rectangular area (DECRARA - http://www.vt100.net/docs/vt510-rm/DECRARA).
+                changeRectangularAreaAttributes(b == 't');
+                break;
+            default:
+                unknownSequence(b);
+        }
+    }
+
+    /** Copy rectangular area (DECCRA - http://vt100.net/docs/vt510-rm/DECCRA). */
+    private void copyRectangularArea() {
+        // "If Pbs is greater than Pts, or Pls is greater than Prs, the terminal ignores DECCRA.
+        // The coordinates of the rectangular area are affected by the setting of origin mode (DECOM).
+        // DECCRA is not affected by the page margins.
+        // The copied text takes on the line attributes of the destination area.
+        // If the value of Pt, Pl, Pb, or Pr exceeds the width or height of the active page, then the value
+        // is treated as the width or height of that page.
+        // If the destination area is partially off the page, then DECCRA clips the off-page data.
+        // DECCRA does not change the active cursor position."
+        boolean originMode = isDecsetInternalBitSet(DECSET_BIT_ORIGIN_MODE);
+        int effectiveTopMargin = originMode ? mTopMargin : 0;
+        int effectiveLeftMargin = originMode ? mLeftMargin : 0;
+        int topSource = Math.min(getArg(0, 1, true) - 1 + effectiveTopMargin, mRows);
+        int leftSource = Math.min(getArg(1, 1, true) - 1 + effectiveLeftMargin, mColumns);
+        // Inclusive, so do not subtract one:
+        int bottomSource = Math.min(Math.max(getArg(2, mRows, true) + effectiveTopMargin, topSource), mRows);
+        int rightSource = Math.min(Math.max(getArg(3, mColumns, true) + effectiveLeftMargin, leftSource), mColumns);
+        // int sourcePage = getArg(4, 1, true);
+        int destionationTop = Math.min(getArg(5, 1, true) - 1 + effectiveTopMargin, mRows);
+        int destinationLeft = Math.min(getArg(6, 1, true) - 1 + effectiveLeftMargin, mColumns);
+        // int destinationPage = getArg(7, 1, true);
+        int heightToCopy = Math.min(mRows - destionationTop, bottomSource - topSource);
+        int widthToCopy = Math.min(mColumns - destinationLeft, rightSource - leftSource);
+        mScreen.blockCopy(leftSource, topSource, widthToCopy, heightToCopy, destinationLeft, destionationTop);
+    }
+
+    /** Fill (DECFRA), erase (DECERA) or selectively erase (DECSERA) a rectangular area, for the final byte b. */
+    private void fillRectangularArea(int b) {
+        boolean erase = b != 'x';
+        boolean selective = b == '{';
+        // Only DECSERA keeps visual attributes, DECERA does not:
+        boolean keepVisualAttributes = erase && selective;
+        int argIndex = 0;
+        int fillChar = erase ? ' ' : getArg(argIndex++, -1, true);
+        // "Pch can be any value from 32 to 126 or from 160 to 255. If Pch is not in this range, then the
+        // terminal ignores the DECFRA command":
+        if ((fillChar >= 32 && fillChar <= 126) || (fillChar >= 160 && fillChar <= 255)) {
+            boolean originMode = isDecsetInternalBitSet(DECSET_BIT_ORIGIN_MODE);
+            int effectiveTopMargin = originMode ? mTopMargin : 0;
+            int effectiveBottomMargin = originMode ? mBottomMargin : mRows;
+            int effectiveLeftMargin = originMode ? mLeftMargin : 0;
+            int effectiveRightMargin = originMode ? mRightMargin : mColumns;
+            // "If the value of Pt, Pl, Pb, or Pr exceeds the width or height of the active page, the value
+            // is treated as the width or height of that page."
+            int top = Math.min(getArg(argIndex++, 1, true) + effectiveTopMargin, effectiveBottomMargin + 1);
+            int left = Math.min(getArg(argIndex++, 1, true) + effectiveLeftMargin, effectiveRightMargin + 1);
+            int bottom = Math.min(getArg(argIndex++, mRows, true) + effectiveTopMargin, effectiveBottomMargin);
+            int right = Math.min(getArg(argIndex, mColumns, true) + effectiveLeftMargin, effectiveRightMargin);
+            long style = getStyle();
+            if (!selective) {
+                if (bottom >= top && right >= left)
+                    mScreen.blockSet(left - 1, top - 1, right - left + 1, bottom - top + 1, fillChar, style);
+            } else {
+                for (int row = top - 1; row < bottom; row++)
+                    for (int col = left - 1; col < right; col++)
+                        if ((TextStyle.decodeEffect(mScreen.getStyleAt(row, col)) & TextStyle.CHARACTER_ATTRIBUTE_PROTECTED) == 0)
+                            mScreen.setChar(col, row, fillChar, keepVisualAttributes ? mScreen.getStyleAt(row, col) : style);
+            }
+        }
+    }
+
+    /** Change (DECCARA) or reverse (DECRARA) the attributes in a rectangular area. */
+    private void changeRectangularAreaAttributes(boolean reverse) {
+        boolean originMode = isDecsetInternalBitSet(DECSET_BIT_ORIGIN_MODE);
+        int effectiveTopMargin = originMode ? mTopMargin : 0;
+        int effectiveBottomMargin = originMode ? mBottomMargin : mRows;
+        int effectiveLeftMargin = originMode ? mLeftMargin : 0;
+        int effectiveRightMargin = originMode ? mRightMargin : mColumns;
+        // FIXME: "coordinates of the rectangular area are affected by the setting of origin mode (DECOM)".
+        int top = Math.min(getArg(0, 1, true) - 1, effectiveBottomMargin) + effectiveTopMargin;
+        int left = Math.min(getArg(1, 1, true) - 1, effectiveRightMargin) + effectiveLeftMargin;
+        int bottom = Math.min(getArg(2, mRows, true) + 1, effectiveBottomMargin - 1) + effectiveTopMargin;
+        int right = Math.min(getArg(3, mColumns, true) + 1, effectiveRightMargin - 1) + effectiveLeftMargin;
+        if (mArgIndex >= 4) {
+            if (mArgIndex >= mArgs.length) mArgIndex = mArgs.length - 1;
+            for (int i = 4; i <= mArgIndex; i++) {
+                int bits = 0;
+                boolean setOrClear = true; // True if setting, false if clearing.
+                switch (getArg(i, 0, false)) {
+                    case 0: // Attributes off (no bold, no underline, no blink, positive image).
+                        bits = (TextStyle.CHARACTER_ATTRIBUTE_BOLD | TextStyle.CHARACTER_ATTRIBUTE_UNDERLINE | TextStyle.CHARACTER_ATTRIBUTE_BLINK
+                            | TextStyle.CHARACTER_ATTRIBUTE_INVERSE);
+                        if (!reverse) setOrClear = false;
                         break;
-                    case ESC_SELECT_RIGHT_PAREN: // Designate G1 Character Set (ISO 2022, VT100).
-                        mUseLineDrawingG1 = (b == '0');
+                    case 1: // Bold.
+                        bits = TextStyle.CHARACTER_ATTRIBUTE_BOLD;
                         break;
-                    case ESC_CSI:
-                        doCsi(b);
+                    case 4: // Underline.
+                        bits = TextStyle.CHARACTER_ATTRIBUTE_UNDERLINE;
                         break;
-                    case ESC_CSI_UNSUPPORTED_PARAMETER_BYTE:
-                    case ESC_CSI_UNSUPPORTED_INTERMEDIATE_BYTE:
-                        doCsiUnsupportedParameterOrIntermediateByte(b);
+                    case 5: // Blink.
+                        bits = TextStyle.CHARACTER_ATTRIBUTE_BLINK;
                         break;
-                    case ESC_CSI_EXCLAMATION:
-                        if (b == 'p') { // Soft terminal reset (DECSTR, http://vt100.net/docs/vt510-rm/DECSTR).
-                            reset();
-                        } else {
-                            unknownSequence(b);
-                        }
+                    case 7: // Negative image.
+                        bits = TextStyle.CHARACTER_ATTRIBUTE_INVERSE;
                         break;
-                    case ESC_CSI_QUESTIONMARK:
-                        doCsiQuestionMark(b);
+                    case 22: // No bold.
+                        bits = TextStyle.CHARACTER_ATTRIBUTE_BOLD;
+                        setOrClear = false;
                         break;
-                    case ESC_CSI_BIGGERTHAN:
-                        doCsiBiggerThan(b);
+                    case 24: // No underline.
+                        bits = TextStyle.CHARACTER_ATTRIBUTE_UNDERLINE;
+                        setOrClear = false;
                         break;
-                    case ESC_CSI_DOLLAR:
-                        boolean originMode = isDecsetInternalBitSet(DECSET_BIT_ORIGIN_MODE);
-                        int effectiveTopMargin = originMode ? mTopMargin : 0;
-                        int effectiveBottomMargin = originMode ? mBottomMargin : mRows;
-                        int effectiveLeftMargin = originMode ? mLeftMargin : 0;
-                        int effectiveRightMargin = originMode ? mRightMargin : mColumns;
-                        switch (b) {
-                            case 'v': // ${CSI}${SRC_TOP}${SRC_LEFT}${SRC_BOTTOM}${SRC_RIGHT}${SRC_PAGE}${DST_TOP}${DST_LEFT}${DST_PAGE}$v"
-                                // Copy rectangular area (DECCRA - http://vt100.net/docs/vt510-rm/DECCRA):
-                                // "If Pbs is greater than Pts, or Pls is greater than Prs, the terminal ignores DECCRA.
-                                // The coordinates of the rectangular area are affected by the setting of origin mode (DECOM).
-                                // DECCRA is not affected by the page margins.
-                                // The copied text takes on the line attributes of the destination area.
-                                // If the value of Pt, Pl, Pb, or Pr exceeds the width or height of the active page, then the value
-                                // is treated as the width or height of that page.
-                                // If the destination area is partially off the page, then DECCRA clips the off-page data.
-                                // DECCRA does not change the active cursor position."
-                                int topSource = Math.min(getArg(0, 1, true) - 1 + effectiveTopMargin, mRows);
-                                int leftSource = Math.min(getArg(1, 1, true) - 1 + effectiveLeftMargin, mColumns);
-                                // Inclusive, so do not subtract one:
-                                int bottomSource = Math.min(Math.max(getArg(2, mRows, true) + effectiveTopMargin, topSource), mRows);
-                                int rightSource = Math.min(Math.max(getArg(3, mColumns, true) + effectiveLeftMargin, leftSource), mColumns);
-                                // int sourcePage = getArg(4, 1, true);
-                                int destionationTop = Math.min(getArg(5, 1, true) - 1 + effectiveTopMargin, mRows);
-                                int destinationLeft = Math.min(getArg(6, 1, true) - 1 + effectiveLeftMargin, mColumns);
-                                // int destinationPage = getArg(7, 1, true);
-                                int heightToCopy = Math.min(mRows - destionationTop, bottomSource - topSource);
-                                int widthToCopy = Math.min(mColumns - destinationLeft, rightSource - leftSource);
-                                mScreen.blockCopy(leftSource, topSource, widthToCopy, heightToCopy, destinationLeft, destionationTop);
-                                break;
-                            case '{': // ${CSI}${TOP}${LEFT}${BOTTOM}${RIGHT}${"
-                                // Selective erase rectangular area (DECSERA - http://www.vt100.net/docs/vt510-rm/DECSERA).
-                            case 'x': // ${CSI}${CHAR};${TOP}${LEFT}${BOTTOM}${RIGHT}$x"
-                                // Fill rectangular area (DECFRA - http://www.vt100.net/docs/vt510-rm/DECFRA).
-                            case 'z': // ${CSI}$${TOP}${LEFT}${BOTTOM}${RIGHT}$z"
-                                // Erase rectangular area (DECERA - http://www.vt100.net/docs/vt510-rm/DECERA).
-                                boolean erase = b != 'x';
-                                boolean selective = b == '{';
-                                // Only DECSERA keeps visual attributes, DECERA does not:
-                                boolean keepVisualAttributes = erase && selective;
-                                int argIndex = 0;
-                                int fillChar = erase ? ' ' : getArg(argIndex++, -1, true);
-                                // "Pch can be any value from 32 to 126 or from 160 to 255. If Pch is not in this range, then the
-                                // terminal ignores the DECFRA command":
-                                if ((fillChar >= 32 && fillChar <= 126) || (fillChar >= 160 && fillChar <= 255)) {
-                                    // "If the value of Pt, Pl, Pb, or Pr exceeds the width or height of the active page, the value
-                                    // is treated as the width or height of that page."
-                                    int top = Math.min(getArg(argIndex++, 1, true) + effectiveTopMargin, effectiveBottomMargin + 1);
-                                    int left = Math.min(getArg(argIndex++, 1, true) + effectiveLeftMargin, effectiveRightMargin + 1);
-                                    int bottom = Math.min(getArg(argIndex++, mRows, true) + effectiveTopMargin, effectiveBottomMargin);
-                                    int right = Math.min(getArg(argIndex, mColumns, true) + effectiveLeftMargin, effectiveRightMargin);
-                                    long style = getStyle();
-                                    for (int row = top - 1; row < bottom; row++)
-                                        for (int col = left - 1; col < right; col++)
-                                            if (!selective || (TextStyle.decodeEffect(mScreen.getStyleAt(row, col)) & TextStyle.CHARACTER_ATTRIBUTE_PROTECTED) == 0)
-                                                mScreen.setChar(col, row, fillChar, keepVisualAttributes ? mScreen.getStyleAt(row, col) : style);
-                                }
-                                break;
-                            case 'r': // "${CSI}${TOP}${LEFT}${BOTTOM}${RIGHT}${ATTRIBUTES}$r"
-                                // Change attributes in rectangular area (DECCARA - http://vt100.net/docs/vt510-rm/DECCARA).
-                            case 't': // "${CSI}${TOP}${LEFT}${BOTTOM}${RIGHT}${ATTRIBUTES}$t"
-                                // Reverse attributes in rectangular area (DECRARA - http://www.vt100.net/docs/vt510-rm/DECRARA).
-                                boolean reverse = b == 't';
-                                // FIXME: "coordinates of the rectangular area are affected by the setting of origin mode (DECOM)".
-                                int top = Math.min(getArg(0, 1, true) - 1, effectiveBottomMargin) + effectiveTopMargin;
-                                int left = Math.min(getArg(1, 1, true) - 1, effectiveRightMargin) + effectiveLeftMargin;
-                                int bottom = Math.min(getArg(2, mRows, true) + 1, effectiveBottomMargin - 1) + effectiveTopMargin;
-                                int right = Math.min(getArg(3, mColumns, true) + 1, effectiveRightMargin - 1) + effectiveLeftMargin;
-                                if (mArgIndex >= 4) {
-                                    if (mArgIndex >= mArgs.length) mArgIndex = mArgs.length - 1;
-                                    for (int i = 4; i <= mArgIndex; i++) {
-                                        int bits = 0;
-                                        boolean setOrClear = true; // True if setting, false if clearing.
-                                        switch (getArg(i, 0, false)) {
-                                            case 0: // Attributes off (no bold, no underline, no blink, positive image).
-                                                bits = (TextStyle.CHARACTER_ATTRIBUTE_BOLD | TextStyle.CHARACTER_ATTRIBUTE_UNDERLINE | TextStyle.CHARACTER_ATTRIBUTE_BLINK
-                                                    | TextStyle.CHARACTER_ATTRIBUTE_INVERSE);
-                                                if (!reverse) setOrClear = false;
-                                                break;
-                                            case 1: // Bold.
-                                                bits = TextStyle.CHARACTER_ATTRIBUTE_BOLD;
-                                                break;
-                                            case 4: // Underline.
-                                                bits = TextStyle.CHARACTER_ATTRIBUTE_UNDERLINE;
-                                                break;
-                                            case 5: // Blink.
-                                                bits = TextStyle.CHARACTER_ATTRIBUTE_BLINK;
-                                                break;
-                                            case 7: // Negative image.
-                                                bits = TextStyle.CHARACTER_ATTRIBUTE_INVERSE;
-                                                break;
-                                            case 22: // No bold.
-                                                bits = TextStyle.CHARACTER_ATTRIBUTE_BOLD;
-                                                setOrClear = false;
-                                                break;
-                                            case 24: // No underline.
-                                                bits = TextStyle.CHARACTER_ATTRIBUTE_UNDERLINE;
-                                                setOrClear = false;
-                                                break;
-                                            case 25: // No blink.
-                                                bits = TextStyle.CHARACTER_ATTRIBUTE_BLINK;
-                                                setOrClear = false;
-                                                break;
-                                            case 27: // Positive image.
-                                                bits = TextStyle.CHARACTER_ATTRIBUTE_INVERSE;
-                                                setOrClear = false;
-                                                break;
-                                        }
-                                        if (reverse && !setOrClear) {
-                                            // Reverse attributes in rectangular area ignores non-(1,4,5,7) bits.
-                                        } else {
-                                            mScreen.setOrClearEffect(bits, setOrClear, reverse, isDecsetInternalBitSet(DECSET_BIT_RECTANGULAR_CHANGEATTRIBUTE),
-                                                effectiveLeftMargin, effectiveRightMargin, top, left, bottom, right);
-                                        }
-                                    }
-                                } else {
-                                    // Do nothing.
-                                }
-                                break;
-                            default:
-                                unknownSequence(b);
-                        }
+                    case 25: // No blink.
+                        bits = TextStyle.CHARACTER_ATTRIBUTE_BLINK;
+                        setOrClear = false;
                         break;
-                    case ESC_CSI_DOUBLE_QUOTE:
-                        if (b == 'q') {
-                            // http://www.vt100.net/docs/vt510-rm/DECSCA
-                            int arg = getArg0(0);
-                            if (arg == 0 || arg == 2) {
-                                // DECSED and DECSEL can erase characters.
-                                mEffect &= ~TextStyle.CHARACTER_ATTRIBUTE_PROTECTED;
-                            } else if (arg == 1) {
-                                // DECSED and DECSEL cannot erase characters.
-                                mEffect |= TextStyle.CHARACTER_ATTRIBUTE_PROTECTED;
-                            } else {
-                                unknownSequence(b);
-                            }
-                        } else {
-                            unknownSequence(b);
-                        }
+                    case 27: // Positive image.
+                        bits = TextStyle.CHARACTER_ATTRIBUTE_INVERSE;
+                        setOrClear = false;
                         break;
-                    case ESC_CSI_SINGLE_QUOTE:
-                        if (b == '}') { // Insert Ps Column(s) (default = 1) (DECIC), VT420 and up.
-                            int columnsAfterCursor = mRightMargin - mCursorCol;
-                            int columnsToInsert = Math.min(getArg0(1), columnsAfterCursor);
-                            int columnsToMove = columnsAfterCursor - columnsToInsert;
-                            mScreen.blockCopy(mCursorCol, 0, columnsToMove, mRows, mCursorCol + columnsToInsert, 0);
-                            blockClear(mCursorCol, 0, columnsToInsert, mRows);
-                        } else if (b == '~') { // Delete Ps Column(s) (default = 1) (DECDC), VT420 and up.
-                            int columnsAfterCursor = mRightMargin - mCursorCol;
-                            int columnsToDelete = Math.min(getArg0(1), columnsAfterCursor);
-                            int columnsToMove = columnsAfterCursor - columnsToDelete;
-                            mScreen.blockCopy(mCursorCol + columnsToDelete, 0, columnsToMove, mRows, mCursorCol, 0);
-                        } else {
-                            unknownSequence(b);
-                        }
-                        break;
-                    case ESC_PERCENT:
-                        break;
-                    case ESC_OSC:
-                        doOsc(b);
-                        break;
-                    case ESC_OSC_ESC:
-                        doOscEsc(b);
-                        break;
-                    case ESC_P:
-                        doDeviceControl(b);
-                        break;
-                    case ESC_CSI_QUESTIONMARK_ARG_DOLLAR:
-                        if (b == 'p') {
-                            // Request DEC private mode (DECRQM).
-                            int mode = getArg0(0);
-                            int value;
-                            if (mode == 47 || mode == 1047 || mode == 1049) {
-                                // This state is carried by mScreen pointer.
-                                value = (mScreen == mAltBuffer) ? 1 : 2;
-                            } else {
-                                int internalBit = mapDecSetBitToInternalBit(mode);
-                                if (internalBit != -1) {
-                                    value = isDecsetInternalBitSet(internalBit) ? 1 : 2; // 1=set, 2=reset.
-                                } else {
-                                    Logger.logError(mClient, LOG_TAG, "Got DECRQM for unrecognized private DEC mode=" + mode);
-                                    value = 0; // 0=not recognized, 3=permanently set, 4=permanently reset
-                                }
-                            }
-                            mSession.write(String.format(Locale.US, "\033[?%d;%d$y", mode, value));
-                        } else {
-                            unknownSequence(b);
-                        }
-                        break;
-                    case ESC_CSI_ARGS_SPACE:
-                        int arg = getArg0(0);
-                        switch (b) {
-                            case 'q': // "${CSI}${STYLE} q" - set cursor style (http://www.vt100.net/docs/vt510-rm/DECSCUSR).
-                                switch (arg) {
-                                    case 0: // Blinking block.
-                                    case 1: // Blinking block.
-                                    case 2: // Steady block.
-                                        mCursorStyle = TERMINAL_CURSOR_STYLE_BLOCK;
-                                        break;
-                                    case 3: // Blinking underline.
-                                    case 4: // Steady underline.
-                                        mCursorStyle = TERMINAL_CURSOR_STYLE_UNDERLINE;
-                                        break;
-                                    case 5: // Blinking bar (xterm addition).
-                                    case 6: // Steady bar (xterm addition).
-                                        mCursorStyle = TERMINAL_CURSOR_STYLE_BAR;
-                                        break;
-                                }
-                                break;
-                            case 't':
-                            case 'u':
-                                // Set margin-bell volume - ignore.
-                                break;
-                            default:
-                                unknownSequence(b);
-                        }
+                }
+                if (reverse && !setOrClear) {
+                    // Reverse attributes in rectangular area ignores non-(1,4,5,7) bits.
+                } else {
+                    mScreen.setOrClearEffect(bits, setOrClear, reverse, isDecsetInternalBitSet(DECSET_BIT_RECTANGULAR_CHANGEATTRIBUTE),
+                        effectiveLeftMargin, effectiveRightMargin, top, left, bottom, right);
+                }
+            }
+        }
+    }
+
+    /** "${CSI}..."" followed by the final byte. {@link #ESC_CSI_DOUBLE_QUOTE}. */
+    private void doCsiDoubleQuote(int b) {
+        if (b == 'q') {
+            // http://www.vt100.net/docs/vt510-rm/DECSCA
+            int arg = getArg0(0);
+            if (arg == 0 || arg == 2) {
+                // DECSED and DECSEL can erase characters.
+                mEffect &= ~TextStyle.CHARACTER_ATTRIBUTE_PROTECTED;
+            } else if (arg == 1) {
+                // DECSED and DECSEL cannot erase characters.
+                mEffect |= TextStyle.CHARACTER_ATTRIBUTE_PROTECTED;
+            } else {
+                unknownSequence(b);
+            }
+        } else {
+            unknownSequence(b);
+        }
+    }
+
+    /** "${CSI}...'" followed by the final byte. {@link #ESC_CSI_SINGLE_QUOTE}. */
+    private void doCsiSingleQuote(int b) {
+        if (b == '}') { // Insert Ps Column(s) (default = 1) (DECIC), VT420 and up.
+            int columnsAfterCursor = mRightMargin - mCursorCol;
+            int columnsToInsert = Math.min(getArg0(1), columnsAfterCursor);
+            int columnsToMove = columnsAfterCursor - columnsToInsert;
+            mScreen.blockCopy(mCursorCol, 0, columnsToMove, mRows, mCursorCol + columnsToInsert, 0);
+            blockClear(mCursorCol, 0, columnsToInsert, mRows);
+        } else if (b == '~') { // Delete Ps Column(s) (default = 1) (DECDC), VT420 and up.
+            int columnsAfterCursor = mRightMargin - mCursorCol;
+            int columnsToDelete = Math.min(getArg0(1), columnsAfterCursor);
+            int columnsToMove = columnsAfterCursor - columnsToDelete;
+            mScreen.blockCopy(mCursorCol + columnsToDelete, 0, columnsToMove, mRows, mCursorCol, 0);
+        } else {
+            unknownSequence(b);
+        }
+    }
+
+    /** "${CSI}?${MODE}$" followed by the final byte. {@link #ESC_CSI_QUESTIONMARK_ARG_DOLLAR}. */
+    private void doCsiQuestionMarkArgDollar(int b) {
+        if (b == 'p') {
+            // Request DEC private mode (DECRQM).
+            int mode = getArg0(0);
+            int value;
+            if (mode == 47 || mode == 1047 || mode == 1049) {
+                // This state is carried by mScreen pointer.
+                value = (mScreen == mAltBuffer) ? 1 : 2;
+            } else {
+                int internalBit = mapDecSetBitToInternalBit(mode);
+                if (internalBit != -1) {
+                    value = isDecsetInternalBitSet(internalBit) ? 1 : 2; // 1=set, 2=reset.
+                } else {
+                    Logger.logError(mClient, LOG_TAG, "Got DECRQM for unrecognized private DEC mode=" + mode);
+                    value = 0; // 0=not recognized, 3=permanently set, 4=permanently reset
+                }
+            }
+            mSession.write(String.format(Locale.US, "\033[?%d;%d$y", mode, value));
+        } else {
+            unknownSequence(b);
+        }
+    }
+
+    /** "${CSI}... " followed by the final byte. {@link #ESC_CSI_ARGS_SPACE}. */
+    private void doCsiArgsSpace(int b) {
+        int arg = getArg0(0);
+        switch (b) {
+            case 'q': // "${CSI}${STYLE} q" - set cursor style (http://www.vt100.net/docs/vt510-rm/DECSCUSR).
+                switch (arg) {
+                    case 0: // Blinking block.
+                    case 1: // Blinking block.
+                    case 2: // Steady block.
+                        mCursorStyle = TERMINAL_CURSOR_STYLE_BLOCK;
                         break;
-                    case ESC_CSI_ARGS_ASTERIX:
-                        int attributeChangeExtent = getArg0(0);
-                        if (b == 'x' && (attributeChangeExtent >= 0 && attributeChangeExtent <= 2)) {
-                            // Select attribute change extent (DECSACE - http://www.vt100.net/docs/vt510-rm/DECSACE).
-                            setDecsetinternalBit(DECSET_BIT_RECTANGULAR_CHANGEATTRIBUTE, attributeChangeExtent == 2);
-                        } else {
-                            unknownSequence(b);
-                        }
+                    case 3: // Blinking underline.
+                    case 4: // Steady underline.
+                        mCursorStyle = TERMINAL_CURSOR_STYLE_UNDERLINE;
                         break;
-                    default:
-                        unknownSequence(b);
+                    case 5: // Blinking bar (xterm addition).
+                    case 6: // Steady bar (xterm addition).
+                        mCursorStyle = TERMINAL_CURSOR_STYLE_BAR;
                         break;
                 }
-                if (!mContinueSequence) mEscapeState = ESC_NONE;
                 break;
+            case 't':
+            case 'u':
+                // Set margin-bell volume - ignore.
+                break;
+            default:
+                unknownSequence(b);
+        }
+    }
+
+    /** "${CSI}...*" followed by the final byte. {@link #ESC_CSI_ARGS_ASTERIX}. */
+    private void doCsiArgsAsterix(int b) {
+        int attributeChangeExtent = getArg0(0);
+        if (b == 'x' && (attributeChangeExtent >= 0 && attributeChangeExtent <= 2)) {
+            // Select attribute change extent (DECSACE - http://www.vt100.net/docs/vt510-rm/DECSACE).
+            setDecsetinternalBit(DECSET_BIT_RECTANGULAR_CHANGEATTRIBUTE, attributeChangeExtent == 2);
+        } else {
+            unknownSequence(b);
         }
     }
 
@@ -1217,8 +1446,7 @@ public final class TerminalEmulator {
             case 9: // X10 mouse reporting - outdated. Do not implement.
             case 12: // Control cursor blinking - ignore.
             case 25: // Hide/show cursor - no action needed, renderer will check with shouldCursorBeVisible().
-                if (mClient != null)
-                    mClient.onTerminalCursorStateChange(setting);
+                mSession.onTerminalCursorStateChange(setting);
                 break;
             case 40: // Allow 80 => 132 Mode, ignore.
             case 45: // TODO: Reverse wrap-around. Implement???
@@ -1277,6 +1505,9 @@ public final class TerminalEmulator {
             case 2004:
                 // Bracketed paste mode - setting bit is enough.
                 break;
+            case 2026:
+                // Synchronized output - setting bit is enough, the session checks it before notifying of screen updates.
+                break;
             default:
                 unknownParameter(externalBit);
                 break;
@@ -1371,16 +1602,21 @@ public final class TerminalEmulator {
     }
 
     private void doLinefeed() {
+        doLinefeeds(1);
+    }
+
+    /** Do a number of line feeds, with the same result as that many calls to {@link #doLinefeed()}. */
+    private void doLinefeeds(int lineFeeds) {
         boolean belowScrollingRegion = mCursorRow >= mBottomMargin;
-        int newCursorRow = mCursorRow + 1;
+        int newCursorRow = mCursorRow + lineFeeds;
         if (belowScrollingRegion) {
             // Move down (but not scroll) as long as we are above the last row.
             if (mCursorRow != mRows - 1) {
-                setCursorRow(newCursorRow);
+                setCursorRow(Math.min(newCursorRow, mRows - 1));
             }
         } else {
-            if (newCursorRow == mBottomMargin) {
-                scrollDownOneLine();
+            if (newCursorRow >= mBottomMargin) {
+                scrollDownLines(newCursorRow - (mBottomMargin - 1));
                 newCursorRow = mBottomMargin - 1;
             }
             setCursorRow(newCursorRow);
@@ -1462,8 +1698,7 @@ public final class TerminalEmulator {
                 // http://www.vt100.net/docs/vt100-ug/chapter3.html: "Move the active position to the same horizontal
                 // position on the preceding line. If the active position is at the top margin, a scroll down is performed".
                 if (mCursorRow <= mTopMargin) {
-                    mScreen.blockCopy(mLeftMargin, mTopMargin, mRightMargin - mLeftMargin, mBottomMargin - (mTopMargin + 1), mLeftMargin, mTopMargin + 1);
-                    blockClear(mLeftMargin, mTopMargin, mRightMargin - mLeftMargin);
+                    scrollUpLines(1);
                 } else {
                     mCursorRow--;
                 }
@@ -1525,8 +1760,51 @@ public final class TerminalEmulator {
         mUseLineDrawingUsesG0 = state.mUseLineDrawingUsesG0;
     }
 
-    /** Following a CSI - Control Sequence Introducer, "\033[". {@link #ESC_CSI}. */
+    /**
+     * Following a CSI - Control Sequence Introducer, "\033[". {@link #ESC_CSI}. Handles the parameters and the most
+     * common final bytes, with the rest handled by {@link #doCsiFinalByte(int)}, so that this stays small enough to be
+     * inlined into the parsing loop.
+     */
     private void doCsi(int b) {
+        if ((b >= '0' && b <= '9') || b == ';' || b == ':') {
+            parseArg(b);
+            return;
+        }
+        switch (b) {
+            case 'A': // "CSI${n}A" - Cursor up (CUU) ${n} rows.
+                setCursorRow(Math.max(0, mCursorRow - getArg0(1)));
+                break;
+            case 'B': // "CSI${n}B" - Cursor down (CUD) ${n} rows.
+                setCursorRow(Math.min(mRows - 1, mCursorRow + getArg0(1)));
+                break;
+            case 'C': // "CSI${n}C" - Cursor forward (CUF).
+            case 'a': // "CSI${n}a" - Horizontal position relative (HPR). From ISO-6428/ECMA-48.
+                setCursorCol(Math.min(mRightMargin - 1, mCursorCol + getArg0(1)));
+                break;
+            case 'D': // "CSI${n}D" - Cursor backward (CUB) ${n} columns.
+                setCursorCol(Math.max(mLeftMargin, mCursorCol - getArg0(1)));
+                break;
+            case 'H': // "${CSI}${ROW};${COLUMN}H" - Cursor position (CUP).
+            case 'f': // "${CSI}${ROW};${COLUMN}f" - Horizontal and Vertical Position (HVP).
+                setCursorPosition(getArg1(1) - 1, getArg0(1) - 1);
+                break;
+            case 'J': // "${CSI}${0,1,2,3}J" - Erase in Display (ED)
+                eraseInDisplay(b);
+                break;
+            case 'K': // "CSI{n}K" - Erase in line (EL).
+                eraseInLine(b);
+                break;
+            case 'm': // Esc [ Pn m - character attributes. (can have up to 16 numerical arguments)
+                selectGraphicRendition();
+                break;
+            default:
+                doCsiFinalByte(b);
+                break;
+        }
+    }
+
+    /** The final and intermediate bytes of a CSI sequence not handled by {@link #doCsi(int)}. */
+    private void doCsiFinalByte(int b) {
         switch (b) {
             case '!':
                 continueSequence(ESC_CSI_EXCLAMATION);
@@ -1543,28 +1821,8 @@ public final class TerminalEmulator {
             case '*':
                 continueSequence(ESC_CSI_ARGS_ASTERIX);
                 break;
-            case '@': {
-                // "CSI{n}@" - Insert ${n} space characters (ICH) - http://www.vt100.net/docs/vt510-rm/ICH.
-                mAboutToAutoWrap = false;
-                int columnsAfterCursor = mColumns - mCursorCol;
-                int spacesToInsert = Math.min(getArg0(1), columnsAfterCursor);
-                int charsToMove = columnsAfterCursor - spacesToInsert;
-                mScreen.blockCopy(mCursorCol, mCursorRow, charsToMove, 1, mCursorCol + spacesToInsert, mCursorRow);
-                blockClear(mCursorCol, mCursorRow, spacesToInsert);
-            }
-            break;
-            case 'A': // "CSI${n}A" - Cursor up (CUU) ${n} rows.
-                setCursorRow(Math.max(0, mCursorRow - getArg0(1)));
-                break;
-            case 'B': // "CSI${n}B" - Cursor down (CUD) ${n} rows.
-                setCursorRow(Math.min(mRows - 1, mCursorRow + getArg0(1)));
-                break;
-            case 'C': // "CSI${n}C" - Cursor forward (CUF).
-            case 'a': // "CSI${n}a" - Horizontal position relative (HPR). From ISO-6428/ECMA-48.
-                setCursorCol(Math.min(mRightMargin - 1, mCursorCol + getArg0(1)));
-                break;
-            case 'D': // "CSI${n}D" - Cursor backward (CUB) ${n} columns.
-                setCursorCol(Math.max(mLeftMargin, mCursorCol - getArg0(1)));
+            case '@': // "CSI{n}@" - Insert ${n} space characters (ICH) - http://www.vt100.net/docs/vt510-rm/ICH.
+                insertCharacters();
                 break;
             case 'E': // "CSI{n}E - Cursor Next Line (CNL). From ISO-6428/ECMA-48.
                 setCursorPosition(0, mCursorRow + getArg0(1));
@@ -1575,61 +1833,14 @@ public final class TerminalEmulator {
             case 'G': // "CSI${n}G" - Cursor horizontal absolute (CHA) to column ${n}.
                 setCursorCol(Math.min(Math.max(1, getArg0(1)), mColumns) - 1);
                 break;
-            case 'H': // "${CSI}${ROW};${COLUMN}H" - Cursor position (CUP).
-            case 'f': // "${CSI}${ROW};${COLUMN}f" - Horizontal and Vertical Position (HVP).
-                setCursorPosition(getArg1(1) - 1, getArg0(1) - 1);
-                break;
             case 'I': // Cursor Horizontal Forward Tabulation (CHT). Move the active position n tabs forward.
                 setCursorCol(nextTabStop(getArg0(1)));
                 break;
-            case 'J': // "${CSI}${0,1,2,3}J" - Erase in Display (ED)
-                // ED ignores the scrolling margins.
-                switch (getArg0(0)) {
-                    case 0: // Erase from the active position to the end of the screen, inclusive (default).
-                        blockClear(mCursorCol, mCursorRow, mColumns - mCursorCol);
-                        blockClear(0, mCursorRow + 1, mColumns, mRows - (mCursorRow + 1));
-                        break;
-                    case 1: // Erase from start of the screen to the active position, inclusive.
-                        blockClear(0, 0, mColumns, mCursorRow);
-                        blockClear(0, mCursorRow, mCursorCol + 1);
-                        break;
-                    case 2: // Erase all of the display - all lines are erased, changed to single-width, and the cursor does not
-                        // move..
-                        blockClear(0, 0, mColumns, mRows);
-                        break;
-                    case 3: // Delete all lines saved in the scrollback buffer (xterm etc)
-                        mMainBuffer.clearTranscript();
-                        break;
-                    default:
-                        unknownSequence(b);
-                        return;
-                }
-                mAboutToAutoWrap = false;
-                break;
-            case 'K': // "CSI{n}K" - Erase in line (EL).
-                switch (getArg0(0)) {
-                    case 0: // Erase from the cursor to the end of the line, inclusive (default)
-                        blockClear(mCursorCol, mCursorRow, mColumns - mCursorCol);
-                        break;
-                    case 1: // Erase from the start of the screen to the cursor, inclusive.
-                        blockClear(0, mCursorRow, mCursorCol + 1);
-                        break;
-                    case 2: // Erase all of the line.
-                        blockClear(0, mCursorRow, mColumns);
-                        break;
-                    default:
-                        unknownSequence(b);
-                        return;
-                }
-                mAboutToAutoWrap = false;
-                break;
             case 'L': // "${CSI}{N}L" - insert ${N} lines (IL).
             {
                 int linesAfterCursor = mBottomMargin - mCursorRow;
                 int linesToInsert = Math.min(getArg0(1), linesAfterCursor);
-                int linesToMove = linesAfterCursor - linesToInsert;
-                mScreen.blockCopy(0, mCursorRow, mColumns, linesToMove, 0, mCursorRow + linesToInsert);
-                blockClear(0, mCursorRow, mColumns, linesToInsert);
+                if (linesToInsert > 0) mScreen.shiftLines(mCursorRow, mBottomMargin, linesToInsert, getStyle());
             }
             break;
             case 'M': // "${CSI}${N}M" - delete N lines (DL).
@@ -1637,30 +1848,14 @@ public final class TerminalEmulator {
                 mAboutToAutoWrap = false;
                 int linesAfterCursor = mBottomMargin - mCursorRow;
                 int linesToDelete = Math.min(getArg0(1), linesAfterCursor);
-                int linesToMove = linesAfterCursor - linesToDelete;
-                mScreen.blockCopy(0, mCursorRow + linesToDelete, mColumns, linesToMove, 0, mCursorRow);
-                blockClear(0, mCursorRow + linesToMove, mColumns, linesToDelete);
+                if (linesToDelete > 0) mScreen.shiftLines(mCursorRow, mBottomMargin, -linesToDelete, getStyle());
             }
             break;
             case 'P': // "${CSI}{N}P" - delete ${N} characters (DCH).
-            {
-                // http://www.vt100.net/docs/vt510-rm/DCH: "If ${N} is greater than the number of characters between the
-                // cursor and the right margin, then DCH only deletes the remaining characters.
-                // As characters are deleted, the remaining characters between the cursor and right margin move to the left.
-                // Character attributes move with the characters. The terminal adds blank spaces with no visual character
-                // attributes at the right margin. DCH has no effect outside the scrolling margins."
-                mAboutToAutoWrap = false;
-                int cellsAfterCursor = mColumns - mCursorCol;
-                int cellsToDelete = Math.min(getArg0(1), cellsAfterCursor);
-                int cellsToMove = cellsAfterCursor - cellsToDelete;
-                mScreen.blockCopy(mCursorCol + cellsToDelete, mCursorRow, cellsToMove, 1, mCursorCol, mCursorRow);
-                blockClear(mCursorCol + cellsToMove, mCursorRow, cellsToDelete);
-            }
-            break;
+                deleteCharacters();
+                break;
             case 'S': { // "${CSI}${N}S" - scroll up ${N} lines (default = 1) (SU).
-                final int linesToScroll = getArg0(1);
-                for (int i = 0; i < linesToScroll; i++)
-                    scrollDownOneLine();
+                scrollDownLines(getArg0(1));
                 break;
             }
             case 'T':
@@ -1669,11 +1864,7 @@ public final class TerminalEmulator {
                     // http://vt100.net/docs/vt510-rm/SD: "N is the number of lines to move the user window up in page
                     // memory. N new lines appear at the top of the display. N old lines disappear at the bottom of the
                     // display. You cannot pan past the top margin of the current page".
-                    final int linesToScrollArg = getArg0(1);
-                    final int linesBetweenTopAndBottomMargins = mBottomMargin - mTopMargin;
-                    final int linesToScroll = Math.min(linesBetweenTopAndBottomMargins, linesToScrollArg);
-                    mScreen.blockCopy(mLeftMargin, mTopMargin, mRightMargin - mLeftMargin, linesBetweenTopAndBottomMargins - linesToScroll, mLeftMargin, mTopMargin + linesToScroll);
-                    blockClear(mLeftMargin, mTopMargin, mRightMargin - mLeftMargin, linesToScroll);
+                    scrollUpLines(getArg0(1));
                 } else {
                     // "${CSI}${func};${startx};${starty};${firstrow};${lastrow}T" - initiate highlight mouse tracking.
                     unimplementedSequence(b);
@@ -1684,16 +1875,7 @@ public final class TerminalEmulator {
                 mScreen.blockSet(mCursorCol, mCursorRow, Math.min(getArg0(1), mColumns - mCursorCol), 1, ' ', getStyle());
                 break;
             case 'Z': // Cursor Backward Tabulation (CBT). Move the active position n tabs backward.
-                int numberOfTabs = getArg0(1);
-                int newCol = mLeftMargin;
-                for (int i = mCursorCol - 1; i >= 0; i--)
-                    if (mTabStop[i]) {
-                        if (--numberOfTabs == 0) {
-                            newCol = Math.max(i, mLeftMargin);
-                            break;
-                        }
-                    }
-                mCursorCol = newCol;
+                mCursorCol = previousTabStop(getArg0(1));
                 break;
             case '?': // Esc [ ? -- start of a private parameter byte
                 continueSequence(ESC_CSI_QUESTIONMARK);
@@ -1727,19 +1909,7 @@ public final class TerminalEmulator {
                 break;
             // case 'f': "${CSI}${ROW};${COLUMN}f" - Horizontal and Vertical Position (HVP). Grouped with case 'H'.
             case 'g': // Clear tab stop
-                switch (getArg0(0)) {
-                    case 0:
-                        mTabStop[mCursorCol] = false;
-                        break;
-                    case 3:
-                        for (int i = 0; i < mColumns; i++) {
-                            mTabStop[i] = false;
-                        }
-                        break;
-                    default:
-                        // Specified to have no effect.
-                        break;
-                }
+                clearTabStop();
                 break;
             case 'h': // Set Mode
                 doSetMode(true);
@@ -1747,98 +1917,22 @@ public final class TerminalEmulator {
             case 'l': // Reset Mode
                 doSetMode(false);
                 break;
-            case 'm': // Esc [ Pn m - character attributes. (can have up to 16 numerical arguments)
-                selectGraphicRendition();
-                break;
             case 'n': // Esc [ Pn n - ECMA-48 Status Report Commands
-                // sendDeviceAttributes()
-                switch (getArg0(0)) {
-                    case 5: // Device status report (DSR):
-                        // Answer is ESC [ 0 n (Terminal OK).
-                        byte[] dsr = {(byte) 27, (byte) '[', (byte) '0', (byte) 'n'};
-                        mSession.write(dsr, 0, dsr.length);
-                        break;
-                    case 6: // Cursor position report (CPR):
-                        // Answer is ESC [ y ; x R, where x,y is
-                        // the cursor location.
-                        mSession.write(String.format(Locale.US, "\033[%d;%dR", mCursorRow + 1, mCursorCol + 1));
-                        break;
-                    default:
-                        break;
-                }
+                deviceStatusReport();
                 break;
             case 'r': // "CSI${top};${bottom}r" - set top and bottom Margins (DECSTBM).
-            {
-                // https://vt100.net/docs/vt510-rm/DECSTBM.html
-                // The top margin defaults to 1, the bottom margin defaults to mRows.
-                // The escape sequence numbers top 1..23, but we number top 0..22.
-                // The escape sequence numbers bottom 2..24, and so do we (because we use a zero based numbering
-                // scheme, but we store the first line below the bottom-most scrolling line.
-                // As a result, we adjust the top line by -1, but we leave the bottom line alone.
-                // Also require that top + 2 <= bottom.
-                mTopMargin = Math.max(0, Math.min(getArg0(1) - 1, mRows - 2));
-                mBottomMargin = Math.max(mTopMargin + 2, Math.min(getArg1(mRows), mRows));
-
-                // DECSTBM moves the cursor to column 1, line 1 of the page respecting origin mode.
-                setCursorPosition(0, 0);
-            }
-            break;
+                setTopAndBottomMargins();
+                break;
             case 's':
                 if (isDecsetInternalBitSet(DECSET_BIT_LEFTRIGHT_MARGIN_MODE)) {
-                    // Set left and right margins (DECSLRM - http://www.vt100.net/docs/vt510-rm/DECSLRM).
-                    mLeftMargin = Math.min(getArg0(1) - 1, mColumns - 2);
-                    mRightMargin = Math.max(mLeftMargin + 1, Math.min(getArg1(mColumns), mColumns));
-                    // DECSLRM moves the cursor to column 1, line 1 of the page.
-                    setCursorPosition(0, 0);
+                    setLeftAndRightMargins();
                 } else {
                     // Save cursor (ANSI.SYS), available only when DECLRMM is disabled.
                     saveCursor();
                 }
                 break;
             case 't': // Window manipulation (from dtterm, as well as extensions)
-                switch (getArg0(0)) {
-                    case 11: // Report xterm window state. If the xterm window is open (non-iconified), it returns CSI 1 t .
-                        mSession.write("\033[1t");
-                        break;
-                    case 13: // Report xterm window position. Result is CSI 3 ; x ; y t
-                        mSession.write("\033[3;0;0t");
-                        break;
-                    case 14: // Report xterm window in pixels. Result is CSI 4 ; height ; width t
-                        mSession.write(String.format(Locale.US, "\033[4;%d;%dt", mRows * mCellHeightPixels, mColumns * mCellWidthPixels));
-                        break;
-                    case 16: // Report xterm character cell size in pixels. Result is CSI 6 ; height ; width t
-                        mSession.write(String.format(Locale.US, "\033[6;%d;%dt", mCellHeightPixels, mCellWidthPixels));
-                        break;
-                    case 18: // Report the size of the text area in characters. Result is CSI 8 ; height ; width t
-                        mSession.write(String.format(Locale.US, "\033[8;%d;%dt", mRows, mColumns));
-                        break;
-                    case 19: // Report the size of the screen in characters. Result is CSI 9 ; height ; width t
-                        // We report the same size as the view, since it's the view really isn't resizable from the shell.
-                        mSession.write(String.format(Locale.US, "\033[9;%d;%dt", mRows, mColumns));
-                        break;
-                    case 20: // Report xterm windows icon label. Result is OSC L label ST. Disabled due to security concerns:
-                        mSession.write("\033]LIconLabel\033\\");
-                        break;
-                    case 21: // Report xterm windows title. Result is OSC l label ST. Disabled due to security concerns:
-                        mSession.write("\033]l\033\\");
-                        break;
-                    case 22:
-                        // 22;0 -> Save xterm icon and window title on stack.
-                        // 22;1 -> Save xterm icon title on stack.
-                        // 22;2 -> Save xterm window title on stack.
-                        mTitleStack.push(mTitle);
-                        if (mTitleStack.size() > 20) {
-                            // Limit size
-                            mTitleStack.remove(0);
-                        }
-                        break;
-                    case 23: // Like 22 above but restore from stack.
-                        if (!mTitleStack.isEmpty()) setTitle(mTitleStack.pop());
-                        break;
-                    default:
-                        // Ignore window manipulation.
-                        break;
-                }
+                doWindowManipulation();
                 break;
             case 'u': // Restore cursor (ANSI.SYS).
                 restoreCursor();
@@ -1847,7 +1941,193 @@ public final class TerminalEmulator {
                 continueSequence(ESC_CSI_ARGS_SPACE);
                 break;
             default:
-                parseArg(b);
+                unknownSequence(b);
+                break;
+        }
+    }
+
+    /** "CSI{n}@" - Insert ${n} space characters (ICH) - http://www.vt100.net/docs/vt510-rm/ICH. */
+    private void insertCharacters() {
+        mAboutToAutoWrap = false;
+        int columnsAfterCursor = mColumns - mCursorCol;
+        int spacesToInsert = Math.min(getArg0(1), columnsAfterCursor);
+        int charsToMove = columnsAfterCursor - spacesToInsert;
+        mScreen.blockCopy(mCursorCol, mCursorRow, charsToMove, 1, mCursorCol + spacesToInsert, mCursorRow);
+        blockClear(mCursorCol, mCursorRow, spacesToInsert);
+    }
+
+    /** "${CSI}{N}P" - delete ${N} characters (DCH). */
+    private void deleteCharacters() {
+        // http://www.vt100.net/docs/vt510-rm/DCH: "If ${N} is greater than the number of characters between the
+        // cursor and the right margin, then DCH only deletes the remaining characters.
+        // As characters are deleted, the remaining characters between the cursor and right margin move to the left.
+        // Character attributes move with the characters. The terminal adds blank spaces with no visual character
+        // attributes at the right margin. DCH has no effect outside the scrolling margins."
+        mAboutToAutoWrap = false;
+        int cellsAfterCursor = mColumns - mCursorCol;
+        int cellsToDelete = Math.min(getArg0(1), cellsAfterCursor);
+        int cellsToMove = cellsAfterCursor - cellsToDelete;
+        mScreen.blockCopy(mCursorCol + cellsToDelete, mCursorRow, cellsToMove, 1, mCursorCol, mCursorRow);
+        blockClear(mCursorCol + cellsToMove, mCursorRow, cellsToDelete);
+    }
+
+    /** "${CSI}${0,1,2,3}J" - Erase in Display (ED), for the final byte b. */
+    private void eraseInDisplay(int b) {
+        // ED ignores the scrolling margins.
+        switch (getArg0(0)) {
+            case 0: // Erase from the active position to the end of the screen, inclusive (default).
+                blockClear(mCursorCol, mCursorRow, mColumns - mCursorCol);
+                blockClear(0, mCursorRow + 1, mColumns, mRows - (mCursorRow + 1));
+                break;
+            case 1: // Erase from start of the screen to the active position, inclusive.
+                blockClear(0, 0, mColumns, mCursorRow);
+                blockClear(0, mCursorRow, mCursorCol + 1);
+                break;
+            case 2: // Erase all of the display - all lines are erased, changed to single-width, and the cursor does not
+                // move..
+                blockClear(0, 0, mColumns, mRows);
+                break;
+            case 3: // Delete all lines saved in the scrollback buffer (xterm etc)
+                mMainBuffer.clearTranscript();
+                break;
+            default:
+                unknownSequence(b);
+                return;
+        }
+        mAboutToAutoWrap = false;
+    }
+
+    /** "CSI{n}K" - Erase in line (EL), for the final byte b. */
+    private void eraseInLine(int b) {
+        switch (getArg0(0)) {
+            case 0: // Erase from the cursor to the end of the line, inclusive (default)
+                blockClear(mCursorCol, mCursorRow, mColumns - mCursorCol);
+                break;
+            case 1: // Erase from the start of the screen to the cursor, inclusive.
+                blockClear(0, mCursorRow, mCursorCol + 1);
+                break;
+            case 2: // Erase all of the line.
+                blockClear(0, mCursorRow, mColumns);
+                break;
+            default:
+                unknownSequence(b);
+                return;
+        }
+        mAboutToAutoWrap = false;
+    }
+
+    /** Get the column of the numberOfTabs'th tab stop before the cursor, or the left margin if there are fewer. */
+    private int previousTabStop(int numberOfTabs) {
+        for (int i = mCursorCol - 1; i >= 0; i--)
+            if (mTabStop[i]) {
+                if (--numberOfTabs == 0) return Math.max(i, mLeftMargin);
+            }
+        return mLeftMargin;
+    }
+
+    /** "CSI${n}g" - Tab clear (TBC). */
+    private void clearTabStop() {
+        switch (getArg0(0)) {
+            case 0:
+                mTabStop[mCursorCol] = false;
+                break;
+            case 3:
+                for (int i = 0; i < mColumns; i++) {
+                    mTabStop[i] = false;
+                }
+                break;
+            default:
+                // Specified to have no effect.
+                break;
+        }
+    }
+
+    /** "CSI${n}n" - Device status report (DSR). */
+    private void deviceStatusReport() {
+        // sendDeviceAttributes()
+        switch (getArg0(0)) {
+            case 5: // Device status report (DSR):
+                // Answer is ESC [ 0 n (Terminal OK).
+                byte[] dsr = {(byte) 27, (byte) '[', (byte) '0', (byte) 'n'};
+                mSession.write(dsr, 0, dsr.length);
+                break;
+            case 6: // Cursor position report (CPR):
+                // Answer is ESC [ y ; x R, where x,y is
+                // the cursor location.
+                mSession.write(String.format(Locale.US, "\033[%d;%dR", mCursorRow + 1, mCursorCol + 1));
+                break;
+            default:
+                break;
+        }
+    }
+
+    /** "CSI${top};${bottom}r" - set top and bottom Margins (DECSTBM). */
+    private void setTopAndBottomMargins() {
+        // https://vt100.net/docs/vt510-rm/DECSTBM.html
+        // The top margin defaults to 1, the bottom margin defaults to mRows.
+        // The escape sequence numbers top 1..23, but we number top 0..22.
+        // The escape sequence numbers bottom 2..24, and so do we (because we use a zero based numbering
+        // scheme, but we store the first line below the bottom-most scrolling line.
+        // As a result, we adjust the top line by -1, but we leave the bottom line alone.
+        // Also require that top + 2 <= bottom.
+        mTopMargin = Math.max(0, Math.min(getArg0(1) - 1, mRows - 2));
+        mBottomMargin = Math.max(mTopMargin + 2, Math.min(getArg1(mRows), mRows));
+
+        // DECSTBM moves the cursor to column 1, line 1 of the page respecting origin mode.
+        setCursorPosition(0, 0);
+    }
+
+    /** Set left and right margins (DECSLRM - http://www.vt100.net/docs/vt510-rm/DECSLRM). */
+    private void setLeftAndRightMargins() {
+        mLeftMargin = Math.min(getArg0(1) - 1, mColumns - 2);
+        mRightMargin = Math.max(mLeftMargin + 1, Math.min(getArg1(mColumns), mColumns));
+        // DECSLRM moves the cursor to column 1, line 1 of the page.
+        setCursorPosition(0, 0);
+    }
+
+    /** "CSI${n}t" - Window manipulation (from dtterm, as well as extensions). */
+    private void doWindowManipulation() {
+        switch (getArg0(0)) {
+            case 11: // Report xterm window state. If the xterm window is open (non-iconified), it returns CSI 1 t .
+                mSession.write("\033[1t");
+                break;
+            case 13: // Report xterm window position. Result is CSI 3 ; x ; y t
+                mSession.write("\033[3;0;0t");
+                break;
+            case 14: // Report xterm window in pixels. Result is CSI 4 ; height ; width t
+                mSession.write(String.format(Locale.US, "\033[4;%d;%dt", mRows * mCellHeightPixels, mColumns * mCellWidthPixels));
+                break;
+            case 16: // Report xterm character cell size in pixels. Result is CSI 6 ; height ; width t
+                mSession.write(String.format(Locale.US, "\033[6;%d;%dt", mCellHeightPixels, mCellWidthPixels));
+                break;
+            case 18: // Report the size of the text area in characters. Result is CSI 8 ; height ; width t
+                mSession.write(String.format(Locale.US, "\033[8;%d;%dt", mRows, mColumns));
+                break;
+            case 19: // Report the size of the screen in characters. Result is CSI 9 ; height ; width t
+                // We report the same size as the view, since it's the view really isn't resizable from the shell.
+                mSession.write(String.format(Locale.US, "\033[9;%d;%dt", mRows, mColumns));
+                break;
+            case 20: // Report xterm windows icon label. Result is OSC L label ST. Disabled due to security concerns:
+                mSession.write("\033]LIconLabel\033\\");
+                break;
+            case 21: // Report xterm windows title. Result is OSC l label ST. Disabled due to security concerns:
+                mSession.write("\033]l\033\\");
+                break;
+            case 22:
+                // 22;0 -> Save xterm icon and window title on stack.
+                // 22;1 -> Save xterm icon title on stack.
+                // 22;2 -> Save xterm window title on stack.
+                mTitleStack.push(mTitle);
+                if (mTitleStack.size() > 20) {
+                    // Limit size
+                    mTitleStack.remove(0);
+                }
+                break;
+            case 23: // Like 22 above but restore from stack.
+                if (!mTitleStack.isEmpty()) setTitle(mTitleStack.pop());
+                break;
+            default:
+                // Ignore window manipulation.
                 break;
         }
     }
@@ -1922,46 +2202,7 @@ public final class TerminalEmulator {
             } else if (code >= 30 && code <= 37) {
                 mForeColor = code - 30;
             } else if (code == 38 || code == 48 || code == 58) {
-                // Extended set foreground(38)/background(48)/underline(58) color.
-                // This is followed by either "2;$R;$G;$B" to set a 24-bit color or
-                // "5;$INDEX" to set an indexed color.
-                if (i + 2 > mArgIndex) continue;
-                int firstArg = mArgs[i + 1];
-                if (firstArg == 2) {
-                    if (i + 4 > mArgIndex) {
-                        Logger.logWarn(mClient, LOG_TAG, "Too few CSI" + code + ";2 RGB arguments");
-                    } else {
-                        int red = getArg(i + 2, 0, false);
-                        int green = getArg(i + 3, 0, false);
-                        int blue = getArg(i + 4, 0, false);
-
-                        if (red < 0 || green < 0 || blue < 0 || red > 255 || green > 255 || blue > 255) {
-                            finishSequenceAndLogError("Invalid RGB: " + red + "," + green + "," + blue);
-                        } else {
-                            int argbColor = 0xff_00_00_00 | (red << 16) | (green << 8) | blue;
-                            switch (code) {
-                                case 38: mForeColor = argbColor; break;
-                                case 48: mBackColor = argbColor; break;
-                                case 58: mUnderlineColor = argbColor; break;
-                            }
-                        }
-                        i += 4; // "2;P_r;P_g;P_r"
-                    }
-                } else if (firstArg == 5) {
-                    int color = getArg(i + 2, 0, false);
-                    i += 2; // "5;P_s"
-                    if (color >= 0 && color < TextStyle.NUM_INDEXED_COLORS) {
-                        switch (code) {
-                            case 38: mForeColor = color; break;
-                            case 48: mBackColor = color; break;
-                            case 58: mUnderlineColor = color; break;
-                        }
-                    } else {
-                        if (LOG_ESCAPE_SEQUENCES) Logger.logWarn(mClient, LOG_TAG, "Invalid color index: " + color);
-                    }
-                } else {
-                    finishSequenceAndLogError("Invalid ISO-8613-3 SGR first argument: " + firstArg);
-                }
+                i = selectExtendedColor(code, i);
             } else if (code == 39) { // Set default foreground color.
                 mForeColor = TextStyle.COLOR_INDEX_FOREGROUND;
             } else if (code >= 40 && code <= 47) { // Set background color.
@@ -1981,6 +2222,55 @@ public final class TerminalEmulator {
         }
     }
 
+    /**
+     * Set the foreground(38), background(48) or underline(58) color from the arguments of SGR code at index i.
+     *
+     * @return the index of the last argument used
+     */
+    private int selectExtendedColor(int code, int i) {
+        // Extended set foreground(38)/background(48)/underline(58) color.
+        // This is followed by either "2;$R;$G;$B" to set a 24-bit color or
+        // "5;$INDEX" to set an indexed color.
+        if (i + 2 > mArgIndex) return i;
+        int firstArg = mArgs[i + 1];
+        if (firstArg == 2) {
+            if (i + 4 > mArgIndex) {
+                Logger.logWarn(mClient, LOG_TAG, "Too few CSI" + code + ";2 RGB arguments");
+            } else {
+                int red = getArg(i + 2, 0, false);
+                int green = getArg(i + 3, 0, false);
+                int blue = getArg(i + 4, 0, false);
+
+                if (red < 0 || green < 0 || blue < 0 || red > 255 || green > 255 || blue > 255) {
+                    finishSequenceAndLogError("Invalid RGB: " + red + "," + green + "," + blue);
+                } else {
+                    int argbColor = 0xff_00_00_00 | (red << 16) | (green << 8) | blue;
+                    switch (code) {
+                        case 38: mForeColor = argbColor; break;
+                        case 48: mBackColor = argbColor; break;
+                        case 58: mUnderlineColor = argbColor; break;
+                    }
+                }
+                i += 4; // "2;P_r;P_g;P_r"
+            }
+        } else if (firstArg == 5) {
+            int color = getArg(i + 2, 0, false);
+            i += 2; // "5;P_s"
+            if (color >= 0 && color < TextStyle.NUM_INDEXED_COLORS) {
+                switch (code) {
+                    case 38: mForeColor = color; break;
+                    case 48: mBackColor = color; break;
+                    case 58: mUnderlineColor = color; break;
+                }
+            } else {
+                if (LOG_ESCAPE_SEQUENCES) Logger.logWarn(mClient, LOG_TAG, "Invalid color index: " + color);
+            }
+        } else {
+            finishSequenceAndLogError("Invalid ISO-8613-3 SGR first argument: " + firstArg);
+        }
+        return i;
+    }
+
     private void doOsc(int b) {
         switch (b) {
             case 7: // Bell.
@@ -2107,7 +2397,7 @@ public final class TerminalEmulator {
             case 52: // Manipulate Selection Data. Skip the optional first selection parameter(s).
                 int startIndex = textParameter.indexOf(";") + 1;
                 try {
-                    String clipboardText = new String(Base64.decode(textParameter.substring(startIndex), 0), StandardCharsets.UTF_8);
+                    String clipboardText = new String(Base64Decoder.decode(textParameter.substring(startIndex)), StandardCharsets.UTF_8);
                     mSession.onCopyTextToClipboard(clipboardText);
                 } catch (Exception e) {
                     Logger.logError(mClient, LOG_TAG, "OSC Manipulate selection, invalid string '" + textParameter + "");
@@ -2204,15 +2494,32 @@ public final class TerminalEmulator {
     }
 
     private void scrollDownOneLine() {
-        mScrollCounter++;
+        scrollDownLines(1);
+    }
+
+    /** Scroll the scrolling region down a number of lines, with the same result as that many {@link #scrollDownOneLine()}. */
+    private void scrollDownLines(int lines) {
+        mScrollCounter += lines;
         long currentStyle = getStyle();
         if (mLeftMargin != 0 || mRightMargin != mColumns) {
             // Horizontal margin: Do not put anything into scroll history, just non-margin part of screen up.
-            mScreen.blockCopy(mLeftMargin, mTopMargin + 1, mRightMargin - mLeftMargin, mBottomMargin - mTopMargin - 1, mLeftMargin, mTopMargin);
-            // .. and blank bottom row between margins:
-            mScreen.blockSet(mLeftMargin, mBottomMargin - 1, mRightMargin - mLeftMargin, 1, ' ', currentStyle);
+            final int linesToScroll = Math.min(lines, mBottomMargin - mTopMargin);
+            mScreen.blockCopy(mLeftMargin, mTopMargin + linesToScroll, mRightMargin - mLeftMargin, mBottomMargin - mTopMargin - linesToScroll, mLeftMargin, mTopMargin);
+            // .. and blank bottom rows between margins:
+            mScreen.blockSet(mLeftMargin, mBottomMargin - linesToScroll, mRightMargin - mLeftMargin, linesToScroll, ' ', currentStyle);
+        } else {
+            mScreen.scrollDownLines(mTopMargin, mBottomMargin, lines, currentStyle);
+        }
+    }
+
+    /** Scroll the scrolling region up a number of lines, revealing blank lines at the top margin and dropping the lines moved past the bottom margin. */
+    private void scrollUpLines(int lines) {
+        final int linesToScroll = Math.min(lines, mBottomMargin - mTopMargin);
+        if (mLeftMargin != 0 || mRightMargin != mColumns) {
+            mScreen.blockCopy(mLeftMargin, mTopMargin, mRightMargin - mLeftMargin, mBottomMargin - mTopMargin - linesToScroll, mLeftMargin, mTopMargin + linesToScroll);
+            blockClear(mLeftMargin, mTopMargin, mRightMargin - mLeftMargin, linesToScroll);
         } else {
-            mScreen.scrollDownOneLine(mTopMargin, mBottomMargin, currentStyle);
+            mScreen.shiftLines(mTopMargin, mBottomMargin, linesToScroll, getStyle());
         }
     }
 
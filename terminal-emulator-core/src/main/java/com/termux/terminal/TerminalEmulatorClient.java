@@ -0,0 +1,11 @@
+package com.termux.terminal;
+
+/**
+ * The client of a {@link TerminalEmulator}, which it asks for settings and sends its logs to. Output from the emulator,
+ * like responses to write back or clipboard requests, goes to its {@link TerminalOutput} instead.
+ */
+public interface TerminalEmulatorClient extends TerminalLogger {
+
+    Integer getTerminalCursorStyle();
+
+}
@@ -0,0 +1,23 @@
+package com.termux.terminal;
+
+/**
+ * Receives the log messages of the terminal, see {@link Logger}. Implemented by {@link TerminalEmulatorClient}s, and
+ * by the platform logger set with {@link Logger#setDefaultLogger(TerminalLogger)} for logs without a client.
+ */
+public interface TerminalLogger {
+
+    void logError(String tag, String message);
+
+    void logWarn(String tag, String message);
+
+    void logInfo(String tag, String message);
+
+    void logDebug(String tag, String message);
+
+    void logVerbose(String tag, String message);
+
+    void logStackTraceWithMessage(String tag, String message, Exception e);
+
+    void logStackTrace(String tag, Exception e);
+
+}
@@ -29,4 +29,8 @@ public abstract class TerminalOutput {
 
     public abstract void onColorsChanged();
 
+    /** Notify the terminal client that the cursor has been enabled or disabled, or that its blinking should restart. */
+    public void onTerminalCursorStateChange(boolean enabled) {
+    }
+
 }
@@ -0,0 +1,708 @@
+package com.termux.terminal;
+
+import java.util.Arrays;
+
+/**
+ * A row in a terminal, composed of a fixed number of cells.
+ * <p>
+ * The text in the row is stored in a char[] array, {@link #mText}, for quick access during rendering.
+ */
+public final class TerminalRow {
+
+    private static final float SPARE_CAPACITY_FACTOR = 1.5f;
+
+    /**
+     * Max combining characters that can exist in a column, that are separate from the base character
+     * itself. Any additional combining characters will be ignored and not added to the column.
+     *
+     * There does not seem to be limit in unicode standard for max number of combination characters
+     * that can be combined but such characters are primarily under 10.
+     *
+     * "Section 3.6 Combination" of unicode standard contains combining characters info.
+     * - https://www.unicode.org/versions/Unicode15.0.0/ch03.pdf
+     * - https://en.wikipedia.org/wiki/Combining_character#Unicode_ranges
+     * - https://stackoverflow.com/questions/71237212/what-is-the-maximum-number-of-unicode-combined-characters-that-may-be-needed-to
+     *
+     * UAX15-D3 Stream-Safe Text Format limits to max 30 combining characters.
+     * > The value of 30 is chosen to be significantly beyond what is required for any linguistic or technical usage.
+     * > While it would have been feasible to chose a smaller number, this value provides a very wide margin,
+     * > yet is well within the buffer size limits of practical implementations.
+     * - https://unicode.org/reports/tr15/#Stream_Safe_Text_Format
+     * - https://stackoverflow.com/a/11983435/14686958
+     *
+     * We choose the value 15 because it should be enough for terminal based applications and keep
+     * the memory usage low for a terminal row, won't affect performance or cause terminal to
+     * lag or hang, and will keep malicious applications from causing harm. The value can be
+     * increased if ever needed for legitimate applications.
+     */
+    private static final int MAX_COMBINING_CHARACTERS_PER_COLUMN = 15;
+
+    /**
+     * Max distinct styles in the palette of a row before its styles are stored in a flat array with one style per
+     * column, see {@link #mStylePalette}.
+     */
+    private static final int MAX_STYLE_PALETTE_SIZE = 16;
+
+    /** The number of columns in this terminal row. */
+    private final int mColumns;
+    /** The text filling this terminal row. */
+    public char[] mText;
+    /** The number of java chars used in {@link #mText}. */
+    private short mSpaceUsed;
+    /** If this row has been line wrapped due to text output at the end of line. */
+    boolean mLineWrap;
+    /**
+     * The distinct styles used in the row. See {@link TextStyle}. Most rows only have one or a few style runs, so
+     * instead of a style per column they store the styles here, with {@link #mStyleIndices} indexing into it, and
+     * only a row with more than {@link #MAX_STYLE_PALETTE_SIZE} distinct styles uses {@link #mStyle}.
+     */
+    private long[] mStylePalette;
+    /** The number of styles used in {@link #mStylePalette}. */
+    private int mStylePaletteSize;
+    /** The index in {@link #mStylePalette} of the style of each cell, or null if all cells have the first style. */
+    private byte[] mStyleIndices;
+    /**
+     * The {@link #mStyleIndices} of an earlier use of this row, kept when the row is cleared so that a row reused for
+     * new text, such as one from a {@link TerminalRowPool}, does not need to allocate them again.
+     */
+    private byte[] mSpareStyleIndices;
+    /** The palette index of the last style set, which is most likely to be set again. */
+    private int mLastStyleIndex;
+    /** The style bits of each cell in the row if it has too many distinct styles for the palette, else null. */
+    private long[] mStyle;
+    /** If this row might contain chars with width != 1, used for deactivating fast path */
+    boolean mHasNonOneWidthOrSurrogateChars;
+
+    /**
+     * The index in {@link #mText} at which each column starts, for rows with {@link #mHasNonOneWidthOrSurrogateChars}.
+     * The second half of a wide character starts at the same index as the first half. Allocated when first needed and
+     * valid for the columns below {@link #mIndexedColumns}, as well as at {@link #mIndexedColumns} itself, which is
+     * where indexing resumes.
+     */
+    private short[] mColumnStarts;
+    /** The display width of the character starting at each column, with 0 for the second half of a wide character. */
+    private byte[] mColumnWidths;
+    /**
+     * The number of leading columns indexed in {@link #mColumnStarts} and {@link #mColumnWidths}. A change to a column
+     * only moves the text after it, so setting a char only drops the index from that column on, and writing a line
+     * left to right only indexes each column once.
+     */
+    private int mIndexedColumns;
+
+    /** Construct a blank row (containing only whitespace, ' ') with a specified style. */
+    public TerminalRow(int columns, long style) {
+        mColumns = columns;
+        mText = new char[(int) (SPARE_CAPACITY_FACTOR * columns)];
+        mStylePalette = new long[2];
+        clear(style);
+    }
+
+    /** NOTE: The sourceX2 is exclusive. */
+    public void copyInterval(TerminalRow line, int sourceX1, int sourceX2, int destinationX) {
+        if (sourceX1 >= sourceX2) return;
+        final int length = sourceX2 - sourceX1;
+        if (this != line && sourceX1 == 0 && length == mColumns && line.mColumns == mColumns && !line.mHasNonOneWidthOrSurrogateChars) {
+            // A whole row of single width characters, as when inserting or deleting lines, replacing whatever was here.
+            final boolean lineWrap = mLineWrap;
+            copyFrom(line);
+            mLineWrap = lineWrap;
+            return;
+        }
+        if (line.isSingleWidthSegment(sourceX1, sourceX2) && isSingleWidthSegment(destinationX, destinationX + length)) {
+            // Each column is a single java char in both rows, so the text can be copied as is.
+            System.arraycopy(line.mText, line.findStartOfColumn(sourceX1), mText, findStartOfColumn(destinationX), length);
+            copyStyleInterval(line, sourceX1, destinationX, length);
+            return;
+        }
+
+        if (this == line) {
+            // Copy from a snapshot, since both the text and the styles of the source may be overwritten while copying.
+            line = new TerminalRow(mColumns, 0);
+            line.copyFrom(this);
+        }
+        mHasNonOneWidthOrSurrogateChars |= line.mHasNonOneWidthOrSurrogateChars;
+        final int x1 = line.findStartOfColumn(sourceX1);
+        final int x2 = line.findStartOfColumn(sourceX2);
+        boolean startingFromSecondHalfOfWideChar = (sourceX1 > 0 && line.wideDisplayCharacterStartingAt(sourceX1 - 1));
+        final char[] sourceChars = line.mText;
+        int latestNonCombiningWidth = 0;
+        for (int i = x1; i < x2; i++) {
+            char sourceChar = sourceChars[i];
+            int codePoint = Character.isHighSurrogate(sourceChar) ? Character.toCodePoint(sourceChar, sourceChars[++i]) : sourceChar;
+            if (startingFromSecondHalfOfWideChar) {
+                // Just treat copying second half of wide char as copying whitespace.
+                codePoint = ' ';
+                startingFromSecondHalfOfWideChar = false;
+            }
+            int w = WcWidth.width(codePoint);
+            if (w > 0) {
+                destinationX += latestNonCombiningWidth;
+                sourceX1 += latestNonCombiningWidth;
+                latestNonCombiningWidth = w;
+            }
+            setChar(destinationX, codePoint, line.getStyle(sourceX1));
+        }
+    }
+
+    /**
+     * Set the columns from startColumn (inclusive) to endColumn (exclusive) to a character, with the same result as
+     * calling {@link #setChar(int, int, long)} for each of them.
+     */
+    public void fill(int startColumn, int endColumn, int codePoint, long style) {
+        if (startColumn < 0 || endColumn > mColumns)
+            throw new IllegalArgumentException("TerminalRow.fill(): startColumn=" + startColumn + ", endColumn=" + endColumn);
+        if (startColumn >= endColumn) return;
+
+        if (codePoint < Character.MIN_SUPPLEMENTARY_CODE_POINT && WcWidth.width(codePoint) == 1) {
+            if (startColumn == 0 && endColumn == mColumns) {
+                // Whatever was in the row is overwritten, so it becomes a row of single width characters.
+                Arrays.fill(mText, 0, mColumns, (char) codePoint);
+                resetStyle(style);
+                mSpaceUsed = (short) mColumns;
+                mHasNonOneWidthOrSurrogateChars = false;
+                mIndexedColumns = 0;
+                return;
+            }
+            if (isSingleWidthSegment(startColumn, endColumn)) {
+                final int start = findStartOfColumn(startColumn);
+                Arrays.fill(mText, start, start + endColumn - startColumn, (char) codePoint);
+                fillStyle(startColumn, endColumn, style);
+                return;
+            }
+        }
+
+        for (int column = startColumn; column < endColumn; column++)
+            setChar(column, codePoint, style);
+    }
+
+    /**
+     * If each column from startColumn (inclusive) to endColumn (exclusive) holds a single java char of a character with
+     * display width 1, so that the text of the columns can be overwritten in place by other such characters.
+     */
+    private boolean isSingleWidthSegment(int startColumn, int endColumn) {
+        if (!mHasNonOneWidthOrSurrogateChars) return true;
+        indexColumnsThrough(endColumn - 1);
+        if (endColumn > mIndexedColumns) return false;
+        for (int column = startColumn; column < endColumn; column++)
+            if (mColumnWidths[column] != 1) return false;
+        // With all widths 1 each column has at least one char, so any extra chars are combining or surrogates.
+        return findStartOfColumn(endColumn) - findStartOfColumn(startColumn) == endColumn - startColumn;
+    }
+
+    public int getSpaceUsed() {
+        return mSpaceUsed;
+    }
+
+    /** Note that the column may end of second half of wide character. */
+    public int findStartOfColumn(int column) {
+        if (column == mColumns) return getSpaceUsed();
+        // Without any chars with width != 1 each column is a single java char.
+        if (!mHasNonOneWidthOrSurrogateChars) return column;
+
+        indexColumnsThrough(column);
+        return column < mIndexedColumns ? mColumnStarts[column] : mSpaceUsed;
+    }
+
+    private boolean wideDisplayCharacterStartingAt(int column) {
+        if (!mHasNonOneWidthOrSurrogateChars || column >= mColumns) return false;
+
+        indexColumnsThrough(column);
+        return column < mIndexedColumns && mColumnWidths[column] == 2;
+    }
+
+    /** Extend the column index, if needed, so that it covers the specified column. */
+    private void indexColumnsThrough(int column) {
+        if (column < mIndexedColumns) return;
+        if (mColumnStarts == null) {
+            mColumnStarts = new short[mColumns + 1];
+            mColumnWidths = new byte[mColumns];
+        }
+
+        final char[] text = mText;
+        final int spaceUsed = mSpaceUsed;
+        int currentColumn = mIndexedColumns;
+        int currentCharIndex = mColumnStarts[currentColumn];
+        while (currentColumn <= column && currentColumn < mColumns && currentCharIndex < spaceUsed) {
+            char c = text[currentCharIndex];
+            int codePoint = Character.isHighSurrogate(c) ? Character.toCodePoint(c, text[currentCharIndex + 1]) : c;
+            int wcwidth = WcWidth.width(codePoint);
+            mColumnStarts[currentColumn] = (short) currentCharIndex;
+            mColumnWidths[currentColumn] = (byte) wcwidth;
+            if (wcwidth == 2 && currentColumn + 1 < mColumns) {
+                mColumnStarts[currentColumn + 1] = (short) currentCharIndex;
+                mColumnWidths[currentColumn + 1] = 0;
+            }
+            currentCharIndex += Character.charCount(codePoint);
+
+            // Skip combining chars, which belong to this column.
+            while (currentCharIndex < spaceUsed) {
+                c = text[currentCharIndex];
+                codePoint = Character.isHighSurrogate(c) ? Character.toCodePoint(c, text[currentCharIndex + 1]) : c;
+                if (WcWidth.width(codePoint) > 0) break;
+                currentCharIndex += Character.charCount(codePoint);
+            }
+
+            currentColumn = Math.min(currentColumn + Math.max(wcwidth, 1), mColumns);
+            mColumnStarts[currentColumn] = (short) currentCharIndex;
+        }
+        mIndexedColumns = currentColumn;
+    }
+
+    /** Drop the column index from a column on, before the text of that column is changed. */
+    private void invalidateColumnIndexFrom(int column) {
+        if (column >= mIndexedColumns) return;
+        // Resume indexing at the start of a wide character, not in its second half.
+        if (column > 0 && mColumnWidths[column - 1] == 2) column--;
+        mIndexedColumns = column;
+    }
+
+    public void clear(long style) {
+        Arrays.fill(mText, ' ');
+        resetStyle(style);
+        mSpaceUsed = (short) mColumns;
+        mHasNonOneWidthOrSurrogateChars = false;
+        mIndexedColumns = 0;
+    }
+
+    // https://github.com/steven676/Android-Terminal-Emulator/commit/9a47042620bec87617f0b4f5d50568535668fe26
+    public void setChar(int columnToSet, int codePoint, long style) {
+        if (columnToSet  < 0 || columnToSet >= mColumns)
+            throw new IllegalArgumentException("TerminalRow.setChar(): columnToSet=" + columnToSet + ", codePoint=" + codePoint + ", style=" + style);
+
+        setStyle(columnToSet, style);
+
+        final int newCodePointDisplayWidth = WcWidth.width(codePoint);
+
+        // Fast path when we don't have any chars with width != 1
+        if (!mHasNonOneWidthOrSurrogateChars) {
+            if (codePoint >= Character.MIN_SUPPLEMENTARY_CODE_POINT || newCodePointDisplayWidth != 1) {
+                mHasNonOneWidthOrSurrogateChars = true;
+            } else {
+                mText[columnToSet] = (char) codePoint;
+                return;
+            }
+        }
+
+        final boolean newIsCombining = newCodePointDisplayWidth <= 0;
+
+        boolean wasExtraColForWideChar = (columnToSet > 0) && wideDisplayCharacterStartingAt(columnToSet - 1);
+
+        if (newIsCombining) {
+            // When standing at second half of wide character and inserting combining:
+            if (wasExtraColForWideChar) columnToSet--;
+        } else {
+            // Check if we are overwriting the second half of a wide character starting at the previous column:
+            if (wasExtraColForWideChar) setChar(columnToSet - 1, ' ', style);
+            // Check if we are overwriting the first half of a wide character starting at the next column:
+            boolean overwritingWideCharInNextColumn = newCodePointDisplayWidth == 2 && wideDisplayCharacterStartingAt(columnToSet + 1);
+            if (overwritingWideCharInNextColumn) setChar(columnToSet + 1, ' ', style);
+        }
+
+        char[] text = mText;
+        final int oldStartOfColumnIndex = findStartOfColumn(columnToSet);
+        final int oldCodePointDisplayWidth = WcWidth.width(text, oldStartOfColumnIndex);
+
+        // Get the number of elements in the mText array this column uses now
+        int oldCharactersUsedForColumn;
+        if (columnToSet + oldCodePointDisplayWidth < mColumns) {
+            int oldEndOfColumnIndex = findStartOfColumn(columnToSet + oldCodePointDisplayWidth);
+            oldCharactersUsedForColumn = oldEndOfColumnIndex - oldStartOfColumnIndex;
+        } else {
+            // Last character.
+            oldCharactersUsedForColumn = mSpaceUsed - oldStartOfColumnIndex;
+        }
+
+        // If MAX_COMBINING_CHARACTERS_PER_COLUMN already exist in column, then ignore adding additional combining characters.
+        if (newIsCombining) {
+            int combiningCharsCount = WcWidth.zeroWidthCharsCount(mText, oldStartOfColumnIndex, oldStartOfColumnIndex + oldCharactersUsedForColumn);
+            if (combiningCharsCount >= MAX_COMBINING_CHARACTERS_PER_COLUMN)
+                return;
+        }
+
+        invalidateColumnIndexFrom(columnToSet);
+
+        // Find how many chars this column will need
+        int newCharactersUsedForColumn = Character.charCount(codePoint);
+        if (newIsCombining) {
+            // Combining characters are added to the contents of the column instead of overwriting them, so that they
+            // modify the existing contents.
+            // FIXME: Unassigned characters also get width=0.
+            newCharactersUsedForColumn += oldCharactersUsedForColumn;
+        }
+
+        int oldNextColumnIndex = oldStartOfColumnIndex + oldCharactersUsedForColumn;
+        int newNextColumnIndex = oldStartOfColumnIndex + newCharactersUsedForColumn;
+
+        final int javaCharDifference = newCharactersUsedForColumn - oldCharactersUsedForColumn;
+        if (javaCharDifference > 0) {
+            // Shift the rest of the line right.
+            int oldCharactersAfterColumn = mSpaceUsed - oldNextColumnIndex;
+            if (mSpaceUsed + javaCharDifference > text.length) {
+                // We need to grow the array
+                char[] newText = new char[text.length + mColumns];
+                System.arraycopy(text, 0, newText, 0, oldNextColumnIndex);
+                System.arraycopy(text, oldNextColumnIndex, newText, newNextColumnIndex, oldCharactersAfterColumn);
+                mText = text = newText;
+            } else {
+                System.arraycopy(text, oldNextColumnIndex, text, newNextColumnIndex, oldCharactersAfterColumn);
+            }
+        } else if (javaCharDifference < 0) {
+            // Shift the rest of the line left.
+            System.arraycopy(text, oldNextColumnIndex, text, newNextColumnIndex, mSpaceUsed - oldNextColumnIndex);
+        }
+        mSpaceUsed += javaCharDifference;
+
+        // Store char. A combining character is stored at the end of the existing contents so that it modifies them:
+        //noinspection ResultOfMethodCallIgnored - since we already now how many java chars is used.
+        Character.toChars(codePoint, text, oldStartOfColumnIndex + (newIsCombining ? oldCharactersUsedForColumn : 0));
+
+        if (oldCodePointDisplayWidth == 2 && newCodePointDisplayWidth == 1) {
+            // Replace second half of wide char with a space. Which mean that we actually add a ' ' java character.
+            if (mSpaceUsed + 1 > text.length) {
+                char[] newText = new char[text.length + mColumns];
+                System.arraycopy(text, 0, newText, 0, newNextColumnIndex);
+                System.arraycopy(text, newNextColumnIndex, newText, newNextColumnIndex + 1, mSpaceUsed - newNextColumnIndex);
+                mText = text = newText;
+            } else {
+                System.arraycopy(text, newNextColumnIndex, text, newNextColumnIndex + 1, mSpaceUsed - newNextColumnIndex);
+            }
+            text[newNextColumnIndex] = ' ';
+
+            ++mSpaceUsed;
+        } else if (oldCodePointDisplayWidth == 1 && newCodePointDisplayWidth == 2) {
+            if (columnToSet == mColumns - 1) {
+                throw new IllegalArgumentException("Cannot put wide character in last column");
+            } else if (columnToSet == mColumns - 2) {
+                // Truncate the line to the second part of this wide char:
+                mSpaceUsed = (short) newNextColumnIndex;
+            } else {
+                // Overwrite the contents of the next column, which mean we actually remove java characters. Due to the
+                // check at the beginning of this method we know that we are not overwriting a wide char.
+                int newNextNextColumnIndex = newNextColumnIndex + (Character.isHighSurrogate(mText[newNextColumnIndex]) ? 2 : 1);
+                int nextLen = newNextNextColumnIndex - newNextColumnIndex;
+
+                // Shift the array leftwards.
+                System.arraycopy(text, newNextNextColumnIndex, text, newNextColumnIndex, mSpaceUsed - newNextNextColumnIndex);
+                mSpaceUsed -= nextLen;
+            }
+        }
+    }
+
+    /**
+     * Set a run of printable ASCII characters starting at a column, with the same result as calling
+     * {@link #setChar(int, int, long)} for each of them.
+     *
+     * @param text   the characters, all in the range [32,126]
+     * @param offset the index in text of the first character
+     * @param length the number of characters, which must all fit in the row
+     */
+    public void setAsciiChars(int columnToSet, byte[] text, int offset, int length, long style) {
+        if (columnToSet < 0 || columnToSet + length > mColumns)
+            throw new IllegalArgumentException("TerminalRow.setAsciiChars(): columnToSet=" + columnToSet + ", length=" + length);
+
+        if (mHasNonOneWidthOrSurrogateChars) {
+            // Column and char indices may differ, and wide chars may be partially overwritten.
+            for (int i = 0; i < length; i++)
+                setChar(columnToSet + i, text[offset + i], style);
+            return;
+        }
+
+        final char[] chars = mText;
+        for (int i = 0; i < length; i++)
+            chars[columnToSet + i] = (char) text[offset + i];
+        fillStyle(columnToSet, columnToSet + length, style);
+    }
+
+    /** Make this row, which must have the same number of columns, an exact copy of another row. */
+    void copyFrom(TerminalRow source) {
+        if (source.mColumns != mColumns)
+            throw new IllegalArgumentException("TerminalRow.copyFrom(): source columns=" + source.mColumns + ", columns=" + mColumns);
+        if (mText.length < source.mSpaceUsed) mText = new char[source.mText.length];
+        System.arraycopy(source.mText, 0, mText, 0, source.mSpaceUsed);
+        copyStyleFrom(source);
+        mSpaceUsed = source.mSpaceUsed;
+        mLineWrap = source.mLineWrap;
+        mHasNonOneWidthOrSurrogateChars = source.mHasNonOneWidthOrSurrogateChars;
+        mIndexedColumns = 0;
+    }
+
+    /** An upper bound of the number of bytes written by {@link #pack(TranscriptArena.Cursor)}. */
+    int packedSizeBound() {
+        final int maxStyleRuns = (mStyle == null && mStyleIndices == null) ? 1 : mColumns;
+        // Flags, two var ints, the text which takes at most three bytes per java char in UTF-8, and the style runs
+        // followed by a terminating zero.
+        return 1 + 2 * 5 + 3 * mSpaceUsed + maxStyleRuns * (5 + 8) + 1;
+    }
+
+    /**
+     * Write this row in the compact form used for the transcript rows far from the screen: the text as UTF-8 without
+     * trailing spaces, followed by the style runs.
+     */
+    void pack(TranscriptArena.Cursor out) {
+        final char[] text = mText;
+        int textLength = mSpaceUsed;
+        while (textLength > 0 && text[textLength - 1] == ' ') textLength--;
+
+        out.writeByte((mLineWrap ? 1 : 0) | (mHasNonOneWidthOrSurrogateChars ? 2 : 0));
+        out.writeVarInt(mSpaceUsed);
+        // The number of bytes of text, written once known in the space needed for the longest text possible, so that
+        // the text can be skipped without decoding it.
+        final int textBytesPosition = out.getPosition();
+        final int textBytesSize = TranscriptArena.Cursor.varIntSize(3 * textLength);
+        out.skip(textBytesSize);
+        final int textStart = out.getPosition();
+        for (int i = 0; i < textLength; i++) {
+            final char c = text[i];
+            if (c < 0x80) {
+                i = out.writeAscii(text, i, textLength) - 1;
+            } else if (c < 0x800) {
+                out.writeByte(0xC0 | (c >> 6));
+                out.writeByte(0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < textLength && Character.isLowSurrogate(text[i + 1])) {
+                final int codePoint = Character.toCodePoint(c, text[++i]);
+                out.writeByte(0xF0 | (codePoint >> 18));
+                out.writeByte(0x80 | ((codePoint >> 12) & 0x3F));
+                out.writeByte(0x80 | ((codePoint >> 6) & 0x3F));
+                out.writeByte(0x80 | (codePoint & 0x3F));
+            } else {
+                out.writeByte(0xE0 | (c >> 12));
+                out.writeByte(0x80 | ((c >> 6) & 0x3F));
+                out.writeByte(0x80 | (c & 0x3F));
+            }
+        }
+        out.setPaddedVarInt(textBytesPosition, out.getPosition() - textStart, textBytesSize);
+
+        // The style runs as (length, style) pairs, terminated by a zero length.
+        if (mStyle == null && mStyleIndices == null) {
+            out.writeVarInt(mColumns);
+            out.writeLong(mStylePalette[0]);
+        } else {
+            for (int runStart = 0; runStart < mColumns; ) {
+                int runEnd = runStart + 1;
+                if (mStyle == null) {
+                    // The styles in the palette are distinct, so comparing indices is enough.
+                    final byte index = mStyleIndices[runStart];
+                    while (runEnd < mColumns && mStyleIndices[runEnd] == index) runEnd++;
+                } else {
+                    final long style = mStyle[runStart];
+                    while (runEnd < mColumns && mStyle[runEnd] == style) runEnd++;
+                }
+                out.writeVarInt(runEnd - runStart);
+                out.writeLong(getStyle(runStart));
+                runStart = runEnd;
+            }
+        }
+        out.writeVarInt(0);
+    }
+
+    /** Make this row, which must have the same number of columns, a copy of one written by {@link #pack(TranscriptArena.Cursor)}. */
+    void unpack(TranscriptArena.Cursor in) {
+        final int flags = in.readByte();
+        final int spaceUsed = in.readVarInt();
+        final int textBytes = in.readVarInt();
+        final int textEnd = in.getPosition() + textBytes;
+        if (mText.length < spaceUsed) mText = new char[Math.max(spaceUsed, (int) (SPARE_CAPACITY_FACTOR * mColumns))];
+
+        final char[] text = mText;
+        int textLength = 0;
+        while (in.getPosition() < textEnd) {
+            final int b = in.readByte();
+            if (b < 0x80) {
+                text[textLength++] = (char) b;
+            } else if (b < 0xE0) {
+                text[textLength++] = (char) (((b & 0x1F) << 6) | (in.readByte() & 0x3F));
+            } else if (b < 0xF0) {
+                text[textLength++] = (char) (((b & 0x0F) << 12) | ((in.readByte() & 0x3F) << 6) | (in.readByte() & 0x3F));
+            } else {
+                final int codePoint = ((b & 0x07) << 18) | ((in.readByte() & 0x3F) << 12) | ((in.readByte() & 0x3F) << 6) | (in.readByte() & 0x3F);
+                text[textLength++] = Character.highSurrogate(codePoint);
+                text[textLength++] = Character.lowSurrogate(codePoint);
+            }
+        }
+        Arrays.fill(text, textLength, text.length, ' ');
+
+        for (int column = 0, length; (length = in.readVarInt()) != 0; column += length) {
+            final long style = in.readLong();
+            if (column == 0) resetStyle(style);
+            else fillStyle(column, column + length, style);
+        }
+
+        mSpaceUsed = (short) spaceUsed;
+        mLineWrap = (flags & 1) != 0;
+        mHasNonOneWidthOrSurrogateChars = (flags & 2) != 0;
+        mIndexedColumns = 0;
+    }
+
+    /** Read if a row written by {@link #pack(TranscriptArena.Cursor)} wraps, without unpacking it. */
+    static boolean isPackedLineWrap(TranscriptArena.Cursor in) {
+        return (in.readByte() & 1) != 0;
+    }
+
+    /** Read if a row written by {@link #pack(TranscriptArena.Cursor)} is {@link #isBlank()}, without unpacking it. */
+    static boolean isPackedBlank(TranscriptArena.Cursor in) {
+        in.readByte();
+        in.readVarInt();
+        // Trailing spaces are not packed, so a blank row has no text.
+        return in.readVarInt() == 0;
+    }
+
+    /** Move a cursor past a row written by {@link #pack(TranscriptArena.Cursor)}, without reading it into a row. */
+    static void skipPacked(TranscriptArena.Cursor in) {
+        in.readByte();
+        in.readVarInt();
+        in.skip(in.readVarInt());
+        while (in.readVarInt() != 0) in.skip(8);
+    }
+
+    /** The number of columns in this row. */
+    int getColumns() {
+        return mColumns;
+    }
+
+    boolean isBlank() {
+        for (int charIndex = 0, charLen = getSpaceUsed(); charIndex < charLen; charIndex++)
+            if (mText[charIndex] != ' ') return false;
+        return true;
+    }
+
+    public final long getStyle(int column) {
+        if (mStyle != null) return mStyle[column];
+        return mStylePalette[mStyleIndices == null ? 0 : mStyleIndices[column]];
+    }
+
+    /** Set the style of a column, without changing its text. */
+    void setStyle(int column, long style) {
+        if (mStyle == null) {
+            if (mStyleIndices == null && style == mStylePalette[0]) return;
+            final int index = findOrAddStyle(style);
+            if (index >= 0) {
+                mStyleIndices[column] = (byte) index;
+                return;
+            }
+        }
+        mStyle[column] = style;
+    }
+
+    /** Set the style of the columns from startColumn (inclusive) to endColumn (exclusive). */
+    private void fillStyle(int startColumn, int endColumn, long style) {
+        if (startColumn == 0 && endColumn == mColumns) {
+            resetStyle(style);
+            return;
+        }
+        if (mStyle == null) {
+            if (mStyleIndices == null && style == mStylePalette[0]) return;
+            final int index = findOrAddStyle(style);
+            if (index >= 0) {
+                Arrays.fill(mStyleIndices, startColumn, endColumn, (byte) index);
+                return;
+            }
+        }
+        Arrays.fill(mStyle, startColumn, endColumn, style);
+    }
+
+    /** Give all columns the same style, releasing the per column storage. */
+    private void resetStyle(long style) {
+        mStyle = null;
+        if (mStyleIndices != null) mSpareStyleIndices = mStyleIndices;
+        mStyleIndices = null;
+        mStylePalette[0] = style;
+        mStylePaletteSize = 1;
+        mLastStyleIndex = 0;
+    }
+
+    /**
+     * Find the index of a style in the palette, adding it if needed. Returns -1 if the palette is full, in which case
+     * the row has switched to storing a style per column in {@link #mStyle}.
+     */
+    private int findOrAddStyle(long style) {
+        if (mStyleIndices == null) mStyleIndices = newStyleIndices();
+        if (mStylePalette[mLastStyleIndex] == style) return mLastStyleIndex;
+        for (int i = 0; i < mStylePaletteSize; i++) {
+            if (mStylePalette[i] == style) return mLastStyleIndex = i;
+        }
+
+        if (mStylePaletteSize == MAX_STYLE_PALETTE_SIZE) {
+            // Styles that have been overwritten may still be in the palette.
+            compactStylePalette();
+            if (mStylePaletteSize == MAX_STYLE_PALETTE_SIZE) {
+                mStyle = new long[mColumns];
+                for (int column = 0; column < mColumns; column++)
+                    mStyle[column] = mStylePalette[mStyleIndices[column]];
+                mStyleIndices = null;
+                return -1;
+            }
+        }
+        if (mStylePaletteSize == mStylePalette.length)
+            mStylePalette = Arrays.copyOf(mStylePalette, Math.min(2 * mStylePalette.length, MAX_STYLE_PALETTE_SIZE));
+        mStylePalette[mStylePaletteSize] = style;
+        return mLastStyleIndex = mStylePaletteSize++;
+    }
+
+    /** Get style indices with all columns having the first style, reusing {@link #mSpareStyleIndices} if any. */
+    private byte[] newStyleIndices() {
+        final byte[] indices = mSpareStyleIndices;
+        if (indices == null) return new byte[mColumns];
+        mSpareStyleIndices = null;
+        Arrays.fill(indices, (byte) 0);
+        return indices;
+    }
+
+    /** Remove the styles no longer used by any column from the palette. */
+    private void compactStylePalette() {
+        final long[] oldPalette = Arrays.copyOf(mStylePalette, mStylePaletteSize);
+        final byte[] newIndices = new byte[mStylePaletteSize];
+        Arrays.fill(newIndices, (byte) -1);
+        int newSize = 0;
+        for (int column = 0; column < mColumns; column++) {
+            final int index = mStyleIndices[column];
+            if (newIndices[index] == -1) {
+                mStylePalette[newSize] = oldPalette[index];
+                newIndices[index] = (byte) newSize++;
+            }
+            mStyleIndices[column] = newIndices[index];
+        }
+        mStylePaletteSize = newSize;
+        mLastStyleIndex = 0;
+    }
+
+    /** Copy the styles of some columns of a row, which may be this row with the columns overlapping, to other columns. */
+    private void copyStyleInterval(TerminalRow source, int sourceColumn, int destinationColumn, int length) {
+        if (source == this) {
+            if (mStyle != null) {
+                System.arraycopy(mStyle, sourceColumn, mStyle, destinationColumn, length);
+            } else if (mStyleIndices != null) {
+                System.arraycopy(mStyleIndices, sourceColumn, mStyleIndices, destinationColumn, length);
+            }
+            return;
+        }
+        // Fill the runs of equal styles, of which there are few in most rows.
+        for (int runStart = 0; runStart < length; ) {
+            final long style = source.getStyle(sourceColumn + runStart);
+            int runEnd = runStart + 1;
+            while (runEnd < length && source.getStyle(sourceColumn + runEnd) == style) runEnd++;
+            fillStyle(destinationColumn + runStart, destinationColumn + runEnd, style);
+            runStart = runEnd;
+        }
+    }
+
+    /** Copy the styles of another row with the same number of columns, reusing the storage of this row if possible. */
+    private void copyStyleFrom(TerminalRow source) {
+        if (source.mStyle != null) {
+            if (mStyle == null) mStyle = new long[mColumns];
+            System.arraycopy(source.mStyle, 0, mStyle, 0, mColumns);
+            return;
+        }
+        mStyle = null;
+        if (mStylePalette.length < source.mStylePaletteSize) mStylePalette = new long[source.mStylePalette.length];
+        System.arraycopy(source.mStylePalette, 0, mStylePalette, 0, source.mStylePaletteSize);
+        mStylePaletteSize = source.mStylePaletteSize;
+        mLastStyleIndex = 0;
+        if (source.mStyleIndices == null) {
+            mStyleIndices = null;
+        } else {
+            if (mStyleIndices == null) mStyleIndices = newStyleIndices();
+            System.arraycopy(source.mStyleIndices, 0, mStyleIndices, 0, mColumns);
+        }
+    }
+
+}
@@ -0,0 +1,81 @@
+package com.termux.terminal;
+
+import java.util.Arrays;
+
+/**
+ * A pool of {@link TerminalRow}:s no longer used by the {@link TerminalBuffer}:s of an emulator, to be reused instead
+ * of allocating new rows.
+ * <p>
+ * Rows are kept by their number of columns, for the two most recently used numbers of columns, so that switching back
+ * and forth between two terminal widths, as when rotating the device or showing and hiding the keyboard in split
+ * screen, reuses the rows of the width switched away from.
+ */
+final class TerminalRowPool {
+
+    /** The max number of rows kept for each number of columns. */
+    static final int MAX_ROWS_PER_WIDTH = 512;
+
+    /** The number of columns of the rows kept in each bucket, the most recently used bucket first, or 0 if unused. */
+    private final int[] mBucketColumns = new int[2];
+    private final TerminalRow[][] mBucketRows = {new TerminalRow[16], new TerminalRow[16]};
+    private final int[] mBucketSizes = new int[2];
+
+    /** Get a cleared row, like a new one, reusing a released one with the same number of columns if any. */
+    TerminalRow obtain(int columns, long style) {
+        if (findBucket(columns) && mBucketSizes[0] > 0) {
+            final int size = --mBucketSizes[0];
+            final TerminalRow row = mBucketRows[0][size];
+            mBucketRows[0][size] = null;
+            row.clear(style);
+            row.mLineWrap = false;
+            return row;
+        }
+        return new TerminalRow(columns, style);
+    }
+
+    /** Keep a row no longer in use, which must not be referenced anywhere else, to be returned by {@link #obtain(int, long)}. */
+    void release(TerminalRow row) {
+        final int columns = row.getColumns();
+        if (!findBucket(columns)) {
+            // Drop the rows of the least recently used number of columns.
+            Arrays.fill(mBucketRows[1], 0, mBucketSizes[1], null);
+            mBucketSizes[1] = 0;
+            mBucketColumns[1] = columns;
+            swapBuckets();
+        }
+
+        final int size = mBucketSizes[0];
+        if (size == MAX_ROWS_PER_WIDTH) return;
+        if (size == mBucketRows[0].length) mBucketRows[0] = Arrays.copyOf(mBucketRows[0], 2 * size);
+        mBucketRows[0][size] = row;
+        mBucketSizes[0] = size + 1;
+    }
+
+    /** The number of rows kept with a number of columns. */
+    int getRows(int columns) {
+        for (int i = 0; i < 2; i++)
+            if (mBucketColumns[i] == columns) return mBucketSizes[i];
+        return 0;
+    }
+
+    /** Make the bucket for a number of columns the first one, and return if there is one. */
+    private boolean findBucket(int columns) {
+        if (mBucketColumns[0] == columns) return true;
+        if (mBucketColumns[1] != columns) return false;
+        swapBuckets();
+        return true;
+    }
+
+    private void swapBuckets() {
+        final int columns = mBucketColumns[0];
+        mBucketColumns[0] = mBucketColumns[1];
+        mBucketColumns[1] = columns;
+        final TerminalRow[] rows = mBucketRows[0];
+        mBucketRows[0] = mBucketRows[1];
+        mBucketRows[1] = rows;
+        final int size = mBucketSizes[0];
+        mBucketSizes[0] = mBucketSizes[1];
+        mBucketSizes[1] = size;
+    }
+
+}
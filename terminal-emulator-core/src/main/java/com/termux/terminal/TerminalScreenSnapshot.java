@@ -0,0 +1,297 @@
+package com.termux.terminal;
+
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+/**
+ * A copy of the rows of a {@link TerminalEmulator} visible at a scroll position, together with the cursor, modes and
+ * colors needed to render them.
+ * <p>
+ * Rendering from a snapshot instead of from the emulator means that the emulator only needs to be locked while the
+ * snapshot is taken, which matters when a TerminalSession processes output on its parser thread (see
+ * TerminalSession#setUseParserThread(boolean)). A snapshot is meant to be reused between frames, in which case
+ * taking it does not allocate as long as the terminal size stays the same.
+ * <p>
+ * A snapshot reused for the screen of the same emulator only copies the rows marked as dirty by the
+ * {@link TerminalBuffer} since the previous snapshot, which it then clears, and moves the rows it already has along
+ * with the screen if it scrolled. The rows which look different from the previous snapshot, including the ones with
+ * the cursor before and after, are marked as dirty in the snapshot as well, see {@link #isLineDirty(int)}. Since the
+ * dirty marks of a buffer are cleared by the snapshot, only one snapshot should be taken of an emulator.
+ * <p>
+ * Each copied row also gets a new version, see {@link #getLineVersion(int)}, which unlike the dirty marks does not depend
+ * on how many snapshots a renderer has missed, so that what it computes from a row can be cached across frames.
+ */
+public final class TerminalScreenSnapshot {
+
+    private int mColumns;
+    private int mRows;
+    private int mTopRow;
+    private int mActiveTranscriptRows;
+    private TerminalRow[] mLines = new TerminalRow[0];
+    private boolean[] mDirtyLines = new boolean[0];
+    /** The version of each row, see {@link #getLineVersion(int)}. */
+    private long[] mLineVersions = new long[0];
+    private long mLastLineVersion;
+    private int mScrolledRows;
+    /** The rows and versions being moved by {@link #rotateLines(int)}. */
+    private TerminalRow[] mRotatedLines = new TerminalRow[0];
+    private long[] mRotatedLineVersions = new long[0];
+
+    /** The start column, start row, end column and end row of each search match, see {@link #findSearchMatches(Pattern)}. */
+    private int[] mSearchMatches = new int[4 * 64];
+    private int mSearchMatchCount;
+    private int[] mOldSearchMatches = new int[4 * 64];
+
+    /** The emulator and buffer copied from by the previous snapshot, if any. */
+    private TerminalEmulator mEmulator;
+    private TerminalBuffer mScreen;
+
+    private int mCursorRow;
+    private int mCursorCol;
+    private boolean mCursorVisible;
+    private int mCursorStyle;
+    private boolean mReverseVideo;
+    private final int[] mColors = new int[TextStyle.NUM_INDEXED_COLORS];
+
+    /**
+     * Copy the state of an emulator needed to render its rows starting at an external row. If the emulator is
+     * modified by a parser thread, the caller must hold the emulator lock (see TerminalSession#getEmulator()).
+     *
+     * @param topRow the first row to copy, in the range [-activeTranscriptRows, 0]. Values outside are clamped, since
+     *               the transcript may have shrunk since the scroll position was determined.
+     */
+    public void copyFrom(TerminalEmulator emulator, int topRow) {
+        final TerminalBuffer screen = emulator.getScreen();
+        // Rows may be left to reflow after a resize, of which the ones about to be scrolled to are reflowed first.
+        screen.reflowTranscriptAbove(topRow);
+        final int newTopRow = Math.max(-screen.getActiveTranscriptRows(), Math.min(topRow, 0));
+        // Only the screen rows are tracked, so the previous rows can only be kept if both snapshots show just those.
+        final boolean keepLines = emulator == mEmulator && screen == mScreen && mColumns == emulator.mColumns
+            && mRows == emulator.mRows && mTopRow == 0 && newTopRow == 0;
+        mEmulator = emulator;
+        mScreen = screen;
+        mColumns = emulator.mColumns;
+        mRows = emulator.mRows;
+        mActiveTranscriptRows = screen.getActiveTranscriptRows();
+        mTopRow = newTopRow;
+
+        if (mLines.length != mRows) {
+            mLines = Arrays.copyOf(mLines, mRows);
+            mLineVersions = Arrays.copyOf(mLineVersions, mRows);
+            mDirtyLines = new boolean[mRows];
+        }
+        if (keepLines) {
+            mScrolledRows = screen.getDirtyScrolledRows();
+            if (mScrolledRows != 0 && Math.abs(mScrolledRows) < mRows) rotateLines(mScrolledRows);
+            for (int i = 0; i < mRows; i++) {
+                mDirtyLines[i] = screen.isRowDirty(i);
+                if (mDirtyLines[i]) {
+                    mLines[i].copyFrom(screen.getLine(i));
+                    mLineVersions[i] = ++mLastLineVersion;
+                }
+            }
+        } else {
+            mScrolledRows = 0;
+            for (int i = 0; i < mRows; i++) {
+                TerminalRow source = screen.getLine(mTopRow + i);
+                TerminalRow line = mLines[i];
+                if (line == null || line.getColumns() != mColumns) mLines[i] = line = new TerminalRow(mColumns, TextStyle.NORMAL);
+                line.copyFrom(source);
+                mLineVersions[i] = ++mLastLineVersion;
+            }
+            Arrays.fill(mDirtyLines, true);
+        }
+        screen.clearDirtyRows();
+
+        final int oldCursorRow = mCursorRow - mScrolledRows;
+        final int oldCursorCol = mCursorCol;
+        final boolean oldCursorVisible = mCursorVisible;
+        final int oldCursorStyle = mCursorStyle;
+        mCursorRow = emulator.getCursorRow();
+        mCursorCol = emulator.getCursorCol();
+        mCursorVisible = emulator.shouldCursorBeVisible();
+        mCursorStyle = emulator.getCursorStyle();
+        if (oldCursorRow != mCursorRow || oldCursorCol != mCursorCol || oldCursorVisible != mCursorVisible || oldCursorStyle != mCursorStyle) {
+            if (oldCursorRow >= 0 && oldCursorRow < mRows) mDirtyLines[oldCursorRow] = true;
+            if (mCursorRow >= 0 && mCursorRow < mRows) mDirtyLines[mCursorRow] = true;
+        }
+
+        // Colors and reverse video change how every row looks.
+        final boolean oldReverseVideo = mReverseVideo;
+        mReverseVideo = emulator.isReverseVideo();
+        final int[] colors = emulator.mColors.mCurrentColors;
+        if (oldReverseVideo != mReverseVideo || !Arrays.equals(colors, mColors)) {
+            Arrays.fill(mDirtyLines, true);
+            System.arraycopy(colors, 0, mColors, 0, TextStyle.NUM_INDEXED_COLORS);
+        }
+    }
+
+    /**
+     * Copy the rows of an emulator like {@link #copyFrom(TerminalEmulator, int)}, unless the program is drawing a frame
+     * with synchronized output, see {@link TerminalEmulator#isSynchronizedOutput()}. The rows already copied from the
+     * emulator are then kept, to draw the previous frame again instead of a half drawn one, and no row is dirty.
+     *
+     * @param synchronizedOutputTimedOut if the program has taken too long to finish drawing, in which case the rows are
+     *                                   copied as they are.
+     * @return if the rows were copied, after which search matches are to be found again.
+     */
+    public boolean copyCompletedFrom(TerminalEmulator emulator, int topRow, boolean synchronizedOutputTimedOut) {
+        if (emulator == mEmulator && emulator.isSynchronizedOutput() && !synchronizedOutputTimedOut) {
+            // The screen keeps its dirty rows until the frame is done, and they are copied then.
+            Arrays.fill(mDirtyLines, false);
+            mScrolledRows = 0;
+            return false;
+        }
+        copyFrom(emulator, topRow);
+        return true;
+    }
+
+    /**
+     * Find the matches of a search pattern in the rows copied by {@link #copyFrom(TerminalEmulator, int)}, to be
+     * highlighted, or forget the matches if the pattern is null. If the emulator is modified by a parser thread, the
+     * caller must still hold the emulator lock held while copying. The rows of the matches which differ from the ones of
+     * the previous snapshot are marked as dirty.
+     */
+    public void findSearchMatches(Pattern pattern) {
+        final int[] oldMatches = mSearchMatches;
+        final int oldMatchCount = mSearchMatchCount;
+        mSearchMatches = mOldSearchMatches;
+        mOldSearchMatches = oldMatches;
+        mSearchMatchCount = (pattern == null) ? 0 : mScreen.findAll(pattern, mTopRow, mTopRow + mRows, mSearchMatches);
+
+        // The old matches are in the rows of the previous snapshot, which have moved up by the rows scrolled.
+        boolean changed = oldMatchCount != mSearchMatchCount;
+        for (int i = 0; !changed && i < 4 * oldMatchCount; i++)
+            changed = mSearchMatches[i] != oldMatches[i] - ((i & 1) == 1 ? mScrolledRows : 0);
+        if (changed) {
+            markMatchRowsDirty(oldMatches, oldMatchCount, mScrolledRows);
+            markMatchRowsDirty(mSearchMatches, mSearchMatchCount, 0);
+        }
+    }
+
+    private void markMatchRowsDirty(int[] matches, int matchCount, int scrolledRows) {
+        for (int i = 0; i < matchCount; i++) {
+            final int startIndex = Math.max(matches[4 * i + 1] - scrolledRows - mTopRow, 0);
+            final int endIndex = Math.min(matches[4 * i + 3] - scrolledRows - mTopRow + 1, mRows);
+            if (startIndex < endIndex) Arrays.fill(mDirtyLines, startIndex, endIndex, true);
+        }
+    }
+
+    /**
+     * Rotate {@link #mLines} and {@link #mLineVersions} so that the row scrolled to each index comes there, as the
+     * screen scrolled up or down.
+     */
+    private void rotateLines(int scrolledRows) {
+        final int distance = scrolledRows > 0 ? scrolledRows : mRows + scrolledRows;
+        if (mRotatedLines.length < distance) {
+            mRotatedLines = new TerminalRow[mRows];
+            mRotatedLineVersions = new long[mRows];
+        }
+        System.arraycopy(mLines, 0, mRotatedLines, 0, distance);
+        System.arraycopy(mLines, distance, mLines, 0, mRows - distance);
+        System.arraycopy(mRotatedLines, 0, mLines, mRows - distance, distance);
+        Arrays.fill(mRotatedLines, 0, distance, null);
+        System.arraycopy(mLineVersions, 0, mRotatedLineVersions, 0, distance);
+        System.arraycopy(mLineVersions, distance, mLineVersions, 0, mRows - distance);
+        System.arraycopy(mRotatedLineVersions, 0, mLineVersions, mRows - distance, distance);
+    }
+
+    public int getColumns() {
+        return mColumns;
+    }
+
+    public int getRows() {
+        return mRows;
+    }
+
+    /** The external row of the first row in the snapshot, which may differ from the one requested. */
+    public int getTopRow() {
+        return mTopRow;
+    }
+
+    public int getActiveTranscriptRows() {
+        return mActiveTranscriptRows;
+    }
+
+    /** Get a row by its external row number, in the range [{@link #getTopRow()}, {@link #getTopRow()} + {@link #getRows()}). */
+    public TerminalRow getLine(int externalRow) {
+        final int index = externalRow - mTopRow;
+        if (index < 0 || index >= mRows)
+            throw new IllegalArgumentException("TerminalScreenSnapshot.getLine(): externalRow=" + externalRow + ", mTopRow=" + mTopRow + ", mRows=" + mRows);
+        return mLines[index];
+    }
+
+    /**
+     * The version of the text and styles of a row, which changes each time the row is copied from the emulator and
+     * moves with it when the screen scrolls, like the row returned by {@link #getLine(int)} does. The versions of the
+     * rows of a snapshot are unique, so what a renderer has computed from a row object can be reused as long as the
+     * version it was computed for is the same.
+     */
+    public long getLineVersion(int externalRow) {
+        final int index = externalRow - mTopRow;
+        if (index < 0 || index >= mRows)
+            throw new IllegalArgumentException("TerminalScreenSnapshot.getLineVersion(): externalRow=" + externalRow + ", mTopRow=" + mTopRow + ", mRows=" + mRows);
+        return mLineVersions[index];
+    }
+
+    /**
+     * If a row looks different from the previous snapshot, after moving the rows of that by {@link #getScrolledRows()},
+     * or was not in it. All rows are dirty in the first snapshot and after a resize, a change of colors or a change of
+     * the screen or the transcript rows shown.
+     */
+    public boolean isLineDirty(int externalRow) {
+        final int index = externalRow - mTopRow;
+        if (index < 0 || index >= mRows)
+            throw new IllegalArgumentException("TerminalScreenSnapshot.isLineDirty(): externalRow=" + externalRow + ", mTopRow=" + mTopRow + ", mRows=" + mRows);
+        return mDirtyLines[index];
+    }
+
+    /**
+     * The number of rows the screen scrolled up since the previous snapshot, or down if negative, so that the row at
+     * each index in the previous snapshot has moved to the index this number of rows above it.
+     */
+    public int getScrolledRows() {
+        return mScrolledRows;
+    }
+
+    /** The number of search matches found by {@link #findSearchMatches(Pattern)}. */
+    public int getSearchMatchCount() {
+        return mSearchMatchCount;
+    }
+
+    /**
+     * The start column, start row, end column and end row of each search match found by
+     * {@link #findSearchMatches(Pattern)}, the end column being the column after the match.
+     */
+    public int[] getSearchMatches() {
+        return mSearchMatches;
+    }
+
+    public int getCursorRow() {
+        return mCursorRow;
+    }
+
+    public int getCursorCol() {
+        return mCursorCol;
+    }
+
+    /** See {@link TerminalEmulator#shouldCursorBeVisible()}. */
+    public boolean isCursorVisible() {
+        return mCursorVisible;
+    }
+
+    /** See {@link TerminalEmulator#getCursorStyle()}. */
+    public int getCursorStyle() {
+        return mCursorStyle;
+    }
+
+    public boolean isReverseVideo() {
+        return mReverseVideo;
+    }
+
+    /** The current colors, indexed like {@link TerminalColors#mCurrentColors}. */
+    public int[] getColors() {
+        return mColors;
+    }
+
+}
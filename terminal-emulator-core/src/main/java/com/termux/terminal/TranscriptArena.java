@@ -0,0 +1,210 @@
+package com.termux.terminal;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Storage for the transcript rows of a {@link TerminalBuffer} which have scrolled far from the screen, packed by
+ * {@link TerminalRow#pack(Cursor)} into large shared byte arrays instead of each being a {@link TerminalRow} with a
+ * char[] and styles sized for editing.
+ * <p>
+ * A packed row is referred to by a handle. Rows are appended to the current chunk, and a chunk is freed once all rows
+ * packed into it have been released. Since transcript rows fall out of the ring buffer in the order they were packed,
+ * chunks are freed in order as well.
+ */
+final class TranscriptArena {
+
+    /** The handle of no packed row. */
+    static final long NO_ROW = 0;
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private byte[][] mChunks = new byte[4][];
+    /** The number of packed rows not yet released in each chunk. */
+    private int[] mChunkRows = new int[4];
+    /** The chunk rows are packed into, or -1 if none. */
+    private int mCurrentChunk = -1;
+    /** The position in the current chunk where the next row is packed. */
+    private int mChunkPosition;
+
+    /** A freed chunk kept for reuse, since the transcript frees chunks at the rate it fills them once full. */
+    private byte[] mFreeChunk;
+
+    private final Cursor mCursor = new Cursor();
+
+    /** Pack a row and return its handle. */
+    long pack(TerminalRow row) {
+        final int sizeBound = row.packedSizeBound();
+        if (mCurrentChunk == -1 || mChunkPosition + sizeBound > mChunks[mCurrentChunk].length) startNewChunk(sizeBound);
+
+        final int chunk = mCurrentChunk;
+        final int offset = mChunkPosition;
+        mCursor.reset(mChunks[chunk], offset);
+        row.pack(mCursor);
+        mChunkPosition = mCursor.mPosition;
+        mChunkRows[chunk]++;
+        return ((long) (chunk + 1) << 32) | offset;
+    }
+
+    /** Unpack a packed row into a row with the same number of columns as the one packed. */
+    void unpack(long handle, TerminalRow into) {
+        mCursor.reset(mChunks[(int) (handle >>> 32) - 1], (int) handle);
+        into.unpack(mCursor);
+    }
+
+    /** If a packed row wraps, see {@link TerminalRow#mLineWrap}. */
+    boolean isLineWrap(long handle) {
+        mCursor.reset(mChunks[(int) (handle >>> 32) - 1], (int) handle);
+        return TerminalRow.isPackedLineWrap(mCursor);
+    }
+
+    /** If a packed row is blank, see {@link TerminalRow#isBlank()}. */
+    boolean isBlank(long handle) {
+        mCursor.reset(mChunks[(int) (handle >>> 32) - 1], (int) handle);
+        return TerminalRow.isPackedBlank(mCursor);
+    }
+
+    /** Append a packed row, packed from a row with a number of columns, to a store without unpacking it. */
+    void store(long handle, int columns, TranscriptStore store) throws IOException {
+        final byte[] chunk = mChunks[(int) (handle >>> 32) - 1];
+        final int offset = (int) handle;
+        mCursor.reset(chunk, offset);
+        TerminalRow.skipPacked(mCursor);
+        store.appendPacked(columns, chunk, offset, mCursor.mPosition - offset);
+    }
+
+    /** Release a packed row, after which its handle may no longer be used. */
+    void release(long handle) {
+        final int chunk = (int) (handle >>> 32) - 1;
+        if (--mChunkRows[chunk] == 0 && chunk != mCurrentChunk) freeChunk(chunk);
+    }
+
+    /** Release all packed rows. */
+    void clear() {
+        Arrays.fill(mChunks, null);
+        Arrays.fill(mChunkRows, 0);
+        mCurrentChunk = -1;
+        mFreeChunk = null;
+    }
+
+    private void freeChunk(int chunk) {
+        if (mChunks[chunk].length == CHUNK_SIZE) mFreeChunk = mChunks[chunk];
+        mChunks[chunk] = null;
+    }
+
+    private void startNewChunk(int minSize) {
+        if (mCurrentChunk != -1 && mChunkRows[mCurrentChunk] == 0) freeChunk(mCurrentChunk);
+
+        int chunk = 0;
+        while (chunk < mChunks.length && mChunks[chunk] != null) chunk++;
+        if (chunk == mChunks.length) {
+            mChunks = Arrays.copyOf(mChunks, 2 * mChunks.length);
+            mChunkRows = Arrays.copyOf(mChunkRows, 2 * mChunkRows.length);
+        }
+        if (minSize <= CHUNK_SIZE && mFreeChunk != null) {
+            mChunks[chunk] = mFreeChunk;
+            mFreeChunk = null;
+        } else {
+            mChunks[chunk] = new byte[Math.max(CHUNK_SIZE, minSize)];
+        }
+        mChunkRows[chunk] = 0;
+        mCurrentChunk = chunk;
+        mChunkPosition = 0;
+    }
+
+    /** A position in a chunk, for {@link TerminalRow} to write and read its packed form. */
+    static final class Cursor {
+
+        private byte[] mData;
+        private int mPosition;
+
+        void reset(byte[] data, int position) {
+            mData = data;
+            mPosition = position;
+        }
+
+        int getPosition() {
+            return mPosition;
+        }
+
+        void writeByte(int b) {
+            mData[mPosition++] = (byte) b;
+        }
+
+        /**
+         * Write the chars of text starting at an index as long as they are ASCII, and return the index of the first
+         * char not written.
+         */
+        int writeAscii(char[] text, int start, int end) {
+            final byte[] data = mData;
+            int position = mPosition;
+            int i = start;
+            for (char c; i < end && (c = text[i]) < 0x80; i++)
+                data[position++] = (byte) c;
+            mPosition = position;
+            return i;
+        }
+
+        /** The number of bytes written by {@link #writeVarInt(int)} for a value. */
+        static int varIntSize(int value) {
+            int size = 1;
+            while (value >= 0x80) {
+                value >>>= 7;
+                size++;
+            }
+            return size;
+        }
+
+        /**
+         * Write a var int at a position in a given number of bytes, at least {@link #varIntSize(int)}, by padding it
+         * with continuation bytes, without moving the cursor.
+         */
+        void setPaddedVarInt(int position, int value, int size) {
+            for (int i = 0; i < size - 1; i++) {
+                mData[position++] = (byte) (0x80 | (value & 0x7F));
+                value >>>= 7;
+            }
+            mData[position] = (byte) value;
+        }
+
+        int readByte() {
+            return mData[mPosition++] & 0xFF;
+        }
+
+        void skip(int bytes) {
+            mPosition += bytes;
+        }
+
+        /** Write a non-negative int in 7 bit groups, least significant first, so that small values take one byte. */
+        void writeVarInt(int value) {
+            while (value >= 0x80) {
+                writeByte(0x80 | (value & 0x7F));
+                value >>>= 7;
+            }
+            writeByte(value);
+        }
+
+        int readVarInt() {
+            int value = 0;
+            for (int shift = 0; ; shift += 7) {
+                final int b = readByte();
+                value |= (b & 0x7F) << shift;
+                if (b < 0x80) return value;
+            }
+        }
+
+        void writeLong(long value) {
+            for (int shift = 56; shift >= 0; shift -= 8)
+                writeByte((int) (value >>> shift));
+        }
+
+        long readLong() {
+            long value = 0;
+            for (int i = 0; i < 8; i++)
+                value = (value << 8) | readByte();
+            return value;
+        }
+
+    }
+
+}
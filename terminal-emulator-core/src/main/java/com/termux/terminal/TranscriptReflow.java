@@ -0,0 +1,245 @@
+package com.termux.terminal;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The rows of a {@link TerminalBuffer} from before a resize which changed the number of columns, reflowed to the new
+ * number of columns a paragraph at a time from the bottom up by {@link #reflowPrevious()}.
+ * <p>
+ * A paragraph is a run of non-blank rows of which all but the last wrap, and is reflowed independently of the rows
+ * around it. Reflowing from the bottom up lets {@link TerminalBuffer#resize(int, int, int, int[], long, boolean)} reflow
+ * just the rows needed to fill the screen, leaving the rest of the transcript to be reflowed later and prepended above
+ * the rows already reflowed, whose external rows are unaffected by that.
+ * <p>
+ * The result is the same as reflowing all rows from the top down: blank rows are only kept if followed by a non-blank
+ * row, trailing spaces are dropped from rows which do not wrap and the row with the cursor is only taken up to the
+ * cursor.
+ */
+final class TranscriptReflow {
+
+    private final TerminalRow[] mOldLines;
+    private final TranscriptArena mOldArena;
+    private final long[] mOldPackedRows;
+    private final int mOldColumns, mOldScreenFirstRow, mOldTotalRows;
+    /** The last old external row, which is not followed by a newline. */
+    private final int mOldLastRow;
+    private final int mOldCursorColumn, mOldCursorRow;
+
+    private final int mColumns;
+    /** The style new rows are cleared with. */
+    private final long mStyle;
+    private final TerminalRowPool mRowPool;
+
+    /** The first old external row, and the end of the old external rows not yet reflowed. */
+    private final int mFirstRow;
+    private int mEndRow;
+    /** If a paragraph has been reflowed, in which case blank rows above it are kept. */
+    private boolean mReflowedBelow;
+
+    /** A row to unpack packed old rows into. */
+    private TerminalRow mPackedLine;
+
+    /** The rows reflowed by the last call to {@link #reflowPrevious()}, from the top down. */
+    TerminalRow[] mRows = new TerminalRow[16];
+    int mRowCount;
+    /** The index in {@link #mRows} and the column of the cursor, if placed by the last call to {@link #reflowPrevious()}, else -1. */
+    int mCursorRow, mCursorColumn;
+    /** The column in the last of {@link #mRows} where the next character is reflowed to. */
+    private int mOutputColumn;
+
+    /**
+     * Take over the rows of a buffer being resized, which may not be modified or released by the buffer afterwards.
+     *
+     * @param oldCursor the (column, row) of the cursor before the resize.
+     */
+    TranscriptReflow(TerminalRow[] oldLines, TranscriptArena oldArena, long[] oldPackedRows, int oldColumns, int oldScreenFirstRow,
+                     int oldTotalRows, int oldActiveTranscriptRows, int oldScreenRows, int[] oldCursor,
+                     int columns, long style, TerminalRowPool rowPool) {
+        mOldLines = oldLines;
+        mOldArena = oldArena;
+        mOldPackedRows = oldPackedRows;
+        mOldColumns = oldColumns;
+        mOldScreenFirstRow = oldScreenFirstRow;
+        mOldTotalRows = oldTotalRows;
+        mOldLastRow = oldScreenRows - 1;
+        mOldCursorColumn = oldCursor[0];
+        mOldCursorRow = oldCursor[1];
+        mColumns = columns;
+        mStyle = style;
+        mRowPool = rowPool;
+        mFirstRow = -oldActiveTranscriptRows;
+        mEndRow = oldScreenRows;
+    }
+
+    /** If there are old rows left to reflow. */
+    boolean hasRowsLeft() {
+        return mEndRow > mFirstRow;
+    }
+
+    /**
+     * Reflow the last paragraph not yet reflowed, together with the blank rows kept between it and the paragraph
+     * below, into {@link #mRows}.
+     *
+     * @return false if there were no rows left to reflow.
+     */
+    boolean reflowPrevious() {
+        mRowCount = 0;
+        mCursorRow = -1;
+        if (!hasRowsLeft()) return false;
+
+        int end = mEndRow - 1;
+        int blankRows = 0;
+        while (end >= mFirstRow && isSkipped(end)) {
+            blankRows++;
+            end--;
+        }
+        if (end < mFirstRow) {
+            // Blank rows at the top of the transcript, which are kept if there is anything below them.
+            if (mReflowedBelow) addEmptyRows(blankRows);
+            mEndRow = mFirstRow;
+            return true;
+        }
+
+        int start = end;
+        while (start > mFirstRow && isLineWrap(start - 1) && !isSkipped(start - 1)) start--;
+
+        // Each newline after the paragraph starts a new row, the last one being the first row of the paragraph below:
+        int newlines = (end != mOldLastRow && !isLineWrap(end)) ? 1 : 0;
+        if (mReflowedBelow) newlines += blankRows - 1;
+
+        addRow();
+        for (int row = start; row <= end; row++)
+            copyRow(row, getOldLine(row));
+        addEmptyRows(newlines);
+
+        mEndRow = start;
+        mReflowedBelow = true;
+        return true;
+    }
+
+    /** Append the old rows left to reflow to a store, as they are, from the top down. */
+    void storeRowsLeft(TranscriptStore store) throws IOException {
+        for (int row = mFirstRow; row < mEndRow; row++) {
+            final int internalRow = toInternalRow(row);
+            if (mOldPackedRows != null && mOldPackedRows[internalRow] != TranscriptArena.NO_ROW) {
+                mOldArena.store(mOldPackedRows[internalRow], mOldColumns, store);
+            } else {
+                final TerminalRow line = getOldLine(row);
+                if (line != null) {
+                    store.append(line);
+                } else {
+                    getPackedLine().clear(TextStyle.NORMAL);
+                    store.append(mPackedLine);
+                }
+            }
+        }
+        mEndRow = mFirstRow;
+    }
+
+    /** Release the old rows to the pool. The rows in {@link #mRows} are not released, as they belong to the buffer. */
+    void release() {
+        for (TerminalRow line : mOldLines)
+            if (line != null) mRowPool.release(line);
+        if (mPackedLine != null) mRowPool.release(mPackedLine);
+        mPackedLine = null;
+        mEndRow = mFirstRow;
+        Arrays.fill(mRows, null);
+    }
+
+    /**
+     * If an old row is skipped as blank. The row with the cursor is never skipped unless it has no row at all. Like
+     * {@link #isLineWrap(int)}, this does not unpack a packed row, since most rows are only unpacked to be copied.
+     */
+    private boolean isSkipped(int externalOldRow) {
+        final int internalOldRow = toInternalRow(externalOldRow);
+        final TerminalRow line = mOldLines[internalOldRow];
+        if (line != null) return externalOldRow != mOldCursorRow && line.isBlank();
+        if (mOldPackedRows == null || mOldPackedRows[internalOldRow] == TranscriptArena.NO_ROW) return true;
+        return externalOldRow != mOldCursorRow && mOldArena.isBlank(mOldPackedRows[internalOldRow]);
+    }
+
+    /** If an old row wraps, where an old row without a row at all does not. */
+    private boolean isLineWrap(int externalOldRow) {
+        final int internalOldRow = toInternalRow(externalOldRow);
+        final TerminalRow line = mOldLines[internalOldRow];
+        if (line != null) return line.mLineWrap;
+        return mOldPackedRows != null && mOldPackedRows[internalOldRow] != TranscriptArena.NO_ROW
+            && mOldArena.isLineWrap(mOldPackedRows[internalOldRow]);
+    }
+
+    /** Do what {@link TerminalBuffer#externalToInternalRow(int)} does but for the old state. */
+    private int toInternalRow(int externalOldRow) {
+        final int internalOldRow = mOldScreenFirstRow + externalOldRow;
+        return (internalOldRow < 0) ? (mOldTotalRows + internalOldRow) : (internalOldRow % mOldTotalRows);
+    }
+
+    /** Get an old row, unpacking it if packed, or null if it never got a row. */
+    private TerminalRow getOldLine(int externalOldRow) {
+        final int internalOldRow = toInternalRow(externalOldRow);
+        final TerminalRow line = mOldLines[internalOldRow];
+        if (line != null || mOldPackedRows == null || mOldPackedRows[internalOldRow] == TranscriptArena.NO_ROW) return line;
+        mOldArena.unpack(mOldPackedRows[internalOldRow], getPackedLine());
+        return mPackedLine;
+    }
+
+    private TerminalRow getPackedLine() {
+        if (mPackedLine == null) mPackedLine = mRowPool.obtain(mOldColumns, 0);
+        return mPackedLine;
+    }
+
+    private void addRow() {
+        if (mRowCount == mRows.length) mRows = Arrays.copyOf(mRows, 2 * mRowCount);
+        mRows[mRowCount++] = mRowPool.obtain(mColumns, mStyle);
+        mOutputColumn = 0;
+    }
+
+    private void addEmptyRows(int rows) {
+        for (int i = 0; i < rows; i++)
+            addRow();
+    }
+
+    /** Copy the characters of an old row after the ones already reflowed, wrapping them as necessary. */
+    private void copyRow(int externalOldRow, TerminalRow oldLine) {
+        final boolean cursorAtThisRow = externalOldRow == mOldCursorRow;
+        int lastNonSpaceIndex = 0;
+        if (cursorAtThisRow || oldLine.mLineWrap) {
+            // Take the whole line, either because of cursor on it, or if line wrapping.
+            lastNonSpaceIndex = oldLine.getSpaceUsed();
+        } else {
+            for (int i = 0; i < oldLine.getSpaceUsed(); i++)
+                if (oldLine.mText[i] != ' ') lastNonSpaceIndex = i + 1;
+        }
+
+        int currentOldCol = 0;
+        long styleAtCol = 0;
+        for (int i = 0; i < lastNonSpaceIndex; i++) {
+            // Note that looping over java character, not cells.
+            char c = oldLine.mText[i];
+            int codePoint = (Character.isHighSurrogate(c)) ? Character.toCodePoint(c, oldLine.mText[++i]) : c;
+            int displayWidth = WcWidth.width(codePoint);
+            // Use the last style if this is a zero-width character:
+            if (displayWidth > 0) styleAtCol = oldLine.getStyle(currentOldCol);
+
+            // Line wrap as necessary:
+            if (mOutputColumn + displayWidth > mColumns) {
+                mRows[mRowCount - 1].mLineWrap = true;
+                addRow();
+            }
+
+            int offsetDueToCombiningChar = ((displayWidth <= 0 && mOutputColumn > 0) ? 1 : 0);
+            mRows[mRowCount - 1].setChar(mOutputColumn - offsetDueToCombiningChar, codePoint, styleAtCol);
+
+            if (displayWidth > 0) {
+                if (cursorAtThisRow && mOldCursorColumn == currentOldCol) {
+                    mCursorRow = mRowCount - 1;
+                    mCursorColumn = mOutputColumn;
+                }
+                currentOldCol += displayWidth;
+                mOutputColumn += displayWidth;
+                if (cursorAtThisRow && mCursorRow != -1) break;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,304 @@
+package com.termux.terminal;
+
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The text of the rows of a {@link TerminalBuffer}, kept in one char array to be searched by
+ * {@link TerminalBuffer#find(Pattern, int, int, boolean, int[])} without building a string of the whole transcript for
+ * every search.
+ * <p>
+ * Rows are numbered by their absolute row, which stays the same for a row as the screen scrolls, and are appended in
+ * order. Each row is followed by a newline unless it wraps, so that a line wrapped over several rows is matched as one
+ * line, and the text of rows which do not wrap leaves out trailing spaces like {@link TerminalBuffer#getSelectedText(int,
+ * int, int, int)} does. Transcript rows do not change once they have scrolled off the screen, so the buffer appends them
+ * once, while the screen rows after them are removed and appended again before every search.
+ * <p>
+ * Offsets in the text are given as offsets from the start of the first row ever appended, which stay valid as rows
+ * are removed from the start.
+ */
+final class TranscriptSearchIndex {
+
+    /** The text, starting at offset {@link #mTextOffset}. */
+    private char[] mText = new char[4096];
+    /** The offset of {@link #mText}[0], and the offset of the end of the text. */
+    private long mTextOffset, mTextEnd;
+
+    /** The offset of the start of each row, of the rows starting at index {@link #mFirstRowIndex}. */
+    private long[] mRowStarts = new long[256];
+    private int mFirstRowIndex;
+    /** The absolute row of the first row and the number of rows. */
+    private long mFirstRow;
+    private int mRows;
+    /** The absolute row after the last transcript row, which the rows after are screen rows. */
+    private long mTranscriptEnd;
+
+    private final TextSequence mSequence = new TextSequence();
+
+    TranscriptSearchIndex(long firstRow) {
+        mFirstRow = mTranscriptEnd = firstRow;
+    }
+
+    /** Remove all rows, so that rows are appended from an absolute row on. */
+    void reset(long firstRow) {
+        mTextOffset = mTextEnd = 0;
+        mFirstRowIndex = mRows = 0;
+        mFirstRow = mTranscriptEnd = firstRow;
+    }
+
+    long getFirstRow() {
+        return mFirstRow;
+    }
+
+    /** The absolute row after the last row. */
+    long getEndRow() {
+        return mFirstRow + mRows;
+    }
+
+    long getTranscriptEnd() {
+        return mTranscriptEnd;
+    }
+
+    void setTranscriptEnd(long transcriptEnd) {
+        mTranscriptEnd = transcriptEnd;
+    }
+
+    /** Append a row after the last row. */
+    void appendRow(TerminalRow row) {
+        final char[] text = row.mText;
+        int length;
+        if (row.mLineWrap) {
+            length = row.getSpaceUsed();
+        } else {
+            length = row.getSpaceUsed();
+            while (length > 0 && text[length - 1] == ' ') length--;
+        }
+
+        if (mFirstRowIndex + mRows == mRowStarts.length) {
+            if (mFirstRowIndex > mRowStarts.length / 2) {
+                System.arraycopy(mRowStarts, mFirstRowIndex, mRowStarts, 0, mRows);
+                mFirstRowIndex = 0;
+            } else {
+                mRowStarts = Arrays.copyOf(mRowStarts, 2 * mRowStarts.length);
+            }
+        }
+        mRowStarts[mFirstRowIndex + mRows++] = mTextEnd;
+
+        ensureTextCapacity(length + 1);
+        final int end = (int) (mTextEnd - mTextOffset);
+        System.arraycopy(text, 0, mText, end, length);
+        if (!row.mLineWrap) mText[end + length++] = '\n';
+        mTextEnd += length;
+    }
+
+    /** Remove the rows from an absolute row and on. */
+    void removeRowsFrom(long row) {
+        if (row >= getEndRow()) return;
+        if (row <= mFirstRow) {
+            mTextEnd = getRowStart(mFirstRow);
+            mRows = 0;
+        } else {
+            mTextEnd = getRowStart(row);
+            mRows = (int) (row - mFirstRow);
+        }
+        if (mTranscriptEnd > getEndRow()) mTranscriptEnd = getEndRow();
+    }
+
+    /** Remove the rows before an absolute row, which becomes the first row if there are no rows after it. */
+    void removeRowsBefore(long row) {
+        if (row <= mFirstRow) return;
+        if (row >= getEndRow()) {
+            removeRowsFrom(mFirstRow);
+            mFirstRow = row;
+        } else {
+            final int removedRows = (int) (row - mFirstRow);
+            mFirstRowIndex += removedRows;
+            mRows -= removedRows;
+            mFirstRow = row;
+        }
+        if (mTranscriptEnd < mFirstRow) mTranscriptEnd = mFirstRow;
+    }
+
+    /** The offset of the start of a row, or the end of the text for the row after the last. */
+    long getRowStart(long row) {
+        return row == getEndRow() ? mTextEnd : mRowStarts[mFirstRowIndex + (int) (row - mFirstRow)];
+    }
+
+    /** The offset of a column of a row, or of the end of the row if the column is after its text. */
+    long getOffset(long row, int column) {
+        final int rowStart = (int) (getRowStart(row) - mTextOffset);
+        final int rowEnd = (int) (getRowStart(row + 1) - mTextOffset);
+        int index = rowStart;
+        for (int currentColumn = 0; index < rowEnd && mText[index] != '\n'; ) {
+            final int codePoint = Character.codePointAt(mText, index, rowEnd);
+            final int width = WcWidth.width(codePoint);
+            if (width > 0 && currentColumn >= column) break;
+            currentColumn += Math.max(width, 0);
+            index += Character.charCount(codePoint);
+        }
+        return mTextOffset + index;
+    }
+
+    /** The absolute row of the row containing an offset. */
+    long getRow(long offset) {
+        int low = mFirstRowIndex, high = mFirstRowIndex + mRows - 1;
+        while (low < high) {
+            final int middle = (low + high + 1) >>> 1;
+            if (mRowStarts[middle] <= offset) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return mFirstRow + (low - mFirstRowIndex);
+    }
+
+    /** The column of the character at an offset in its row, or the column after the text of the row if after it. */
+    int getColumn(long row, long offset) {
+        final int index = (int) (offset - mTextOffset);
+        int column = 0;
+        for (int i = (int) (getRowStart(row) - mTextOffset); i < index; ) {
+            final int codePoint = Character.codePointAt(mText, i, index);
+            if (codePoint == '\n') break;
+            column += Math.max(WcWidth.width(codePoint), 0);
+            i += Character.charCount(codePoint);
+        }
+        return column;
+    }
+
+    /**
+     * Find the first match of a pattern starting at or after an offset, or the last one ending at or before it if
+     * backwards, ignoring empty matches.
+     *
+     * @param match set to the start and end offsets of the match found.
+     * @return if a match was found.
+     */
+    boolean find(Pattern pattern, long offset, boolean backwards, long[] match) {
+        final Matcher matcher = newMatcher(pattern);
+        final int position = (int) (Math.max(getRowStart(mFirstRow), Math.min(offset, mTextEnd)) - mTextOffset);
+        if (!backwards) {
+            matcher.region(position, mSequence.length());
+            while (matcher.find()) {
+                if (matcher.end() > matcher.start()) {
+                    match[0] = mTextOffset + matcher.start();
+                    match[1] = mTextOffset + matcher.end();
+                    return true;
+                }
+                if (matcher.end() == mSequence.length()) break;
+                matcher.region(matcher.end() + 1, mSequence.length());
+            }
+            return false;
+        }
+
+        // Search windows of doubling size before the offset, so that a match close to it is found without searching
+        // from the start of the text, and keep the last match of the first window with any.
+        final int textStart = (int) (getRowStart(mFirstRow) - mTextOffset);
+        int windowStart = position;
+        for (int window = 4096; windowStart > textStart; window *= 2) {
+            windowStart = Math.max(textStart, position - window);
+            matcher.region(windowStart, position);
+            boolean found = false;
+            while (matcher.find()) {
+                if (matcher.end() > matcher.start()) {
+                    found = true;
+                    match[0] = mTextOffset + matcher.start();
+                    match[1] = mTextOffset + matcher.end();
+                } else if (matcher.end() < position) {
+                    matcher.region(matcher.end() + 1, position);
+                    continue;
+                }
+                if (matcher.end() == position) break;
+            }
+            if (found) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Find the matches of a pattern which overlap a range of offsets, ignoring empty matches.
+     *
+     * @param matches set to the start and end offsets of the matches found, at most maxMatches.
+     * @return the number of matches found.
+     */
+    int findAll(Pattern pattern, long start, long end, long[] matches, int maxMatches) {
+        final Matcher matcher = newMatcher(pattern);
+        // Start at the start of the line, so that a match which starts before the range is found.
+        final int textStart = (int) (getRowStart(mFirstRow) - mTextOffset);
+        int position = (int) (Math.max(start, mTextOffset + textStart) - mTextOffset);
+        while (position > textStart && mText[position - 1] != '\n') position--;
+        final int endPosition = (int) (Math.min(end, mTextEnd) - mTextOffset);
+        int count = 0;
+        matcher.region(position, mSequence.length());
+        while (count < maxMatches && matcher.find() && matcher.start() < endPosition) {
+            if (matcher.end() > matcher.start()) {
+                if (mTextOffset + matcher.end() > start) {
+                    matches[2 * count] = mTextOffset + matcher.start();
+                    matches[2 * count + 1] = mTextOffset + matcher.end();
+                    count++;
+                }
+            } else {
+                if (matcher.end() == mSequence.length()) break;
+                matcher.region(matcher.end() + 1, mSequence.length());
+            }
+        }
+        return count;
+    }
+
+    private Matcher newMatcher(Pattern pattern) {
+        mSequence.reset(mText, 0, (int) (mTextEnd - mTextOffset));
+        return pattern.matcher(mSequence).useTransparentBounds(true).useAnchoringBounds(false);
+    }
+
+    /** Make room for a number of chars after the text, dropping the text before the first row first if that is enough. */
+    private void ensureTextCapacity(int chars) {
+        final int length = (int) (mTextEnd - mTextOffset);
+        if (length + chars <= mText.length) return;
+        final int unused = (int) ((mRows == 0 ? mTextEnd : mRowStarts[mFirstRowIndex]) - mTextOffset);
+        final int used = length - unused;
+        if (used + chars <= mText.length / 2) {
+            System.arraycopy(mText, unused, mText, 0, used);
+        } else {
+            final char[] text = new char[Math.max(2 * mText.length, used + chars)];
+            System.arraycopy(mText, unused, text, 0, used);
+            mText = text;
+        }
+        mTextOffset += unused;
+    }
+
+    /** A {@link CharSequence} over a range of a char array, to match patterns against without copying the chars. */
+    private static final class TextSequence implements CharSequence {
+
+        private char[] mChars;
+        private int mStart, mLength;
+
+        void reset(char[] chars, int start, int length) {
+            mChars = chars;
+            mStart = start;
+            mLength = length;
+        }
+
+        @Override
+        public int length() {
+            return mLength;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= mLength) throw new IndexOutOfBoundsException("index=" + index + ", length=" + mLength);
+            return mChars[mStart + index];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new String(mChars, mStart + start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            return new String(mChars, mStart, mLength);
+        }
+
+    }
+
+}
@@ -0,0 +1,226 @@
+package com.termux.terminal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Disk storage for the transcript rows which fall out of the ring buffer of a {@link TerminalBuffer}, so that a much
+ * longer scroll history can be kept than fits in memory. See TerminalSession#setTranscriptStore(File, int).
+ * <p>
+ * Rows are stored in the form written by {@link TerminalRow#pack(TranscriptArena.Cursor)} in memory-mapped files,
+ * together with an index of where each row starts, so that any row can be read back without reading the rows stored
+ * before it. The rows are split between two segments which each hold half of the max number of rows: once the newest
+ * segment is full, the oldest segment is emptied and appended to instead, dropping its rows from the store.
+ * <p>
+ * Rows are stored with the number of columns they had when they fell out of the ring buffer, and are truncated or
+ * padded instead of reflowed when read into a row with a different number of columns.
+ */
+final class TranscriptStore {
+
+    /** The initial size of the data file of a segment, which is doubled as needed. */
+    private static final int INITIAL_DATA_SIZE = 256 * 1024;
+
+    private final File mDirectory;
+    private final int mSegmentRows;
+    private final Segment[] mSegments = new Segment[2];
+    /** The index in {@link #mSegments} of the segment rows are appended to. */
+    private int mCurrentSegment;
+    private boolean mClosed;
+
+    private byte[] mRecord = new byte[1024];
+    private final TranscriptArena.Cursor mCursor = new TranscriptArena.Cursor();
+    /** A row with the number of columns of a stored row being read into a row with a different number of columns. */
+    private TerminalRow mResizeRow;
+
+    /**
+     * Create a store in a directory, which is created if needed and should not be used by anything else.
+     *
+     * @param maxRows the max number of rows stored, at least two.
+     */
+    TranscriptStore(File directory, int maxRows) throws IOException {
+        if (maxRows < 2) throw new IllegalArgumentException("TranscriptStore(): maxRows=" + maxRows);
+        mDirectory = directory;
+        mSegmentRows = maxRows / 2;
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Failed to create transcript store directory \"" + directory + "\"");
+        try {
+            for (int i = 0; i < mSegments.length; i++)
+                mSegments[i] = new Segment(new File(directory, "transcript-" + i), mSegmentRows);
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /** The number of stored rows. */
+    int getRows() {
+        return mClosed ? 0 : mSegments[0].mRows + mSegments[1].mRows;
+    }
+
+    /** Store a row after the newest stored row, dropping the oldest rows if the store is full. */
+    void append(TerminalRow row) throws IOException {
+        if (mClosed) return;
+        final int sizeBound = row.packedSizeBound();
+        if (mRecord.length < sizeBound) mRecord = new byte[Math.max(sizeBound, 2 * mRecord.length)];
+        mCursor.reset(mRecord, 0);
+        row.pack(mCursor);
+        appendPacked(row.getColumns(), mRecord, 0, mCursor.getPosition());
+    }
+
+    /** Store a row written by {@link TerminalRow#pack(TranscriptArena.Cursor)}, like {@link #append(TerminalRow)}. */
+    void appendPacked(int columns, byte[] packed, int offset, int length) throws IOException {
+        if (mClosed) return;
+        Segment segment = mSegments[mCurrentSegment];
+        if (segment.mRows == mSegmentRows) {
+            mCurrentSegment = 1 - mCurrentSegment;
+            segment = mSegments[mCurrentSegment];
+            segment.clear();
+        }
+        segment.append(columns, packed, offset, length);
+    }
+
+    /** Read a stored row, where index 0 is the oldest row in the store, into a row. */
+    void read(int index, TerminalRow into) {
+        if (index < 0 || index >= getRows())
+            throw new IllegalArgumentException("TranscriptStore.read(): index=" + index + ", rows=" + getRows());
+        Segment segment = mSegments[1 - mCurrentSegment];
+        if (index >= segment.mRows) {
+            index -= segment.mRows;
+            segment = mSegments[mCurrentSegment];
+        }
+        final int length = segment.getRecordLength(index);
+        if (mRecord.length < length) mRecord = new byte[length];
+        segment.readRecord(index, mRecord, length);
+
+        mCursor.reset(mRecord, 0);
+        final int columns = mCursor.readVarInt();
+        if (columns == into.getColumns()) {
+            into.unpack(mCursor);
+        } else {
+            if (mResizeRow == null || mResizeRow.getColumns() != columns) mResizeRow = new TerminalRow(columns, TextStyle.NORMAL);
+            mResizeRow.unpack(mCursor);
+            into.clear(mResizeRow.getStyle(columns - 1));
+            into.copyInterval(mResizeRow, 0, Math.min(columns, into.getColumns()), 0);
+            into.mLineWrap = mResizeRow.mLineWrap;
+        }
+    }
+
+    /** Drop all stored rows. */
+    void clear() {
+        if (mClosed) return;
+        mSegments[0].clear();
+        mSegments[1].clear();
+        mCurrentSegment = 0;
+    }
+
+    /** Drop all stored rows and delete the files of the store, after which no rows are stored. */
+    void close() {
+        if (mClosed) return;
+        mClosed = true;
+        for (int i = 0; i < mSegments.length; i++) {
+            if (mSegments[i] != null) mSegments[i].close();
+            mSegments[i] = null;
+        }
+        //noinspection ResultOfMethodCallIgnored
+        mDirectory.delete();
+    }
+
+    /** Rows stored in a data file, with the offset of each row in the data file stored in an index file. */
+    private static final class Segment {
+
+        private final File mDataFile, mIndexFile;
+        private final FileChannel mDataChannel, mIndexChannel;
+        private MappedByteBuffer mData;
+        private final MappedByteBuffer mIndex;
+        /** The number of rows and bytes of row data in this segment. */
+        int mRows, mDataSize;
+
+        Segment(File file, int maxRows) throws IOException {
+            mDataFile = new File(file.getPath() + ".data");
+            mIndexFile = new File(file.getPath() + ".index");
+            mDataChannel = new RandomAccessFile(mDataFile, "rw").getChannel();
+            try {
+                mIndexChannel = new RandomAccessFile(mIndexFile, "rw").getChannel();
+            } catch (IOException e) {
+                close(mDataChannel, mDataFile);
+                throw e;
+            }
+            try {
+                mData = map(mDataChannel, INITIAL_DATA_SIZE);
+                mIndex = map(mIndexChannel, 4 * maxRows);
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        /** Append a record of the number of columns as a var int followed by a packed row. */
+        void append(int columns, byte[] packed, int offset, int length) throws IOException {
+            final int dataSize = mDataSize + 5 + length;
+            if (dataSize > mData.capacity()) mData = map(mDataChannel, Math.max(dataSize, 2 * mData.capacity()));
+            mData.position(mDataSize);
+            while (columns >= 0x80) {
+                mData.put((byte) (0x80 | (columns & 0x7F)));
+                columns >>>= 7;
+            }
+            mData.put((byte) columns);
+            mData.put(packed, offset, length);
+            mIndex.putInt(4 * mRows, mDataSize);
+            mDataSize = mData.position();
+            mRows++;
+        }
+
+        int getRecordLength(int row) {
+            final int end = (row + 1 < mRows) ? mIndex.getInt(4 * (row + 1)) : mDataSize;
+            return end - mIndex.getInt(4 * row);
+        }
+
+        void readRecord(int row, byte[] record, int length) {
+            mData.position(mIndex.getInt(4 * row));
+            mData.get(record, 0, length);
+        }
+
+        /** Drop all rows, keeping the files at their current size to be written over. */
+        void clear() {
+            mRows = mDataSize = 0;
+        }
+
+        void close() {
+            mRows = mDataSize = 0;
+            close(mDataChannel, mDataFile);
+            close(mIndexChannel, mIndexFile);
+        }
+
+        /** Close a file and delete it, which unmaps it once its mapped buffers have been garbage collected. */
+        private static void close(FileChannel channel, File file) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Nothing to do about it, and the file is deleted anyway.
+            }
+            //noinspection ResultOfMethodCallIgnored
+            file.delete();
+        }
+
+        /**
+         * Map the start of a file, extending it to the mapped size. The file is extended by writing zeros instead of
+         * leaving it sparse, so that running out of disk space fails here with an {@link IOException} instead of with a
+         * SIGBUS when the mapped memory is first written to.
+         */
+        private static MappedByteBuffer map(FileChannel channel, int size) throws IOException {
+            final ByteBuffer zeros = ByteBuffer.allocate(64 * 1024);
+            for (long position = channel.size(); position < size; ) {
+                zeros.clear();
+                zeros.limit((int) Math.min(zeros.capacity(), size - position));
+                position += channel.write(zeros, position);
+            }
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+
+    }
+
+}
@@ -0,0 +1,75 @@
+package com.termux.terminal;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * A {@link Writer} passing the text written to an {@link Appendable} with the leading and trailing whitespace left out,
+ * whitespace being the chars up to and including space like for {@link String#trim()}, as written by
+ * {@link TerminalBuffer#writeTranscriptText(Appendable, boolean, boolean)}.
+ * <p>
+ * Whitespace after the last non-whitespace char so far is held back until more non-whitespace follows, so only the
+ * whitespace between two chunks of text is ever buffered.
+ */
+final class TrimmingWriter extends Writer {
+
+    private final Appendable mOut;
+    /** If non-whitespace has been written, after which whitespace is no longer leading. */
+    private boolean mStarted;
+    /** The whitespace written after the last non-whitespace. */
+    private final StringBuilder mWhitespace = new StringBuilder();
+
+    TrimmingWriter(Appendable out) {
+        mOut = out;
+    }
+
+    @Override
+    public void write(char[] chars, int offset, int length) throws IOException {
+        int start = offset;
+        final int end = offset + length;
+        if (!mStarted) {
+            while (start < end && chars[start] <= ' ') start++;
+            if (start == end) return;
+            mStarted = true;
+        }
+
+        int last = end - 1;
+        while (last >= start && chars[last] <= ' ') last--;
+        if (last < start) {
+            mWhitespace.append(chars, start, end - start);
+            return;
+        }
+        writeWhitespace();
+        TerminalBuffer.appendChars(mOut, chars, start, last + 1 - start);
+        mWhitespace.append(chars, last + 1, end - last - 1);
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        if (c <= ' ') {
+            if (mStarted) mWhitespace.append((char) c);
+        } else {
+            mStarted = true;
+            writeWhitespace();
+            mOut.append((char) c);
+        }
+    }
+
+    private void writeWhitespace() throws IOException {
+        if (mWhitespace.length() == 0) return;
+        mOut.append(mWhitespace);
+        mWhitespace.setLength(0);
+    }
+
+    /** Flush the {@link Appendable} written to, if it can be, but not the whitespace held back. */
+    @Override
+    public void flush() throws IOException {
+        if (mOut instanceof Flushable) ((Flushable) mOut).flush();
+    }
+
+    @Override
+    public void close() {
+    }
+
+}
@@ -1,5 +1,7 @@
 package com.termux.terminal;
 
+import java.util.Arrays;
+
 /**
  * Implementation of wcwidth(3) for Unicode 15.
  *
@@ -490,6 +492,115 @@ public final class WcWidth {
     };
 
 
+    /** Code points per page of the lookup table. */
+    private static final int PAGE_SHIFT = 8;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    /** Each page packs a 2-bit width for each of its code points into longs, 32 widths per long. */
+    private static final int LONGS_PER_PAGE = PAGE_SIZE / 32;
+    private static final int PAGE_COUNT = (Character.MAX_CODE_POINT + 1) >> PAGE_SHIFT;
+
+    /** The pages containing the code points of {@link #isSpecialZeroWidth(int)}. */
+    private static final int[] SPECIAL_ZERO_WIDTH_PAGES = {0x00, 0x03, 0x20};
+
+    /** Widths of the Latin-1 code points, which make up most terminal output. */
+    private static final byte[] LATIN1_WIDTHS = new byte[256];
+    /** The index of the page in {@link #PAGES} for each block of {@link #PAGE_SIZE} code points. */
+    private static final char[] PAGE_INDEX = new char[PAGE_COUNT];
+    /**
+     * The pages of packed widths, {@link #LONGS_PER_PAGE} longs each. Most of Unicode is unassigned or has uniform
+     * width, so the 4352 pages of the full range share a small number of distinct pages.
+     */
+    private static final long[] PAGES;
+
+    static {
+        // Only pages containing a boundary of an interval table range, or one of the special cases, need a width per
+        // code point. The rest have a uniform width, and share one of three pages. There are only about a hundred of
+        // the former, which are filled in by painting the ranges over them rather than through computeWidth() per code
+        // point, to keep class initialization fast.
+        int[] mixedPageSlots = new int[PAGE_COUNT];
+        Arrays.fill(mixedPageSlots, -1);
+        int mixedPageCount = 0;
+        for (int page : findMixedPages())
+            if (mixedPageSlots[page] == -1) mixedPageSlots[page] = mixedPageCount++;
+
+        // The width of each uniform page, and of each code point in the mixed pages.
+        byte[] pageWidths = new byte[PAGE_COUNT];
+        byte[] widths = new byte[mixedPageCount << PAGE_SHIFT];
+        Arrays.fill(pageWidths, (byte) 1);
+        Arrays.fill(widths, (byte) 1);
+        // Zero width takes precedence over wide, like in computeWidth().
+        paintRanges(pageWidths, widths, mixedPageSlots, WIDE_EASTASIAN, (byte) 2);
+        paintRanges(pageWidths, widths, mixedPageSlots, ZERO_WIDTH, (byte) 0);
+        for (int page : SPECIAL_ZERO_WIDTH_PAGES) {
+            final int slot = mixedPageSlots[page];
+            for (int i = 0; i < PAGE_SIZE; i++)
+                if (isSpecialZeroWidth((page << PAGE_SHIFT) + i)) widths[(slot << PAGE_SHIFT) + i] = 0;
+        }
+
+        // The uniform pages come first, with every code point of width 0, 1 and 2 respectively.
+        PAGES = new long[(3 + mixedPageCount) * LONGS_PER_PAGE];
+        Arrays.fill(PAGES, LONGS_PER_PAGE, 2 * LONGS_PER_PAGE, 0x5555555555555555L);
+        Arrays.fill(PAGES, 2 * LONGS_PER_PAGE, 3 * LONGS_PER_PAGE, 0xAAAAAAAAAAAAAAAAL);
+        for (int page = 0; page < PAGE_COUNT; page++) {
+            final int slot = mixedPageSlots[page];
+            if (slot == -1) {
+                PAGE_INDEX[page] = (char) (pageWidths[page] * LONGS_PER_PAGE);
+                continue;
+            }
+            final int offset = (3 + slot) * LONGS_PER_PAGE;
+            packPage(widths, slot << PAGE_SHIFT, PAGES, offset);
+            PAGE_INDEX[page] = (char) offset;
+        }
+
+        for (int ucs = 0; ucs < LATIN1_WIDTHS.length; ucs++)
+            LATIN1_WIDTHS[ucs] = (byte) computeWidth(ucs);
+    }
+
+    /**
+     * The pages in which an interval table range starts or ends other than at a page boundary, or which contain a
+     * special case of {@link #isSpecialZeroWidth(int)}. May contain duplicates.
+     */
+    private static int[] findMixedPages() {
+        int[] pages = new int[2 * (ZERO_WIDTH.length + WIDE_EASTASIAN.length) + SPECIAL_ZERO_WIDTH_PAGES.length];
+        int count = 0;
+        for (int[][] table : new int[][][]{ZERO_WIDTH, WIDE_EASTASIAN}) {
+            for (int[] range : table) {
+                if ((range[0] & (PAGE_SIZE - 1)) != 0) pages[count++] = range[0] >> PAGE_SHIFT;
+                if (((range[1] + 1) & (PAGE_SIZE - 1)) != 0) pages[count++] = range[1] >> PAGE_SHIFT;
+            }
+        }
+        for (int page : SPECIAL_ZERO_WIDTH_PAGES)
+            pages[count++] = page;
+        return Arrays.copyOf(pages, count);
+    }
+
+    /** Pack the widths of a page, one per code point, into 2 bits each. */
+    private static void packPage(byte[] widths, int widthsOffset, long[] pages, int pagesOffset) {
+        for (int i = 0; i < LONGS_PER_PAGE; i++) {
+            long packed = 0;
+            for (int j = 31; j >= 0; j--)
+                packed = (packed << 2) | widths[widthsOffset + (i << 5) + j];
+            pages[pagesOffset + i] = packed;
+        }
+    }
+
+    /** Set the width of the uniform pages covered by the table ranges, and of the code points in mixed pages. */
+    private static void paintRanges(byte[] pageWidths, byte[] widths, int[] mixedPageSlots, int[][] table, byte width) {
+        for (int[] range : table) {
+            for (int page = range[0] >> PAGE_SHIFT; page <= range[1] >> PAGE_SHIFT; page++) {
+                final int slot = mixedPageSlots[page];
+                if (slot == -1) {
+                    pageWidths[page] = width;
+                    continue;
+                }
+                final int base = page << PAGE_SHIFT;
+                final int from = Math.max(range[0], base) - base;
+                final int to = Math.min(range[1] + 1, base + PAGE_SIZE) - base;
+                Arrays.fill(widths, (slot << PAGE_SHIFT) + from, (slot << PAGE_SHIFT) + to, width);
+            }
+        }
+    }
+
     private static boolean intable(int[][] table, int c) {
         // First quick check f|| Latin1 etc. characters.
         if (c < table[0][0]) return false;
@@ -510,8 +621,8 @@ public final class WcWidth {
         return false;
     }
 
-    /** Return the terminal display width of a code point: 0, 1 || 2. */
-    public static int width(int ucs) {
+    /** Code points with zero width that are not in {@link #ZERO_WIDTH}: NUL, C0/C1 controls and format characters. */
+    private static boolean isSpecialZeroWidth(int ucs) {
         if (ucs == 0 ||
             ucs == 0x034F ||
             (0x200B <= ucs && ucs <= 0x200F) ||
@@ -519,12 +630,20 @@ public final class WcWidth {
             ucs == 0x2029 ||
             (0x202A <= ucs && ucs <= 0x202E) ||
             (0x2060 <= ucs && ucs <= 0x2063)) {
-            return 0;
+            return true;
         }
 
         // C0/C1 control characters
         // Termux change: Return 0 instead of -1.
-        if (ucs < 32 || (0x07F <= ucs && ucs < 0x0A0)) return 0;
+        return ucs < 32 || (0x07F <= ucs && ucs < 0x0A0);
+    }
+
+    /**
+     * Compute the width of a code point by searching the interval tables. This is what the lookup table used by
+     * {@link #width(int)} is generated from, kept to handle values outside the Unicode range.
+     */
+    static int computeWidth(int ucs) {
+        if (isSpecialZeroWidth(ucs)) return 0;
 
         // combining characters with zero width
         if (intable(ZERO_WIDTH, ucs)) return 0;
@@ -532,6 +651,16 @@ public final class WcWidth {
         return intable(WIDE_EASTASIAN, ucs) ? 2 : 1;
     }
 
+    /** Return the terminal display width of a code point: 0, 1 || 2. */
+    public static int width(int ucs) {
+        if (ucs < 256) {
+            if (ucs >= 0) return LATIN1_WIDTHS[ucs];
+        } else if (ucs <= Character.MAX_CODE_POINT) {
+            return (int) (PAGES[PAGE_INDEX[ucs >> PAGE_SHIFT] + ((ucs >> 5) & (LONGS_PER_PAGE - 1))] >>> ((ucs & 31) << 1)) & 3;
+        }
+        return computeWidth(ucs);
+    }
+
     /** The width at an index position in a java char array. */
     public static int width(char[] chars, int index) {
         char c = chars[index];
@@ -0,0 +1,58 @@
+package com.termux.terminal;
+
+import junit.framework.TestCase;
+
+public class AdaptiveInputQueueTest extends TestCase {
+
+	private static final long SECOND = 1_000_000_000L;
+
+	public void testNotGrownWhenFirstFull() {
+		assertEquals(4096, AdaptiveInputQueue.getGrownSize(4096, false, 0, 10 * SECOND));
+	}
+
+	public void testGrownWhenFullAgainWithinInterval() {
+		final long lastFullTime = 10 * SECOND;
+		assertEquals(8192, AdaptiveInputQueue.getGrownSize(4096, true, lastFullTime, lastFullTime + 1));
+		assertEquals(8192, AdaptiveInputQueue.getGrownSize(4096, true, lastFullTime, lastFullTime + SECOND / 2));
+		assertEquals(8192, AdaptiveInputQueue.getGrownSize(4096, true, lastFullTime, lastFullTime + AdaptiveInputQueue.GROW_INTERVAL_NANOS));
+		assertEquals(4096, AdaptiveInputQueue.getGrownSize(4096, true, lastFullTime, lastFullTime + AdaptiveInputQueue.GROW_INTERVAL_NANOS + 1));
+	}
+
+	public void testGrownWhenLastFullAtAnyTime() {
+		// System.nanoTime() has an arbitrary origin, so 0 and negative times are as valid as any other.
+		assertEquals(8192, AdaptiveInputQueue.getGrownSize(4096, true, 0, SECOND / 2));
+		assertEquals(8192, AdaptiveInputQueue.getGrownSize(4096, true, -SECOND, -SECOND / 2));
+	}
+
+	public void testGrownUpToMaxSize() {
+		long now = 10 * SECOND;
+		boolean wasFull = false;
+		long lastFullTime = 0;
+		int size = 4096;
+		// Sustained output filling up the queue every 100 ms, which doubles each time but the first.
+		for (int expectedSize : new int[]{4096, 8192, 16384, 32768, 65536, 65536, 65536}) {
+			size = AdaptiveInputQueue.getGrownSize(size, wasFull, lastFullTime, now);
+			assertEquals(expectedSize, size);
+			wasFull = true;
+			lastFullTime = now;
+			now += SECOND / 10;
+		}
+		assertEquals(AdaptiveInputQueue.MAX_SIZE, AdaptiveInputQueue.getGrownSize(48 * 1024, true, lastFullTime, now));
+	}
+
+	public void testIdle() {
+		final long lastInputTime = 10 * SECOND;
+		assertFalse(AdaptiveInputQueue.isIdle(lastInputTime, lastInputTime));
+		assertFalse(AdaptiveInputQueue.isIdle(lastInputTime, lastInputTime + AdaptiveInputQueue.IDLE_NANOS - 1));
+		assertTrue(AdaptiveInputQueue.isIdle(lastInputTime, lastInputTime + AdaptiveInputQueue.IDLE_NANOS));
+	}
+
+	public void testTimesWrappingAround() {
+		// System.nanoTime() may be negative and overflow, which only differences between times are used for.
+		final long lastFullTime = Long.MAX_VALUE - SECOND / 4;
+		assertEquals(8192, AdaptiveInputQueue.getGrownSize(4096, true, lastFullTime, lastFullTime + SECOND / 2));
+		assertFalse(AdaptiveInputQueue.isIdle(Long.MAX_VALUE, Long.MIN_VALUE + SECOND));
+		assertTrue(AdaptiveInputQueue.isIdle(Long.MAX_VALUE, Long.MIN_VALUE + 5 * SECOND));
+	}
+
+}
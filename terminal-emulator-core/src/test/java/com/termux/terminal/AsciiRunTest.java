@@ -0,0 +1,110 @@
+package com.termux.terminal;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/** Tests for the fast path in {@link TerminalEmulator#append(byte[], int)} for runs of printable ASCII. */
+public class AsciiRunTest extends TerminalTestCase {
+
+	public void testRunAutoWraps() {
+		withTerminalSized(5, 3).enterString("abcdefghijkl");
+		assertLinesAre("abcde", "fghij", "kl   ");
+		assertLineWraps(true, true, false);
+		assertCursorAt(2, 2);
+	}
+
+	public void testRunEndingInLastColumn() {
+		withTerminalSized(5, 3).enterString("abcde").assertCursorAt(0, 4);
+		enterString("\r").assertCursorAt(0, 0).assertLinesAre("abcde", "     ", "     ");
+		withTerminalSized(5, 3).enterString("abcde").enterString("f");
+		assertLinesAre("abcde", "f    ", "     ").assertCursorAt(1, 1);
+	}
+
+	public void testRunScrolls() {
+		withTerminalSized(3, 2).enterString("abcdefghi");
+		assertLinesAre("def", "ghi");
+		assertHistoryStartsWith("abc");
+	}
+
+	public void testRunWithoutAutoWrap() {
+		withTerminalSized(5, 2).enterString("\033[?7labcdefgh");
+		assertLinesAre("abcdh", "     ").assertCursorAt(0, 4);
+		enterString("\033[?7hXY");
+		assertLinesAre("abcdX", "Y    ");
+	}
+
+	public void testRunWithLeftAndRightMargins() {
+		withTerminalSized(6, 3).enterString("\033[?69h\033[2;4s");
+		enterString("\033[1;2Habcde");
+		assertLinesAre(" abc  ", " de   ", "      ");
+	}
+
+	public void testRunWithStyle() {
+		withTerminalSized(4, 2).enterString("\033[1mab\033[0mcd");
+		assertEffectAttributesSet(effectLine(TextStyle.CHARACTER_ATTRIBUTE_BOLD, TextStyle.CHARACTER_ATTRIBUTE_BOLD, 0, 0), effectLine(0, 0, 0, 0));
+		assertEquals(TextStyle.NORMAL, getStyleAt(0, 2));
+	}
+
+	public void testRunOverwritingWideChars() {
+		withTerminalSized(5, 2).enterString("中文a\rxyz");
+		assertLinesAre("xyz a", "     ");
+		withTerminalSized(5, 2).enterString("中文a\r\033[Cx");
+		assertLinesAre(" x文a", "     ");
+	}
+
+	public void testRunInLineDrawingMode() {
+		withTerminalSized(3, 2).enterString("\033(0qx\033(Bqx");
+		assertLinesAre("─│q", "x  ");
+	}
+
+	public void testRunInInsertMode() {
+		withTerminalSized(5, 2).enterString("abc\r\033[4hXY");
+		assertLinesAre("XYabc", "     ");
+	}
+
+	public void testRunAfterBackspaceLeftOfMargin() {
+		withTerminalSized(6, 2).enterString("\033[?69h\033[3;5s\bab");
+		assertCursorAt(0, 2).assertLinesAre("ab    ", "      ");
+	}
+
+	public void testRepeatAfterRun() {
+		withTerminalSized(5, 2).enterString("ab\033[2b");
+		assertLinesAre("abbb ", "     ");
+	}
+
+	/** Check that output written through the fast path gives the same result as emitting one code point at a time. */
+	public void testSameResultAsEmittingCodePoints() {
+		final String[] pieces = {"hello", "world ", "a", "0123456789012345678901234567890", "\r\n", "\n", "\r", "\t", "\b",
+			"\033[1;31m", "\033[0m", "\033[H", "\033[5;7H", "\033[K", "\033[2J", "\033[?7l", "\033[?7h",
+			"\033(0", "\033(B", "\033[2;8r", "\033[r", "\033[?69h\033[3;12s", "\033[?69l", "中", "😀", "é",
+			"\033[3b", "\033M", "\033[3P", "\033[L", "\033[M"};
+		Random random = new Random(4711);
+		for (int round = 0; round < 200; round++) {
+			StringBuilder input = new StringBuilder();
+			for (int i = 0; i < 60; i++) input.append(pieces[random.nextInt(pieces.length)]);
+			String text = input.toString();
+
+			withTerminalSized(15, 6);
+			TerminalEmulator reference = new TerminalEmulator(new MockTerminalOutput(), 15, 6, INITIAL_CELL_WIDTH_PIXELS,
+				INITIAL_CELL_HEIGHT_PIXELS, 12, null);
+			text.codePoints().forEach(reference::processCodePoint);
+			byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+			mTerminal.append(bytes, bytes.length);
+			assertInvariants();
+
+			String failure = "Differing result for input: " + text.replace("\033", "ESC");
+			assertEquals(failure, reference.getCursorRow(), mTerminal.getCursorRow());
+			assertEquals(failure, reference.getCursorCol(), mTerminal.getCursorCol());
+			TerminalBuffer expectedScreen = reference.getScreen();
+			TerminalBuffer actualScreen = mTerminal.getScreen();
+			assertEquals(failure, expectedScreen.getActiveTranscriptRows(), actualScreen.getActiveTranscriptRows());
+			for (int row = -expectedScreen.getActiveTranscriptRows(); row < 6; row++) {
+				assertEquals(failure, expectedScreen.getSelectedText(0, row, 15, row, false), actualScreen.getSelectedText(0, row, 15, row, false));
+				assertEquals(failure, expectedScreen.getLineWrap(row), actualScreen.getLineWrap(row));
+				for (int column = 0; column < 15; column++)
+					assertEquals(failure, expectedScreen.getStyleAt(row, column), actualScreen.getStyleAt(row, column));
+			}
+		}
+	}
+
+}
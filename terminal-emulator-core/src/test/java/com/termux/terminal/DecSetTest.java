@@ -64,6 +64,26 @@ public class DecSetTest extends TerminalTestCase {
 		assertEquals("Terminal reset() should disable bracketed paste mode", "a", mOutput.getOutputAndClear());
 	}
 
+	/** DECSET 2026, controls synchronized output. */
+	public void testSynchronizedOutput() {
+		withTerminalSized(3, 3);
+		assertFalse(mTerminal.isSynchronizedOutput());
+		assertEnteringStringGivesResponse("\033[?2026$p", "\033[?2026;2$y");
+
+		enterString("\033[?2026habc");
+		assertTrue(mTerminal.isSynchronizedOutput());
+		assertEnteringStringGivesResponse("\033[?2026$p", "\033[?2026;1$y");
+		// The screen is still updated, it is only the showing of it which is deferred.
+		assertLinesAre("abc", "   ", "   ");
+
+		enterString("\033[?2026l");
+		assertFalse(mTerminal.isSynchronizedOutput());
+
+		enterString("\033[?2026h");
+		mTerminal.reset();
+		assertFalse("Terminal reset() should end synchronized output", mTerminal.isSynchronizedOutput());
+	}
+
 	/** DECSET 7, DECAWM, controls wraparound mode. */
 	public void testWrapAroundMode() {
 		// Default with wraparound:
@@ -0,0 +1,193 @@
+package com.termux.terminal;
+
+/** Tests that output marks the screen rows it changes as dirty in the {@link TerminalBuffer}. */
+public class DirtyRowsTest extends TerminalTestCase {
+
+	/** Set up a 5x5 terminal with text on every row, with no rows marked as dirty. */
+	private void withFilledTerminal() {
+		withTerminalSized(5, 5).enterString("aaaaa\r\nbbbbb\r\nccccc\r\nddddd\r\neeeee\033[H");
+		mTerminal.getScreen().clearDirtyRows();
+	}
+
+	/** Assert which rows are dirty and how much the screen has scrolled, and clear the dirty rows. */
+	private void assertDirtyRows(int scrolledRows, int... dirtyRows) {
+		TerminalBuffer screen = mTerminal.getScreen();
+		StringBuilder expected = new StringBuilder();
+		StringBuilder actual = new StringBuilder();
+		for (int row = 0; row < mTerminal.mRows; row++) {
+			boolean shouldBeDirty = false;
+			for (int dirtyRow : dirtyRows)
+				if (dirtyRow == row) shouldBeDirty = true;
+			expected.append(shouldBeDirty ? 'D' : '.');
+			actual.append(screen.isRowDirty(row) ? 'D' : '.');
+		}
+		assertEquals(expected.toString(), actual.toString());
+		assertEquals(scrolledRows, screen.getDirtyScrolledRows());
+		assertEquals(dirtyRows.length > 0 || scrolledRows != 0, screen.hasDirtyRows());
+		screen.clearDirtyRows();
+		assertFalse(screen.hasDirtyRows());
+	}
+
+	public void testNewScreenIsDirty() {
+		withTerminalSized(3, 3);
+		assertDirtyRows(0, 0, 1, 2);
+	}
+
+	public void testPrinting() {
+		withFilledTerminal();
+		enterString("\033[3;2Hx");
+		assertDirtyRows(0, 2);
+		enterString("\033[2;1H中");
+		assertDirtyRows(0, 1);
+		// A combining character changes the row of the character it combines with.
+		enterString("\033[4;5Hd́");
+		assertDirtyRows(0, 3);
+		// Moving the cursor does not change any row.
+		enterString("\033[5;5H\033[A\033[2D\r");
+		assertDirtyRows(0);
+	}
+
+	public void testWrapping() {
+		withFilledTerminal();
+		enterString("\033[2;4Hxyz");
+		assertDirtyRows(0, 1, 2);
+	}
+
+	public void testLineFeedsScrollTheWholeScreen() {
+		withFilledTerminal();
+		enterString("\033[2;1Hx\033[5;1H\n");
+		// Row 1 changed before the scroll, so row 0 is dirty after it.
+		assertDirtyRows(1, 0, 4);
+		enterString("\n\n\n");
+		assertDirtyRows(3, 2, 3, 4);
+		enterString("\n\n\n\n\n\n");
+		assertDirtyRows(6, 0, 1, 2, 3, 4);
+		// No rows change by a line feed which does not scroll.
+		enterString("\033[H\n\n");
+		assertDirtyRows(0);
+	}
+
+	public void testScrollingRegion() {
+		withFilledTerminal();
+		enterString("\033[2;4r\033[4;1H\n");
+		assertDirtyRows(0, 1, 2, 3);
+		// The region going from the top to the bottom of the screen scrolls the whole screen.
+		enterString("\033[r\033[5;1H\n");
+		assertDirtyRows(1, 4);
+	}
+
+	public void testScrollingWithLeftAndRightMargins() {
+		withFilledTerminal();
+		enterString("\033[?69h\033[2;4s\033[5;2H\n");
+		assertDirtyRows(0, 0, 1, 2, 3, 4);
+	}
+
+	public void testScrollUpAndDown() {
+		withFilledTerminal();
+		enterString("\033[2S");
+		assertDirtyRows(2, 3, 4);
+		enterString("\033[T");
+		assertDirtyRows(-1, 0);
+		enterString("\033[2;3r\033[S");
+		assertDirtyRows(0, 1, 2);
+	}
+
+	public void testReverseIndex() {
+		withFilledTerminal();
+		enterString("\033M");
+		assertDirtyRows(-1, 0);
+		enterString("\033[2;1H\033M");
+		assertDirtyRows(0);
+	}
+
+	public void testInsertAndDeleteLines() {
+		withFilledTerminal();
+		enterString("\033[3;1H\033[L");
+		assertDirtyRows(0, 2, 3, 4);
+		enterString("\033[2M");
+		assertDirtyRows(0, 2, 3, 4);
+		// Inserting lines at the top of the screen moves the whole screen down.
+		enterString("\033[H\033[2L");
+		assertDirtyRows(-2, 0, 1);
+	}
+
+	public void testEraseInDisplayAndLine() {
+		withFilledTerminal();
+		enterString("\033[3;2H\033[K");
+		assertDirtyRows(0, 2);
+		enterString("\033[J");
+		assertDirtyRows(0, 2, 3, 4);
+		enterString("\033[1J");
+		assertDirtyRows(0, 0, 1, 2);
+		enterString("\033[2J");
+		assertDirtyRows(0, 0, 1, 2, 3, 4);
+	}
+
+	public void testInsertDeleteAndEraseCharacters() {
+		withFilledTerminal();
+		enterString("\033[2;2H\033[2@");
+		assertDirtyRows(0, 1);
+		enterString("\033[3;2H\033[P");
+		assertDirtyRows(0, 2);
+		enterString("\033[4;2H\033[3X");
+		assertDirtyRows(0, 3);
+		enterString("\033[5;1Hx\033[3b");
+		assertDirtyRows(0, 4);
+	}
+
+	public void testInsertAndDeleteColumns() {
+		withFilledTerminal();
+		enterString("\033[1;2H\033['}");
+		assertDirtyRows(0, 0, 1, 2, 3, 4);
+		enterString("\033['~");
+		assertDirtyRows(0, 0, 1, 2, 3, 4);
+	}
+
+	public void testRectangularAreas() {
+		withFilledTerminal();
+		// DECFRA, DECERA and DECSERA:
+		enterString("\033[88;2;2;3;3$x");
+		assertDirtyRows(0, 1, 2);
+		enterString("\033[3;1;4;5$z");
+		assertDirtyRows(0, 2, 3);
+		enterString("\033[5;1;5;5${");
+		assertDirtyRows(0, 4);
+		// DECCRA only changes the rows copied to:
+		enterString("\033[1;1;2;2;1;4;1$v");
+		assertDirtyRows(0, 3, 4);
+		// DECCARA and DECRARA, which change the attributes up to the row after the bottom given:
+		enterString("\033[1;1;2;2;1$r");
+		assertDirtyRows(0, 0, 1, 2);
+		enterString("\033[4;1;4;5;7$t");
+		assertDirtyRows(0, 3);
+	}
+
+	public void testScreenAlignmentTest() {
+		withFilledTerminal();
+		enterString("\033#8");
+		assertDirtyRows(0, 0, 1, 2, 3, 4);
+	}
+
+	public void testResize() {
+		withFilledTerminal();
+		enterString("\033[2S");
+		resize(5, 4);
+		assertDirtyRows(0, 0, 1, 2, 3);
+		resize(7, 4);
+		assertDirtyRows(0, 0, 1, 2, 3);
+	}
+
+	public void testAlternateScreen() {
+		withFilledTerminal();
+		TerminalBuffer mainScreen = mTerminal.getScreen();
+		enterString("\033[?1049h");
+		assertNotSame(mainScreen, mTerminal.getScreen());
+		assertDirtyRows(0, 0, 1, 2, 3, 4);
+		assertFalse(mainScreen.hasDirtyRows());
+
+		// Without a transcript the alternate screen drops the rows scrolled out, but still moves the others.
+		enterString("\033[5;1H\n");
+		assertDirtyRows(1, 4);
+	}
+
+}
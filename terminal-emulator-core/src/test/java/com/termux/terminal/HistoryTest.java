@@ -0,0 +1,220 @@
+package com.termux.terminal;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+public class HistoryTest extends TerminalTestCase {
+
+	public void testHistory() {
+		final int rows = 3;
+		final int cols = 3;
+		withTerminalSized(cols, rows).enterString("111222333444555666777888999");
+		assertCursorAt(2, 2);
+		assertLinesAre("777", "888", "999");
+		assertHistoryStartsWith("666", "555");
+
+		resize(cols, 2);
+		assertHistoryStartsWith("777", "666", "555");
+
+		resize(cols, 3);
+		assertHistoryStartsWith("666", "555");
+	}
+
+	public void testHistoryWithScrollRegion() {
+		// "CSI P_s ; P_s r" - set Scrolling Region [top;bottom] (default = full size of window) (DECSTBM).
+		withTerminalSized(3, 4).enterString("111222333444");
+		assertLinesAre("111", "222", "333", "444");
+		enterString("\033[2;3r");
+		// NOTE: "DECSTBM moves the cursor to column 1, line 1 of the page."
+		assertCursorAt(0, 0);
+		enterString("\nCDEFGH").assertLinesAre("111", "CDE", "FGH", "444");
+		enterString("IJK").assertLinesAre("111", "FGH", "IJK", "444").assertHistoryStartsWith("CDE");
+		enterString("LMN").assertLinesAre("111", "IJK", "LMN", "444").assertHistoryStartsWith("FGH", "CDE");
+	}
+
+	/** Enter numbered lines with a color, a wide char and a combining char, which end up packed in the transcript. */
+	private void enterNumberedLines(int count) {
+		for (int i = 0; i < count; i++)
+			enterString("\033[3" + (i % 8) + "m" + i + "\u4E2De\u0301\033[0m\r\n");
+	}
+
+	private void assertNumberedLine(int externalRow, int number) {
+		String text = number + "\u4E2De\u0301";
+		assertLineIs(externalRow, text + "         ".substring(0, 12 - Integer.toString(number).length() - 3));
+		assertForegroundColorAt(externalRow, 0, number % 8);
+		assertForegroundColorAt(externalRow, 11, TextStyle.COLOR_INDEX_FOREGROUND);
+	}
+
+	public void testPackedTranscriptRows() {
+		withTerminalSized(12, 5);
+		enterNumberedLines(1000);
+		TerminalBuffer screen = mTerminal.getScreen();
+		assertEquals(996, screen.getActiveTranscriptRows());
+
+		// Rows far from the screen are packed, leaving their slot empty.
+		assertNull(screen.mLines[screen.externalToInternalRow(-TerminalBuffer.UNPACKED_TRANSCRIPT_ROWS - 10)]);
+		assertNotNull(screen.mLines[screen.externalToInternalRow(-TerminalBuffer.UNPACKED_TRANSCRIPT_ROWS)]);
+
+		for (int row = -996; row < 4; row++)
+			assertNumberedLine(row, 996 + row);
+		assertInvariants();
+
+		String transcript = screen.getTranscriptText();
+		assertTrue(transcript.startsWith("0\u4E2De\u0301\n1\u4E2De\u0301\n"));
+		assertTrue(transcript.endsWith("\n999\u4E2De\u0301"));
+	}
+
+	public void testPackedTranscriptRowsWithScrollRegion() {
+		withTerminalSized(12, 5);
+		enterString("status\r\n\033[2;5r\033[2;1H");
+		enterNumberedLines(500);
+		assertLineIs(0, "status      ");
+		for (int row = -(TerminalBuffer.UNPACKED_TRANSCRIPT_ROWS + 100); row < 0; row++)
+			assertNumberedLine(row, 497 + row);
+		assertInvariants();
+	}
+
+	public void testResizeWithPackedTranscriptRows() {
+		withTerminalSized(12, 5);
+		enterNumberedLines(1000);
+
+		// Showing more rows reveals packed ones at the top of the screen.
+		resize(12, 300);
+		assertNumberedLine(0, 701);
+		assertNumberedLine(-400, 301);
+		resize(12, 5);
+		for (int row = -996; row < 4; row++)
+			assertNumberedLine(row, 996 + row);
+
+		// Changing columns reflows the packed rows too.
+		resize(20, 5);
+		mTerminal.reflowTranscript(Integer.MAX_VALUE);
+		assertEquals(996, mTerminal.getScreen().getActiveTranscriptRows());
+		assertLineIs(-996, "0\u4E2De\u0301                ");
+		assertForegroundColorAt(-500, 0, 496 % 8);
+		assertLineIs(-500, "496\u4E2De\u0301              ");
+	}
+
+	public void testClearTranscriptWithPackedTranscriptRows() {
+		withTerminalSized(12, 5);
+		enterNumberedLines(1000);
+		enterString("\033[3J");
+		assertEquals(0, mTerminal.getScreen().getActiveTranscriptRows());
+		enterNumberedLines(300);
+		for (int row = -296; row < 4; row++)
+			assertNumberedLine(row, 296 + row);
+	}
+
+	private File mTranscriptStoreDirectory;
+
+	private TranscriptStore withTranscriptStore(int maxRows) throws IOException {
+		File directory = Files.createTempDirectory("transcript-store").toFile();
+		directory.deleteOnExit();
+		mTranscriptStoreDirectory = new File(directory, "session");
+		TranscriptStore store = new TranscriptStore(mTranscriptStoreDirectory, maxRows);
+		mTerminal.setTranscriptStore(store);
+		return store;
+	}
+
+	public void testTranscriptStore() throws IOException {
+		withTerminalSized(12, 5);
+		TranscriptStore store = withTranscriptStore(10000);
+		TerminalBuffer screen = mTerminal.getScreen();
+		enterNumberedLines(3000);
+
+		// The 2000 rows in memory hold 5 screen rows, and the rest of the 2996 transcript rows are stored.
+		assertEquals(1001, store.getRows());
+		assertEquals(2996, screen.getActiveTranscriptRows());
+		assertEquals(3001, screen.getActiveRows());
+		for (int row = -2996; row < 4; row++)
+			assertNumberedLine(row, 2996 + row);
+		assertInvariants();
+
+		String transcript = screen.getTranscriptText();
+		assertTrue(transcript.startsWith("0\u4E2De\u0301\n1\u4E2De\u0301\n"));
+		assertTrue(transcript.endsWith("\n2999\u4E2De\u0301"));
+		assertEquals("1000\u4E2De\u0301\n1001\u4E2De\u0301", screen.getSelectedText(0, -1996, 11, -1995));
+
+		enterString("\033[3J");
+		assertEquals(0, store.getRows());
+		assertEquals(0, screen.getActiveTranscriptRows());
+		store.close();
+	}
+
+	public void testTranscriptStoreDropsOldestRows() throws IOException {
+		withTerminalSized(12, 5);
+		TranscriptStore store = withTranscriptStore(100);
+		enterNumberedLines(2300);
+
+		// 301 rows have fallen out of memory, of which the oldest are dropped half of the store at a time.
+		assertEquals(51, store.getRows());
+		assertEquals(2046, mTerminal.getScreen().getActiveTranscriptRows());
+		for (int row = -2046; row < 4; row++)
+			assertNumberedLine(row, 2296 + row);
+		store.close();
+	}
+
+	public void testTranscriptStoreAfterResize() throws IOException {
+		withTerminalSized(12, 5);
+		TranscriptStore store = withTranscriptStore(10000);
+		enterNumberedLines(2100);
+		assertEquals(101, store.getRows());
+
+		// Stored rows are padded or truncated instead of reflowed.
+		resize(20, 5);
+		mTerminal.reflowTranscript(Integer.MAX_VALUE);
+		assertEquals(2096, mTerminal.getScreen().getActiveTranscriptRows());
+		assertLineIs(-2096, "0\u4E2De\u0301                ");
+		assertForegroundColorAt(-2096, 0, 0);
+		assertForegroundColorAt(-2096, 19, TextStyle.COLOR_INDEX_FOREGROUND);
+
+		// Reflowing the rows in memory to fewer columns stores the rows which no longer fit in memory after the ones
+		// already stored, as they were before the reflow.
+		resize(4, 5);
+		mTerminal.reflowTranscript(Integer.MAX_VALUE);
+		int firstRow = -mTerminal.getScreen().getActiveTranscriptRows();
+		assertTrue(store.getRows() > 101);
+		assertLineIs(firstRow + 50, "50\u4E2D");
+		assertLineIs(firstRow + 100, "100 ");
+		assertLineIs(firstRow + 101, "101 ");
+		assertLineIs(firstRow + 102, "102 ");
+		store.close();
+	}
+
+	public void testTranscriptStoreWhileReflowing() throws IOException {
+		withTerminalSized(12, 5);
+		TranscriptStore store = withTranscriptStore(10000);
+		enterNumberedLines(2100);
+		resize(20, 5);
+
+		// The rows left to reflow are older than the rows output after the resize, so are stored before them once
+		// the transcript is full.
+		for (int i = 0; i < 2000; i++)
+			enterString("x" + i + "\r\n");
+		assertFalse(mTerminal.reflowTranscript(0));
+		String transcript = mTerminal.getScreen().getTranscriptText();
+		assertTrue(transcript.startsWith("0\u4E2De\u0301\n1\u4E2De\u0301\n"));
+		assertTrue(transcript.contains("\n2098\u4E2De\u0301\n2099\u4E2De\u0301\nx0\nx1\n"));
+		assertTrue(transcript.endsWith("\nx1999"));
+		assertEquals(4096, mTerminal.getScreen().getActiveTranscriptRows());
+		store.close();
+	}
+
+	public void testTranscriptStoreClose() throws IOException {
+		withTerminalSized(12, 5);
+		TranscriptStore store = withTranscriptStore(10000);
+		enterNumberedLines(2100);
+		File[] files = mTranscriptStoreDirectory.listFiles();
+		assertEquals(4, files.length);
+
+		mTerminal.setTranscriptStore(null);
+		store.close();
+		assertEquals(0, store.getRows());
+		assertEquals(1995, mTerminal.getScreen().getActiveTranscriptRows());
+		for (File file : files)
+			assertFalse(file.exists());
+		assertFalse(mTranscriptStoreDirectory.exists());
+	}
+
+}
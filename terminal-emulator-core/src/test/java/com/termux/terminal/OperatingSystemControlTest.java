@@ -1,8 +1,9 @@
 package com.termux.terminal;
 
-import android.util.Base64;
-
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.List;
 import java.util.Random;
 
@@ -137,9 +138,14 @@ public class OperatingSystemControlTest extends TerminalTestCase {
 		assertIndexColorsMatch(TerminalColors.COLOR_SCHEME.mDefaultColors);
 	}
 
-	public void disabledTestSetClipboard() {
-		// Cannot run this as a unit test since Base64 is a android.util class.
-		enterString("\033]52;c;" + Base64.encodeToString("Hello, world".getBytes(), 0) + "\007");
+	public void testSetClipboard() {
+		withTerminalSized(3, 3).enterString("\033]52;c;" + Base64.getEncoder().encodeToString("Hello, world".getBytes(StandardCharsets.UTF_8)) + "\007");
+		// Line breaks, a missing padding and non-ascii text as in the output of other base64 encoders.
+		enterString("\033]52;c;" + Base64.getMimeEncoder(4, new byte[]{'\n'}).encodeToString("Hej världen".getBytes(StandardCharsets.UTF_8)).replace("=", "") + "\007");
+		// A single char left over can not be decoded, so nothing is copied.
+		enterString("\033]52;c;SGVsbG8\007");
+		enterString("\033]52;c;SGVsbG8sI\007");
+		assertEquals(Arrays.asList("Hello, world", "Hej världen", "Hello"), mOutput.clipboardPuts);
 	}
 
 	public void testResettingTerminalResetsColor() throws Exception {
@@ -9,6 +9,78 @@ public class ResizeTest extends TerminalTestCase {
 		resize(cols, 3).assertCursorAt(2, 2).assertLinesAre("777", "888", "999");
 	}
 
+	public void testResizeAllocatesRowsLazilyAndRecyclesOldRows() {
+		withTerminalSized(10, 5);
+		for (int i = 0; i < 30; i++)
+			enterString("line " + i + "\r\n");
+		TerminalBuffer screen = mTerminal.getScreen();
+
+		// Changing columns only gives rows to the screen and the transcript rows written by the reflow.
+		resize(12, 5);
+		mTerminal.reflowTranscript(Integer.MAX_VALUE);
+		int usedRows = 0;
+		for (TerminalRow line : screen.mLines)
+			if (line != null) usedRows++;
+		assertEquals(screen.getActiveRows(), usedRows);
+		assertEquals(30, screen.getActiveTranscriptRows() + 4);
+
+		// Going back to the old number of columns reuses the rows from before the first resize.
+		TerminalRow[] wideLines = screen.mLines.clone();
+		resize(10, 5);
+		resize(12, 5);
+		mTerminal.reflowTranscript(Integer.MAX_VALUE);
+		int reusedRows = 0;
+		for (TerminalRow line : screen.mLines)
+			for (TerminalRow wideLine : wideLines)
+				if (line != null && line == wideLine) reusedRows++;
+		assertEquals(screen.getActiveRows(), reusedRows);
+		assertLineIs(-26, "line 0      ");
+		assertLineIs(3, "line 29     ");
+	}
+
+	public void testResizeReflowsTranscriptLazily() {
+		withTerminalSized(10, 5);
+		for (int i = 0; i < 100; i++)
+			enterString("line " + i + "\r\n");
+		TerminalBuffer screen = mTerminal.getScreen();
+
+		// Only the rows needed for the screen are reflowed by the resize.
+		resize(12, 5).assertLinesAre("line 96     ", "line 97     ", "line 98     ", "line 99     ", "            ");
+		assertCursorAt(4, 0);
+		assertEquals(0, screen.getActiveTranscriptRows());
+
+		// The rest are prepended to the transcript, leaving the rows already reflowed where they are.
+		assertTrue(mTerminal.reflowTranscript(10));
+		assertEquals(10, screen.getActiveTranscriptRows());
+		assertLineIs(-1, "line 95     ");
+		enterString("line 100\r\n");
+		assertLineIs(-2, "line 95     ");
+		assertFalse(mTerminal.reflowTranscript(Integer.MAX_VALUE));
+		assertEquals(97, screen.getActiveTranscriptRows());
+		for (int i = 0; i <= 100; i++)
+			assertLineIs(i - 97, String.format("%-12s", "line " + i));
+	}
+
+	public void testResizeWhileReflowingTranscript() {
+		withTerminalSized(10, 5);
+		for (int i = 0; i < 100; i++)
+			enterString("line " + i + "\r\n");
+
+		// Showing more rows reveals transcript rows, reflowing them first if needed.
+		resize(12, 5);
+		resize(12, 8).assertLinesAre("line 93     ", "line 94     ", "line 95     ", "line 96     ", "line 97     ", "line 98     ", "line 99     ", "            ");
+		resize(12, 5);
+		resize(12, 10).assertLineIs(0, "line 91     ");
+		assertCursorAt(9, 0);
+
+		// Changing columns again reflows the rest of the transcript first.
+		resize(6, 10).assertLineIs(9, "      ");
+		assertCursorAt(9, 0);
+		assertTrue(mTerminal.getScreen().getTranscriptText().startsWith("line 0\nline 1\n"));
+		assertFalse(mTerminal.reflowTranscript(0));
+		assertEquals(181, mTerminal.getScreen().getActiveTranscriptRows());
+	}
+
 	public void testResizeWhenInAltBuffer() {
 		final int rows = 3, cols = 3;
 		withTerminalSized(cols, rows).enterString("a\r\ndef$").assertLinesAre("a  ", "def", "$  ").assertCursorAt(2, 1);
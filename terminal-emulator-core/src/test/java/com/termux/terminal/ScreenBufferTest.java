@@ -0,0 +1,166 @@
+package com.termux.terminal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+public class ScreenBufferTest extends TerminalTestCase {
+
+	public void testBasics() {
+		TerminalBuffer screen = new TerminalBuffer(5, 3, 3);
+		assertEquals("", screen.getTranscriptText());
+		screen.setChar(0, 0, 'a', 0);
+		assertEquals("a", screen.getTranscriptText());
+		screen.setChar(0, 0, 'b', 0);
+		assertEquals("b", screen.getTranscriptText());
+		screen.setChar(2, 0, 'c', 0);
+		assertEquals("b c", screen.getTranscriptText());
+		screen.setChar(2, 2, 'f', 0);
+		assertEquals("b c\n\n  f", screen.getTranscriptText());
+		screen.blockSet(0, 0, 2, 2, 'X', 0);
+	}
+
+	public void testBlockSet() {
+		TerminalBuffer screen = new TerminalBuffer(5, 3, 3);
+		screen.blockSet(0, 0, 2, 2, 'X', 0);
+		assertEquals("XX\nXX", screen.getTranscriptText());
+		screen.blockSet(1, 1, 2, 2, 'Y', 0);
+		assertEquals("XX\nXYY\n YY", screen.getTranscriptText());
+	}
+
+	public void testGetSelectedText() {
+		withTerminalSized(5, 3).enterString("ABCDEFGHIJ").assertLinesAre("ABCDE", "FGHIJ", "     ");
+		assertEquals("AB", mTerminal.getSelectedText(0, 0, 1, 0));
+		assertEquals("BC", mTerminal.getSelectedText(1, 0, 2, 0));
+		assertEquals("CDE", mTerminal.getSelectedText(2, 0, 4, 0));
+		assertEquals("FG", mTerminal.getSelectedText(0, 1, 1, 1));
+		assertEquals("GH", mTerminal.getSelectedText(1, 1, 2, 1));
+		assertEquals("HIJ", mTerminal.getSelectedText(2, 1, 4, 1));
+
+		assertEquals("ABCDEFG", mTerminal.getSelectedText(0, 0, 1, 1));
+		withTerminalSized(5, 3).enterString("ABCDE\r\nFGHIJ").assertLinesAre("ABCDE", "FGHIJ", "     ");
+		assertEquals("ABCDE\nFG", mTerminal.getSelectedText(0, 0, 1, 1));
+	}
+
+	public void testGetSelectedTextJoinFullLines() {
+		withTerminalSized(5, 3).enterString("ABCDE\r\nFG");
+		assertEquals("ABCDEFG", mTerminal.getScreen().getSelectedText(0, 0, 1, 1, true, true));
+
+		withTerminalSized(5, 3).enterString("ABC\r\nFG");
+		assertEquals("ABC\nFG", mTerminal.getScreen().getSelectedText(0, 0, 1, 1, true, true));
+	}
+
+	public void testGetWordAtLocation() {
+		withTerminalSized(5, 3).enterString("ABCDEFGHIJ\r\nKLMNO");
+		assertEquals("ABCDEFGHIJKLMNO", mTerminal.getScreen().getWordAtLocation(0, 0));
+		assertEquals("ABCDEFGHIJKLMNO", mTerminal.getScreen().getWordAtLocation(4, 1));
+		assertEquals("ABCDEFGHIJKLMNO", mTerminal.getScreen().getWordAtLocation(4, 2));
+
+		withTerminalSized(5, 3).enterString("ABC DEF GHI ");
+		assertEquals("ABC", mTerminal.getScreen().getWordAtLocation(0, 0));
+		assertEquals("", mTerminal.getScreen().getWordAtLocation(3, 0));
+		assertEquals("DEF", mTerminal.getScreen().getWordAtLocation(4, 0));
+		assertEquals("DEF", mTerminal.getScreen().getWordAtLocation(0, 1));
+		assertEquals("DEF", mTerminal.getScreen().getWordAtLocation(1, 1));
+		assertEquals("GHI", mTerminal.getScreen().getWordAtLocation(0, 2));
+		assertEquals("", mTerminal.getScreen().getWordAtLocation(1, 2));
+		assertEquals("", mTerminal.getScreen().getWordAtLocation(2, 2));
+	}
+
+	/** The transcript text as built by the text getters, to compare the text written by writeTranscriptText() with. */
+	private String getTrimmedTranscriptText(boolean joinBackLines, boolean joinFullLines) {
+		TerminalBuffer screen = mTerminal.getScreen();
+		return screen.getSelectedText(0, -screen.getActiveTranscriptRows(), mTerminal.mColumns, mTerminal.mRows, joinBackLines, joinFullLines).trim();
+	}
+
+	private void assertWrittenTranscriptText() throws IOException {
+		TerminalBuffer screen = mTerminal.getScreen();
+		// Like writeTranscriptText(), include the rows left to reflow after a resize.
+		screen.reflowTranscript(Integer.MAX_VALUE);
+		boolean[][] joins = {{true, false}, {false, false}, {true, true}};
+		for (boolean[] join : joins) {
+			String expected = getTrimmedTranscriptText(join[0], join[1]);
+
+			StringWriter writer = new StringWriter();
+			screen.writeTranscriptText(writer, join[0], join[1]);
+			assertEquals(expected, writer.toString());
+
+			// An Appendable which is neither a Writer nor a StringBuilder.
+			final StringBuilder builder = new StringBuilder();
+			screen.writeTranscriptText(new Appendable() {
+				@Override
+				public Appendable append(CharSequence text) {
+					builder.append(text);
+					return this;
+				}
+
+				@Override
+				public Appendable append(CharSequence text, int start, int end) {
+					builder.append(text, start, end);
+					return this;
+				}
+
+				@Override
+				public Appendable append(char c) {
+					builder.append(c);
+					return this;
+				}
+			}, join[0], join[1]);
+			assertEquals(expected, builder.toString());
+
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			screen.writeTranscriptText(Channels.newChannel(bytes), join[0], join[1]);
+			assertEquals(expected, new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+		}
+		assertEquals(getTrimmedTranscriptText(true, false), screen.getTranscriptText());
+		assertEquals(getTrimmedTranscriptText(false, false), screen.getTranscriptTextWithoutJoinedLines());
+		assertEquals(getTrimmedTranscriptText(true, true), screen.getTranscriptTextWithFullLinesJoined());
+	}
+
+	public void testWriteTranscriptText() throws IOException {
+		withTerminalSized(5, 4);
+		assertWrittenTranscriptText();
+		enterString("   ");
+		assertWrittenTranscriptText();
+		enterString("\r\n\r\n  ab\r\n");
+		assertWrittenTranscriptText();
+		enterString("ABCDEFGHIJ  xy  \r\n\r\n\r\n");
+		assertWrittenTranscriptText();
+		enterString("中文\uD83D\uDE00é\r\n  \r\n");
+		assertWrittenTranscriptText();
+		for (int i = 0; i < 200; i++)
+			enterString((i % 7 == 0) ? "\r\n" : "line " + i + " \r\n");
+		assertWrittenTranscriptText();
+		resize(3, 4);
+		assertWrittenTranscriptText();
+	}
+
+	public void testWriteTranscriptTextToChannelWithUnpairedSurrogate() throws IOException {
+		TerminalBuffer screen = new TerminalBuffer(5, 3, 3);
+		screen.setChar(0, 0, 'a', 0);
+		screen.setChar(1, 0, 0xDC00, 0);
+		screen.setChar(2, 0, 'b', 0);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		screen.writeTranscriptText(Channels.newChannel(bytes), true, false);
+		// Replaced like when encoding the text as a string, instead of failing the export.
+		assertEquals("a?b", new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+		assertEquals(new String(screen.getTranscriptText().getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8),
+			new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+	public void testWriteTranscriptTextToChannelLargerThanItsBuffer() throws IOException {
+		withTerminalSized(80, 24);
+		StringBuilder expected = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			String line = "é line " + i + " of the transcript";
+			enterString(line + "\r\n");
+			if (i > 0) expected.append('\n');
+			expected.append(line);
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		mTerminal.getScreen().writeTranscriptText(Channels.newChannel(bytes), false, false);
+		assertEquals(expected.toString(), new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+	}
+}
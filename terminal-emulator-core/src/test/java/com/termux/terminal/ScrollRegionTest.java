@@ -117,6 +117,33 @@ public class ScrollRegionTest extends TerminalTestCase {
 		assertLinesAre("1 ", "2 ", "3 ", "QQ", "YY");
 	}
 
+	public void testScrollUpManyLinesWithScrollRegion() {
+		withTerminalSized(3, 5).enterString("111222333444555");
+		enterString("\033[2;4r\033[2S").assertLinesAre("111", "444", "   ", "   ", "555").assertHistoryStartsWith("333", "222");
+		// Scrolling more lines than in the region scrolls blank lines into the transcript:
+		enterString("\033[9S").assertLinesAre("111", "   ", "   ", "   ", "555");
+		assertEquals(11, mTerminal.getScreen().getActiveTranscriptRows());
+		assertHistoryStartsWith("   ", "   ", "   ", "   ", "   ", "   ", "   ", "   ", "444", "333", "222");
+		assertEquals(11, mTerminal.getScrollCounter());
+	}
+
+	public void testLineFeedsInARowWithScrollRegion() {
+		withTerminalSized(2, 4).enterString("\033[1;3r1\r\n2\r\n3\n\n").assertCursorAt(2, 1);
+		assertLinesAre("3 ", "  ", "  ", "  ").assertHistoryStartsWith("2 ", "1 ");
+		enterString("\r\n\r\r\n4").assertCursorAt(2, 1).assertLinesAre("  ", "  ", "4 ", "  ");
+		assertHistoryStartsWith("  ", "3 ", "2 ", "1 ");
+		// Below the scroll region line feeds only move the cursor down to the last row:
+		enterString("\033[4;1H\n\n\n5").assertCursorAt(3, 1).assertLinesAre("  ", "  ", "4 ", "5 ");
+		assertEquals(4, mTerminal.getScrollCounter());
+	}
+
+	public void testInsertAndDeleteLinesMoveLineWraps() {
+		withTerminalSized(3, 4).enterString("ABCDEF").assertLineWraps(true, false, false, false);
+		enterString("\033[1;1H\033[L").assertLinesAre("   ", "ABC", "DEF", "   ").assertLineWraps(false, true, false, false);
+		enterString("\033[M").assertLinesAre("ABC", "DEF", "   ", "   ").assertLineWraps(true, false, false, false);
+		enterString("\033M").assertLinesAre("   ", "ABC", "DEF", "   ").assertLineWraps(false, true, false, false);
+	}
+
 	/** See https://github.com/termux/termux-app/issues/1340 */
 	public void testScrollRegionDoesNotLimitCursorMovement() {
 		withTerminalSized(6, 4)
@@ -0,0 +1,267 @@
+package com.termux.terminal;
+
+import junit.framework.TestCase;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class SpscByteQueueTest extends TestCase {
+
+	public void testCompleteWrites() {
+		SpscByteQueue q = new SpscByteQueue(10);
+		assertTrue(q.write(new byte[]{1, 2, 3}, 0, 3));
+
+		byte[] arr = new byte[10];
+		assertEquals(3, q.read(arr, true));
+		assertTrue(Arrays.equals(new byte[]{1, 2, 3}, Arrays.copyOf(arr, 3)));
+
+		assertTrue(q.write(new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10}, 0, 10));
+		assertEquals(10, q.read(arr, true));
+		assertTrue(Arrays.equals(new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10}, arr));
+	}
+
+	public void testQueueWraparound() {
+		SpscByteQueue q = new SpscByteQueue(10);
+
+		byte[] origArray = new byte[]{1, 2, 3, 4, 5, 6};
+		byte[] readArray = new byte[origArray.length];
+		for (int i = 0; i < 20; i++) {
+			assertTrue(q.write(origArray, 0, origArray.length));
+			assertEquals(origArray.length, q.read(readArray, true));
+			assertTrue(Arrays.equals(origArray, readArray));
+		}
+	}
+
+	public void testPartialReads() {
+		SpscByteQueue q = new SpscByteQueue(10);
+		assertTrue(q.write(new byte[]{0, 1, 2, 3, 4, 5, 6, 7}, 1, 7));
+		byte[] arr = new byte[3];
+		assertEquals(3, q.read(arr, false));
+		assertTrue(Arrays.equals(new byte[]{1, 2, 3}, arr));
+		assertEquals(3, q.read(arr, false));
+		assertTrue(Arrays.equals(new byte[]{4, 5, 6}, arr));
+		assertEquals(1, q.read(arr, false));
+		assertEquals(7, arr[0]);
+		assertEquals(0, q.read(arr, false));
+	}
+
+	public void testWriteNotesClosing() {
+		SpscByteQueue q = new SpscByteQueue(10);
+		q.close();
+		assertFalse(q.write(new byte[]{1, 2, 3}, 0, 3));
+		assertEquals(-1, q.read(new byte[10], false));
+	}
+
+	public void testWritableBytes() {
+		SpscByteQueue q = new SpscByteQueue(10);
+		assertEquals(10, q.getWritableBytes());
+		assertTrue(q.write(new byte[]{1, 2, 3, 4, 5, 6, 7}, 0, 7));
+		assertEquals(3, q.getWritableBytes());
+		assertEquals(4, q.read(new byte[4], false));
+		assertEquals(7, q.getWritableBytes());
+		assertTrue(q.write(new byte[]{1, 2, 3, 4, 5, 6, 7}, 0, 7));
+		assertEquals(0, q.getWritableBytes());
+	}
+
+	public void testRegions() {
+		SpscByteQueue q = new SpscByteQueue(10, true);
+		ByteBuffer region = q.getWritableRegion();
+		assertEquals(10, region.remaining());
+		region.put(new byte[]{1, 2, 3, 4, 5, 6, 7});
+		q.commitWrite(7);
+		assertEquals(3, q.getWritableRegion().remaining());
+
+		region = q.getReadableRegion(false);
+		assertEquals(7, region.remaining());
+		assertEquals(1, region.get());
+		assertEquals(2, region.get());
+		q.commitRead(2);
+
+		// The free space and then the bytes wrap around to the start of the buffer.
+		region = q.getWritableRegion();
+		assertEquals(3, region.remaining());
+		region.put(new byte[]{8, 9, 10});
+		q.commitWrite(3);
+		region = q.getWritableRegion();
+		assertEquals(2, region.remaining());
+		assertEquals(0, region.position());
+		region.put((byte) 11);
+		q.commitWrite(1);
+
+		region = q.getReadableRegion(false);
+		assertEquals(8, region.remaining());
+		q.commitRead(8);
+		region = q.getReadableRegion(false);
+		assertEquals(1, region.remaining());
+		assertEquals(11, region.get());
+		q.commitRead(1);
+		assertFalse(q.getReadableRegion(false).hasRemaining());
+
+		q.close();
+		assertNull(q.getReadableRegion(false));
+	}
+
+	public void testReadAcrossWrapAround() {
+		SpscByteQueue q = new SpscByteQueue(10, true);
+		assertTrue(q.write(new byte[]{1, 2, 3, 4, 5, 6, 7, 8}, 0, 8));
+		assertEquals(6, q.read(new byte[6], false));
+		assertTrue(q.write(new byte[]{9, 10, 11, 12, 13}, 0, 5));
+		byte[] arr = new byte[10];
+		assertEquals(7, q.read(arr, false));
+		assertTrue(Arrays.equals(new byte[]{7, 8, 9, 10, 11, 12, 13}, Arrays.copyOf(arr, 7)));
+	}
+
+	public void testFinish() throws Exception {
+		final SpscByteQueue q = new SpscByteQueue(10);
+		assertTrue(q.write(new byte[]{1, 2, 3}, 0, 3));
+		q.finish();
+		// The bytes left are read before the queue reads as closed.
+		assertEquals(3, q.read(new byte[10], true));
+		assertEquals(-1, q.read(new byte[10], true));
+
+		final SpscByteQueue blocked = new SpscByteQueue(10);
+		final AtomicReference<Integer> result = new AtomicReference<>();
+		Thread reader = new Thread(() -> result.set(blocked.read(new byte[10], true)));
+		reader.start();
+		waitUntilBlocked(reader);
+		blocked.finish();
+		reader.join(5000);
+		assertFalse(reader.isAlive());
+		assertEquals(Integer.valueOf(-1), result.get());
+	}
+
+	public void testHandOver() {
+		SpscByteQueue q = new SpscByteQueue(4);
+		SpscByteQueue successor = new SpscByteQueue(8);
+		assertEquals(8, successor.getCapacity());
+		assertTrue(q.write(new byte[]{1, 2, 3}, 0, 3));
+		q.handOver(successor);
+		assertTrue(successor.write(new byte[]{4, 5, 6, 7, 8}, 0, 5));
+
+		// The bytes left in the queue are read before moving on to the successor.
+		ByteBuffer region = q.getReadableRegion(true);
+		assertEquals(3, region.remaining());
+		q.commitRead(3);
+		assertFalse(q.getReadableRegion(true).hasRemaining());
+		assertSame(successor, q.getSuccessor());
+		assertEquals(5, successor.getReadableRegion(true).remaining());
+
+		q.close();
+		assertNull(successor.getReadableRegion(false));
+	}
+
+	public void testHandOverWakesBlockedReader() throws Exception {
+		final SpscByteQueue q = new SpscByteQueue(10);
+		final AtomicReference<Integer> result = new AtomicReference<>();
+		Thread reader = new Thread(() -> result.set(q.getReadableRegion(true).remaining()));
+		reader.start();
+		waitUntilBlocked(reader);
+		q.handOver(new SpscByteQueue(20));
+		reader.join(5000);
+		assertFalse(reader.isAlive());
+		assertEquals(Integer.valueOf(0), result.get());
+	}
+
+	public void testHandOverAfterClose() {
+		SpscByteQueue q = new SpscByteQueue(10);
+		SpscByteQueue successor = new SpscByteQueue(20);
+		q.close();
+		q.handOver(successor);
+		assertFalse(successor.write(new byte[]{1}, 0, 1));
+	}
+
+	public void testReadNonBlocking() {
+		SpscByteQueue q = new SpscByteQueue(10);
+		assertEquals(0, q.read(new byte[128], false));
+	}
+
+	public void testInvalidWrites() {
+		SpscByteQueue q = new SpscByteQueue(10);
+		try {
+			q.write(new byte[3], 1, 3);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// Expected.
+		}
+		try {
+			q.write(new byte[3], 0, 0);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// Expected.
+		}
+	}
+
+	public void testCloseWakesBlockedReader() throws Exception {
+		final SpscByteQueue q = new SpscByteQueue(10);
+		final AtomicReference<Integer> result = new AtomicReference<>();
+		Thread reader = new Thread(() -> result.set(q.read(new byte[10], true)));
+		reader.start();
+		waitUntilBlocked(reader);
+		q.close();
+		reader.join(5000);
+		assertFalse(reader.isAlive());
+		assertEquals(Integer.valueOf(-1), result.get());
+	}
+
+	public void testCloseWakesBlockedWriter() throws Exception {
+		final SpscByteQueue q = new SpscByteQueue(10);
+		final AtomicReference<Boolean> result = new AtomicReference<>();
+		Thread writer = new Thread(() -> result.set(q.write(new byte[25], 0, 25)));
+		writer.start();
+		waitUntilBlocked(writer);
+		q.close();
+		writer.join(5000);
+		assertFalse(writer.isAlive());
+		assertEquals(Boolean.FALSE, result.get());
+	}
+
+	/** Transfer a lot of data in random sized chunks through a small queue, so that both sides frequently park. */
+	public void testStress() throws Exception {
+		final int totalBytes = 8 * 1024 * 1024;
+		final SpscByteQueue q = new SpscByteQueue(97);
+		final AtomicReference<Throwable> writerFailure = new AtomicReference<>();
+
+		Thread writer = new Thread(() -> {
+			try {
+				Random random = new Random(1);
+				byte[] chunk = new byte[300];
+				int written = 0;
+				while (written < totalBytes) {
+					int length = Math.min(1 + random.nextInt(chunk.length), totalBytes - written);
+					for (int i = 0; i < length; i++) chunk[i] = (byte) (written + i);
+					assertTrue(q.write(chunk, 0, length));
+					written += length;
+				}
+			} catch (Throwable t) {
+				writerFailure.set(t);
+			}
+		});
+		writer.start();
+
+		Random random = new Random(2);
+		int read = 0;
+		while (read < totalBytes) {
+			byte[] chunk = new byte[1 + random.nextInt(200)];
+			int bytesRead = q.read(chunk, random.nextBoolean());
+			assertTrue(bytesRead >= 0);
+			for (int i = 0; i < bytesRead; i++) {
+				if (chunk[i] != (byte) (read + i)) fail("Wrong byte at position " + (read + i));
+			}
+			read += bytesRead;
+		}
+
+		writer.join(10000);
+		assertFalse(writer.isAlive());
+		assertNull(writerFailure.get());
+		assertEquals(0, q.read(new byte[10], false));
+	}
+
+	private static void waitUntilBlocked(Thread thread) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (thread.getState() != Thread.State.WAITING && System.currentTimeMillis() < deadline) Thread.sleep(1);
+		assertEquals(Thread.State.WAITING, thread.getState());
+	}
+
+}
@@ -0,0 +1,58 @@
+package com.termux.terminal;
+
+import junit.framework.TestCase;
+
+public class TerminalRowPoolTest extends TestCase {
+
+	public void testObtainReusesReleasedRowWithSameColumns() {
+		TerminalRowPool pool = new TerminalRowPool();
+		TerminalRow row = pool.obtain(10, TextStyle.NORMAL);
+		row.setChar(0, 'a', TextStyle.encode(1, 2, 0));
+		row.mLineWrap = true;
+		pool.release(row);
+		assertEquals(1, pool.getRows(10));
+
+		assertNotSame(row, pool.obtain(20, TextStyle.NORMAL));
+		long style = TextStyle.encode(3, 4, 0);
+		TerminalRow reused = pool.obtain(10, style);
+		assertSame(row, reused);
+		assertEquals(0, pool.getRows(10));
+
+		// The reused row is cleared like a new one.
+		assertTrue(reused.isBlank());
+		assertFalse(reused.mLineWrap);
+		assertEquals(10, reused.getSpaceUsed());
+		for (int column = 0; column < 10; column++)
+			assertEquals(style, reused.getStyle(column));
+	}
+
+	public void testRowsOfTwoWidthsAreKept() {
+		TerminalRowPool pool = new TerminalRowPool();
+		pool.release(new TerminalRow(80, TextStyle.NORMAL));
+		pool.release(new TerminalRow(120, TextStyle.NORMAL));
+		pool.release(new TerminalRow(80, TextStyle.NORMAL));
+		assertEquals(2, pool.getRows(80));
+		assertEquals(1, pool.getRows(120));
+
+		// A third width drops the rows of the least recently used one.
+		pool.release(new TerminalRow(100, TextStyle.NORMAL));
+		assertEquals(2, pool.getRows(80));
+		assertEquals(0, pool.getRows(120));
+		assertEquals(1, pool.getRows(100));
+
+		// Obtaining rows makes their width the most recently used.
+		pool.obtain(80, TextStyle.NORMAL);
+		pool.release(new TerminalRow(120, TextStyle.NORMAL));
+		assertEquals(1, pool.getRows(80));
+		assertEquals(0, pool.getRows(100));
+		assertEquals(1, pool.getRows(120));
+	}
+
+	public void testMaxRowsPerWidth() {
+		TerminalRowPool pool = new TerminalRowPool();
+		for (int i = 0; i < TerminalRowPool.MAX_ROWS_PER_WIDTH + 10; i++)
+			pool.release(new TerminalRow(5, TextStyle.NORMAL));
+		assertEquals(TerminalRowPool.MAX_ROWS_PER_WIDTH, pool.getRows(5));
+	}
+
+}
@@ -429,4 +429,228 @@ public class TerminalRowTest extends TestCase {
 		// assertEquals(' ', line.mText[line.findStartOfColumn(COLUMNS - 1)]);
 	}
 
+	public void testColumnIndexWithCjk() {
+		row.setChar(0, 'a', 0);
+		row.setChar(1, ONE_JAVA_CHAR_DISPLAY_WIDTH_TWO_1, 0);
+		row.setChar(3, TWO_JAVA_CHARS_DISPLAY_WIDTH_TWO_1, 0);
+		row.setChar(5, 'b', 0);
+		assertColumnCharIndicesStartsWith(0, 1, 1, 2, 2, 4, 5);
+		assertLineStartsWith('a', ONE_JAVA_CHAR_DISPLAY_WIDTH_TWO_1, TWO_JAVA_CHARS_DISPLAY_WIDTH_TWO_1, 'b', ' ');
+
+		// Overwriting the second half of a wide char in the middle of the row re-indexes the columns after it.
+		row.setChar(2, 'c', 0);
+		assertColumnCharIndicesStartsWith(0, 1, 2, 3, 3, 5, 6);
+		assertLineStartsWith('a', ' ', 'c', TWO_JAVA_CHARS_DISPLAY_WIDTH_TWO_1, 'b', ' ');
+
+		row.setChar(3, ONE_JAVA_CHAR_DISPLAY_WIDTH_TWO_2, 0);
+		assertColumnCharIndicesStartsWith(0, 1, 2, 3, 3, 4, 5);
+		assertLineStartsWith('a', ' ', 'c', ONE_JAVA_CHAR_DISPLAY_WIDTH_TWO_2, 'b', ' ');
+		assertEquals(COLUMNS - 1, row.getSpaceUsed());
+		assertEquals(COLUMNS - 1, row.findStartOfColumn(COLUMNS));
+	}
+
+	public void testColumnIndexWithEmojiZwjSequence() {
+		int man = 0x1F468;
+		int zeroWidthJoiner = 0x200D;
+		int woman = 0x1F469;
+		assertEquals(2, WcWidth.width(man));
+		assertEquals(0, WcWidth.width(zeroWidthJoiner));
+
+		// Like the emulator, which puts the joiner in the column before the cursor, the second half of the wide char.
+		row.setChar(0, man, 0);
+		row.setChar(1, zeroWidthJoiner, 0);
+		row.setChar(2, woman, 0);
+		row.setChar(4, 'x', 0);
+		assertColumnCharIndicesStartsWith(0, 0, 3, 3, 5, 6);
+		assertLineStartsWith(man, zeroWidthJoiner, woman, 'x', ' ');
+
+		row.setChar(0, 'y', 0);
+		assertColumnCharIndicesStartsWith(0, 1, 2, 2, 4, 5);
+		assertLineStartsWith('y', ' ', woman, 'x', ' ');
+	}
+
+	public void testColumnIndexWithCombiningSequence() {
+		row.setChar(0, 'e', 0);
+		row.setChar(0, DIARESIS_CODEPOINT, 0);
+		row.setChar(0, 0x0301, 0);
+		row.setChar(1, ONE_JAVA_CHAR_DISPLAY_WIDTH_TWO_1, 0);
+		row.setChar(2, DIARESIS_CODEPOINT, 0);
+		row.setChar(3, 'f', 0);
+		assertColumnCharIndicesStartsWith(0, 3, 3, 5, 6);
+		assertLineStartsWith('e', DIARESIS_CODEPOINT, 0x0301, ONE_JAVA_CHAR_DISPLAY_WIDTH_TWO_1, DIARESIS_CODEPOINT, 'f', ' ');
+
+		row.setChar(0, 'g', 0);
+		assertColumnCharIndicesStartsWith(0, 1, 1, 3, 4);
+	}
+
+	public void testColumnIndexMatchesScanAfterRandomWrites() {
+		int[] codePoints = {'a', 'b', DIARESIS_CODEPOINT, 0x200D, ONE_JAVA_CHAR_DISPLAY_WIDTH_TWO_1, TWO_JAVA_CHARS_DISPLAY_WIDTH_TWO_2,
+			TWO_JAVA_CHARS_DISPLAY_WIDTH_ONE_1, 0x1F600};
+		Random random = new Random(0);
+		for (int i = 0; i < 20000; i++) {
+			int codePoint = codePoints[random.nextInt(codePoints.length)];
+			int column = random.nextInt(WcWidth.width(codePoint) == 2 ? COLUMNS - 1 : COLUMNS);
+			row.setChar(column, codePoint, 0);
+			if (random.nextInt(500) == 0) row.clear(0);
+			for (int c = 0; c < COLUMNS; c += 1 + random.nextInt(8))
+				assertEquals("At column=" + c + " after write " + i, scanForStartOfColumn(c), row.findStartOfColumn(c));
+		}
+	}
+
+
+	public void testStyleRuns() {
+		row = new TerminalRow(COLUMNS, 7);
+		row.setChar(10, 'a', 3);
+		row.setAsciiChars(20, new byte[]{'b', 'c', 'd'}, 0, 3, 4);
+		for (int column = 0; column < COLUMNS; column++) {
+			long expected = (column == 10) ? 3 : ((column >= 20 && column < 23) ? 4 : 7);
+			assertEquals("At column=" + column, expected, row.getStyle(column));
+		}
+
+		row.clear(9);
+		for (int column = 0; column < COLUMNS; column++)
+			assertEquals(9, row.getStyle(column));
+	}
+
+	public void testManyDistinctStyles() {
+		long[] expected = new long[COLUMNS];
+		Arrays.fill(expected, TextStyle.NORMAL);
+		Random random = new Random(0);
+		for (int i = 0; i < 5000; i++) {
+			int column = random.nextInt(COLUMNS);
+			// Few distinct styles at first, then more than fit in the palette of a row.
+			long style = random.nextInt(i < 2000 ? 20 : 100);
+			row.setChar(column, 'x', style);
+			expected[column] = style;
+			if (i % 100 == 0) {
+				for (int c = 0; c < COLUMNS; c++)
+					assertEquals("At column=" + c + " after write " + i, expected[c], row.getStyle(c));
+			}
+		}
+	}
+
+	public void testCopyFromCopiesStyles() {
+		TerminalRow copy = new TerminalRow(COLUMNS, 5);
+		for (int styles : new int[]{1, 3, 50, 2}) {
+			row.clear(0);
+			for (int column = 0; column < COLUMNS; column++)
+				row.setChar(column, 'x', column % styles);
+			copy.copyFrom(row);
+			for (int column = 0; column < COLUMNS; column++)
+				assertEquals("At column=" + column + " with styles=" + styles, column % styles, copy.getStyle(column));
+		}
+	}
+	public void testFillMatchesSetChar() {
+		int[] codePoints = {'a', ' ', DIARESIS_CODEPOINT, ONE_JAVA_CHAR_DISPLAY_WIDTH_TWO_1, TWO_JAVA_CHARS_DISPLAY_WIDTH_ONE_1};
+		Random random = new Random(0);
+		TerminalRow expected = new TerminalRow(COLUMNS, TextStyle.NORMAL);
+		for (int i = 0; i < 2000; i++) {
+			fillRandomly(row, random);
+			expected.copyFrom(row);
+			int start = random.nextInt(COLUMNS);
+			int end = (i % 4 == 0) ? COLUMNS : start + random.nextInt(COLUMNS - start + 1);
+			int codePoint = (i % 3 == 0) ? ' ' : codePoints[random.nextInt(codePoints.length)];
+			if (WcWidth.width(codePoint) == 2 && end == COLUMNS) end--;
+			long style = random.nextInt(4);
+
+			row.fill(start, end, codePoint, style);
+			for (int column = start; column < end; column++)
+				expected.setChar(column, codePoint, style);
+			assertRowEquals("After fill " + i, expected, row);
+		}
+	}
+
+	public void testCopyIntervalMatchesCopyingCharByChar() {
+		Random random = new Random(0);
+		TerminalRow source = new TerminalRow(COLUMNS, TextStyle.NORMAL);
+		TerminalRow expected = new TerminalRow(COLUMNS, TextStyle.NORMAL);
+		for (int i = 0; i < 2000; i++) {
+			boolean sameRow = i % 2 == 0;
+			fillRandomly(row, random);
+			fillRandomly(source, random);
+			TerminalRow from = sameRow ? row : source;
+			expected.copyFrom(row);
+			int length = (i % 5 == 0) ? COLUMNS : random.nextInt(COLUMNS + 1);
+			int sourceX1 = random.nextInt(COLUMNS - length + 1);
+			int destinationX = random.nextInt(COLUMNS - length + 1);
+
+			row.copyInterval(from, sourceX1, sourceX1 + length, destinationX);
+			copyIntervalCharByChar(expected, sameRow ? expected : source, sourceX1, sourceX1 + length, destinationX);
+			assertRowEquals("After copy " + i, expected, row);
+		}
+	}
+
+	/** Write random characters, mostly ASCII, with random styles to a row. */
+	private void fillRandomly(TerminalRow line, Random random) {
+		int[] codePoints = {DIARESIS_CODEPOINT, ONE_JAVA_CHAR_DISPLAY_WIDTH_TWO_1, TWO_JAVA_CHARS_DISPLAY_WIDTH_TWO_1,
+			TWO_JAVA_CHARS_DISPLAY_WIDTH_ONE_1};
+		line.clear(random.nextInt(3));
+		boolean onlyAscii = random.nextBoolean();
+		for (int i = 0, writes = random.nextInt(100); i < writes; i++) {
+			int codePoint = (onlyAscii || random.nextInt(4) != 0) ? 'a' + random.nextInt(26) : codePoints[random.nextInt(codePoints.length)];
+			int column = random.nextInt(WcWidth.width(codePoint) == 2 ? COLUMNS - 1 : COLUMNS);
+			line.setChar(column, codePoint, random.nextInt(3));
+		}
+	}
+
+	/** Copy an interval the way {@link TerminalRow#copyInterval(TerminalRow, int, int, int)} does without its fast paths. */
+	private void copyIntervalCharByChar(TerminalRow to, TerminalRow from, int sourceX1, int sourceX2, int destinationX) {
+		if (sourceX1 >= sourceX2) return;
+		final int x1 = from.findStartOfColumn(sourceX1);
+		final int x2 = from.findStartOfColumn(sourceX2);
+		// The second half of a wide character starts at the same index as the first half.
+		boolean startingFromSecondHalfOfWideChar = sourceX1 > 0 && from.findStartOfColumn(sourceX1 - 1) == x1;
+		final char[] sourceChars = Arrays.copyOf(from.mText, from.mText.length);
+		final long[] sourceStyles = new long[COLUMNS];
+		for (int column = 0; column < COLUMNS; column++)
+			sourceStyles[column] = from.getStyle(column);
+		int latestNonCombiningWidth = 0;
+		for (int i = x1; i < x2; i++) {
+			char sourceChar = sourceChars[i];
+			int codePoint = Character.isHighSurrogate(sourceChar) ? Character.toCodePoint(sourceChar, sourceChars[++i]) : sourceChar;
+			if (startingFromSecondHalfOfWideChar) {
+				codePoint = ' ';
+				startingFromSecondHalfOfWideChar = false;
+			}
+			int w = WcWidth.width(codePoint);
+			if (w > 0) {
+				destinationX += latestNonCombiningWidth;
+				sourceX1 += latestNonCombiningWidth;
+				latestNonCombiningWidth = w;
+			}
+			to.setChar(destinationX, codePoint, sourceStyles[sourceX1]);
+		}
+	}
+
+	private void assertRowEquals(String message, TerminalRow expected, TerminalRow actual) {
+		assertEquals(message, new String(expected.mText, 0, expected.getSpaceUsed()), new String(actual.mText, 0, actual.getSpaceUsed()));
+		for (int column = 0; column < COLUMNS; column++) {
+			assertEquals(message + " at column=" + column, expected.getStyle(column), actual.getStyle(column));
+			assertEquals(message + " at column=" + column, expected.findStartOfColumn(column), actual.findStartOfColumn(column));
+		}
+	}
+
+	/** Find the start of a column by scanning the row from the beginning, without the column index. */
+	private int scanForStartOfColumn(int column) {
+		char[] text = row.mText;
+		int currentColumn = 0;
+		int charIndex = 0;
+		while (true) {
+			int newCharIndex = charIndex;
+			int codePoint = Character.codePointAt(text, newCharIndex);
+			newCharIndex += Character.charCount(codePoint);
+			int width = WcWidth.width(codePoint);
+			if (width > 0) {
+				currentColumn += width;
+				if (currentColumn > column) return charIndex;
+				if (currentColumn == column) {
+					while (newCharIndex < row.getSpaceUsed() && WcWidth.width(Character.codePointAt(text, newCharIndex)) <= 0)
+						newCharIndex += Character.charCount(Character.codePointAt(text, newCharIndex));
+					return newCharIndex;
+				}
+			}
+			charIndex = newCharIndex;
+		}
+	}
+
 }
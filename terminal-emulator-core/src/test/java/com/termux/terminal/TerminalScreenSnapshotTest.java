@@ -0,0 +1,321 @@
+package com.termux.terminal;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Pattern;
+
+public class TerminalScreenSnapshotTest extends TerminalTestCase {
+
+	private static String lineText(TerminalRow row, int columns) {
+		return new String(row.mText, 0, row.findStartOfColumn(columns));
+	}
+
+	public void testCopiesVisibleRows() {
+		withTerminalSized(3, 2).enterString("abc\r\ndef\r\nghi");
+		TerminalScreenSnapshot snapshot = new TerminalScreenSnapshot();
+
+		snapshot.copyFrom(mTerminal, 0);
+		assertEquals(3, snapshot.getColumns());
+		assertEquals(2, snapshot.getRows());
+		assertEquals(0, snapshot.getTopRow());
+		assertEquals(1, snapshot.getActiveTranscriptRows());
+		assertEquals("def", lineText(snapshot.getLine(0), 3));
+		assertEquals("ghi", lineText(snapshot.getLine(1), 3));
+		assertEquals(1, snapshot.getCursorRow());
+		assertEquals(2, snapshot.getCursorCol());
+
+		snapshot.copyFrom(mTerminal, -1);
+		assertEquals(-1, snapshot.getTopRow());
+		assertEquals("abc", lineText(snapshot.getLine(-1), 3));
+		assertEquals("def", lineText(snapshot.getLine(0), 3));
+	}
+
+	public void testReflowsTranscriptRowsScrolledTo() {
+		withTerminalSized(10, 5);
+		for (int i = 0; i < 1000; i++)
+			enterString("line " + i + "\r\n");
+		resize(12, 5);
+		assertEquals(0, mTerminal.getScreen().getActiveTranscriptRows());
+		TerminalScreenSnapshot snapshot = new TerminalScreenSnapshot();
+
+		// Scrolling to the top of the rows reflowed so far reflows the rows above it.
+		snapshot.copyFrom(mTerminal, 0);
+		int reflowedRows = snapshot.getActiveTranscriptRows();
+		assertTrue(reflowedRows > 0 && reflowedRows < 996);
+		snapshot.copyFrom(mTerminal, -reflowedRows);
+		assertEquals(-reflowedRows, snapshot.getTopRow());
+		assertTrue(snapshot.getActiveTranscriptRows() > reflowedRows);
+		assertEquals("line " + (996 - reflowedRows), lineText(snapshot.getLine(-reflowedRows), 12).trim());
+	}
+
+	public void testKeepsFrameDuringSynchronizedOutput() {
+		withTerminalSized(3, 2).enterString("abc\r\ndef");
+		TerminalScreenSnapshot snapshot = new TerminalScreenSnapshot();
+		assertTrue(snapshot.copyCompletedFrom(mTerminal, 0, false));
+
+		enterString("\033[?2026h\033[2J\033[Hxyz\r\n");
+		assertFalse(snapshot.copyCompletedFrom(mTerminal, 0, false));
+		assertEquals("abc", lineText(snapshot.getLine(0), 3));
+		assertEquals("def", lineText(snapshot.getLine(1), 3));
+		assertFalse(snapshot.isLineDirty(0));
+		assertFalse(snapshot.isLineDirty(1));
+		assertEquals(0, snapshot.getScrolledRows());
+
+		// The rows changed meanwhile are copied once the frame is done, or drawing it has timed out.
+		assertTrue(snapshot.copyCompletedFrom(mTerminal, 0, true));
+		assertEquals("xyz", lineText(snapshot.getLine(0), 3));
+		enterString("ghi\033[?2026l");
+		assertTrue(snapshot.copyCompletedFrom(mTerminal, 0, false));
+		assertEquals("ghi", lineText(snapshot.getLine(1), 3));
+		assertTrue(snapshot.isLineDirty(1));
+	}
+
+	public void testTopRowIsClamped() {
+		withTerminalSized(3, 2).enterString("abc\r\ndef\r\nghi");
+		TerminalScreenSnapshot snapshot = new TerminalScreenSnapshot();
+		snapshot.copyFrom(mTerminal, -5);
+		assertEquals(-1, snapshot.getTopRow());
+		snapshot.copyFrom(mTerminal, 2);
+		assertEquals(0, snapshot.getTopRow());
+		try {
+			snapshot.getLine(2);
+			fail();
+		} catch (IllegalArgumentException e) {
+			// Expected.
+		}
+	}
+
+	public void testUnaffectedByLaterOutput() {
+		withTerminalSized(5, 2).enterString("\033[31mab中\033[m");
+		TerminalScreenSnapshot snapshot = new TerminalScreenSnapshot();
+		snapshot.copyFrom(mTerminal, 0);
+		enterString("\033[2J\033[Hxyz");
+
+		assertEquals("ab中 ", lineText(snapshot.getLine(0), 5));
+		assertEquals(1, TextStyle.decodeForeColor(snapshot.getLine(0).getStyle(0)));
+		assertEquals(0, snapshot.getCursorRow());
+		assertEquals(4, snapshot.getCursorCol());
+	}
+
+	public void testFollowsResizeAndModes() {
+		withTerminalSized(5, 3).enterString("hello\033[?5h\033[?25l\033[2 q");
+		TerminalScreenSnapshot snapshot = new TerminalScreenSnapshot();
+		snapshot.copyFrom(mTerminal, 0);
+		assertTrue(snapshot.isReverseVideo());
+		assertFalse(snapshot.isCursorVisible());
+		assertEquals(TerminalEmulator.TERMINAL_CURSOR_STYLE_BLOCK, snapshot.getCursorStyle());
+
+		resize(8, 2);
+		snapshot.copyFrom(mTerminal, 0);
+		assertEquals(8, snapshot.getColumns());
+		assertEquals(2, snapshot.getRows());
+		assertEquals("hello   ", lineText(snapshot.getLine(0), 8));
+	}
+
+	public void testColorsAreCopied() {
+		withTerminalSized(3, 2).enterString("\033]4;1;#ff0000\007");
+		TerminalScreenSnapshot snapshot = new TerminalScreenSnapshot();
+		snapshot.copyFrom(mTerminal, 0);
+		assertEquals(0xFFFF0000, snapshot.getColors()[1]);
+		enterString("\033]4;1;#00ff00\007");
+		assertEquals(0xFFFF0000, snapshot.getColors()[1]);
+	}
+
+	public void testOnlyChangedRowsAreDirty() {
+		withTerminalSized(5, 5).enterString("a\r\nb\r\nc\r\nd\r\ne");
+		TerminalScreenSnapshot snapshot = new TerminalScreenSnapshot();
+		snapshot.copyFrom(mTerminal, 0);
+		for (int row = 0; row < 5; row++)
+			assertTrue(snapshot.isLineDirty(row));
+
+		// Moving the cursor changes the rows it moves from and to.
+		enterString("\033[4;1H");
+		snapshot.copyFrom(mTerminal, 0);
+		assertDirtyLines(snapshot, "...DD");
+		enterString("x");
+		snapshot.copyFrom(mTerminal, 0);
+		assertDirtyLines(snapshot, "...D.");
+		assertEquals("x    ", lineText(snapshot.getLine(3), 5));
+		snapshot.copyFrom(mTerminal, 0);
+		assertDirtyLines(snapshot, ".....");
+
+		// Colors and reverse video change every row.
+		enterString("\033]4;1;#ff0000\007");
+		snapshot.copyFrom(mTerminal, 0);
+		assertDirtyLines(snapshot, "DDDDD");
+		enterString("\033[?5h");
+		snapshot.copyFrom(mTerminal, 0);
+		assertDirtyLines(snapshot, "DDDDD");
+
+		// Showing transcript rows copies all rows.
+		enterString("\033[5;1H\nf");
+		snapshot.copyFrom(mTerminal, -1);
+		assertDirtyLines(snapshot, "DDDDD");
+		assertEquals(0, snapshot.getScrolledRows());
+	}
+
+	public void testRowsMoveWithTheScreen() {
+		withTerminalSized(5, 5).enterString("a\r\nb\r\nc\r\nd\r\ne");
+		TerminalScreenSnapshot snapshot = new TerminalScreenSnapshot();
+		snapshot.copyFrom(mTerminal, 0);
+		TerminalRow rowWithD = snapshot.getLine(3);
+
+		enterString("\r\nf\r\ng");
+		snapshot.copyFrom(mTerminal, 0);
+		assertEquals(2, snapshot.getScrolledRows());
+		assertSame(rowWithD, snapshot.getLine(1));
+		// The row with the cursor before scrolled to row 2, and the two rows below it are new.
+		assertDirtyLines(snapshot, "..DDD");
+		assertEquals("f    ", lineText(snapshot.getLine(3), 5));
+		assertEquals("g    ", lineText(snapshot.getLine(4), 5));
+
+		enterString("\033[H\033[L");
+		snapshot.copyFrom(mTerminal, 0);
+		assertEquals(-1, snapshot.getScrolledRows());
+		assertSame(rowWithD, snapshot.getLine(2));
+		assertDirtyLines(snapshot, "D....");
+	}
+
+	public void testLineVersions() {
+		withTerminalSized(5, 4).enterString("a\r\nb\r\nc\r\nd");
+		TerminalScreenSnapshot snapshot = new TerminalScreenSnapshot();
+		snapshot.copyFrom(mTerminal, 0);
+		final long versionOfB = snapshot.getLineVersion(1);
+		final long versionOfD = snapshot.getLineVersion(3);
+		assertTrue(versionOfB != snapshot.getLineVersion(0));
+
+		// Moving the cursor makes rows dirty but leaves their text and versions unchanged.
+		enterString("\033[2;1H");
+		snapshot.copyFrom(mTerminal, 0);
+		assertDirtyLines(snapshot, ".D.D");
+		assertEquals(versionOfB, snapshot.getLineVersion(1));
+		assertEquals(versionOfD, snapshot.getLineVersion(3));
+
+		// Versions move with the rows when scrolling, and copied rows get new ones.
+		enterString("\033[4;1H\r\ne");
+		snapshot.copyFrom(mTerminal, 0);
+		assertEquals(1, snapshot.getScrolledRows());
+		assertEquals(versionOfB, snapshot.getLineVersion(0));
+		assertEquals(versionOfD, snapshot.getLineVersion(2));
+		final long versionOfE = snapshot.getLineVersion(3);
+		assertTrue(versionOfE > versionOfD);
+
+		// Versions do not depend on the dirty marks of the previous snapshot.
+		enterString("x");
+		snapshot.copyFrom(mTerminal, 0);
+		snapshot.copyFrom(mTerminal, 0);
+		assertDirtyLines(snapshot, "....");
+		assertTrue(snapshot.getLineVersion(3) > versionOfE);
+	}
+
+	/** Check that snapshots copying only the dirty rows look the same as the screen. */
+	public void testDirtyRowsAreCopiedAfterRandomOutput() {
+		final String[] sequences = {"x", "yz", "中", "\r\n", "\n\n\n", "\033M", "\033[2S", "\033[T", "\033[L", "\033[2M", "\033[K",
+			"\033[1J", "\033[J", "\033[2@", "\033[P", "\033[2X", "\033[3b", "\033#8", "\033[2;5r", "\033[r", "\033[42;2;2;4;4$x", "\033[1;1;3;3$z", "\033[1;1;2;8;1;5;1$v", "\033[1;1;3;3;1$r", "\033['}", "\033['~",
+			"\033[31m", "\033[m", "\033[?1049h", "\033[?1049l", "\033[H", "\033[4;3H", "\033[8;8H", "\033[?7l", "\033[?7h"};
+		java.util.Random random = new java.util.Random(15);
+		withTerminalSized(8, 8);
+		TerminalScreenSnapshot snapshot = new TerminalScreenSnapshot();
+		for (int i = 0; i < 3000; i++) {
+			enterString(sequences[random.nextInt(sequences.length)]);
+			if (random.nextInt(3) != 0) continue;
+			snapshot.copyFrom(mTerminal, 0);
+			for (int row = 0; row < 8; row++) {
+				TerminalRow expected = mTerminal.getScreen().getLine(row);
+				TerminalRow actual = snapshot.getLine(row);
+				assertEquals("row " + row + " after " + i, lineText(expected, 8), lineText(actual, 8));
+				assertEquals(expected.mLineWrap, actual.mLineWrap);
+				for (int column = 0; column < 8; column++)
+					assertEquals(expected.getStyle(column), actual.getStyle(column));
+			}
+		}
+	}
+
+	public void testSearchMatchesInVisibleRows() {
+		withTerminalSized(5, 5).enterString("ab\r\ncab\r\nc\r\nd\r\nab");
+		TerminalScreenSnapshot snapshot = new TerminalScreenSnapshot();
+		Pattern pattern = Pattern.compile("ab", Pattern.LITERAL);
+		snapshot.copyFrom(mTerminal, 0);
+		snapshot.findSearchMatches(pattern);
+		assertEquals(3, snapshot.getSearchMatchCount());
+		assertEquals(1, snapshot.getSearchMatches()[4]);
+		assertEquals(1, snapshot.getSearchMatches()[5]);
+		assertEquals(3, snapshot.getSearchMatches()[6]);
+
+		// Rows with matches which are found again do not need to be drawn again.
+		enterString("\033[4;2Hx");
+		snapshot.copyFrom(mTerminal, 0);
+		snapshot.findSearchMatches(pattern);
+		assertDirtyLines(snapshot, "...DD");
+
+		// Rows with matches added or removed do.
+		enterString("\033[3;2Hab");
+		snapshot.copyFrom(mTerminal, 0);
+		snapshot.findSearchMatches(pattern);
+		assertEquals(4, snapshot.getSearchMatchCount());
+		assertDirtyLines(snapshot, "DDDDD");
+		snapshot.copyFrom(mTerminal, 0);
+		snapshot.findSearchMatches(null);
+		assertEquals(0, snapshot.getSearchMatchCount());
+		assertDirtyLines(snapshot, "DDD.D");
+
+		// Only the rows shown are searched.
+		enterString("\r\n\r\n\r\n\r\n");
+		snapshot.copyFrom(mTerminal, -2);
+		snapshot.findSearchMatches(pattern);
+		assertEquals(4, snapshot.getSearchMatchCount());
+		assertEquals(-2, snapshot.getSearchMatches()[1]);
+		snapshot.copyFrom(mTerminal, 0);
+		snapshot.findSearchMatches(pattern);
+		assertEquals(2, snapshot.getSearchMatchCount());
+	}
+
+	private static void assertDirtyLines(TerminalScreenSnapshot snapshot, String expected) {
+		StringBuilder actual = new StringBuilder();
+		for (int row = 0; row < snapshot.getRows(); row++)
+			actual.append(snapshot.isLineDirty(snapshot.getTopRow() + row) ? 'D' : '.');
+		assertEquals(expected, actual.toString());
+	}
+
+	/**
+	 * Take snapshots while another thread, like the session parser thread, appends output holding the emulator lock,
+	 * and check that every snapshot shows a complete frame.
+	 */
+	public void testSnapshotsWhileAppendingOnOtherThread() throws Exception {
+		withTerminalSized(20, 5);
+		final TerminalEmulator emulator = mTerminal;
+		final AtomicReference<Throwable> failure = new AtomicReference<>();
+		Thread parser = new Thread(() -> {
+			try {
+				for (int frame = 0; frame < 2000; frame++) {
+					StringBuilder builder = new StringBuilder("\033[H");
+					char c = (char) ('a' + frame % 26);
+					for (int row = 0; row < 5; row++) {
+						for (int column = 0; column < 20; column++) builder.append(c);
+						if (row < 4) builder.append("\r\n");
+					}
+					byte[] bytes = builder.toString().getBytes(StandardCharsets.UTF_8);
+					synchronized (emulator) {
+						emulator.append(bytes, bytes.length);
+					}
+				}
+			} catch (Throwable t) {
+				failure.set(t);
+			}
+		});
+		parser.start();
+
+		TerminalScreenSnapshot snapshot = new TerminalScreenSnapshot();
+		while (parser.isAlive()) {
+			synchronized (emulator) {
+				snapshot.copyFrom(emulator, 0);
+			}
+			String firstLine = lineText(snapshot.getLine(0), 20);
+			for (int row = 1; row < 5; row++)
+				assertEquals(firstLine, lineText(snapshot.getLine(row), 20));
+		}
+		parser.join();
+		assertNull(failure.get());
+	}
+
+}
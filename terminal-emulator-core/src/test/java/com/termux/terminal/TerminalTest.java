@@ -1,6 +1,8 @@
 package com.termux.terminal;
 
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 public class TerminalTest extends TerminalTestCase {
 
@@ -347,4 +349,24 @@ public class TerminalTest extends TerminalTestCase {
 		withTerminalSized(11, 2).enterString("01234567890\033[44m\r\tXX").assertLinesAre("01234567XX0", "           ");
 	}
 
+	public void testAppendByteBuffer() {
+		// Only the bytes from the position to the limit of a slice with an array offset are processed.
+		ByteBuffer slice = ByteBuffer.wrap("xxab\r\nc\033[1;3Hdxx".getBytes(StandardCharsets.UTF_8), 1, 14).slice();
+		slice.position(1).limit(slice.limit() - 1);
+		withTerminalSized(3, 2);
+		mTerminal.append(slice);
+		assertEquals(slice.limit(), slice.position());
+		assertLinesAre("abd", "c  ");
+
+		// A multi byte sequence split between buffers without an array.
+		byte[] bytes = "\033[2J\033[Hå€\033[2;1H".getBytes(StandardCharsets.UTF_8);
+		ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+		direct.put(bytes, 0, 7).flip();
+		mTerminal.append(direct.asReadOnlyBuffer());
+		direct.clear();
+		direct.put(bytes, 7, bytes.length - 7).flip();
+		mTerminal.append(direct.asReadOnlyBuffer());
+		assertLinesAre("å€ ", "   ").assertCursorAt(1, 0);
+	}
+
 }
@@ -0,0 +1,265 @@
+package com.termux.terminal;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+public class TranscriptSearchTest extends TerminalTestCase {
+
+	private static Pattern literal(String text) {
+		return Pattern.compile(text, Pattern.LITERAL);
+	}
+
+	/** Find a match, returning it as "startColumn,startRow-endColumn,endRow", or null if none. */
+	private String find(Pattern pattern, int column, int row, boolean backwards) {
+		int[] match = new int[4];
+		if (!mTerminal.getScreen().find(pattern, column, row, backwards, match)) return null;
+		return match[0] + "," + match[1] + "-" + match[2] + "," + match[3];
+	}
+
+	private String findFromTop(Pattern pattern) {
+		return find(pattern, 0, -mTerminal.getScreen().getActiveTranscriptRows(), false);
+	}
+
+	private void enterNumberedLines(int lines) {
+		for (int i = 0; i < lines; i++)
+			enterString("line " + i + "\r\n");
+	}
+
+	public void testLiteralSearch() {
+		withTerminalSized(10, 3).enterString("abc\r\nxAbCx\r\n(a.c)");
+		assertEquals("0,0-3,0", findFromTop(literal("abc")));
+		assertEquals("1,2-4,2", findFromTop(literal("a.c")));
+		assertNull(findFromTop(literal("abcd")));
+		assertEquals("1,1-4,1", find(Pattern.compile("abc", Pattern.LITERAL | Pattern.CASE_INSENSITIVE), 1, 0, false));
+	}
+
+	public void testRegexSearch() {
+		withTerminalSized(10, 3).enterString("x12\r\n34\r\n  56  ");
+		assertEquals("1,0-3,0", findFromTop(Pattern.compile("[0-9]+")));
+		// Lines end at the end of their text, and anchors match at the start and end of lines.
+		assertEquals("0,1-2,1", findFromTop(Pattern.compile("^[0-9]+$", Pattern.MULTILINE)));
+		assertEquals("1,0-3,0", findFromTop(Pattern.compile("[0-9]+$", Pattern.MULTILINE)));
+		assertEquals("2,2-4,2", find(Pattern.compile("[0-9]+$", Pattern.MULTILINE), 0, 2, false));
+		assertEquals("1,0-2,1", findFromTop(Pattern.compile("12\n34")));
+		// Empty matches are skipped.
+		assertEquals("0,0-1,0", findFromTop(Pattern.compile("x*")));
+		assertEquals("1,0-3,0", find(Pattern.compile("[0-9]*"), 1, 0, false));
+	}
+
+	public void testMatchesAcrossWrappedRows() {
+		withTerminalSized(5, 3).enterString("helloworld");
+		assertLineWraps(true, false, false);
+		assertEquals("3,0-2,1", findFromTop(literal("lowo")));
+		assertEquals("0,0-5,1", findFromTop(Pattern.compile("^.*$", Pattern.MULTILINE)));
+	}
+
+	public void testColumnsOfWideAndCombiningCharacters() {
+		withTerminalSized(10, 3).enterString("中文éabc");
+		assertEquals("5,0-8,0", findFromTop(literal("abc")));
+		assertEquals("2,0-5,0", findFromTop(literal("文é")));
+		assertEquals("5,0-8,0", find(literal("abc"), 5, 0, false));
+		assertNull(find(literal("abc"), 6, 0, false));
+	}
+
+	public void testNextAndPreviousMatch() {
+		withTerminalSized(10, 5);
+		enterNumberedLines(20);
+		// Rows -16 to 3 hold line 0 to 19, with "line 1" matching at the start of lines 1 and 10 to 19.
+		Pattern pattern = literal("line 1");
+		assertEquals("0,-15-6,-15", findFromTop(pattern));
+		assertEquals("0,-6-6,-6", find(pattern, 6, -15, false));
+		assertEquals("0,-6-6,-6", find(pattern, 0, -6, false));
+		assertEquals("0,-5-6,-5", find(pattern, 6, -6, false));
+		assertEquals("0,3-6,3", find(pattern, 0, 3, false));
+		assertNull(find(pattern, 6, 3, false));
+
+		assertEquals("0,3-6,3", find(pattern, 0, 5, true));
+		assertEquals("0,2-6,2", find(pattern, 0, 3, true));
+		assertEquals("0,-15-6,-15", find(pattern, 0, -6, true));
+		assertNull(find(pattern, 0, -15, true));
+	}
+
+	public void testPreviousMatchFarAway() {
+		withTerminalSized(20, 5);
+		enterString("needle\r\n");
+		for (int i = 0; i < 1000; i++)
+			enterString("haystack haystack\r\n");
+		assertEquals("0,-997-6,-997", find(literal("needle"), 0, 5, true));
+	}
+
+	public void testFindAllInRows() {
+		withTerminalSized(10, 5);
+		enterNumberedLines(20);
+		int[] matches = new int[4 * 3];
+		TerminalBuffer screen = mTerminal.getScreen();
+		assertEquals(2, screen.findAll(literal("line 1"), -6, -4, matches));
+		assertEquals(-6, matches[1]);
+		assertEquals(-5, matches[5]);
+		// Only as many matches as fit are returned.
+		assertEquals(3, screen.findAll(literal("line"), -16, 4, matches));
+		// A match starting before the rows is found if it ends within them.
+		enterString("\033[2J\033[H0123456789abcdefghij");
+		assertEquals(1, screen.findAll(literal("89ab"), 1, 2, matches));
+		assertEquals(8, matches[0]);
+		assertEquals(0, matches[1]);
+		assertEquals(2, matches[2]);
+		assertEquals(1, matches[3]);
+	}
+
+	public void testFindAllLeavesTranscriptToReflow() {
+		withTerminalSized(10, 5);
+		enterNumberedLines(20);
+		resize(4, 5);
+		TerminalBuffer screen = mTerminal.getScreen();
+		int transcriptRows = screen.getActiveTranscriptRows();
+		int[] matches = new int[4 * 3];
+		assertEquals(2, screen.findAll(literal("line 1"), 0, 5, matches));
+		assertEquals(transcriptRows, screen.getActiveTranscriptRows());
+		// A match in a line wrapped over the rows before the first one is found.
+		assertEquals(1, screen.findAll(literal("line 18"), 1, 2, matches));
+		assertEquals(0, matches[1]);
+		assertEquals(1, matches[3]);
+	}
+
+	public void testIndexTranscriptInSteps() {
+		withTerminalSized(10, 5);
+		enterNumberedLines(1000);
+		TerminalBuffer screen = mTerminal.getScreen();
+		int steps = 1;
+		while (screen.indexTranscript(100)) steps++;
+		assertEquals(10, steps);
+		assertEquals("0,-996-6,-996", findFromTop(literal("line 0")));
+
+		// Rows added since are indexed by the search.
+		enterNumberedLines(10);
+		assertEquals("0,-1006-6,-1006", findFromTop(literal("line 0")));
+		assertFalse(screen.indexTranscript(100));
+
+		screen.clearSearchIndex();
+		assertEquals("0,3-6,3", find(literal("line 9"), 0, 5, true));
+	}
+
+	public void testScreenRowsAreSearchedAsTheyAreNow() {
+		withTerminalSized(10, 3).enterString("abc");
+		assertEquals("0,0-3,0", findFromTop(literal("abc")));
+		enterString("\033[2J\033[2;1Hxyz abc");
+		assertEquals("4,1-7,1", findFromTop(literal("abc")));
+		enterString("\r\n\r\n");
+		assertEquals("4,0-7,0", findFromTop(literal("abc")));
+		enterString("\r\n\r\n");
+		assertEquals("4,-2-7,-2", findFromTop(literal("abc")));
+	}
+
+	public void testRowsFallingOutOfTheTranscript() {
+		withTerminalSized(10, 5);
+		enterString("first\r\n");
+		assertEquals("0,0-5,0", findFromTop(literal("first")));
+		enterNumberedLines(3000);
+		assertEquals(1995, mTerminal.getScreen().getActiveTranscriptRows());
+		assertNull(findFromTop(literal("first")));
+		assertNull(findFromTop(literal("line 1000")));
+		assertEquals("0,-1995-9,-1995", findFromTop(literal("line 1001")));
+		assertEquals("0,3-9,3", find(literal("line 2999"), 0, 5, true));
+	}
+
+	public void testResize() {
+		withTerminalSized(10, 5);
+		enterNumberedLines(20);
+		Pattern pattern = literal("line 15");
+		assertEquals("0,-1-7,-1", findFromTop(pattern));
+
+		// Rows moved between the transcript and the screen.
+		resize(10, 3);
+		assertEquals("0,-3-7,-3", findFromTop(pattern));
+		resize(10, 8);
+		assertEquals("0,2-7,2", findFromTop(pattern));
+		enterString("\033[3;1Hchanged");
+		assertNull(findFromTop(pattern));
+		resize(10, 5);
+		assertEquals("0,0-7,0", findFromTop(literal("changed")));
+	}
+
+	public void testResizeToFewerColumns() {
+		withTerminalSized(10, 5);
+		enterNumberedLines(20);
+		assertEquals("0,-6-7,-6", findFromTop(literal("line 10")));
+		// The transcript is reflowed before searching it, wrapping each line over two rows.
+		resize(4, 5);
+		assertEquals("0,0-3,1", find(literal("line 18"), 0, 5, true));
+		assertEquals("0,-16-3,-15", find(literal("line 10"), 0, 5, true));
+		assertEquals("0,-16-3,-15", findFromTop(literal("line 10")));
+		assertEquals("2,-36-4,-36", findFromTop(literal("ne")));
+	}
+
+	public void testClearTranscript() {
+		withTerminalSized(10, 5);
+		enterNumberedLines(20);
+		assertEquals("0,-16-6,-16", findFromTop(literal("line 0")));
+		enterString("\033[3J");
+		assertNull(findFromTop(literal("line 0")));
+		assertEquals("0,3-7,3", findFromTop(literal("line 19")));
+	}
+
+	public void testAlternateScreen() {
+		withTerminalSized(10, 5);
+		enterNumberedLines(20);
+		enterString("\033[?1049h\033[Hnew");
+		assertEquals("0,0-3,0", findFromTop(literal("new")));
+		assertNull(findFromTop(literal("line")));
+		for (int i = 0; i < 10; i++)
+			enterString("\r\nalt " + i);
+		assertEquals("0,4-5,4", findFromTop(literal("alt 9")));
+		assertNull(findFromTop(literal("alt 4")));
+		enterString("\033[?1049l");
+		assertEquals("0,3-7,3", findFromTop(literal("line 19")));
+	}
+
+	public void testTranscriptStore() throws IOException {
+		withTerminalSized(12, 5);
+		File directory = Files.createTempDirectory("transcript-store").toFile();
+		directory.deleteOnExit();
+		TranscriptStore store = new TranscriptStore(new File(directory, "session"), 10000);
+		mTerminal.setTranscriptStore(store);
+		enterNumberedLines(3000);
+
+		assertEquals("0,-2996-6,-2996", findFromTop(literal("line 0")));
+		assertEquals("0,-2996-6,-2996", find(literal("line 0"), 0, -2000, true));
+		assertEquals("0,-1996-9,-1996", find(literal("line 1000"), 0, -2996, false));
+		enterNumberedLines(10);
+		assertEquals("0,-3006-6,-3006", findFromTop(literal("line 0")));
+		store.close();
+	}
+
+	/** Check that the matches found are the same as the ones found by searching the text of the rows. */
+	public void testMatchesTextOfRows() {
+		final String[] outputs = {"ab", "a", "b", "中", "é", " ", "\r\n", "\033[A", "\033[2K", "\033[L", "\033[M", "\033[2S"};
+		Random random = new Random(16);
+		withTerminalSized(7, 4);
+		TerminalBuffer screen = mTerminal.getScreen();
+		Pattern pattern = literal("ab");
+		int[] match = new int[4];
+		for (int i = 0; i < 2000; i++) {
+			enterString(outputs[random.nextInt(outputs.length)]);
+			if (random.nextInt(10) != 0) continue;
+
+			String text = screen.getSelectedText(0, -screen.getActiveTranscriptRows(), mTerminal.mColumns, mTerminal.mRows);
+			int expectedMatches = 0;
+			for (int index = text.indexOf("ab"); index != -1; index = text.indexOf("ab", index + 2))
+				expectedMatches++;
+
+			int matches = 0;
+			int column = 0, row = -screen.getActiveTranscriptRows();
+			while (screen.find(pattern, column, row, false, match)) {
+				assertEquals("ab", screen.getSelectedText(match[0], match[1], match[2] - 1, match[3]));
+				column = match[2];
+				row = match[3];
+				matches++;
+			}
+			assertEquals(expectedMatches, matches);
+		}
+	}
+
+}
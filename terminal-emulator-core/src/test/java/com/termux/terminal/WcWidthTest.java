@@ -78,4 +78,18 @@ public class WcWidthTest extends TestCase {
 		assertWidthIs(2, 0x1F643); // UPSIDE-DOWN FACE (Unicode 8).
 	}
 
+	public void testLookupTableMatchesIntervalTables() {
+		for (int codePoint = 0; codePoint <= Character.MAX_CODE_POINT; codePoint++) {
+			if (WcWidth.width(codePoint) != WcWidth.computeWidth(codePoint))
+				fail("Width mismatch for U+" + Integer.toHexString(codePoint) + ": " + WcWidth.width(codePoint) + " != " + WcWidth.computeWidth(codePoint));
+		}
+	}
+
+	public void testOutsideUnicodeRange() {
+		assertWidthIs(0, -1);
+		assertWidthIs(0, Integer.MIN_VALUE);
+		assertWidthIs(1, Character.MAX_CODE_POINT + 1);
+		assertWidthIs(1, Integer.MAX_VALUE);
+	}
+
 }
@@ -0,0 +1,43 @@
+package com.termux.terminal;
+
+import android.util.Log;
+
+/** The {@link TerminalLogger} for logs without a client on android, writing them to the android log. */
+final class AndroidLogger implements TerminalLogger {
+
+    @Override
+    public void logError(String tag, String message) {
+        Log.e(tag, message);
+    }
+
+    @Override
+    public void logWarn(String tag, String message) {
+        Log.w(tag, message);
+    }
+
+    @Override
+    public void logInfo(String tag, String message) {
+        Log.i(tag, message);
+    }
+
+    @Override
+    public void logDebug(String tag, String message) {
+        Log.d(tag, message);
+    }
+
+    @Override
+    public void logVerbose(String tag, String message) {
+        Log.v(tag, message);
+    }
+
+    @Override
+    public void logStackTraceWithMessage(String tag, String message, Exception e) {
+        Log.e(tag, Logger.getMessageAndStackTraceString(message, e));
+    }
+
+    @Override
+    public void logStackTrace(String tag, Exception e) {
+        logStackTraceWithMessage(tag, null, e);
+    }
+
+}
@@ -1,10 +1,26 @@
 package com.termux.terminal;
 
+import java.nio.ByteBuffer;
+
 /**
  * Native methods for creating and managing pseudoterminal subprocesses. C code is in jni/termux.c.
  */
 final class JNI {
 
+    /** Event bits for {@link #epollControl(int, int, int, int, int)} and {@link #epollWait(int, int[], int)}. */
+    static final int EVENT_INPUT = 1;
+    static final int EVENT_OUTPUT = 2;
+    /** Only reported, when the fd is hung up or has an error. */
+    static final int EVENT_HANGUP = 4;
+
+    /** Operations for {@link #epollControl(int, int, int, int, int)}, the values of EPOLL_CTL_*. */
+    static final int EPOLL_ADD = 1;
+    static final int EPOLL_REMOVE = 2;
+    static final int EPOLL_MODIFY = 3;
+
+    /** Returned by {@link #tryWaitFor(int)} while the process is running. */
+    static final int PROCESS_RUNNING = Integer.MIN_VALUE;
+
     static {
         System.loadLibrary("termux");
     }
@@ -20,8 +36,8 @@ final class JNI {
      * @param args      An array of arguments to the command
      * @param envVars   An array of strings of the form "VAR=value" to be added to the environment of the process
      * @param processId A one-element array to which the process ID of the started process will be written.
-     * @return the file descriptor resulting from opening /dev/ptmx master device. The sub process will have opened the
-     * slave device counterpart (/dev/pts/$N) and have it as stdint, stdout and stderr.
+     * @return the file descriptor resulting from opening /dev/ptmx master device, in non-blocking mode. The sub process
+     * will have opened the slave device counterpart (/dev/pts/$N) and have it as stdint, stdout and stderr.
      */
     public static native int createSubprocess(String cmd, String cwd, String[] args, String[] envVars, int[] processId, int rows, int columns, int cellWidth, int cellHeight);
 
@@ -29,11 +45,64 @@ final class JNI {
     public static native void setPtyWindowSize(int fd, int rows, int cols, int cellWidth, int cellHeight);
 
     /**
-     * Causes the calling thread to wait for the process associated with the receiver to finish executing.
+     * Check if the process has exited, reaping it if so.
+     *
+     * @return {@link #PROCESS_RUNNING} if the process is running, else if >= 0, the exit status of the process. If < 0,
+     * the signal causing the process to stop negated.
+     */
+    public static native int tryWaitFor(int processId);
+
+    /**
+     * Open a pidfd for the process, which becomes readable when it exits, through the pidfd_open(2) system call. Must
+     * only be called on android 12 and later, since earlier versions kill apps making system calls they do not know.
+     *
+     * @return the file descriptor, or -1 if the kernel does not support pidfds.
+     */
+    public static native int openPidFd(int processId);
+
+    /** Create an epoll instance through the epoll_create1(2) system call. */
+    public static native int createEpoll();
+
+    /**
+     * Add, modify or remove the {@link #EVENT_INPUT} and {@link #EVENT_OUTPUT} events waited for on a file descriptor.
+     *
+     * @param operation {@link #EPOLL_ADD}, {@link #EPOLL_MODIFY} or {@link #EPOLL_REMOVE}
+     * @param token     the value reported by {@link #epollWait(int, int[], int)} for the file descriptor
+     * @return if the operation succeeded
+     */
+    public static native boolean epollControl(int epollFd, int operation, int fd, int token, int events);
+
+    /**
+     * Wait for events on the file descriptors of an epoll instance.
+     *
+     * @param ready         filled with the token and the ready events of each file descriptor with events, in pairs
+     * @param timeoutMillis the time to wait for events at most, or -1 to wait until there are events
+     * @return the number of file descriptors with events, 0 if timed out or interrupted
+     */
+    public static native int epollWait(int epollFd, int[] ready, int timeoutMillis);
+
+    /** Create an eventfd in non-blocking mode, for waking up a thread waiting on it in {@link #epollWait(int, int[], int)}. */
+    public static native int createEventFd();
+
+    /** Make an eventfd readable. */
+    public static native void signalEventFd(int fd);
+
+    /** Make an eventfd no longer readable. */
+    public static native void clearEventFd(int fd);
+
+    /**
+     * Read from a file descriptor in non-blocking mode, straight into a direct buffer without changing its position.
+     *
+     * @return the number of bytes read, 0 if no bytes are available, or -1 at end of file or on error.
+     */
+    public static native int read(int fd, ByteBuffer buffer, int offset, int length);
+
+    /**
+     * Write to a file descriptor in non-blocking mode, straight from a direct buffer without changing its position.
      *
-     * @return if >= 0, the exit status of the process. If < 0, the signal causing the process to stop negated.
+     * @return the number of bytes written, 0 if no bytes can be written now, or -1 on error.
      */
-    public static native int waitFor(int processId);
+    public static native int write(int fd, ByteBuffer buffer, int offset, int length);
 
     /** Close a file descriptor through the close(2) system call. */
     public static native void close(int fileDescriptor);
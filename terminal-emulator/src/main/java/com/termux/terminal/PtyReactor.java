@@ -0,0 +1,434 @@
+package com.termux.terminal;
+
+import android.os.Build;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Does the pty I/O of all {@link TerminalSession}s and waits for their processes to exit on a single thread, instead of
+ * each session having threads blocking on reading its pty, writing its pty and waiting for its process.
+ * <p>
+ * The thread waits in epoll_wait(2) for pty master fds to become readable or writable, for pidfds of processes to become
+ * readable when they exit, and for an eventfd signaled by other threads through {@link Connection#requestUpdate()}.
+ * Since it must never block, output of a process is only read into {@link TerminalSession#mProcessToTerminalIOQueue}
+ * while there is room in it. Reading is paused when it is full, until the session has taken input from it.
+ * <p>
+ * The pty is read straight into the direct buffer of the queue, from which the session parses the bytes in place, and
+ * written straight from the direct buffer of {@link TerminalSession#mTerminalToProcessIOQueue}, so that the bytes are
+ * never copied between the pty and the emulator.
+ * <p>
+ * Before android 12 pidfds cannot be used, and processes are instead checked for having exited when their pty is hung
+ * up and every {@link #POLL_INTERVAL_MILLIS}.
+ * <p>
+ * If the session has {@link TerminalSession#setAdaptiveInputQueue(boolean)} set, the queue is grown when it fills up
+ * again soon after it last did, so that sustained output is read in larger parts and reading is paused less often, and
+ * shrunk again once idle, see {@link AdaptiveInputQueue}.
+ */
+final class PtyReactor implements Runnable {
+
+    private static final String LOG_TAG = "PtyReactor";
+
+    /**
+     * The interval at which processes without a pidfd are checked for having exited, and grown input queues for
+     * having been idle.
+     */
+    private static final int POLL_INTERVAL_MILLIS = 250;
+
+    /**
+     * The token of {@link #mWakeUpFileDescriptor} in the epoll instance. The pty of a connection has twice its
+     * {@link Connection#mId} as token and its pidfd that plus one.
+     */
+    private static final int WAKE_UP_TOKEN = -1;
+
+    private static PtyReactor sInstance;
+
+    /** Get the reactor, starting its thread on first use. */
+    static synchronized PtyReactor getInstance() {
+        if (sInstance == null) {
+            sInstance = new PtyReactor();
+            Thread thread = new Thread(sInstance, "TermSessionPtyReactor");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        return sInstance;
+    }
+
+    private final int mEpollFileDescriptor;
+    private final int mWakeUpFileDescriptor;
+
+    /** Connections for which {@link Connection#requestUpdate()} has been called since the reactor thread woke up. */
+    private final ConcurrentLinkedQueue<Connection> mUpdateRequests = new ConcurrentLinkedQueue<>();
+
+    // The fields below are only accessed from the reactor thread.
+
+    private final HashMap<Integer, Connection> mConnections = new HashMap<>();
+    /** Connections without a pidfd, whose processes are polled for having exited. */
+    private final ArrayList<Connection> mPolledConnections = new ArrayList<>();
+    /** Connections with an input queue grown beyond its initial size, which are polled for having been idle. */
+    private final ArrayList<Connection> mGrownConnections = new ArrayList<>();
+    private long mLastPollTime;
+    private int mNextId;
+
+    private PtyReactor() {
+        mEpollFileDescriptor = JNI.createEpoll();
+        mWakeUpFileDescriptor = JNI.createEventFd();
+        JNI.epollControl(mEpollFileDescriptor, JNI.EPOLL_ADD, mWakeUpFileDescriptor, WAKE_UP_TOKEN, JNI.EVENT_INPUT);
+    }
+
+    /** Create a connection for doing the I/O of the pty of a session and waiting for its process, see {@link Connection#start()}. */
+    Connection createConnection(TerminalSession session, int ptyFileDescriptor, int processId) {
+        return new Connection(session, ptyFileDescriptor, processId);
+    }
+
+    @Override
+    public void run() {
+        final int[] ready = new int[2 * 64];
+        while (true) {
+            final boolean polling = !mPolledConnections.isEmpty() || !mGrownConnections.isEmpty();
+            final int count = JNI.epollWait(mEpollFileDescriptor, ready, polling ? POLL_INTERVAL_MILLIS : -1);
+            for (int i = 0; i < count; i++) {
+                final int token = ready[2 * i];
+                final int events = ready[2 * i + 1];
+                if (token == WAKE_UP_TOKEN) {
+                    // Clear before handling the requests, so that requests made meanwhile wake up the next wait.
+                    JNI.clearEventFd(mWakeUpFileDescriptor);
+                    Connection connection;
+                    while ((connection = mUpdateRequests.poll()) != null)
+                        update(connection);
+                    continue;
+                }
+
+                final Connection connection = mConnections.get(token >> 1);
+                // The connection may have been closed due to an earlier event of this wait.
+                if (connection == null) continue;
+                if ((token & 1) == 1) {
+                    checkExited(connection);
+                } else {
+                    if ((events & JNI.EVENT_OUTPUT) != 0) writeOutput(connection);
+                    if ((events & (JNI.EVENT_INPUT | JNI.EVENT_HANGUP)) != 0) readInput(connection);
+                }
+            }
+
+            final long now = System.nanoTime();
+            if (polling && now - mLastPollTime >= POLL_INTERVAL_MILLIS * 1_000_000L) {
+                mLastPollTime = now;
+                for (Connection connection : new ArrayList<>(mPolledConnections))
+                    checkExited(connection);
+                for (Connection connection : new ArrayList<>(mGrownConnections))
+                    shrinkInputQueueIfIdle(connection, now);
+            }
+        }
+    }
+
+    /** Act on what may have changed for a connection, see {@link Connection#requestUpdate()}. */
+    private void update(Connection connection) {
+        // Clear before acting, so that changes made meanwhile result in a new request.
+        connection.mUpdateRequested.set(false);
+
+        if (connection.mClosed) {
+            close(connection);
+            return;
+        }
+        if (connection.mId < 0) register(connection);
+        if (connection.mInputPaused && connection.mInputQueue.getWritableBytes() > 0) {
+            connection.mInputPaused = false;
+            connection.mInputPausedNanos += System.nanoTime() - connection.mInputPausedTime;
+            updateEvents(connection);
+            if (connection.mExitCode != JNI.PROCESS_RUNNING) finishExit(connection);
+        }
+        writeOutput(connection);
+    }
+
+    private void register(Connection connection) {
+        connection.mId = mNextId++;
+        mConnections.put(connection.mId, connection);
+        if (JNI.epollControl(mEpollFileDescriptor, JNI.EPOLL_ADD, connection.mPtyFileDescriptor, 2 * connection.mId, JNI.EVENT_INPUT)) {
+            connection.mEvents = JNI.EVENT_INPUT;
+        } else {
+            Logger.logError(connection.mSession.mClient, LOG_TAG, "Failed to wait for the pty of pid " + connection.mProcessId);
+            connection.mHungUp = true;
+        }
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S)
+            connection.mPidFileDescriptor = JNI.openPidFd(connection.mProcessId);
+        if (connection.mPidFileDescriptor != -1 && !JNI.epollControl(mEpollFileDescriptor, JNI.EPOLL_ADD, connection.mPidFileDescriptor, 2 * connection.mId + 1, JNI.EVENT_INPUT)) {
+            JNI.close(connection.mPidFileDescriptor);
+            connection.mPidFileDescriptor = -1;
+        }
+        if (connection.mPidFileDescriptor == -1) mPolledConnections.add(connection);
+    }
+
+    /** Wait for the events of the pty of a connection which it is ready to handle. */
+    private void updateEvents(Connection connection) {
+        if (connection.mHungUp) return;
+        int events = 0;
+        if (!connection.mInputPaused) events |= JNI.EVENT_INPUT;
+        if (connection.mOutputBlocked) events |= JNI.EVENT_OUTPUT;
+        if (events == connection.mEvents) return;
+        // Not waiting for any events is done by removing the pty, since a hang-up is reported regardless.
+        final int operation = (events == 0) ? JNI.EPOLL_REMOVE : (connection.mEvents == 0) ? JNI.EPOLL_ADD : JNI.EPOLL_MODIFY;
+        connection.mEvents = events;
+        JNI.epollControl(mEpollFileDescriptor, operation, connection.mPtyFileDescriptor, 2 * connection.mId, events);
+    }
+
+    /**
+     * Read output of the process into {@link Connection#mInputQueue} if there is room in it, or in a grown one.
+     *
+     * @return the number of bytes read
+     */
+    private int readInput(Connection connection) {
+        if (connection.mHungUp || connection.mInputPaused) return 0;
+        SpscByteQueue queue = connection.mInputQueue;
+        ByteBuffer region = queue.getWritableRegion();
+        if (!region.hasRemaining() && growInputQueue(connection, System.nanoTime())) {
+            queue = connection.mInputQueue;
+            region = queue.getWritableRegion();
+        }
+        if (!region.hasRemaining()) {
+            connection.mInputPausedTime = System.nanoTime();
+            connection.mInputPaused = true;
+            // The session may have taken input before seeing that reading was paused, and would then not resume it.
+            region = queue.getWritableRegion();
+            if (!region.hasRemaining()) {
+                updateEvents(connection);
+                return 0;
+            }
+            connection.mInputPaused = false;
+        }
+
+        final int read = JNI.read(connection.mPtyFileDescriptor, region, region.position(), region.remaining());
+        if (read == -1) {
+            // All fds of the pty slave have been closed, most likely since the process has exited.
+            hangUp(connection);
+            checkExited(connection);
+            return 0;
+        }
+        if (read > 0) {
+            queue.commitWrite(read);
+            connection.mBytesRead += read;
+            connection.mLastInputTime = System.nanoTime();
+            final int queuedBytes = queue.getCapacity() - queue.getWritableBytes();
+            if (queuedBytes > connection.mInputQueueHighWaterMark) connection.mInputQueueHighWaterMark = queuedBytes;
+            if (!connection.mSession.isUsingParserThread()) connection.mSession.notifyNewInput();
+        }
+        return read;
+    }
+
+    /**
+     * Called when the input queue of a connection has become full at {@code now}, to replace it with a larger one if in
+     * adaptive mode and {@link AdaptiveInputQueue#getGrownSize(int, boolean, long, long)} says so.
+     *
+     * @return if the queue was grown
+     */
+    private boolean growInputQueue(Connection connection, long now) {
+        final boolean wasFull = connection.mInputQueueWasFull;
+        final long lastFullTime = connection.mInputQueueFullTime;
+        connection.mInputQueueWasFull = true;
+        connection.mInputQueueFullTime = now;
+        if (!connection.mSession.isAdaptiveInputQueue()) return false;
+        final int size = connection.mInputQueue.getCapacity();
+        final int grownSize = AdaptiveInputQueue.getGrownSize(size, wasFull, lastFullTime, now);
+        if (grownSize == size) return false;
+
+        replaceInputQueue(connection, grownSize);
+        if (!mGrownConnections.contains(connection)) mGrownConnections.add(connection);
+        return true;
+    }
+
+    /**
+     * Replace a grown input queue with one of the initial size if it is idle at {@code now}, see
+     * {@link AdaptiveInputQueue#isIdle(long, long)}, or right away if adaptive mode has been turned off.
+     */
+    private void shrinkInputQueueIfIdle(Connection connection, long now) {
+        // Reading is paused since the session is behind on taking input, not since the process is idle.
+        if (connection.mInputPaused) return;
+        if (connection.mSession.isAdaptiveInputQueue() && !AdaptiveInputQueue.isIdle(connection.mLastInputTime, now)) return;
+        replaceInputQueue(connection, TerminalSession.IO_QUEUE_SIZE);
+        mGrownConnections.remove(connection);
+    }
+
+    /** Continue reading into a new queue, which the session takes input from once it has taken all from the old one. */
+    private void replaceInputQueue(Connection connection, int size) {
+        final SpscByteQueue queue = new SpscByteQueue(size, true);
+        connection.mInputQueue.handOver(queue);
+        connection.mInputQueue = queue;
+    }
+
+    /** Write as much of the input to the process in {@link TerminalSession#mTerminalToProcessIOQueue} as the pty takes. */
+    private void writeOutput(Connection connection) {
+        final SpscByteQueue queue = connection.mSession.mTerminalToProcessIOQueue;
+        connection.mOutputBlocked = false;
+        ByteBuffer region;
+        while ((region = queue.getReadableRegion(false)) != null && region.hasRemaining()) {
+            int written = connection.mHungUp ? -1 : JNI.write(connection.mPtyFileDescriptor, region, region.position(), region.remaining());
+            if (written == 0) {
+                // Continue once the pty takes more.
+                connection.mOutputBlocked = true;
+                break;
+            }
+            // Nothing can read it after an error, so drop it rather than letting the queue fill up and block writers.
+            if (written == -1) {
+                written = region.remaining();
+            } else {
+                connection.mBytesWritten += written;
+            }
+            queue.commitRead(written);
+        }
+        updateEvents(connection);
+    }
+
+    /** Stop waiting for the pty, which always reports being hung up once all fds of the slave have been closed. */
+    private void hangUp(Connection connection) {
+        if (connection.mHungUp) return;
+        connection.mHungUp = true;
+        connection.mOutputBlocked = false;
+        if (connection.mEvents != 0)
+            JNI.epollControl(mEpollFileDescriptor, JNI.EPOLL_REMOVE, connection.mPtyFileDescriptor, 0, 0);
+        connection.mEvents = 0;
+    }
+
+    /** If the process has exited, send its exit code to the session after reading the output left in the pty. */
+    private void checkExited(Connection connection) {
+        if (connection.mExitCode != JNI.PROCESS_RUNNING) return;
+        final int exitCode = JNI.tryWaitFor(connection.mProcessId);
+        if (exitCode == JNI.PROCESS_RUNNING) return;
+        connection.mExitCode = exitCode;
+
+        closePidFd(connection);
+        mPolledConnections.remove(connection);
+        finishExit(connection);
+    }
+
+    /**
+     * Read the output left in the pty of an exited process, and then send its exit code to the session and finish
+     * {@link Connection#mInputQueue}. If reading gets paused since the queue is full, this is continued once it has
+     * been resumed.
+     */
+    private void finishExit(Connection connection) {
+        if (connection.mExitDelivered) return;
+        while (readInput(connection) > 0) {
+            // Continue reading until the pty is empty or the queue is full.
+        }
+        if (connection.mInputPaused) return;
+
+        connection.mExitDelivered = true;
+        connection.mSession.onProcessExited(connection.mExitCode);
+        // After the session has the exit code, so that a parser thread can send it once done with the last input.
+        connection.mInputQueue.finish();
+        mGrownConnections.remove(connection);
+    }
+
+    private void closePidFd(Connection connection) {
+        if (connection.mPidFileDescriptor == -1) return;
+        JNI.epollControl(mEpollFileDescriptor, JNI.EPOLL_REMOVE, connection.mPidFileDescriptor, 0, 0);
+        JNI.close(connection.mPidFileDescriptor);
+        connection.mPidFileDescriptor = -1;
+    }
+
+    /** Close the pty of a connection, done on the reactor thread so that it is never used after its fd is reused. */
+    private void close(Connection connection) {
+        if (connection.mId >= 0) {
+            hangUp(connection);
+            closePidFd(connection);
+            mPolledConnections.remove(connection);
+            mGrownConnections.remove(connection);
+            mConnections.remove(connection.mId);
+        }
+        JNI.close(connection.mPtyFileDescriptor);
+    }
+
+    /** The pty and process of a session, see {@link #createConnection(TerminalSession, int, int)}. */
+    final class Connection {
+
+        final TerminalSession mSession;
+        final int mPtyFileDescriptor;
+        final int mProcessId;
+
+        /** If {@link #requestUpdate()} has been called and the reactor thread has not yet acted on it. */
+        final AtomicBoolean mUpdateRequested = new AtomicBoolean();
+        /** Set by {@link #close()}. */
+        volatile boolean mClosed;
+        /** If reading from the pty is paused since {@link #mInputQueue} is full. */
+        volatile boolean mInputPaused;
+
+        // The fields below are only written from the reactor thread, and read by other threads for statistics.
+
+        /**
+         * The queue the pty is read into, initially {@link TerminalSession#mProcessToTerminalIOQueue}, which the
+         * session follows through {@link SpscByteQueue#getSuccessor()} when it is replaced.
+         */
+        volatile SpscByteQueue mInputQueue;
+        /** The number of bytes read from and written to the pty. */
+        volatile long mBytesRead, mBytesWritten;
+        /** The most bytes that have been in {@link #mInputQueue} after reading. */
+        volatile int mInputQueueHighWaterMark;
+        /** The total time reading has been paused, not including the current pause, and when that pause began. */
+        volatile long mInputPausedNanos, mInputPausedTime;
+
+        // The fields below are only accessed from the reactor thread.
+
+        /** The id of the connection, or -1 if not yet registered with the reactor thread. */
+        int mId = -1;
+        int mPidFileDescriptor = -1;
+        /** The events waited for on the pty, 0 if it is not in the epoll instance. */
+        int mEvents;
+        boolean mHungUp;
+        /** The exit code of the process once it has exited, see {@link JNI#tryWaitFor(int)}. */
+        int mExitCode = JNI.PROCESS_RUNNING;
+        /** If the exit code has been sent to the session, see {@link #finishExit(Connection)}. */
+        boolean mExitDelivered;
+        /** If the pty did not take all of {@link TerminalSession#mTerminalToProcessIOQueue} when last written to. */
+        boolean mOutputBlocked;
+        /** The {@link System#nanoTime()} when output was last read, and when {@link #mInputQueue} was last full. */
+        long mLastInputTime, mInputQueueFullTime;
+        /** If {@link #mInputQueue} has been full, and so {@link #mInputQueueFullTime} set. */
+        boolean mInputQueueWasFull;
+
+        Connection(TerminalSession session, int ptyFileDescriptor, int processId) {
+            mSession = session;
+            mPtyFileDescriptor = ptyFileDescriptor;
+            mProcessId = processId;
+            mInputQueue = session.mProcessToTerminalIOQueue;
+        }
+
+        /** Start the I/O, after which the session may be called from the reactor thread. */
+        void start() {
+            requestUpdate();
+        }
+
+        /**
+         * Have the reactor thread act on what has changed, which is writing the input to the process written to
+         * {@link TerminalSession#mTerminalToProcessIOQueue} and resuming reading if paused and input has been taken
+         * from {@link #mInputQueue}.
+         */
+        void requestUpdate() {
+            if (!mUpdateRequested.getAndSet(true)) {
+                mUpdateRequests.add(this);
+                JNI.signalEventFd(mWakeUpFileDescriptor);
+            }
+        }
+
+        /** The total time reading has been paused, including the current pause. */
+        long getInputPausedNanos() {
+            final long pausedNanos = mInputPausedNanos;
+            return mInputPaused ? pausedNanos + System.nanoTime() - mInputPausedTime : pausedNanos;
+        }
+
+        /** Notify the reactor thread that input has been taken from {@link #mInputQueue}. */
+        void onInputTaken() {
+            if (mInputPaused) requestUpdate();
+        }
+
+        /** Stop the I/O and close the pty. */
+        void close() {
+            mClosed = true;
+            requestUpdate();
+        }
+
+    }
+
+}
@@ -2,27 +2,30 @@ package com.termux.terminal;
 
 import android.annotation.SuppressLint;
 import android.os.Handler;
+import android.os.Looper;
 import android.os.Message;
+import android.os.SystemClock;
 import android.system.ErrnoException;
 import android.system.Os;
 import android.system.OsConstants;
+import android.view.Choreographer;
 
 import java.io.File;
-import java.io.FileDescriptor;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * A terminal session, consisting of a process coupled to a terminal interface.
  * <p>
  * The subprocess will be executed by the constructor, and when the size is made known by a call to
- * {@link #updateSize(int, int, int, int)} terminal emulation will begin and threads will be spawned to handle the subprocess I/O.
- * All terminal emulation and callback methods will be performed on the main thread.
+ * {@link #updateSize(int, int, int, int)} terminal emulation will begin and the subprocess I/O will be handled by the
+ * {@link PtyReactor} thread shared by all sessions.
+ * All terminal emulation and callback methods will be performed on the main thread, unless a parser thread is used for
+ * terminal emulation, see {@link #setUseParserThread(boolean)}. Callbacks are still performed on the main thread then.
  * <p>
  * The child process may be exited forcefully by using the {@link #finishIfRunning()} method.
  * <p>
@@ -32,24 +35,72 @@ public final class TerminalSession extends TerminalOutput {
 
     private static final int MSG_NEW_INPUT = 1;
     private static final int MSG_PROCESS_EXITED = 4;
+    private static final int MSG_REFLOW_TRANSCRIPT = 5;
+    private static final int MSG_SYNCHRONIZED_OUTPUT_TIMEOUT = 6;
+
+    /** Value for {@link #setScreenUpdatePacing(int)} to notify the client after every batch of processed input. */
+    public static final int SCREEN_UPDATE_PACING_DISABLED = -1;
+    /** Value for {@link #setScreenUpdatePacing(int)} to notify the client at most once per display frame. */
+    public static final int SCREEN_UPDATE_PACING_EVERY_FRAME = 0;
+
+    /**
+     * The longest time to spend processing input in one turn of the main thread, so that heavy output does not keep
+     * it from handling touch input and drawing.
+     */
+    private static final long MAX_INPUT_PROCESSING_NANOS = 8_000_000;
+
+    /**
+     * The number of transcript rows left to reflow after a resize which are reflowed in one turn of the main thread,
+     * see {@link TerminalEmulator#reflowTranscript(int)}.
+     */
+    private static final int TRANSCRIPT_REFLOW_ROWS = 250;
+
+    /**
+     * The longest time screen updates are deferred while the program has synchronized output set, see
+     * {@link TerminalEmulator#isSynchronizedOutput()}, after which the screen is shown as is in case the program never
+     * resets it, e.g. since it was killed in the middle of drawing.
+     */
+    private static final long SYNCHRONIZED_OUTPUT_TIMEOUT_MILLIS = 150;
+
+    /**
+     * The size of {@link #mTerminalToProcessIOQueue}, and of {@link #mProcessToTerminalIOQueue} unless grown in adaptive
+     * mode, see {@link #setAdaptiveInputQueue(boolean)}.
+     */
+    static final int IO_QUEUE_SIZE = 4096;
 
     public final String mHandle = UUID.randomUUID().toString();
 
     TerminalEmulator mEmulator;
 
     /**
-     * A queue written to from a separate thread when the process outputs, and read by main thread to process by
-     * terminal emulator.
+     * A queue written to from the {@link PtyReactor} thread when the process outputs, and read by main thread to
+     * process by terminal emulator. Replaced by the thread processing the input with the queue it has been handed over
+     * to when the reactor resizes it, see {@link #getInputToProcess(boolean)}.
+     */
+    SpscByteQueue mProcessToTerminalIOQueue = new SpscByteQueue(IO_QUEUE_SIZE, true);
+    /**
+     * A queue written to from the main thread due to user interaction, and read by the {@link PtyReactor} thread which
+     * forwards by writing to the {@link #mTerminalFileDescriptor}.
      */
-    final ByteQueue mProcessToTerminalIOQueue = new ByteQueue(4096);
+    final SpscByteQueue mTerminalToProcessIOQueue = new SpscByteQueue(IO_QUEUE_SIZE, true);
     /**
-     * A queue written to from the main thread due to user interaction, and read by another thread which forwards by
-     * writing to the {@link #mTerminalFileDescriptor}.
+     * If a {@link #MSG_NEW_INPUT} message has been sent and not yet handled, in which case the reactor or parser thread
+     * does not send another one, so that at most one is in the message queue at a time.
      */
-    final ByteQueue mTerminalToProcessIOQueue = new ByteQueue(4096);
+    final AtomicBoolean mNewInputMessagePending = new AtomicBoolean();
     /** Buffer to write translate code points into utf8 before writing to mTerminalToProcessIOQueue */
     private final byte[] mUtf8InputBuffer = new byte[5];
 
+    /** The thread processing the input, see {@link #setUseParserThread(boolean)}, once started. */
+    private Thread mParserThread;
+    /**
+     * The terminal responses written by the emulator on {@link #mParserThread} while it holds the emulator monitor, which
+     * are written to the process once it has been released, see {@link #write(byte[], int, int)}. Only accessed from the
+     * parser thread.
+     */
+    private byte[] mParserResponses = new byte[64];
+    private int mParserResponsesLength;
+
     /** Callback which gets notified when a session finishes or changes title. */
     TerminalSessionClient mClient;
 
@@ -65,20 +116,72 @@ public final class TerminalSession extends TerminalOutput {
      */
     private int mTerminalFileDescriptor;
 
+    /** The connection doing the I/O of {@link #mTerminalFileDescriptor} and waiting for the process to exit. */
+    private PtyReactor.Connection mPtyConnection;
+
+    /** The {@link #MSG_PROCESS_EXITED} message sent by the parser thread once it has processed the last input. */
+    private volatile Message mProcessExitedMessage;
+
     /** Set by the application for user identification of session, not by terminal. */
     public String mSessionName;
 
     final Handler mMainThreadHandler = new MainThreadHandler();
 
+    /** See {@link #setUseParserThread(boolean)}. */
+    private boolean mUseParserThread;
+
+    /** See {@link #setAdaptiveInputQueue(boolean)}. */
+    private volatile boolean mAdaptiveInputQueue;
+
+    /** The time spent by the emulator processing input, only written by the thread processing it. */
+    private volatile long mInputProcessingNanos;
+    /** The statistics returned by the previous call of {@link #getIoStatistics()}. Only accessed from the main thread. */
+    private IoStatistics mPreviousIoStatistics;
+
+    /** See {@link #setTranscriptStore(File, int)}. */
+    private File mTranscriptStoreDirectory;
+    private int mTranscriptStoreRows;
+    private TranscriptStore mTranscriptStore;
+
+    /** See {@link #setScreenUpdatePacing(int)}. Only accessed from the main thread. */
+    private int mScreenUpdatePacing = SCREEN_UPDATE_PACING_EVERY_FRAME;
+    /** If {@link #mScreenUpdateFrameCallback} has been posted and not yet run. */
+    private boolean mScreenUpdatePending;
+    /** The {@link SystemClock#uptimeMillis()} of the last paced screen update. */
+    private long mLastScreenUpdateTime;
+    /**
+     * If {@link #SYNCHRONIZED_OUTPUT_TIMEOUT_MILLIS} has passed since screen updates started being deferred for
+     * synchronized output, in which case they are no longer deferred until it is reset. Only accessed from the main
+     * thread.
+     */
+    private boolean mSynchronizedOutputTimedOut;
+    private final Choreographer.FrameCallback mScreenUpdateFrameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mScreenUpdatePending = false;
+            // The program may have started a synchronized update since the screen update was scheduled.
+            if (deferScreenUpdateForSynchronizedOutput()) return;
+            mLastScreenUpdateTime = SystemClock.uptimeMillis();
+            notifyScreenUpdate();
+        }
+    };
+
     private final String mShellPath;
     private final String mCwd;
     private final String[] mArgs;
     private final String[] mEnv;
     private final Integer mTranscriptRows;
+    /** The {@link System#nanoTime()} when the session was created. */
+    private final long mCreationTime = System.nanoTime();
 
 
     private static final String LOG_TAG = "TerminalSession";
 
+    static {
+        // Emulators without a client log to the android log instead of standard error.
+        Logger.setDefaultLogger(new AndroidLogger());
+    }
+
     public TerminalSession(String shellPath, String cwd, String[] args, String[] env, Integer transcriptRows, TerminalSessionClient client) {
         this.mShellPath = shellPath;
         this.mCwd = cwd;
@@ -99,13 +202,109 @@ public final class TerminalSession extends TerminalOutput {
             mEmulator.updateTerminalSessionClient(client);
     }
 
+    /**
+     * Set if output from the process should be processed by the terminal emulator on a separate parser thread instead
+     * of on the main thread, so that heavy output cannot keep the main thread busy for more than the short time needed
+     * to take a {@link TerminalScreenSnapshot}. Must be called before the emulator is initialized by the first call to
+     * {@link #updateSize(int, int, int, int)}.
+     * <p>
+     * When enabled, the emulator is modified on the parser thread while holding its monitor, so code on other threads
+     * must synchronize on {@link #getEmulator()} while accessing it, and render from a {@link TerminalScreenSnapshot}.
+     */
+    public void setUseParserThread(boolean useParserThread) {
+        if (mEmulator != null)
+            throw new IllegalStateException("The parser thread must be configured before the emulator is initialized");
+        mUseParserThread = useParserThread;
+    }
+
+    /** If a parser thread is used, see {@link #setUseParserThread(boolean)}. */
+    public boolean isUsingParserThread() {
+        return mUseParserThread;
+    }
+
+    /**
+     * Set if the queue of output from the process should be grown while the process outputs more than is processed,
+     * and shrunk again once it is idle, see {@link PtyReactor}. The queue otherwise stays at {@link #IO_QUEUE_SIZE}.
+     * May be called at any time.
+     */
+    public void setAdaptiveInputQueue(boolean adaptive) {
+        mAdaptiveInputQueue = adaptive;
+    }
+
+    /** If the queue of output from the process is adaptive, see {@link #setAdaptiveInputQueue(boolean)}. */
+    public boolean isAdaptiveInputQueue() {
+        return mAdaptiveInputQueue;
+    }
+
+    /**
+     * Get the I/O statistics of the session, with rates averaged over the time since the previous call of this method
+     * or since the session was created. Must be called from the main thread.
+     */
+    public IoStatistics getIoStatistics() {
+        final IoStatistics statistics = new IoStatistics();
+        statistics.mTime = System.nanoTime();
+        final PtyReactor.Connection connection = mPtyConnection;
+        if (connection == null) {
+            statistics.mInputQueueSize = IO_QUEUE_SIZE;
+        } else {
+            statistics.mBytesFromProcess = connection.mBytesRead;
+            statistics.mBytesToProcess = connection.mBytesWritten;
+            statistics.mInputQueueSize = connection.mInputQueue.getCapacity();
+            statistics.mInputQueueHighWaterMark = connection.mInputQueueHighWaterMark;
+            statistics.mInputPausedNanos = connection.getInputPausedNanos();
+        }
+        statistics.mInputProcessingNanos = mInputProcessingNanos;
+
+        final IoStatistics previous = mPreviousIoStatistics;
+        final long elapsedNanos = statistics.mTime - ((previous == null) ? mCreationTime : previous.mTime);
+        if (elapsedNanos > 0) {
+            statistics.mBytesFromProcessPerSecond = (long) ((statistics.mBytesFromProcess - ((previous == null) ? 0 : previous.mBytesFromProcess)) * 1e9 / elapsedNanos);
+            statistics.mBytesToProcessPerSecond = (long) ((statistics.mBytesToProcess - ((previous == null) ? 0 : previous.mBytesToProcess)) * 1e9 / elapsedNanos);
+        }
+        mPreviousIoStatistics = statistics;
+        return statistics;
+    }
+
+    /**
+     * Set a directory in which to store the transcript rows that no longer fit in the transcript rows kept in memory,
+     * so that a longer scroll history can be kept. The rows are kept in memory-mapped files in a subdirectory named
+     * after {@link #mHandle}, which is deleted by {@link #closeTranscriptStore()}. Must be called before the emulator
+     * is initialized by the first call to {@link #updateSize(int, int, int, int)}.
+     *
+     * @param directory the directory, or null to keep only the transcript rows in memory.
+     * @param maxRows   the max number of rows stored, of which half are dropped at a time once reached.
+     */
+    public void setTranscriptStore(File directory, int maxRows) {
+        if (mEmulator != null)
+            throw new IllegalStateException("The transcript store must be configured before the emulator is initialized");
+        mTranscriptStoreDirectory = directory;
+        mTranscriptStoreRows = maxRows;
+    }
+
+    /** Stop storing transcript rows set by {@link #setTranscriptStore(File, int)} and delete the stored rows. */
+    public void closeTranscriptStore() {
+        if (mTranscriptStore == null) return;
+        synchronized (mEmulator) {
+            mEmulator.setTranscriptStore(null);
+            mTranscriptStore.close();
+        }
+        mTranscriptStore = null;
+    }
+
     /** Inform the attached pty of the new size and reflow or initialize the emulator. */
     public void updateSize(int columns, int rows, int cellWidthPixels, int cellHeightPixels) {
         if (mEmulator == null) {
             initializeEmulator(columns, rows, cellWidthPixels, cellHeightPixels);
         } else {
             JNI.setPtyWindowSize(mTerminalFileDescriptor, rows, columns, cellWidthPixels, cellHeightPixels);
-            mEmulator.resize(columns, rows, cellWidthPixels, cellHeightPixels);
+            final boolean reflowingTranscript;
+            synchronized (mEmulator) {
+                mEmulator.resize(columns, rows, cellWidthPixels, cellHeightPixels);
+                reflowingTranscript = mEmulator.reflowTranscript(0);
+            }
+            // Reflow the rest of the transcript in steps, letting input and drawing be handled in between.
+            if (reflowingTranscript && !mMainThreadHandler.hasMessages(MSG_REFLOW_TRANSCRIPT))
+                mMainThreadHandler.sendEmptyMessage(MSG_REFLOW_TRANSCRIPT);
         }
     }
 
@@ -122,61 +321,107 @@ public final class TerminalSession extends TerminalOutput {
      */
     public void initializeEmulator(int columns, int rows, int cellWidthPixels, int cellHeightPixels) {
         mEmulator = new TerminalEmulator(this, columns, rows, cellWidthPixels, cellHeightPixels, mTranscriptRows, mClient);
+        if (mTranscriptStoreDirectory != null && mTranscriptStoreRows >= 2) {
+            try {
+                mTranscriptStore = new TranscriptStore(new File(mTranscriptStoreDirectory, mHandle), mTranscriptStoreRows);
+                mEmulator.setTranscriptStore(mTranscriptStore);
+            } catch (IOException e) {
+                Logger.logStackTraceWithMessage(mClient, LOG_TAG, "Failed to create transcript store", e);
+            }
+        }
 
         int[] processId = new int[1];
         mTerminalFileDescriptor = JNI.createSubprocess(mShellPath, mCwd, mArgs, mEnv, processId, rows, columns, cellWidthPixels, cellHeightPixels);
         mShellPid = processId[0];
         mClient.setTerminalShellPid(this, mShellPid);
 
-        final FileDescriptor terminalFileDescriptorWrapped = wrapFileDescriptor(mTerminalFileDescriptor, mClient);
-
-        new Thread("TermSessionInputReader[pid=" + mShellPid + "]") {
-            @Override
-            public void run() {
-                try (InputStream termIn = new FileInputStream(terminalFileDescriptorWrapped)) {
-                    final byte[] buffer = new byte[4096];
-                    while (true) {
-                        int read = termIn.read(buffer);
-                        if (read == -1) return;
-                        if (!mProcessToTerminalIOQueue.write(buffer, 0, read)) return;
-                        mMainThreadHandler.sendEmptyMessage(MSG_NEW_INPUT);
-                    }
-                } catch (Exception e) {
-                    // Ignore, just shutting down.
-                }
-            }
-        }.start();
-
-        new Thread("TermSessionOutputWriter[pid=" + mShellPid + "]") {
-            @Override
-            public void run() {
-                final byte[] buffer = new byte[4096];
-                try (FileOutputStream termOut = new FileOutputStream(terminalFileDescriptorWrapped)) {
-                    while (true) {
-                        int bytesToWrite = mTerminalToProcessIOQueue.read(buffer, true);
-                        if (bytesToWrite == -1) return;
-                        termOut.write(buffer, 0, bytesToWrite);
+        mPtyConnection = PtyReactor.getInstance().createConnection(this, mTerminalFileDescriptor, mShellPid);
+        mPtyConnection.start();
+
+        if (mUseParserThread) {
+            final TerminalEmulator emulator = mEmulator;
+            mParserThread = new Thread("TermSessionParser[pid=" + mShellPid + "]") {
+                @Override
+                public void run() {
+                    ByteBuffer input;
+                    while ((input = getInputToProcess(true)) != null) {
+                        final int length = input.remaining();
+                        synchronized (emulator) {
+                            final long startTime = System.nanoTime();
+                            emulator.append(input);
+                            mInputProcessingNanos += System.nanoTime() - startTime;
+                        }
+                        if (mParserResponsesLength > 0) {
+                            writeToProcess(mParserResponses, 0, mParserResponsesLength);
+                            mParserResponsesLength = 0;
+                        }
+                        mProcessToTerminalIOQueue.commitRead(length);
+                        mPtyConnection.onInputTaken();
+                        notifyNewInput();
                     }
-                } catch (IOException e) {
-                    // Ignore.
+                    // The queue has been finished after the process exited, see onProcessExited().
+                    final Message processExitedMessage = mProcessExitedMessage;
+                    if (processExitedMessage != null) mMainThreadHandler.sendMessage(processExitedMessage);
                 }
-            }
-        }.start();
-
-        new Thread("TermSessionWaiter[pid=" + mShellPid + "]") {
-            @Override
-            public void run() {
-                int processExitCode = JNI.waitFor(mShellPid);
-                mMainThreadHandler.sendMessage(mMainThreadHandler.obtainMessage(MSG_PROCESS_EXITED, processExitCode));
-            }
-        }.start();
+            };
+            mParserThread.start();
+        }
+    }
 
+    /**
+     * Get the input in {@link #mProcessToTerminalIOQueue} to process in place, moving on to the queue it has been handed
+     * over to once it is empty. Must only be called from the thread processing the input.
+     *
+     * @param block if the call should block while there is no input
+     * @return the input, which has no bytes remaining if there is none and block is false, or null if the queue is
+     * closed or finished after the process exited
+     */
+    private ByteBuffer getInputToProcess(boolean block) {
+        ByteBuffer input;
+        while ((input = mProcessToTerminalIOQueue.getReadableRegion(block)) != null && !input.hasRemaining()) {
+            final SpscByteQueue successor = mProcessToTerminalIOQueue.getSuccessor();
+            if (successor == null) break;
+            mProcessToTerminalIOQueue = successor;
+        }
+        return input;
     }
 
-    /** Write data to the shell process. */
+    /**
+     * Write data to the shell process. Writes are serialized, since both the main thread and the parser thread (for
+     * terminal responses) may write while {@link #mTerminalToProcessIOQueue} allows a single producer at a time.
+     * <p>
+     * The {@link PtyReactor} thread is asked to send each part which fits in the queue before the next is written, as
+     * writing blocks while the queue is full until it has taken what was asked to be sent.
+     * <p>
+     * The terminal responses written by the emulator on the parser thread are instead collected and written once it
+     * has released the emulator monitor, so that a process not reading its input does not block the main thread from
+     * taking the monitor, e.g. to draw, while the parser thread is blocked writing.
+     */
     @Override
     public void write(byte[] data, int offset, int count) {
-        if (mShellPid > 0) mTerminalToProcessIOQueue.write(data, offset, count);
+        if (Thread.currentThread() == mParserThread) {
+            if (mParserResponsesLength + count > mParserResponses.length)
+                mParserResponses = Arrays.copyOf(mParserResponses, Math.max(2 * mParserResponses.length, mParserResponsesLength + count));
+            System.arraycopy(data, offset, mParserResponses, mParserResponsesLength, count);
+            mParserResponsesLength += count;
+        } else {
+            writeToProcess(data, offset, count);
+        }
+    }
+
+    /** Write data to the shell process, blocking while {@link #mTerminalToProcessIOQueue} is full. */
+    private void writeToProcess(byte[] data, int offset, int count) {
+        if (mShellPid > 0) {
+            synchronized (mTerminalToProcessIOQueue) {
+                while (count > 0) {
+                    final int partLength = Math.min(count, IO_QUEUE_SIZE);
+                    if (!mTerminalToProcessIOQueue.write(data, offset, partLength)) return;
+                    mPtyConnection.requestUpdate();
+                    offset += partLength;
+                    count -= partLength;
+                }
+            }
+        }
     }
 
     /** Write the Unicode code point to the terminal encoded in UTF-8. */
@@ -216,18 +461,121 @@ public final class TerminalSession extends TerminalOutput {
         write(mUtf8InputBuffer, 0, bufferPosition);
     }
 
+    /**
+     * The terminal emulator, or null before {@link #updateSize(int, int, int, int)} has been called. If a parser thread
+     * is used, access from other threads must synchronize on the returned emulator.
+     */
     public TerminalEmulator getEmulator() {
         return mEmulator;
     }
 
+    /** Have the main thread handle new input, at most one {@link #MSG_NEW_INPUT} being sent until it has been handled. */
+    void notifyNewInput() {
+        if (!mNewInputMessagePending.getAndSet(true))
+            mMainThreadHandler.sendEmptyMessage(MSG_NEW_INPUT);
+    }
+
+    /**
+     * Have the main thread handle the exit of the process, called from the {@link PtyReactor} thread after its last
+     * output has been written to {@link #mProcessToTerminalIOQueue}. When a parser thread is used, it sends the message
+     * once it has processed that output.
+     */
+    void onProcessExited(int exitCode) {
+        final Message message = mMainThreadHandler.obtainMessage(MSG_PROCESS_EXITED, exitCode);
+        if (mUseParserThread) {
+            mProcessExitedMessage = message;
+        } else {
+            mMainThreadHandler.sendMessage(message);
+        }
+    }
+
     /** Notify the {@link #mClient} that the screen has changed. */
     protected void notifyScreenUpdate() {
         mClient.onTextChanged(this);
     }
 
+    /**
+     * Set how notifications of screen changes caused by process output are paced. Must be called from the main thread.
+     *
+     * @param maxUpdatesPerSecond {@link #SCREEN_UPDATE_PACING_DISABLED} to notify after every batch of processed
+     *                            input, {@link #SCREEN_UPDATE_PACING_EVERY_FRAME} to notify at most once per display
+     *                            frame, or a positive number to additionally cap the notifications per second.
+     */
+    public void setScreenUpdatePacing(int maxUpdatesPerSecond) {
+        if (maxUpdatesPerSecond < SCREEN_UPDATE_PACING_DISABLED)
+            throw new IllegalArgumentException("Invalid screen update pacing: " + maxUpdatesPerSecond);
+        mScreenUpdatePacing = maxUpdatesPerSecond;
+        if (maxUpdatesPerSecond == SCREEN_UPDATE_PACING_DISABLED) flushScreenUpdate();
+    }
+
+    /** Get the value set by {@link #setScreenUpdatePacing(int)}. */
+    public int getScreenUpdatePacing() {
+        return mScreenUpdatePacing;
+    }
+
+    /**
+     * Notify the {@link #mClient} that the screen has changed due to process output, either directly or in the next
+     * display frame depending on {@link #mScreenUpdatePacing}. Multiple calls before that frame result in a single
+     * notification. No notification is sent while the program is drawing with synchronized output, the one sent once
+     * it is done shows the completed frame.
+     */
+    void scheduleScreenUpdate() {
+        if (deferScreenUpdateForSynchronizedOutput()) return;
+        if (mScreenUpdatePacing == SCREEN_UPDATE_PACING_DISABLED) {
+            notifyScreenUpdate();
+            return;
+        }
+        if (mScreenUpdatePending) return;
+
+        long delayMillis = 0;
+        if (mScreenUpdatePacing > 0)
+            delayMillis = Math.max(0, mLastScreenUpdateTime + 1000 / mScreenUpdatePacing - SystemClock.uptimeMillis());
+        mScreenUpdatePending = true;
+        Choreographer.getInstance().postFrameCallbackDelayed(mScreenUpdateFrameCallback, delayMillis);
+    }
+
+    /**
+     * Check if a screen update should be left out since the program has set synchronized output, see
+     * {@link TerminalEmulator#isSynchronizedOutput()}. The processing of the input resetting it schedules a new
+     * update, or else {@link #MSG_SYNCHRONIZED_OUTPUT_TIMEOUT} does after {@link #SYNCHRONIZED_OUTPUT_TIMEOUT_MILLIS}.
+     */
+    private boolean deferScreenUpdateForSynchronizedOutput() {
+        final boolean synchronizedOutput;
+        synchronized (mEmulator) {
+            synchronizedOutput = mEmulator.isSynchronizedOutput();
+        }
+        if (!synchronizedOutput) {
+            mSynchronizedOutputTimedOut = false;
+            mMainThreadHandler.removeMessages(MSG_SYNCHRONIZED_OUTPUT_TIMEOUT);
+            return false;
+        }
+        if (mSynchronizedOutputTimedOut) return false;
+        if (!mMainThreadHandler.hasMessages(MSG_SYNCHRONIZED_OUTPUT_TIMEOUT))
+            mMainThreadHandler.sendEmptyMessageDelayed(MSG_SYNCHRONIZED_OUTPUT_TIMEOUT, SYNCHRONIZED_OUTPUT_TIMEOUT_MILLIS);
+        return true;
+    }
+
+    /**
+     * If the program has taken longer than {@link #SYNCHRONIZED_OUTPUT_TIMEOUT_MILLIS} to finish drawing with
+     * synchronized output, in which case the screen is to be shown as is rather than as it was before. Must only be
+     * called from the main thread.
+     */
+    public boolean isSynchronizedOutputTimedOut() {
+        return mSynchronizedOutputTimedOut;
+    }
+
+    /** Deliver a screen update scheduled by {@link #scheduleScreenUpdate()} right away. */
+    void flushScreenUpdate() {
+        if (!mScreenUpdatePending) return;
+        Choreographer.getInstance().removeFrameCallback(mScreenUpdateFrameCallback);
+        mScreenUpdateFrameCallback.doFrame(System.nanoTime());
+    }
+
     /** Reset state for terminal emulator state. */
     public void reset() {
-        mEmulator.reset();
+        synchronized (mEmulator) {
+            mEmulator.reset();
+        }
         notifyScreenUpdate();
     }
 
@@ -249,15 +597,29 @@ public final class TerminalSession extends TerminalOutput {
             mShellExitStatus = exitStatus;
         }
 
-        // Stop the reader and writer threads, and close the I/O streams
+        // Stop the parser thread and the I/O, and close the pty.
         mTerminalToProcessIOQueue.close();
         mProcessToTerminalIOQueue.close();
-        JNI.close(mTerminalFileDescriptor);
+        mPtyConnection.close();
+    }
+
+    /** Run on the main thread, directly if already on it, since emulator callbacks may come from the parser thread. */
+    private void runOnMainThread(Runnable runnable) {
+        if (Looper.myLooper() == mMainThreadHandler.getLooper()) {
+            runnable.run();
+        } else {
+            mMainThreadHandler.post(runnable);
+        }
     }
 
     @Override
     public void titleChanged(String oldTitle, String newTitle) {
-        mClient.onTitleChanged(this);
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                mClient.onTitleChanged(TerminalSession.this);
+            }
+        });
     }
 
     public synchronized boolean isRunning() {
@@ -270,23 +632,53 @@ public final class TerminalSession extends TerminalOutput {
     }
 
     @Override
-    public void onCopyTextToClipboard(String text) {
-        mClient.onCopyTextToClipboard(this, text);
+    public void onCopyTextToClipboard(final String text) {
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                mClient.onCopyTextToClipboard(TerminalSession.this, text);
+            }
+        });
     }
 
     @Override
     public void onPasteTextFromClipboard() {
-        mClient.onPasteTextFromClipboard(this);
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                mClient.onPasteTextFromClipboard(TerminalSession.this);
+            }
+        });
     }
 
     @Override
     public void onBell() {
-        mClient.onBell(this);
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                mClient.onBell(TerminalSession.this);
+            }
+        });
     }
 
     @Override
     public void onColorsChanged() {
-        mClient.onColorsChanged(this);
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                mClient.onColorsChanged(TerminalSession.this);
+            }
+        });
+    }
+
+    @Override
+    public void onTerminalCursorStateChange(final boolean enabled) {
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                mClient.onTerminalCursorStateChange(enabled);
+            }
+        });
     }
 
     public int getPid() {
@@ -314,39 +706,103 @@ public final class TerminalSession extends TerminalOutput {
         return null;
     }
 
-    private static FileDescriptor wrapFileDescriptor(int fileDescriptor, TerminalSessionClient client) {
-        FileDescriptor result = new FileDescriptor();
-        try {
-            Field descriptorField;
-            try {
-                descriptorField = FileDescriptor.class.getDeclaredField("descriptor");
-            } catch (NoSuchFieldException e) {
-                // For desktop java:
-                descriptorField = FileDescriptor.class.getDeclaredField("fd");
-            }
-            descriptorField.setAccessible(true);
-            descriptorField.set(result, fileDescriptor);
-        } catch (NoSuchFieldException | IllegalAccessException | IllegalArgumentException e) {
-            Logger.logStackTraceWithMessage(client, LOG_TAG, "Error accessing FileDescriptor#descriptor private field", e);
-            System.exit(1);
+    /** I/O statistics of a session, see {@link #getIoStatistics()}. */
+    public static final class IoStatistics {
+
+        long mTime;
+        long mBytesFromProcess, mBytesToProcess;
+        long mBytesFromProcessPerSecond, mBytesToProcessPerSecond;
+        int mInputQueueSize, mInputQueueHighWaterMark;
+        long mInputPausedNanos, mInputProcessingNanos;
+
+        IoStatistics() {
+        }
+
+        /** The {@link System#nanoTime()} when the statistics were taken. */
+        public long getTime() {
+            return mTime;
+        }
+
+        /** The number of bytes output by the process and read from the pty. */
+        public long getBytesFromProcess() {
+            return mBytesFromProcess;
+        }
+
+        /** The number of bytes written to the pty as input to the process. */
+        public long getBytesToProcess() {
+            return mBytesToProcess;
+        }
+
+        /** The average rate of {@link #getBytesFromProcess()} since the previous statistics. */
+        public long getBytesFromProcessPerSecond() {
+            return mBytesFromProcessPerSecond;
         }
-        return result;
+
+        /** The average rate of {@link #getBytesToProcess()} since the previous statistics. */
+        public long getBytesToProcessPerSecond() {
+            return mBytesToProcessPerSecond;
+        }
+
+        /** The current size of the queue of output from the process, see {@link #setAdaptiveInputQueue(boolean)}. */
+        public int getInputQueueSize() {
+            return mInputQueueSize;
+        }
+
+        /** The most bytes that have been waiting in the queue of output from the process to be processed. */
+        public int getInputQueueHighWaterMark() {
+            return mInputQueueHighWaterMark;
+        }
+
+        /** The total time reading output from the process has been paused since the queue was full. */
+        public long getInputPausedNanos() {
+            return mInputPausedNanos;
+        }
+
+        /** The total time the emulator has spent processing output from the process. */
+        public long getInputProcessingNanos() {
+            return mInputProcessingNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "IoStatistics[in=" + mBytesFromProcess + " (" + mBytesFromProcessPerSecond + "/s), out=" + mBytesToProcess
+                + " (" + mBytesToProcessPerSecond + "/s), queue=" + mInputQueueHighWaterMark + "/" + mInputQueueSize
+                + ", paused=" + mInputPausedNanos / 1_000_000 + "ms, processing=" + mInputProcessingNanos / 1_000_000 + "ms]";
+        }
+
     }
 
     @SuppressLint("HandlerLeak")
     class MainThreadHandler extends Handler {
 
-        final byte[] mReceiveBuffer = new byte[4 * 1024];
-
         @Override
         public void handleMessage(Message msg) {
-            int bytesRead = mProcessToTerminalIOQueue.read(mReceiveBuffer, false);
-            if (bytesRead > 0) {
-                mEmulator.append(mReceiveBuffer, bytesRead);
-                notifyScreenUpdate();
-            }
+            if (msg.what == MSG_NEW_INPUT) {
+                // Clear before reading, so that input arriving after the last read results in a new message.
+                mNewInputMessagePending.set(false);
+                if (mUseParserThread) {
+                    // The input has already been processed by the parser thread.
+                    scheduleScreenUpdate();
+                } else if (processInput(MAX_INPUT_PROCESSING_NANOS)) {
+                    scheduleScreenUpdate();
+                }
+            } else if (msg.what == MSG_REFLOW_TRANSCRIPT) {
+                final boolean reflowingTranscript;
+                synchronized (mEmulator) {
+                    reflowingTranscript = mEmulator.reflowTranscript(TRANSCRIPT_REFLOW_ROWS);
+                }
+                if (reflowingTranscript) sendEmptyMessage(MSG_REFLOW_TRANSCRIPT);
+            } else if (msg.what == MSG_SYNCHRONIZED_OUTPUT_TIMEOUT) {
+                // Show what the program has drawn so far, and the following output without waiting for it to finish.
+                mSynchronizedOutputTimedOut = true;
+                scheduleScreenUpdate();
+            } else if (msg.what == MSG_PROCESS_EXITED) {
+                // Process everything remaining, as the queue is closed below.
+                if (!mUseParserThread) processInput(Long.MAX_VALUE);
+                flushScreenUpdate();
+
+                removeMessages(MSG_SYNCHRONIZED_OUTPUT_TIMEOUT);
 
-            if (msg.what == MSG_PROCESS_EXITED) {
                 int exitCode = (Integer) msg.obj;
                 cleanupResources(exitCode);
 
@@ -361,13 +817,44 @@ public final class TerminalSession extends TerminalOutput {
                 exitDescription += " - press Enter]";
 
                 byte[] bytesToWrite = exitDescription.getBytes(StandardCharsets.UTF_8);
-                mEmulator.append(bytesToWrite, bytesToWrite.length);
+                synchronized (mEmulator) {
+                    mEmulator.append(bytesToWrite, bytesToWrite.length);
+                }
                 notifyScreenUpdate();
 
                 mClient.onSessionFinished(TerminalSession.this);
             }
         }
 
+        /**
+         * Process the input available in {@link #mProcessToTerminalIOQueue}, including input arriving while doing so,
+         * until it is empty or the time limit is reached. In the latter case a new {@link #MSG_NEW_INPUT} is sent, so
+         * that other messages get handled before processing continues.
+         *
+         * @return if any input was processed
+         */
+        private boolean processInput(long maxNanos) {
+            final long startTime = System.nanoTime();
+            boolean processedInput = false;
+            ByteBuffer input;
+            while ((input = getInputToProcess(false)) != null && input.hasRemaining()) {
+                // Parse the bytes in place, taking them from the queue afterwards.
+                final int length = input.remaining();
+                final long appendStartTime = System.nanoTime();
+                mEmulator.append(input);
+                final long now = System.nanoTime();
+                mInputProcessingNanos += now - appendStartTime;
+                mProcessToTerminalIOQueue.commitRead(length);
+                mPtyConnection.onInputTaken();
+                processedInput = true;
+                if (now - startTime >= maxNanos) {
+                    notifyNewInput();
+                    break;
+                }
+            }
+            return processedInput;
+        }
+
     }
 
 }
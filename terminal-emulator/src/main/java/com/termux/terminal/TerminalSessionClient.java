@@ -7,8 +7,11 @@ import androidx.annotation.Nullable;
  * The interface for communication between {@link TerminalSession} and its client. It is used to
  * send callbacks to the client when {@link TerminalSession} changes or for sending other
  * back data to the client like logs.
+ * <p>
+ * The settings and log methods used by the {@link TerminalEmulator} of the session are inherited from
+ * {@link TerminalEmulatorClient}.
  */
-public interface TerminalSessionClient {
+public interface TerminalSessionClient extends TerminalEmulatorClient {
 
     void onTextChanged(@NonNull TerminalSession changedSession);
 
@@ -28,24 +31,4 @@ public interface TerminalSessionClient {
 
     void setTerminalShellPid(@NonNull TerminalSession session, int pid);
 
-
-
-    Integer getTerminalCursorStyle();
-
-
-
-    void logError(String tag, String message);
-
-    void logWarn(String tag, String message);
-
-    void logInfo(String tag, String message);
-
-    void logDebug(String tag, String message);
-
-    void logVerbose(String tag, String message);
-
-    void logStackTraceWithMessage(String tag, String message, Exception e);
-
-    void logStackTrace(String tag, Exception e);
-
 }
@@ -1,11 +1,16 @@
 #include <dirent.h>
+#include <errno.h>
 #include <fcntl.h>
 #include <jni.h>
 #include <signal.h>
+#include <stdint.h>
 #include <stdio.h>
 #include <stdlib.h>
 #include <string.h>
+#include <sys/epoll.h>
+#include <sys/eventfd.h>
 #include <sys/ioctl.h>
+#include <sys/syscall.h>
 #include <sys/wait.h>
 #include <termios.h>
 #include <unistd.h>
@@ -14,6 +19,17 @@
 #ifdef __APPLE__
 # define LACKS_PTSNAME_R
 #endif
+#ifndef __NR_pidfd_open
+// Same number on all architectures, missing from the headers of older NDKs.
+# define __NR_pidfd_open 434
+#endif
+
+// Must match the constants in JNI.java.
+#define EVENT_INPUT 1
+#define EVENT_OUTPUT 2
+#define EVENT_HANGUP 4
+#define PROCESS_RUNNING INT32_MIN
+#define MAX_EVENTS 64
 
 static int throw_runtime_exception(JNIEnv* env, char const* message)
 {
@@ -67,6 +83,8 @@ static int create_subprocess(JNIEnv* env,
         return throw_runtime_exception(env, "Fork failed");
     } else if (pid > 0) {
         *pProcessId = (int) pid;
+        // The pty is read and written by the reactor thread, which must never block on it.
+        fcntl(ptm, F_SETFL, fcntl(ptm, F_GETFL) | O_NONBLOCK);
         return ptm;
     } else {
         // Clear signals which the Android java process may have blocked:
@@ -198,10 +216,8 @@ JNIEXPORT void JNICALL Java_com_termux_terminal_JNI_setPtyUTF8Mode(JNIEnv* TERMU
     }
 }
 
-JNIEXPORT jint JNICALL Java_com_termux_terminal_JNI_waitFor(JNIEnv* TERMUX_UNUSED(env), jclass TERMUX_UNUSED(clazz), jint pid)
+static jint exit_code(int status)
 {
-    int status;
-    waitpid(pid, &status, 0);
     if (WIFEXITED(status)) {
         return WEXITSTATUS(status);
     } else if (WIFSIGNALED(status)) {
@@ -212,6 +228,98 @@ JNIEXPORT jint JNICALL Java_com_termux_terminal_JNI_waitFor(JNIEnv* TERMUX_UNUSE
     }
 }
 
+JNIEXPORT jint JNICALL Java_com_termux_terminal_JNI_tryWaitFor(JNIEnv* TERMUX_UNUSED(env), jclass TERMUX_UNUSED(clazz), jint pid)
+{
+    int status = 0;
+    pid_t result = waitpid(pid, &status, WNOHANG);
+    if (result == 0) return PROCESS_RUNNING;
+    // Treat an error, which can only be that the process is not a child waited for, as an exit.
+    return result < 0 ? 0 : exit_code(status);
+}
+
+JNIEXPORT jint JNICALL Java_com_termux_terminal_JNI_openPidFd(JNIEnv* TERMUX_UNUSED(env), jclass TERMUX_UNUSED(clazz), jint pid)
+{
+    int fd = (int) syscall(__NR_pidfd_open, (pid_t) pid, 0);
+    return fd < 0 ? -1 : fd;
+}
+
+JNIEXPORT jint JNICALL Java_com_termux_terminal_JNI_createEpoll(JNIEnv* env, jclass TERMUX_UNUSED(clazz))
+{
+    int epoll_fd = epoll_create1(EPOLL_CLOEXEC);
+    if (epoll_fd < 0) return throw_runtime_exception(env, "epoll_create1() failed");
+    return epoll_fd;
+}
+
+JNIEXPORT jboolean JNICALL Java_com_termux_terminal_JNI_epollControl(JNIEnv* TERMUX_UNUSED(env), jclass TERMUX_UNUSED(clazz), jint epoll_fd, jint operation, jint fd, jint token, jint events)
+{
+    struct epoll_event event = { .events = 0, .data.u32 = (uint32_t) token };
+    if (events & EVENT_INPUT) event.events |= EPOLLIN;
+    if (events & EVENT_OUTPUT) event.events |= EPOLLOUT;
+    return epoll_ctl(epoll_fd, operation, fd, &event) == 0;
+}
+
+JNIEXPORT jint JNICALL Java_com_termux_terminal_JNI_epollWait(JNIEnv* env, jclass TERMUX_UNUSED(clazz), jint epoll_fd, jintArray readyArray, jint timeout_millis)
+{
+    struct epoll_event events[MAX_EVENTS];
+    jint ready[2 * MAX_EVENTS];
+    int max_events = (*env)->GetArrayLength(env, readyArray) / 2;
+    if (max_events > MAX_EVENTS) max_events = MAX_EVENTS;
+
+    int count = epoll_wait(epoll_fd, events, max_events, timeout_millis);
+    if (count < 0) {
+        if (errno == EINTR) return 0;
+        return throw_runtime_exception(env, "epoll_wait() failed");
+    }
+    for (int i = 0; i < count; i++) {
+        jint ready_events = 0;
+        if (events[i].events & EPOLLIN) ready_events |= EVENT_INPUT;
+        if (events[i].events & EPOLLOUT) ready_events |= EVENT_OUTPUT;
+        if (events[i].events & (EPOLLHUP | EPOLLERR)) ready_events |= EVENT_HANGUP;
+        ready[2 * i] = (jint) events[i].data.u32;
+        ready[2 * i + 1] = ready_events;
+    }
+    (*env)->SetIntArrayRegion(env, readyArray, 0, 2 * count, ready);
+    return count;
+}
+
+JNIEXPORT jint JNICALL Java_com_termux_terminal_JNI_createEventFd(JNIEnv* env, jclass TERMUX_UNUSED(clazz))
+{
+    int fd = eventfd(0, EFD_CLOEXEC | EFD_NONBLOCK);
+    if (fd < 0) return throw_runtime_exception(env, "eventfd() failed");
+    return fd;
+}
+
+JNIEXPORT void JNICALL Java_com_termux_terminal_JNI_signalEventFd(JNIEnv* TERMUX_UNUSED(env), jclass TERMUX_UNUSED(clazz), jint fd)
+{
+    eventfd_write(fd, 1);
+}
+
+JNIEXPORT void JNICALL Java_com_termux_terminal_JNI_clearEventFd(JNIEnv* TERMUX_UNUSED(env), jclass TERMUX_UNUSED(clazz), jint fd)
+{
+    eventfd_t value;
+    eventfd_read(fd, &value);
+}
+
+JNIEXPORT jint JNICALL Java_com_termux_terminal_JNI_read(JNIEnv* env, jclass TERMUX_UNUSED(clazz), jint fd, jobject buffer, jint offset, jint length)
+{
+    char* bytes = (*env)->GetDirectBufferAddress(env, buffer);
+    if (!bytes) return throw_runtime_exception(env, "GetDirectBufferAddress() failed for the read buffer");
+    ssize_t bytes_read = read(fd, bytes + offset, (size_t) length);
+    if (bytes_read < 0) return (errno == EAGAIN || errno == EWOULDBLOCK || errno == EINTR) ? 0 : -1;
+    // End of file, which for a pty master is instead reported as EIO when all slave fds have been closed.
+    if (bytes_read == 0) return -1;
+    return (jint) bytes_read;
+}
+
+JNIEXPORT jint JNICALL Java_com_termux_terminal_JNI_write(JNIEnv* env, jclass TERMUX_UNUSED(clazz), jint fd, jobject buffer, jint offset, jint length)
+{
+    char const* bytes = (*env)->GetDirectBufferAddress(env, buffer);
+    if (!bytes) return throw_runtime_exception(env, "GetDirectBufferAddress() failed for the write buffer");
+    ssize_t bytes_written = write(fd, bytes + offset, (size_t) length);
+    if (bytes_written < 0) return (errno == EAGAIN || errno == EWOULDBLOCK || errno == EINTR) ? 0 : -1;
+    return (jint) bytes_written;
+}
+
 JNIEXPORT void JNICALL Java_com_termux_terminal_JNI_close(JNIEnv* TERMUX_UNUSED(env), jclass TERMUX_UNUSED(clazz), jint fileDescriptor)
 {
     close(fileDescriptor);
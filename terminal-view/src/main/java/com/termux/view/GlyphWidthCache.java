@@ -0,0 +1,60 @@
+package com.termux.view;
+
+import java.util.Arrays;
+
+/**
+ * A cache of the measured widths of code points, to not measure the non-ASCII code points of the rows being drawn
+ * again for every frame.
+ * <p/>
+ * The entries are kept in {@link #SETS} sets of {@link #WAYS} entries, with the set of a code point picked by its
+ * hash. Each set is ordered from the most to the least recently used entry, which is the one replaced when a code
+ * point not in it is added. Unlike a map from boxed code points, looking up and adding widths does not allocate.
+ */
+final class GlyphWidthCache {
+
+    private static final int SETS = 256;
+    private static final int WAYS = 4;
+
+    private final int[] mCodePoints = new int[SETS * WAYS];
+    private final float[] mWidths = new float[SETS * WAYS];
+
+    GlyphWidthCache() {
+        // No code point is negative.
+        Arrays.fill(mCodePoints, -1);
+    }
+
+    /** Get the width of a code point, or {@link Float#NaN} if it is not in the cache. */
+    float get(int codePoint) {
+        final int start = setStart(codePoint);
+        for (int i = start; i < start + WAYS; i++) {
+            if (mCodePoints[i] == codePoint) {
+                final float width = mWidths[i];
+                moveToFront(start, i, codePoint, width);
+                return width;
+            }
+        }
+        return Float.NaN;
+    }
+
+    /** Add the width of a code point not in the cache, replacing the least recently used entry of its set. */
+    void put(int codePoint, float width) {
+        final int start = setStart(codePoint);
+        moveToFront(start, start + WAYS - 1, codePoint, width);
+    }
+
+    /** Shift the entries of a set before an index one step back over it, and put an entry first. */
+    private void moveToFront(int start, int index, int codePoint, float width) {
+        if (index != start) {
+            System.arraycopy(mCodePoints, start, mCodePoints, start + 1, index - start);
+            System.arraycopy(mWidths, start, mWidths, start + 1, index - start);
+        }
+        mCodePoints[start] = codePoint;
+        mWidths[start] = width;
+    }
+
+    private static int setStart(int codePoint) {
+        // Spread out runs of adjacent code points, which are common within a script, taking the top 8 bits for the sets.
+        return ((codePoint * 0x9E3779B1) >>> 24) * WAYS;
+    }
+
+}
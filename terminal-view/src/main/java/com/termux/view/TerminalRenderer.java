@@ -5,16 +5,24 @@ import android.graphics.Paint;
 import android.graphics.PorterDuff;
 import android.graphics.Typeface;
 
-import com.termux.terminal.TerminalBuffer;
 import com.termux.terminal.TerminalEmulator;
 import com.termux.terminal.TerminalRow;
+import com.termux.terminal.TerminalScreenSnapshot;
 import com.termux.terminal.TextStyle;
 import com.termux.terminal.WcWidth;
 
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
 /**
- * Renderer of a {@link TerminalEmulator} into a {@link Canvas}.
+ * Renderer of a {@link TerminalEmulator}, through a {@link TerminalScreenSnapshot} of it, into a {@link Canvas}.
  * <p/>
  * Saves font metrics, so needs to be recreated each time the typeface or font size changes.
+ * <p/>
+ * The columns and measured widths of the code points of each row, and the runs of them with the same style, are kept
+ * in a {@link RowLayout} until the version of the row changes, see {@link TerminalScreenSnapshot#getLineVersion(int)}.
+ * Rows without the cursor, the selection or a search match are then drawn from those runs as is, and the others are
+ * split into more runs by those without measuring or looking up the width of any code point again.
  */
 public final class TerminalRenderer {
 
@@ -32,6 +40,19 @@ public final class TerminalRenderer {
     final int mFontLineSpacingAndAscent;
 
     private final float[] asciiMeasures = new float[127];
+    /** The measured widths of the non-ASCII code points in the rows laid out recently. */
+    private final GlyphWidthCache mGlyphWidthCache = new GlyphWidthCache();
+
+    /** The layout of each row of the rendered snapshot, see {@link #getRowLayout(TerminalRow, long, int)}. */
+    private final IdentityHashMap<TerminalRow, RowLayout> mRowLayouts = new IdentityHashMap<>();
+
+    /** The background of the search matches, and of the current one, which are drawn with black text. */
+    static final int SEARCH_MATCH_COLOR = 0xFF9E7A00;
+    static final int CURRENT_SEARCH_MATCH_COLOR = 0xFFFFB300;
+
+    /** The start and end columns of the search matches in the row being rendered, and the color to highlight them with. */
+    private int[] mRowMatchColumns = new int[8];
+    private int[] mRowMatchColors = new int[4];
 
     public TerminalRenderer(int textSize, Typeface typeface) {
         mTextSize = textSize;
@@ -53,112 +74,262 @@ public final class TerminalRenderer {
         }
     }
 
-    /** Render the terminal to a canvas with at a specified row scroll, and an optional rectangular selection. */
-    public final void render(TerminalEmulator mEmulator, Canvas canvas, int topRow,
+    /**
+     * Render a snapshot of the terminal, taken at the row scroll to render, to a canvas with an optional rectangular
+     * selection.
+     */
+    public final void render(TerminalScreenSnapshot snapshot, Canvas canvas,
                              int selectionY1, int selectionY2, int selectionX1, int selectionX2) {
-        final boolean reverseVideo = mEmulator.isReverseVideo();
-        final int endRow = topRow + mEmulator.mRows;
-        final int columns = mEmulator.mColumns;
-        final int cursorCol = mEmulator.getCursorCol();
-        final int cursorRow = mEmulator.getCursorRow();
-        final boolean cursorVisible = mEmulator.shouldCursorBeVisible();
-        final TerminalBuffer screen = mEmulator.getScreen();
-        final int[] palette = mEmulator.mColors.mCurrentColors;
-        final int cursorShape = mEmulator.getCursorStyle();
-
-        if (reverseVideo)
-            canvas.drawColor(palette[TextStyle.COLOR_INDEX_FOREGROUND], PorterDuff.Mode.SRC);
-
-        float heightOffset = mFontLineSpacingAndAscent;
-        for (int row = topRow; row < endRow; row++) {
+        render(snapshot, canvas, selectionY1, selectionY2, selectionX1, selectionX2, null);
+    }
+
+    /**
+     * Render a snapshot like {@link #render(TerminalScreenSnapshot, Canvas, int, int, int, int)}, highlighting the
+     * search matches found by {@link TerminalScreenSnapshot#findSearchMatches(java.util.regex.Pattern)}.
+     *
+     * @param currentSearchMatch the start column, start row, end column and end row of the current search match, to be
+     *                           highlighted differently, or null.
+     */
+    public final void render(TerminalScreenSnapshot snapshot, Canvas canvas,
+                             int selectionY1, int selectionY2, int selectionX1, int selectionX2, int[] currentSearchMatch) {
+        if (snapshot.isReverseVideo())
+            canvas.drawColor(snapshot.getColors()[TextStyle.COLOR_INDEX_FOREGROUND], PorterDuff.Mode.SRC);
+
+        final int topRow = snapshot.getTopRow();
+        renderRows(snapshot, canvas, topRow, topRow + snapshot.getRows(), selectionY1, selectionY2, selectionX1, selectionX2,
+            currentSearchMatch);
+    }
+
+    /**
+     * Render some of the rows of a snapshot like {@link #render(TerminalScreenSnapshot, Canvas, int, int, int, int, int[])}
+     * does, at the same positions, but without filling the background for reverse video.
+     *
+     * @param startRow the first external row to render.
+     * @param endRow   the external row after the last one to render.
+     */
+    final void renderRows(TerminalScreenSnapshot snapshot, Canvas canvas, int startRow, int endRow,
+                          int selectionY1, int selectionY2, int selectionX1, int selectionX2, int[] currentSearchMatch) {
+        final boolean reverseVideo = snapshot.isReverseVideo();
+        final int columns = snapshot.getColumns();
+        final int cursorCol = snapshot.getCursorCol();
+        final int cursorRow = snapshot.getCursorRow();
+        final boolean cursorVisible = snapshot.isCursorVisible();
+        final int[] palette = snapshot.getColors();
+        final int cursorShape = snapshot.getCursorStyle();
+
+        // The layouts of the rows of other snapshots and of rows dropped on resizes are never used again.
+        if (mRowLayouts.size() > 2 * snapshot.getRows()) mRowLayouts.clear();
+
+        float heightOffset = getRowTop(startRow - snapshot.getTopRow());
+        for (int row = startRow; row < endRow; row++) {
             heightOffset += mFontLineSpacing;
 
             final int cursorX = (row == cursorRow && cursorVisible) ? cursorCol : -1;
             int selx1 = -1, selx2 = -1;
             if (row >= selectionY1 && row <= selectionY2) {
                 if (row == selectionY1) selx1 = selectionX1;
-                selx2 = (row == selectionY2) ? selectionX2 : mEmulator.mColumns;
+                selx2 = (row == selectionY2) ? selectionX2 : columns;
             }
 
-            TerminalRow lineObject = screen.allocateFullLineIfNecessary(screen.externalToInternalRow(row));
+            final int rowMatches = findRowMatches(snapshot, row, columns, currentSearchMatch);
+
+            TerminalRow lineObject = snapshot.getLine(row);
             final char[] line = lineObject.mText;
-            final int charsUsedInLine = lineObject.getSpaceUsed();
+            final RowLayout layout = getRowLayout(lineObject, snapshot.getLineVersion(row), columns);
+
+            if (cursorX == -1 && selx2 == -1 && rowMatches == 0) {
+                // Everything in the row is drawn as its style says, so the runs of the layout can be drawn as they are.
+                for (int run = 0; run < layout.mRunCount; run++) {
+                    final int startCell = layout.mRunStartCells[run];
+                    final int endCell = layout.mRunStartCells[run + 1];
+                    final int startColumn = layout.mCellColumns[startCell];
+                    final int endColumn = (run + 1 < layout.mRunCount) ? layout.mCellColumns[endCell] : columns;
+                    final int startIndex = layout.mCellIndices[startCell];
+                    drawTextRun(canvas, line, palette, heightOffset, startColumn, endColumn - startColumn, startIndex,
+                        layout.mCellIndices[endCell] - startIndex, layout.mRunMeasuredWidths[run], 0, cursorShape,
+                        layout.mRunStyles[run], reverseVideo, 0);
+                }
+                continue;
+            }
 
             long lastRunStyle = 0;
             boolean lastRunInsideCursor = false;
             boolean lastRunInsideSelection = false;
+            int lastRunMatchColor = 0;
             int lastRunStartColumn = -1;
             int lastRunStartIndex = 0;
             boolean lastRunFontWidthMismatch = false;
-            int currentCharIndex = 0;
             float measuredWidthForRun = 0.f;
 
-            for (int column = 0; column < columns; ) {
-                final char charAtIndex = line[currentCharIndex];
-                final boolean charIsHighsurrogate = Character.isHighSurrogate(charAtIndex);
-                final int charsForCodePoint = charIsHighsurrogate ? 2 : 1;
-                final int codePoint = charIsHighsurrogate ? Character.toCodePoint(charAtIndex, line[currentCharIndex + 1]) : charAtIndex;
-                final int codePointWcWidth = WcWidth.width(codePoint);
+            for (int cell = 0; cell < layout.mCellCount; cell++) {
+                final int column = layout.mCellColumns[cell];
+                final int codePointWcWidth = layout.mCellWcWidths[cell];
                 final boolean insideCursor = (cursorX == column || (codePointWcWidth == 2 && cursorX == column + 1));
                 final boolean insideSelection = column >= selx1 && column <= selx2;
+                final int matchColor = (rowMatches == 0 || insideSelection) ? 0 : getMatchColor(rowMatches, column);
                 final long style = lineObject.getStyle(column);
+                final boolean fontWidthMismatch = layout.mCellFontWidthMismatches[cell];
 
-                // Check if the measured text width for this code point is not the same as that expected by wcwidth().
-                // This could happen for some fonts which are not truly monospace, or for more exotic characters such as
-                // smileys which android font renders as wide.
-                // If this is detected, we draw this code point scaled to match what wcwidth() expects.
-                final float measuredCodePointWidth = (codePoint < asciiMeasures.length) ? asciiMeasures[codePoint] : mTextPaint.measureText(line,
-                    currentCharIndex, charsForCodePoint);
-                final boolean fontWidthMismatch = Math.abs(measuredCodePointWidth / mFontWidth - codePointWcWidth) > 0.01;
-
-                if (style != lastRunStyle || insideCursor != lastRunInsideCursor || insideSelection != lastRunInsideSelection || fontWidthMismatch || lastRunFontWidthMismatch) {
-                    if (column == 0) {
+                if (cell == 0 || style != lastRunStyle || insideCursor != lastRunInsideCursor || insideSelection != lastRunInsideSelection
+                    || matchColor != lastRunMatchColor || fontWidthMismatch || lastRunFontWidthMismatch) {
+                    if (cell == 0) {
                         // Skip first column as there is nothing to draw, just record the current style.
                     } else {
                         final int columnWidthSinceLastRun = column - lastRunStartColumn;
-                        final int charsSinceLastRun = currentCharIndex - lastRunStartIndex;
-                        int cursorColor = lastRunInsideCursor ? mEmulator.mColors.mCurrentColors[TextStyle.COLOR_INDEX_CURSOR] : 0;
+                        final int charsSinceLastRun = layout.mCellIndices[cell] - lastRunStartIndex;
+                        int cursorColor = lastRunInsideCursor ? palette[TextStyle.COLOR_INDEX_CURSOR] : 0;
                         boolean invertCursorTextColor = false;
                         if (lastRunInsideCursor && cursorShape == TerminalEmulator.TERMINAL_CURSOR_STYLE_BLOCK) {
                             invertCursorTextColor = true;
                         }
                         drawTextRun(canvas, line, palette, heightOffset, lastRunStartColumn, columnWidthSinceLastRun,
                             lastRunStartIndex, charsSinceLastRun, measuredWidthForRun,
-                            cursorColor, cursorShape, lastRunStyle, reverseVideo || invertCursorTextColor || lastRunInsideSelection);
+                            cursorColor, cursorShape, lastRunStyle, reverseVideo || invertCursorTextColor || lastRunInsideSelection,
+                            lastRunMatchColor);
                     }
                     measuredWidthForRun = 0.f;
                     lastRunStyle = style;
                     lastRunInsideCursor = insideCursor;
                     lastRunInsideSelection = insideSelection;
+                    lastRunMatchColor = matchColor;
                     lastRunStartColumn = column;
-                    lastRunStartIndex = currentCharIndex;
+                    lastRunStartIndex = layout.mCellIndices[cell];
                     lastRunFontWidthMismatch = fontWidthMismatch;
                 }
-                measuredWidthForRun += measuredCodePointWidth;
-                column += codePointWcWidth;
-                currentCharIndex += charsForCodePoint;
-                while (currentCharIndex < charsUsedInLine && WcWidth.width(line, currentCharIndex) <= 0) {
-                    // Eat combining chars so that they are treated as part of the last non-combining code point,
-                    // instead of e.g. being considered inside the cursor in the next run.
-                    currentCharIndex += Character.isHighSurrogate(line[currentCharIndex]) ? 2 : 1;
-                }
+                measuredWidthForRun += layout.mCellMeasuredWidths[cell];
             }
 
             final int columnWidthSinceLastRun = columns - lastRunStartColumn;
-            final int charsSinceLastRun = currentCharIndex - lastRunStartIndex;
-            int cursorColor = lastRunInsideCursor ? mEmulator.mColors.mCurrentColors[TextStyle.COLOR_INDEX_CURSOR] : 0;
+            final int charsSinceLastRun = layout.mCellIndices[layout.mCellCount] - lastRunStartIndex;
+            int cursorColor = lastRunInsideCursor ? palette[TextStyle.COLOR_INDEX_CURSOR] : 0;
             boolean invertCursorTextColor = false;
             if (lastRunInsideCursor && cursorShape == TerminalEmulator.TERMINAL_CURSOR_STYLE_BLOCK) {
                 invertCursorTextColor = true;
             }
             drawTextRun(canvas, line, palette, heightOffset, lastRunStartColumn, columnWidthSinceLastRun, lastRunStartIndex, charsSinceLastRun,
-                measuredWidthForRun, cursorColor, cursorShape, lastRunStyle, reverseVideo || invertCursorTextColor || lastRunInsideSelection);
+                measuredWidthForRun, cursorColor, cursorShape, lastRunStyle, reverseVideo || invertCursorTextColor || lastRunInsideSelection,
+                lastRunMatchColor);
+        }
+    }
+
+    /** The top of a rendered row, by its index from the first row, which takes up {@link #mFontLineSpacing} below it. */
+    final int getRowTop(int rowIndex) {
+        return mFontLineSpacingAndAscent + rowIndex * mFontLineSpacing;
+    }
+
+    /** Get the layout of a row, laying it out again if it has changed since it was laid out. */
+    private RowLayout getRowLayout(TerminalRow lineObject, long version, int columns) {
+        RowLayout layout = mRowLayouts.get(lineObject);
+        if (layout == null) {
+            layout = new RowLayout();
+            mRowLayouts.put(lineObject, layout);
+        } else if (layout.mVersion == version && layout.mColumns == columns) {
+            return layout;
+        }
+        layout.mVersion = version;
+        layout.mColumns = columns;
+
+        final char[] line = lineObject.mText;
+        final int charsUsedInLine = lineObject.getSpaceUsed();
+        // Each code point takes at least one char.
+        layout.ensureCapacity(line.length + 1);
+        int cells = 0;
+        int runs = 0;
+        long lastRunStyle = 0;
+        boolean lastRunFontWidthMismatch = false;
+        int currentCharIndex = 0;
+        for (int column = 0; column < columns; ) {
+            final char charAtIndex = line[currentCharIndex];
+            final boolean charIsHighsurrogate = Character.isHighSurrogate(charAtIndex);
+            final int charsForCodePoint = charIsHighsurrogate ? 2 : 1;
+            final int codePoint = charIsHighsurrogate ? Character.toCodePoint(charAtIndex, line[currentCharIndex + 1]) : charAtIndex;
+            final int codePointWcWidth = WcWidth.width(codePoint);
+            final long style = lineObject.getStyle(column);
+
+            // Check if the measured text width for this code point is not the same as that expected by wcwidth().
+            // This could happen for some fonts which are not truly monospace, or for more exotic characters such as
+            // smileys which android font renders as wide.
+            // If this is detected, we draw this code point scaled to match what wcwidth() expects.
+            final float measuredCodePointWidth = measureCodePoint(line, currentCharIndex, charsForCodePoint, codePoint);
+            final boolean fontWidthMismatch = Math.abs(measuredCodePointWidth / mFontWidth - codePointWcWidth) > 0.01;
+
+            if (column == 0 || style != lastRunStyle || fontWidthMismatch || lastRunFontWidthMismatch) {
+                layout.mRunStartCells[runs] = cells;
+                layout.mRunStyles[runs] = style;
+                layout.mRunMeasuredWidths[runs] = 0.f;
+                runs++;
+                lastRunStyle = style;
+                lastRunFontWidthMismatch = fontWidthMismatch;
+            }
+            layout.mRunMeasuredWidths[runs - 1] += measuredCodePointWidth;
+            layout.mCellColumns[cells] = column;
+            layout.mCellIndices[cells] = currentCharIndex;
+            layout.mCellWcWidths[cells] = codePointWcWidth;
+            layout.mCellMeasuredWidths[cells] = measuredCodePointWidth;
+            layout.mCellFontWidthMismatches[cells] = fontWidthMismatch;
+            cells++;
+
+            column += codePointWcWidth;
+            currentCharIndex += charsForCodePoint;
+            while (currentCharIndex < charsUsedInLine && WcWidth.width(line, currentCharIndex) <= 0) {
+                // Eat combining chars so that they are treated as part of the last non-combining code point,
+                // instead of e.g. being considered inside the cursor in the next run.
+                currentCharIndex += Character.isHighSurrogate(line[currentCharIndex]) ? 2 : 1;
+            }
+        }
+        layout.mCellIndices[cells] = currentCharIndex;
+        layout.mCellCount = cells;
+        layout.mRunStartCells[runs] = cells;
+        layout.mRunCount = runs;
+        return layout;
+    }
+
+    /** Measure a code point at an index of a row, from {@link #asciiMeasures} or {@link #mGlyphWidthCache} if there. */
+    private float measureCodePoint(char[] line, int index, int charsForCodePoint, int codePoint) {
+        if (codePoint < asciiMeasures.length) return asciiMeasures[codePoint];
+        float width = mGlyphWidthCache.get(codePoint);
+        if (Float.isNaN(width)) {
+            width = mTextPaint.measureText(line, index, charsForCodePoint);
+            mGlyphWidthCache.put(codePoint, width);
+        }
+        return width;
+    }
+
+    /**
+     * Collect the start and end columns in a row of the search matches of a snapshot into {@link #mRowMatchColumns},
+     * and the colors to highlight them with into {@link #mRowMatchColors}.
+     *
+     * @return the number of matches in the row.
+     */
+    private int findRowMatches(TerminalScreenSnapshot snapshot, int row, int columns, int[] currentSearchMatch) {
+        final int[] matches = snapshot.getSearchMatches();
+        int rowMatches = 0;
+        for (int i = 0; i < snapshot.getSearchMatchCount(); i++) {
+            final int startRow = matches[4 * i + 1], endRow = matches[4 * i + 3];
+            if (row < startRow || row > endRow) continue;
+            if (rowMatches == mRowMatchColors.length) {
+                mRowMatchColors = Arrays.copyOf(mRowMatchColors, 2 * rowMatches);
+                mRowMatchColumns = Arrays.copyOf(mRowMatchColumns, 4 * rowMatches);
+            }
+            final boolean current = currentSearchMatch != null && currentSearchMatch[0] == matches[4 * i]
+                && currentSearchMatch[1] == startRow && currentSearchMatch[2] == matches[4 * i + 2] && currentSearchMatch[3] == endRow;
+            mRowMatchColumns[2 * rowMatches] = (row == startRow) ? matches[4 * i] : 0;
+            mRowMatchColumns[2 * rowMatches + 1] = (row == endRow) ? matches[4 * i + 2] : columns;
+            mRowMatchColors[rowMatches++] = current ? CURRENT_SEARCH_MATCH_COLOR : SEARCH_MATCH_COLOR;
         }
+        return rowMatches;
+    }
+
+    /** The color to highlight a column with for the matches found by {@link #findRowMatches}, or 0 if not in any. */
+    private int getMatchColor(int rowMatches, int column) {
+        for (int i = 0; i < rowMatches; i++)
+            if (column >= mRowMatchColumns[2 * i] && column < mRowMatchColumns[2 * i + 1]) return mRowMatchColors[i];
+        return 0;
     }
 
     private void drawTextRun(Canvas canvas, char[] text, int[] palette, float y, int startColumn, int runWidthColumns,
                              int startCharIndex, int runWidthChars, float mes, int cursor, int cursorStyle,
-                             long textStyle, boolean reverseVideo) {
+                             long textStyle, boolean reverseVideo, int matchColor) {
         int foreColor = TextStyle.decodeForeColor(textStyle);
         final int effect = TextStyle.decodeEffect(textStyle);
         int backColor = TextStyle.decodeBackColor(textStyle);
@@ -185,6 +356,10 @@ public final class TerminalRenderer {
             foreColor = backColor;
             backColor = tmp;
         }
+        if (matchColor != 0) {
+            foreColor = 0xFF000000;
+            backColor = matchColor;
+        }
 
         float left = startColumn * mFontWidth;
         float right = left + runWidthColumns * mFontWidth;
@@ -239,6 +414,42 @@ public final class TerminalRenderer {
         if (savedMatrix) canvas.restore();
     }
 
+    /**
+     * The code points of a row with their columns and widths, and the runs of them with the same style, of which those
+     * drawn with a width other than expected by {@link WcWidth} are runs of their own.
+     */
+    private static final class RowLayout {
+
+        /** The version of the row laid out, see {@link TerminalScreenSnapshot#getLineVersion(int)}. */
+        long mVersion;
+        int mColumns;
+
+        int mCellCount;
+        /** The column, char index, wcwidth, measured width and if the two widths differ of each code point. */
+        int[] mCellColumns, mCellIndices, mCellWcWidths;
+        float[] mCellMeasuredWidths;
+        boolean[] mCellFontWidthMismatches;
+
+        int mRunCount;
+        /** The first cell, style and measured width of each run, with the first cell after the last run at the end. */
+        int[] mRunStartCells;
+        long[] mRunStyles;
+        float[] mRunMeasuredWidths;
+
+        void ensureCapacity(int cells) {
+            if (mCellColumns != null && mCellColumns.length >= cells) return;
+            mCellColumns = new int[cells];
+            mCellIndices = new int[cells];
+            mCellWcWidths = new int[cells];
+            mCellMeasuredWidths = new float[cells];
+            mCellFontWidthMismatches = new boolean[cells];
+            mRunStartCells = new int[cells];
+            mRunStyles = new long[cells];
+            mRunMeasuredWidths = new float[cells];
+        }
+
+    }
+
     public float getFontWidth() {
         return mFontWidth;
     }
@@ -0,0 +1,133 @@
+package com.termux.view;
+
+import android.graphics.Canvas;
+import android.graphics.PorterDuff;
+import android.graphics.RecordingCanvas;
+import android.graphics.RenderNode;
+import android.os.Build;
+
+import androidx.annotation.RequiresApi;
+
+import com.termux.terminal.TerminalScreenSnapshot;
+import com.termux.terminal.TextStyle;
+
+import java.util.Arrays;
+
+/**
+ * The rows of a {@link TerminalView} recorded into a {@link RenderNode} each, so that a frame only records the rows
+ * which look different from the previous frame again, while the render thread replays the recordings of the others.
+ * <p/>
+ * Which rows have changed is known from {@link TerminalScreenSnapshot#isLineDirty(int)}, so each snapshot drawn must
+ * be the one copied right after the snapshot of the previous frame drawn, or the nodes must be dropped. When the
+ * screen scrolls, the nodes are moved along with their rows instead of being recorded again.
+ */
+@RequiresApi(api = Build.VERSION_CODES.Q)
+final class TerminalRowNodes {
+
+    private RenderNode[] mNodes = new RenderNode[0];
+    private RenderNode[] mRotatedNodes = new RenderNode[0];
+    private boolean[] mDirtyRows = new boolean[0];
+
+    /** The renderer and width the nodes were recorded with, or null if none have been recorded. */
+    private TerminalRenderer mRenderer;
+    private int mWidth;
+
+    /** The selection and current search match the nodes were recorded with, to record the rows they change. */
+    private final int[] mSelection = new int[]{-1, -1, -1, -1};
+    private final int[] mCurrentSearchMatch = new int[4];
+    private boolean mHasCurrentSearchMatch;
+
+    /**
+     * Draw a snapshot like {@link TerminalRenderer#render(TerminalScreenSnapshot, Canvas, int, int, int, int, int[])}
+     * does, to a hardware accelerated canvas.
+     *
+     * @param width the width of the view, which the rows extend over.
+     */
+    void draw(Canvas canvas, TerminalRenderer renderer, TerminalScreenSnapshot snapshot, int width,
+              int selectionY1, int selectionY2, int selectionX1, int selectionX2, int[] currentSearchMatch) {
+        final int rows = snapshot.getRows();
+        final int topRow = snapshot.getTopRow();
+        final int scrolledRows = snapshot.getScrolledRows();
+
+        final boolean recordAll = renderer != mRenderer || width != mWidth || rows != mNodes.length;
+        if (rows != mNodes.length) {
+            final int oldRows = mNodes.length;
+            mNodes = Arrays.copyOf(mNodes, rows);
+            for (int i = oldRows; i < rows; i++) {
+                mNodes[i] = new RenderNode("TerminalRow");
+                // Wide glyphs and the cursor may reach into the rows around, as when all rows are drawn on one canvas.
+                mNodes[i].setClipToBounds(false);
+            }
+            mRotatedNodes = new RenderNode[rows];
+            mDirtyRows = new boolean[rows];
+        } else if (!recordAll && scrolledRows != 0 && Math.abs(scrolledRows) < rows) {
+            rotateNodes(scrolledRows);
+        }
+        mRenderer = renderer;
+        mWidth = width;
+
+        for (int i = 0; i < rows; i++) mDirtyRows[i] = recordAll || snapshot.isLineDirty(topRow + i);
+        // The old selection and search match are in the rows of the previous snapshot, which have moved up by the rows
+        // scrolled, so their rows are recorded again also when the screen has scrolled under them.
+        if (scrolledRows != 0 || mSelection[0] != selectionY1 || mSelection[1] != selectionY2
+            || mSelection[2] != selectionX1 || mSelection[3] != selectionX2) {
+            markRows(mSelection[0] - scrolledRows, mSelection[1] - scrolledRows, topRow);
+            markRows(selectionY1, selectionY2, topRow);
+            mSelection[0] = selectionY1;
+            mSelection[1] = selectionY2;
+            mSelection[2] = selectionX1;
+            mSelection[3] = selectionX2;
+        }
+        final boolean hasCurrentSearchMatch = currentSearchMatch != null;
+        if (hasCurrentSearchMatch != mHasCurrentSearchMatch || (hasCurrentSearchMatch
+            && (scrolledRows != 0 || !Arrays.equals(currentSearchMatch, mCurrentSearchMatch)))) {
+            if (mHasCurrentSearchMatch)
+                markRows(mCurrentSearchMatch[1] - scrolledRows, mCurrentSearchMatch[3] - scrolledRows, topRow);
+            if (hasCurrentSearchMatch) {
+                markRows(currentSearchMatch[1], currentSearchMatch[3], topRow);
+                System.arraycopy(currentSearchMatch, 0, mCurrentSearchMatch, 0, 4);
+            }
+            mHasCurrentSearchMatch = hasCurrentSearchMatch;
+        }
+
+        if (snapshot.isReverseVideo())
+            canvas.drawColor(snapshot.getColors()[TextStyle.COLOR_INDEX_FOREGROUND], PorterDuff.Mode.SRC);
+
+        final int rowHeight = renderer.mFontLineSpacing;
+        for (int i = 0; i < rows; i++) {
+            final RenderNode node = mNodes[i];
+            final int top = renderer.getRowTop(i);
+            // Moves the node of a scrolled row without recording it again.
+            node.setPosition(0, top, width, top + rowHeight);
+            if (mDirtyRows[i]) {
+                final RecordingCanvas rowCanvas = node.beginRecording();
+                try {
+                    rowCanvas.translate(0, -top);
+                    renderer.renderRows(snapshot, rowCanvas, topRow + i, topRow + i + 1,
+                        selectionY1, selectionY2, selectionX1, selectionX2, currentSearchMatch);
+                } finally {
+                    node.endRecording();
+                }
+            }
+            canvas.drawRenderNode(node);
+        }
+    }
+
+    /** Mark the external rows from startRow to endRow, inclusive, as dirty where they are in the snapshot. */
+    private void markRows(int startRow, int endRow, int topRow) {
+        final int startIndex = Math.max(startRow - topRow, 0);
+        final int endIndex = Math.min(endRow - topRow + 1, mDirtyRows.length);
+        if (startIndex < endIndex) Arrays.fill(mDirtyRows, startIndex, endIndex, true);
+    }
+
+    /** Rotate {@link #mNodes} like {@link TerminalScreenSnapshot} rotates its rows when the screen scrolls. */
+    private void rotateNodes(int scrolledRows) {
+        final int rows = mNodes.length;
+        final int distance = scrolledRows > 0 ? scrolledRows : rows + scrolledRows;
+        System.arraycopy(mNodes, 0, mRotatedNodes, 0, distance);
+        System.arraycopy(mNodes, distance, mNodes, 0, rows - distance);
+        System.arraycopy(mRotatedNodes, 0, mNodes, rows - distance, distance);
+        Arrays.fill(mRotatedNodes, 0, distance, null);
+    }
+
+}
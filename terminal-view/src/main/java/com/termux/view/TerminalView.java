@@ -38,10 +38,14 @@ import androidx.annotation.Nullable;
 import androidx.annotation.RequiresApi;
 
 import com.termux.terminal.KeyHandler;
+import com.termux.terminal.TerminalBuffer;
 import com.termux.terminal.TerminalEmulator;
+import com.termux.terminal.TerminalScreenSnapshot;
 import com.termux.terminal.TerminalSession;
 import com.termux.view.textselection.TextSelectionCursorController;
 
+import java.util.regex.Pattern;
+
 /** View displaying and interacting with a {@link TerminalSession}. */
 public final class TerminalView extends View {
 
@@ -50,11 +54,24 @@ public final class TerminalView extends View {
 
     /** The currently displayed terminal session, whose emulator is {@link #mEmulator}. */
     public TerminalSession mTermSession;
-    /** Our terminal emulator whose session is {@link #mTermSession}. */
+    /**
+     * Our terminal emulator whose session is {@link #mTermSession}. Synchronize on it while accessing its screen, since
+     * it may be modified by the session parser thread, see {@link TerminalSession#setUseParserThread(boolean)}.
+     */
     public TerminalEmulator mEmulator;
 
+    /** The copy of the visible part of {@link #mEmulator} which is rendered, reused between frames. */
+    private final TerminalScreenSnapshot mScreenSnapshot = new TerminalScreenSnapshot();
+
     public TerminalRenderer mRenderer;
 
+    /**
+     * The rows of {@link #mScreenSnapshot} recorded into render nodes, which are only recorded again where they change,
+     * when drawing to a hardware accelerated canvas. Null until then and after drawing without them.
+     */
+    @RequiresApi(api = Build.VERSION_CODES.Q)
+    private TerminalRowNodes mRowNodes;
+
     public TerminalViewClient mClient;
 
     private TextSelectionCursorController mTextSelectionCursorController;
@@ -68,6 +85,29 @@ public final class TerminalView extends View {
 
     /** The top row of text to display. Ranges from -activeTranscriptRows to 0. */
     int mTopRow;
+
+    /** The pattern searched for by {@link #findSearchMatch(boolean)}, whose matches are highlighted, or null. */
+    private Pattern mSearchPattern;
+    /** The start column, start row, end column and end row of the current search match, if {@link #mHasSearchMatch}. */
+    private final int[] mSearchMatch = new int[4];
+    private boolean mHasSearchMatch;
+    /** The number of transcript rows indexed for searching by each step of {@link #mSearchIndexer}. */
+    private static final int SEARCH_INDEX_ROWS = 1000;
+    /**
+     * Indexes the transcript of the current screen for {@link #findSearchMatch(boolean)} in steps posted to the main
+     * thread while a search pattern is set, so that a large transcript is not indexed all at once by the first search.
+     */
+    private final Runnable mSearchIndexer = new Runnable() {
+        @Override
+        public void run() {
+            if (mEmulator == null || mSearchPattern == null) return;
+            final boolean rowsLeft;
+            synchronized (mEmulator) {
+                rowsLeft = mEmulator.getScreen().indexTranscript(SEARCH_INDEX_ROWS);
+            }
+            if (rowsLeft) post(this);
+        }
+    };
     int[] mDefaultSelectors = new int[]{-1,-1,-1,-1};
 
     float mScaleFactor = 1.f;
@@ -204,7 +244,11 @@ public final class TerminalView extends View {
                 if (mouseTrackingAtStartOfFling) {
                     mScroller.fling(0, 0, 0, -(int) (velocityY * SCALE), 0, 0, -mEmulator.mRows / 2, mEmulator.mRows / 2);
                 } else {
-                    mScroller.fling(0, mTopRow, 0, -(int) (velocityY * SCALE), 0, 0, -mEmulator.getScreen().getActiveTranscriptRows(), 0);
+                    final int transcriptRows;
+                    synchronized (mEmulator) {
+                        transcriptRows = mEmulator.getScreen().getActiveTranscriptRows();
+                    }
+                    mScroller.fling(0, mTopRow, 0, -(int) (velocityY * SCALE), 0, 0, -transcriptRows, 0);
                 }
 
                 post(new Runnable() {
@@ -291,11 +335,21 @@ public final class TerminalView extends View {
         if (session == mTermSession) return false;
         mTopRow = 0;
 
+        if (mEmulator != null && mSearchPattern != null) {
+            // The search continues in the new session, whose transcript is indexed instead.
+            synchronized (mEmulator) {
+                mEmulator.clearSearchIndex();
+            }
+        }
         mTermSession = session;
         mEmulator = null;
         mCombiningAccent = 0;
 
         updateSize();
+        if (mSearchPattern != null) {
+            removeCallbacks(mSearchIndexer);
+            post(mSearchIndexer);
+        }
 
         // Wait with enabling the scrollbar until we have a terminal to get scroll position from.
         setVerticalScrollBarEnabled(true);
@@ -437,7 +491,10 @@ public final class TerminalView extends View {
 
     @Override
     protected int computeVerticalScrollRange() {
-        return mEmulator == null ? 1 : mEmulator.getScreen().getActiveRows();
+        if (mEmulator == null) return 1;
+        synchronized (mEmulator) {
+            return mEmulator.getScreen().getActiveRows();
+        }
     }
 
     @Override
@@ -447,7 +504,10 @@ public final class TerminalView extends View {
 
     @Override
     protected int computeVerticalScrollOffset() {
-        return mEmulator == null ? 1 : mEmulator.getScreen().getActiveRows() + mTopRow - mEmulator.mRows;
+        if (mEmulator == null) return 1;
+        synchronized (mEmulator) {
+            return mEmulator.getScreen().getActiveRows() + mTopRow - mEmulator.mRows;
+        }
     }
 
     public void onScreenUpdated() {
@@ -457,47 +517,110 @@ public final class TerminalView extends View {
     public void onScreenUpdated(boolean skipScrolling) {
         if (mEmulator == null) return;
 
-        int rowsInHistory = mEmulator.getScreen().getActiveTranscriptRows();
-        if (mTopRow < -rowsInHistory) mTopRow = -rowsInHistory;
+        synchronized (mEmulator) {
+            int rowsInHistory = mEmulator.getScreen().getActiveTranscriptRows();
+            if (mTopRow < -rowsInHistory) mTopRow = -rowsInHistory;
 
-        if (isSelectingText() || mEmulator.isAutoScrollDisabled()) {
+            if (mHasSearchMatch) {
+                // The match moves up with the rows scrolled, until it falls out of the transcript.
+                int rowShift = mEmulator.getScrollCounter();
+                mSearchMatch[1] -= rowShift;
+                mSearchMatch[3] -= rowShift;
+                if (mSearchMatch[1] < -rowsInHistory) mHasSearchMatch = false;
+            }
 
-            // Do not scroll when selecting text.
-            int rowShift = mEmulator.getScrollCounter();
-            if (-mTopRow + rowShift > rowsInHistory) {
-                // .. unless we're hitting the end of history transcript, in which
-                // case we abort text selection and scroll to end.
-                if (isSelectingText())
-                    stopTextSelectionMode();
+            if (isSelectingText() || mEmulator.isAutoScrollDisabled() || mHasSearchMatch) {
 
-                if (mEmulator.isAutoScrollDisabled()) {
-                    mTopRow = -rowsInHistory;
+                // Do not scroll when selecting text.
+                int rowShift = mEmulator.getScrollCounter();
+                if (-mTopRow + rowShift > rowsInHistory) {
+                    // .. unless we're hitting the end of history transcript, in which
+                    // case we abort text selection and scroll to end.
+                    if (isSelectingText())
+                        stopTextSelectionMode();
+
+                    if (mEmulator.isAutoScrollDisabled()) {
+                        mTopRow = -rowsInHistory;
+                        skipScrolling = true;
+                    }
+                } else {
                     skipScrolling = true;
+                    mTopRow -= rowShift;
+                    decrementYTextSelectionCursors(rowShift);
                 }
-            } else {
-                skipScrolling = true;
-                mTopRow -= rowShift;
-                decrementYTextSelectionCursors(rowShift);
             }
-        }
 
-        if (!skipScrolling && mTopRow != 0) {
-            // Scroll down if not already there.
-            if (mTopRow < -3) {
-                // Awaken scroll bars only if scrolling a noticeable amount
-                // - we do not want visible scroll bars during normal typing
-                // of one row at a time.
-                awakenScrollBars();
+            if (!skipScrolling && mTopRow != 0) {
+                // Scroll down if not already there.
+                if (mTopRow < -3) {
+                    // Awaken scroll bars only if scrolling a noticeable amount
+                    // - we do not want visible scroll bars during normal typing
+                    // of one row at a time.
+                    awakenScrollBars();
+                }
+                mTopRow = 0;
             }
-            mTopRow = 0;
-        }
 
-        mEmulator.clearScrollCounter();
+            mEmulator.clearScrollCounter();
+        }
 
         invalidate();
         if (mAccessibilityEnabled) setContentDescription(getText());
     }
 
+    /**
+     * Set the pattern to search the transcript and screen for with {@link #findSearchMatch(boolean)}, and to highlight
+     * the matches of, or null to stop searching. A literal search is done with a pattern compiled with
+     * {@link Pattern#LITERAL}.
+     */
+    public void setSearchPattern(Pattern pattern) {
+        mSearchPattern = pattern;
+        mHasSearchMatch = false;
+        removeCallbacks(mSearchIndexer);
+        if (pattern != null) {
+            post(mSearchIndexer);
+        } else if (mEmulator != null) {
+            // Free the text indexed for searching, which may be as large as the transcript.
+            synchronized (mEmulator) {
+                mEmulator.clearSearchIndex();
+            }
+        }
+        invalidate();
+    }
+
+    /**
+     * Find the next search match after the current one, or the previous one before it if backwards, wrapping around at
+     * the end of the screen and the start of the transcript, and scroll to show it. Without a current match, the search
+     * starts from the top of the rows shown, or from the bottom of the screen if backwards.
+     *
+     * @return if a match was found.
+     */
+    public boolean findSearchMatch(boolean backwards) {
+        if (mEmulator == null || mSearchPattern == null) return false;
+        boolean found;
+        synchronized (mEmulator) {
+            TerminalBuffer screen = mEmulator.getScreen();
+            int column, row;
+            if (mHasSearchMatch) {
+                column = backwards ? mSearchMatch[0] : mSearchMatch[2];
+                row = backwards ? mSearchMatch[1] : mSearchMatch[3];
+            } else {
+                column = 0;
+                row = backwards ? mEmulator.mRows : mTopRow;
+            }
+            found = screen.find(mSearchPattern, column, row, backwards, mSearchMatch)
+                || screen.find(mSearchPattern, 0, backwards ? mEmulator.mRows : -screen.getActiveTranscriptRows(), backwards, mSearchMatch);
+            mHasSearchMatch = found;
+            if (found && (mSearchMatch[1] < mTopRow || mSearchMatch[3] >= mTopRow + mEmulator.mRows)) {
+                // Show the match in the middle of the view.
+                mTopRow = Math.min(0, Math.max(-screen.getActiveTranscriptRows(), mSearchMatch[1] - mEmulator.mRows / 2));
+                awakenScrollBars();
+            }
+        }
+        invalidate();
+        return found;
+    }
+
     /** This must be called by the hosting activity in {@link Activity#onContextMenuClosed(Menu)}
      * when context menu for the {@link TerminalView} is started by
      * {@link TextSelectionCursorController#ACTION_MORE} is closed. */
@@ -567,6 +690,9 @@ public final class TerminalView extends View {
                 mMouseScrollStartY = y;
             }
         }
+        // Not done holding the emulator monitor, as writing to the session blocks while the queue to the process is
+        // full, which needs the parser thread to go on so that the process is not stuck writing its output. The mouse
+        // modes read are single fields, and the size is only changed on this thread.
         mEmulator.sendMouseEvent(button, x, y, pressed);
     }
 
@@ -582,7 +708,11 @@ public final class TerminalView extends View {
                 // e.g. less, which shifts to the alt screen without mouse handling.
                 handleKeyCode(up ? KeyEvent.KEYCODE_DPAD_UP : KeyEvent.KEYCODE_DPAD_DOWN, 0);
             } else {
-                mTopRow = Math.min(0, Math.max(-(mEmulator.getScreen().getActiveTranscriptRows()), mTopRow + (up ? -1 : 1)));
+                final int transcriptRows;
+                synchronized (mEmulator) {
+                    transcriptRows = mEmulator.getScreen().getActiveTranscriptRows();
+                }
+                mTopRow = Math.min(0, Math.max(-transcriptRows, mTopRow + (up ? -1 : 1)));
                 if (!awakenScrollBars()) invalidate();
             }
         }
@@ -622,6 +752,7 @@ public final class TerminalView extends View {
                     ClipData.Item clipItem = clipData.getItemAt(0);
                     if (clipItem != null) {
                         CharSequence text = clipItem.coerceToText(getContext());
+                        // Not done holding the emulator monitor, as writing a long paste blocks, see sendMouseEventCode().
                         if (!TextUtils.isEmpty(text)) mEmulator.paste(text.toString());
                     }
                 }
@@ -852,8 +983,11 @@ public final class TerminalView extends View {
         if (mTermSession == null) return;
 
         // Ensure cursor is shown when a key is pressed down like long hold on (arrow) keys
-        if (mEmulator != null)
-            mEmulator.setCursorBlinkState(true);
+        if (mEmulator != null) {
+            synchronized (mEmulator) {
+                mEmulator.setCursorBlinkState(true);
+            }
+        }
 
         final boolean controlDown = controlDownFromEvent || mClient.readControlKey();
         final boolean altDown = leftAltDownFromEvent || mClient.readAltKey();
@@ -911,14 +1045,22 @@ public final class TerminalView extends View {
     /** Input the specified keyCode if applicable and return if the input was consumed. */
     public boolean handleKeyCode(int keyCode, int keyMod) {
         // Ensure cursor is shown when a key is pressed down like long hold on (arrow) keys
-        if (mEmulator != null)
-            mEmulator.setCursorBlinkState(true);
+        if (mEmulator != null) {
+            synchronized (mEmulator) {
+                mEmulator.setCursorBlinkState(true);
+            }
+        }
 
         if (handleKeyCodeAction(keyCode, keyMod))
             return true;
 
         TerminalEmulator term = mTermSession.getEmulator();
-        String code = KeyHandler.getCode(keyCode, keyMod, term.isCursorKeysApplicationMode(), term.isKeypadApplicationMode());
+        final boolean cursorKeysApplicationMode, keypadApplicationMode;
+        synchronized (term) {
+            cursorKeysApplicationMode = term.isCursorKeysApplicationMode();
+            keypadApplicationMode = term.isKeypadApplicationMode();
+        }
+        String code = KeyHandler.getCode(keyCode, keyMod, cursorKeysApplicationMode, keypadApplicationMode);
         if (code == null) return false;
         mTermSession.write(code);
         return true;
@@ -1016,19 +1158,56 @@ public final class TerminalView extends View {
                 mTextSelectionCursorController.getSelectors(sel);
             }
 
-            mRenderer.render(mEmulator, canvas, mTopRow, sel[0], sel[1], sel[2], sel[3]);
+            synchronized (mEmulator) {
+                // Redraws while the program draws with synchronized output, e.g. for cursor blinks or scrolling, draw
+                // the previous frame again.
+                if (mScreenSnapshot.copyCompletedFrom(mEmulator, mTopRow, mTermSession.isSynchronizedOutputTimedOut()))
+                    mScreenSnapshot.findSearchMatches(mSearchPattern);
+            }
+            final int[] currentSearchMatch = mHasSearchMatch ? mSearchMatch : null;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && canvas.isHardwareAccelerated()) {
+                if (mRowNodes == null) mRowNodes = new TerminalRowNodes();
+                mRowNodes.draw(canvas, mRenderer, mScreenSnapshot, getWidth(), sel[0], sel[1], sel[2], sel[3], currentSearchMatch);
+            } else {
+                // The rows changed since the nodes were recorded are not known after another snapshot has been drawn.
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) mRowNodes = null;
+                mRenderer.render(mScreenSnapshot, canvas, sel[0], sel[1], sel[2], sel[3], currentSearchMatch);
+            }
 
             // render the text selection handles
             renderTextSelection();
         }
     }
 
+    /**
+     * Invalidate the cells of the cursor of an emulator, which are all that change when it blinks. Without hardware
+     * acceleration this limits drawing to them, while the row nodes only record the row of the cursor again anyway.
+     */
+    @SuppressWarnings("deprecation")
+    private void invalidateCursor(TerminalEmulator emulator) {
+        final int cursorRow, cursorCol;
+        synchronized (emulator) {
+            cursorRow = emulator.getCursorRow();
+            cursorCol = emulator.getCursorCol();
+        }
+        final int rowIndex = cursorRow - mTopRow;
+        // Nothing changes on screen while the cursor is scrolled out of view.
+        if (rowIndex < 0 || rowIndex >= emulator.mRows) return;
+
+        // The cursor covers two columns on wide characters, and is drawn over the cell background of its row.
+        final int top = mRenderer.getRowTop(rowIndex);
+        invalidate((int) (cursorCol * mRenderer.mFontWidth), top,
+            (int) Math.ceil((cursorCol + 2) * mRenderer.mFontWidth), top + mRenderer.mFontLineSpacing);
+    }
+
     public TerminalSession getCurrentSession() {
         return mTermSession;
     }
 
     private CharSequence getText() {
-        return mEmulator.getScreen().getSelectedText(0, mTopRow, mEmulator.mColumns, mTopRow + mEmulator.mRows);
+        synchronized (mEmulator) {
+            return mEmulator.getScreen().getSelectedText(0, mTopRow, mEmulator.mColumns, mTopRow + mEmulator.mRows);
+        }
     }
 
     public int getCursorX(float x) {
@@ -1269,14 +1448,18 @@ public final class TerminalView extends View {
 
         if (mEmulator == null) return;
 
-        mEmulator.setCursorBlinkingEnabled(false);
+        final boolean cursorEnabled;
+        synchronized (mEmulator) {
+            mEmulator.setCursorBlinkingEnabled(false);
+            cursorEnabled = mEmulator.isCursorEnabled();
+        }
 
         if (start) {
             // If cursor blinker is not enabled or is not valid
             if (mTerminalCursorBlinkerRate < TERMINAL_CURSOR_BLINK_RATE_MIN || mTerminalCursorBlinkerRate > TERMINAL_CURSOR_BLINK_RATE_MAX)
                 return;
             // If cursor blinder is to be started only if cursor is enabled
-            else if (startOnlyIfCursorEnabled && ! mEmulator.isCursorEnabled()) {
+            else if (startOnlyIfCursorEnabled && ! cursorEnabled) {
                 if (TERMINAL_VIEW_KEY_LOGGING_ENABLED)
                     mClient.logVerbose(LOG_TAG, "Ignoring call to start cursor blinker since cursor is not enabled");
                 return;
@@ -1288,7 +1471,9 @@ public final class TerminalView extends View {
             if (mTerminalCursorBlinkerHandler == null)
                 mTerminalCursorBlinkerHandler = new Handler(Looper.getMainLooper());
             mTerminalCursorBlinkerRunnable = new TerminalCursorBlinkerRunnable(mEmulator, mTerminalCursorBlinkerRate);
-            mEmulator.setCursorBlinkingEnabled(true);
+            synchronized (mEmulator) {
+                mEmulator.setCursorBlinkingEnabled(true);
+            }
             mTerminalCursorBlinkerRunnable.run();
         }
     }
@@ -1324,14 +1509,16 @@ public final class TerminalView extends View {
         public void run() {
             try {
                 if (mEmulator != null) {
-                    // Toggle the blink state and then invalidate() the view so
-                    // that onDraw() is called, which then calls TerminalRenderer.render()
-                    // which checks with TerminalEmulator.shouldCursorBeVisible() to decide whether
+                    // Toggle the blink state and then invalidate the cursor so
+                    // that onDraw() is called, which then draws the cursor row again,
+                    // checking with TerminalEmulator.shouldCursorBeVisible() to decide whether
                     // to draw the cursor or not
                     mCursorVisible = !mCursorVisible;
                     //mClient.logVerbose(LOG_TAG, "Toggling cursor blink state to " + mCursorVisible);
-                    mEmulator.setCursorBlinkState(mCursorVisible);
-                    invalidate();
+                    synchronized (mEmulator) {
+                        mEmulator.setCursorBlinkState(mCursorVisible);
+                    }
+                    invalidateCursor(mEmulator);
                 }
             } finally {
                 // Recall the Runnable after mBlinkRate milliseconds to toggle the blink state
@@ -0,0 +1,81 @@
+package com.termux.shared.data;
+
+import androidx.annotation.NonNull;
+
+/**
+ * An {@link Appendable} that only keeps the last {@link #mMaxLength} chars appended to it, like
+ * the output of {@link DataUtils#getTruncatedCommandOutput(String, int, boolean, boolean, boolean)}
+ * with `fromEnd` {@code false}, so that the end of a large text can be collected while it is
+ * being written without ever holding the whole text in memory.
+ */
+public class TextTailBuffer implements Appendable {
+
+    /** The last chars appended, as a ring buffer starting at {@link #mStart}. */
+    private final char[] mChars;
+    private final int mMaxLength;
+    private int mStart;
+    private int mLength;
+    /** The total number of chars appended. */
+    private long mTotalLength;
+
+    public TextTailBuffer(int maxLength) {
+        mMaxLength = maxLength;
+        mChars = new char[maxLength];
+    }
+
+    @Override
+    public TextTailBuffer append(CharSequence text) {
+        if (text == null) text = "null";
+        return append(text, 0, text.length());
+    }
+
+    @Override
+    public TextTailBuffer append(CharSequence text, int start, int end) {
+        if (text == null) text = "null";
+        mTotalLength += end - start;
+        // Only the last chars can be kept.
+        if (end - start > mMaxLength) start = end - mMaxLength;
+        for (int i = start; i < end; i++)
+            appendChar(text.charAt(i));
+        return this;
+    }
+
+    @Override
+    public TextTailBuffer append(char c) {
+        mTotalLength++;
+        appendChar(c);
+        return this;
+    }
+
+    private void appendChar(char c) {
+        if (mMaxLength == 0) return;
+        if (mLength < mMaxLength) {
+            mChars[(mStart + mLength++) % mMaxLength] = c;
+        } else {
+            mChars[mStart] = c;
+            mStart = (mStart + 1) % mMaxLength;
+        }
+    }
+
+    /** Get the total number of chars appended, including the ones no longer kept. */
+    public long getTotalLength() {
+        return mTotalLength;
+    }
+
+    /** Check if chars have been dropped from the start. */
+    public boolean isTruncated() {
+        return mTotalLength > mLength;
+    }
+
+    /** Get the chars kept. */
+    @NonNull
+    @Override
+    public String toString() {
+        int firstPartLength = Math.min(mLength, mMaxLength - mStart);
+        StringBuilder builder = new StringBuilder(mLength);
+        builder.append(mChars, mStart, firstPartLength);
+        builder.append(mChars, 0, mLength - firstPartLength);
+        return builder.toString();
+    }
+
+}
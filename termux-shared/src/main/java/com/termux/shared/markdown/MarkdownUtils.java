@@ -81,13 +81,28 @@ public class MarkdownUtils {
     }
 
     /**
-     * Get the max consecutive backticks "`" in a {@link String}.
+     * Append the markdown code block for a {@link CharSequence} to a {@link StringBuilder}, like
+     * {@link #getMarkdownCodeForString(String, boolean)} with `codeBlock` {@code true} does, but
+     * without copying a large text like a terminal transcript into another {@link String} first.
      *
-     * @param string The {@link String} to check.
+     * @param builder The {@link StringBuilder} to append to.
+     * @param text The {@link CharSequence} to convert.
+     */
+    public static void appendMarkdownCodeBlock(@NonNull StringBuilder builder, CharSequence text) {
+        if (text == null || text.length() == 0) return;
+
+        String backticksToUse = Strings.repeat(backtick, getMaxConsecutiveBackTicksCount(text) + 3);
+        builder.append(backticksToUse).append("\n").append(text).append("\n").append(backticksToUse);
+    }
+
+    /**
+     * Get the max consecutive backticks "`" in a {@link CharSequence}.
+     *
+     * @param string The {@link CharSequence} to check.
      * @return Returns the max consecutive backticks count.
      */
-    public static int getMaxConsecutiveBackTicksCount(String string) {
-        if (string == null || string.isEmpty()) return 0;
+    public static int getMaxConsecutiveBackTicksCount(CharSequence string) {
+        if (string == null || string.length() == 0) return 0;
 
         int maxCount = 0;
         int matchCount;
@@ -8,6 +8,7 @@ import com.termux.terminal.TerminalBuffer;
 import com.termux.terminal.TerminalEmulator;
 import com.termux.terminal.TerminalSession;
 
+import java.io.IOException;
 import java.lang.reflect.Field;
 
 import java.util.ArrayList;
@@ -50,27 +51,50 @@ public class ShellUtils {
 
     /** Get transcript for {@link TerminalSession}. */
     public static String getTerminalSessionTranscriptText(TerminalSession terminalSession, boolean linesJoined, boolean trim) {
-        if (terminalSession == null) return null;
+        StringBuilder transcriptTextBuilder = new StringBuilder();
+        try {
+            if (!writeTerminalSessionTranscriptText(terminalSession, linesJoined, transcriptTextBuilder))
+                return null;
+        } catch (IOException e) {
+            // A StringBuilder does not throw.
+            return null;
+        }
 
-        TerminalEmulator terminalEmulator = terminalSession.getEmulator();
-        if (terminalEmulator == null) return null;
+        String transcriptText = transcriptTextBuilder.toString();
 
-        TerminalBuffer terminalBuffer = terminalEmulator.getScreen();
-        if (terminalBuffer == null) return null;
+        if (trim)
+            transcriptText = transcriptText.trim();
 
-        String transcriptText;
+        return transcriptText;
+    }
 
-        if (linesJoined)
-            transcriptText = terminalBuffer.getTranscriptTextWithFullLinesJoined();
-        else
-            transcriptText = terminalBuffer.getTranscriptTextWithoutJoinedLines();
+    /**
+     * Write transcript for {@link TerminalSession} to an {@link Appendable} row by row, so that a
+     * large transcript is not held in memory as a whole, like when sharing only its end or writing
+     * it to a file. The text is trimmed like {@link #getTerminalSessionTranscriptText(TerminalSession, boolean, boolean)}
+     * with {@code trim} set.
+     *
+     * @return Returns {@code false} if the session has no transcript to write, otherwise {@code true}.
+     */
+    public static boolean writeTerminalSessionTranscriptText(TerminalSession terminalSession, boolean linesJoined,
+                                                             @NonNull Appendable out) throws IOException {
+        if (terminalSession == null) return false;
 
-        if (transcriptText == null) return null;
+        TerminalEmulator terminalEmulator = terminalSession.getEmulator();
+        if (terminalEmulator == null) return false;
 
-        if (trim)
-            transcriptText = transcriptText.trim();
+        // The emulator may be modified by the session parser thread.
+        synchronized (terminalEmulator) {
+            TerminalBuffer terminalBuffer = terminalEmulator.getScreen();
+            if (terminalBuffer == null) return false;
 
-        return transcriptText;
+            if (linesJoined)
+                terminalBuffer.writeTranscriptText(out, true, true);
+            else
+                terminalBuffer.writeTranscriptText(out, false, false);
+        }
+
+        return true;
     }
 
 }
@@ -18,7 +18,7 @@ import java.util.List;
 import java.util.Set;
 
 /*
- * Version: v0.18.0
+ * Version: v0.21.0
  * SPDX-License-Identifier: MIT
  *
  * Changelog
@@ -80,6 +80,15 @@ import java.util.Set;
  *
  * - 0.18.0 (2022-06-13)
  *      - Add `KEY_DISABLE_FILE_SHARE_RECEIVER` and `KEY_DISABLE_FILE_VIEW_RECEIVER`.
+ *
+ * - 0.19.0 (2026-10-16)
+ *      - Add `KEY_TERMINAL_PARSER_THREAD`.
+ *
+ * - 0.20.0 (2026-10-16)
+ *      - Add `KEY_TERMINAL_DISK_TRANSCRIPT_ROWS`.
+ *
+ * - 0.21.0 (2026-10-17)
+ *      - Add `KEY_TERMINAL_ADAPTIVE_INPUT_QUEUE`.
  */
 
 /**
@@ -142,6 +151,16 @@ public final class TermuxPropertyConstants {
 
 
 
+    /** Defines the key for whether terminal output is processed on a separate parser thread instead of the main thread */
+    public static final String KEY_TERMINAL_PARSER_THREAD =  "terminal-parser-thread"; // Default: "terminal-parser-thread"
+
+
+
+    /** Defines the key for whether the queue of terminal output is grown while output arrives faster than it is processed */
+    public static final String KEY_TERMINAL_ADAPTIVE_INPUT_QUEUE =  "terminal-adaptive-input-queue"; // Default: "terminal-adaptive-input-queue"
+
+
+
     /** Defines the key for whether to use black UI */
     @Deprecated
     public static final String KEY_USE_BLACK_UI =  "use-black-ui"; // Default: "use-black-ui"
@@ -255,6 +274,15 @@ public final class TermuxPropertyConstants {
 
 
 
+    /** Defines the key for the max number of terminal transcript rows stored on disk once they no longer fit in
+     * {@link #KEY_TERMINAL_TRANSCRIPT_ROWS}, where 0 disables storing them */
+    public static final String KEY_TERMINAL_DISK_TRANSCRIPT_ROWS =  "terminal-disk-transcript-rows"; // Default: "terminal-disk-transcript-rows"
+    public static final int IVALUE_TERMINAL_DISK_TRANSCRIPT_ROWS_MIN = 0;
+    public static final int IVALUE_TERMINAL_DISK_TRANSCRIPT_ROWS_MAX = 1000000;
+    public static final int DEFAULT_IVALUE_TERMINAL_DISK_TRANSCRIPT_ROWS = 0;
+
+
+
 
 
     /* float */
@@ -399,7 +427,9 @@ public final class TermuxPropertyConstants {
         KEY_EXTRA_KEYS_TEXT_ALL_CAPS,
         KEY_HIDE_SOFT_KEYBOARD_ON_STARTUP,
         KEY_RUN_TERMUX_AM_SOCKET_SERVER,
+        KEY_TERMINAL_ADAPTIVE_INPUT_QUEUE,
         KEY_TERMINAL_ONCLICK_URL_OPEN,
+        KEY_TERMINAL_PARSER_THREAD,
         KEY_USE_CTRL_SPACE_WORKAROUND,
         KEY_USE_FULLSCREEN,
         KEY_USE_FULLSCREEN_WORKAROUND,
@@ -410,6 +440,7 @@ public final class TermuxPropertyConstants {
         KEY_DELETE_TMPDIR_FILES_OLDER_THAN_X_DAYS_ON_EXIT,
         KEY_TERMINAL_CURSOR_BLINK_RATE,
         KEY_TERMINAL_CURSOR_STYLE,
+        KEY_TERMINAL_DISK_TRANSCRIPT_ROWS,
         KEY_TERMINAL_MARGIN_HORIZONTAL,
         KEY_TERMINAL_MARGIN_VERTICAL,
         KEY_TERMINAL_TRANSCRIPT_ROWS,
@@ -445,7 +476,9 @@ public final class TermuxPropertyConstants {
         KEY_DISABLE_TERMINAL_SESSION_CHANGE_TOAST,
         KEY_ENFORCE_CHAR_BASED_INPUT,
         KEY_HIDE_SOFT_KEYBOARD_ON_STARTUP,
+        KEY_TERMINAL_ADAPTIVE_INPUT_QUEUE,
         KEY_TERMINAL_ONCLICK_URL_OPEN,
+        KEY_TERMINAL_PARSER_THREAD,
         KEY_USE_CTRL_SPACE_WORKAROUND,
         KEY_USE_FULLSCREEN,
         KEY_USE_FULLSCREEN_WORKAROUND,
@@ -20,6 +20,7 @@ import com.termux.terminal.TerminalSession;
 import com.termux.terminal.TerminalSessionClient;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -193,7 +194,7 @@ public class TermuxSession {
         mExecutionCommand.resultData.exitCode = exitCode;
 
         if (this.mSetStdoutOnExit)
-            mExecutionCommand.resultData.stdout.append(ShellUtils.getTerminalSessionTranscriptText(mTerminalSession, true, false));
+            appendTranscriptToStdout();
 
         if (!mExecutionCommand.setState(ExecutionCommand.ExecutionState.EXECUTED))
             return;
@@ -201,6 +202,16 @@ public class TermuxSession {
         TermuxSession.processTermuxSessionResult(this, null);
     }
 
+    /** Append the transcript of {@link #mTerminalSession} to the stdout of {@link #mExecutionCommand},
+     * written into it directly instead of copying it through a {@link String}. */
+    private void appendTranscriptToStdout() {
+        try {
+            ShellUtils.writeTerminalSessionTranscriptText(mTerminalSession, true, mExecutionCommand.resultData.stdout);
+        } catch (IOException e) {
+            // A StringBuilder does not throw.
+        }
+    }
+
     /**
      * Kill this {@link TermuxSession} by sending a {@link OsConstants#SIGILL} to its {@link #mTerminalSession}
      * if its still executing.
@@ -223,7 +234,7 @@ public class TermuxSession {
 
                 // Get whatever output has been set till now in case its needed
                 if (this.mSetStdoutOnExit)
-                    mExecutionCommand.resultData.stdout.append(ShellUtils.getTerminalSessionTranscriptText(mTerminalSession, true, false));
+                    appendTranscriptToStdout();
 
                 TermuxSession.processTermuxSessionResult(this, null);
             }